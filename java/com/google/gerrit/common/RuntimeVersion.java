@@ -29,5 +29,10 @@ public final class RuntimeVersion {
     return FEATURE >= 18;
   }
 
+  /** Returns true if the current runtime is JDK 21 or newer. */
+  public static boolean isAtLeast21() {
+    return FEATURE >= 21;
+  }
+
   private RuntimeVersion() {}
 }
@@ -102,6 +102,7 @@ import com.google.gerrit.server.RequestInfo;
 import com.google.gerrit.server.RequestListener;
 import com.google.gerrit.server.audit.ExtendedHttpAuditEvent;
 import com.google.gerrit.server.cache.PerThreadCache;
+import com.google.gerrit.server.cache.request.RequestCache;
 import com.google.gerrit.server.cancellation.RequestCancelledException;
 import com.google.gerrit.server.cancellation.RequestStateContext;
 import com.google.gerrit.server.cancellation.RequestStateProvider;
@@ -117,6 +118,7 @@ import com.google.gerrit.server.permissions.GlobalPermission;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.PermissionBackendException;
 import com.google.gerrit.server.plugincontext.PluginSetContext;
+import com.google.gerrit.server.quota.AdmissionController;
 import com.google.gerrit.server.quota.QuotaException;
 import com.google.gerrit.server.restapi.change.ChangesCollection;
 import com.google.gerrit.server.restapi.project.ProjectsCollection;
@@ -245,6 +247,7 @@ public class RestApiServlet extends HttpServlet {
     final DeadlineChecker.Factory deadlineCheckerFactory;
     final CancellationMetrics cancellationMetrics;
     final AclInfoController aclInfoController;
+    final AdmissionController admissionController;
 
     @Inject
     Globals(
@@ -265,7 +268,8 @@ public class RestApiServlet extends HttpServlet {
         DynamicMap<DynamicOptions.DynamicBean> dynamicBeans,
         DeadlineChecker.Factory deadlineCheckerFactory,
         CancellationMetrics cancellationMetrics,
-        AclInfoController aclInfoController) {
+        AclInfoController aclInfoController,
+        AdmissionController admissionController) {
       this.currentUser = currentUser;
       this.webSession = webSession;
       this.paramParser = paramParser;
@@ -285,6 +289,7 @@ public class RestApiServlet extends HttpServlet {
       this.deadlineCheckerFactory = deadlineCheckerFactory;
       this.cancellationMetrics = cancellationMetrics;
       this.aclInfoController = aclInfoController;
+      this.admissionController = admissionController;
     }
   }
 
@@ -323,11 +328,13 @@ public class RestApiServlet extends HttpServlet {
     Object inputRequestBody = null;
     RestResource rsrc = TopLevelResource.INSTANCE;
     ViewData viewData = null;
+    AdmissionController.Permit permit = AdmissionController.Permit.NONE;
 
     try (TraceContext traceContext = enableTracing(req, res)) {
       String requestUri = requestUri(req);
 
-      try (PerThreadCache ignored = PerThreadCache.create()) {
+      try (PerThreadCache ignored = PerThreadCache.create();
+          RequestCache requestCache = RequestCache.open()) {
         List<IdString> path = splitPath(req);
         RequestInfo requestInfo = createRequestInfo(traceContext, req, requestUri, path);
         globals.requestListeners.runEach(l -> l.onRequest(requestInfo));
@@ -358,6 +365,9 @@ public class RestApiServlet extends HttpServlet {
             req = applyXdOverrides(req, qp);
           }
           checkUserSession(req);
+          permit =
+              globals.admissionController.admit(
+                  AdmissionController.EndpointClass.REST, globals.currentUser.get());
 
           RestCollection<RestResource, RestResource> rc = members.get();
           globals
@@ -750,6 +760,7 @@ public class RestApiServlet extends HttpServlet {
           }
         }
       } finally {
+        permit.close();
         String metric = getViewName(viewData);
         String formattedCause = cause.map(globals.retryHelper::formatCause).orElse("_none");
         globals.metrics.count.increment(metric);
@@ -20,5 +20,6 @@ public enum ReservoirType {
   SlidingTimeWindowArray,
   SlidingTimeWindow,
   SlidingWindow,
-  Uniform;
+  Uniform,
+  LogLinear;
 }
@@ -32,6 +32,7 @@ abstract class BucketedCounter implements BucketedMetric {
   protected final Field<?>[] fields;
   protected final CounterImpl total;
   private final Map<Object, CounterImpl> cells;
+  private final CellIndex<CounterImpl> index = new CellIndex<>();
   private final Object lock = new Object();
 
   BucketedCounter(
@@ -54,11 +55,21 @@ abstract class BucketedCounter implements BucketedMetric {
   }
 
   CounterImpl forceCreate(Object f1, Object f2) {
-    return forceCreate(ImmutableList.of(f1, f2));
+    CounterImpl c = index.get(f1, f2);
+    if (c == null) {
+      c = forceCreate(ImmutableList.of(f1, f2));
+      index.put(f1, f2, c);
+    }
+    return c;
   }
 
   CounterImpl forceCreate(Object f1, Object f2, Object f3) {
-    return forceCreate(ImmutableList.of(f1, f2, f3));
+    CounterImpl c = index.get(f1, f2, f3);
+    if (c == null) {
+      c = forceCreate(ImmutableList.of(f1, f2, f3));
+      index.put(f1, f2, f3, c);
+    }
+    return c;
   }
 
   CounterImpl forceCreate(Object key) {
@@ -0,0 +1,63 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.metrics.dropwizard;
+
+import com.google.gerrit.common.Nullable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the cells of a metric with two or three fields by nested maps.
+ *
+ * <p>The cells of a {@link BucketedMetric} are keyed by the list of their field values. Looking up
+ * a cell by such a key requires to allocate and hash the list on every update of the metric. The
+ * index finds a cell that was created before by looking up one field value after the other, which
+ * neither allocates nor locks.
+ */
+class CellIndex<V> {
+  private final ConcurrentHashMap<Object, ConcurrentHashMap<Object, Object>> cells =
+      new ConcurrentHashMap<>();
+
+  @Nullable
+  @SuppressWarnings("unchecked")
+  V get(Object f1, Object f2) {
+    ConcurrentHashMap<Object, Object> byF2 = cells.get(f1);
+    return byF2 != null ? (V) byF2.get(f2) : null;
+  }
+
+  @Nullable
+  @SuppressWarnings("unchecked")
+  V get(Object f1, Object f2, Object f3) {
+    ConcurrentHashMap<Object, Object> byF2 = cells.get(f1);
+    if (byF2 == null) {
+      return null;
+    }
+    ConcurrentHashMap<Object, V> byF3 = (ConcurrentHashMap<Object, V>) byF2.get(f2);
+    return byF3 != null ? byF3.get(f3) : null;
+  }
+
+  void put(Object f1, Object f2, V cell) {
+    cells.computeIfAbsent(f1, k -> new ConcurrentHashMap<>()).put(f2, cell);
+  }
+
+  @SuppressWarnings("unchecked")
+  void put(Object f1, Object f2, Object f3, V cell) {
+    ConcurrentHashMap<Object, V> byF3 =
+        (ConcurrentHashMap<Object, V>)
+            cells
+                .computeIfAbsent(f1, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(f2, k -> new ConcurrentHashMap<>());
+    byF3.put(f3, cell);
+  }
+}
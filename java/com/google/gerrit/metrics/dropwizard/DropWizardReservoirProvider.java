@@ -43,6 +43,8 @@ class DropWizardReservoirProvider {
         return new SlidingWindowReservoir(config.reservoirSize());
       case Uniform:
         return new UniformReservoir(config.reservoirSize());
+      case LogLinear:
+        return new LogLinearReservoir(config.reservoirWindow().toMillis(), TimeUnit.MILLISECONDS);
 
       default:
         throw new IllegalArgumentException(
@@ -0,0 +1,286 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.metrics.dropwizard;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.google.common.annotations.VisibleForTesting;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free reservoir that counts measurements in log-linear buckets, in the manner of
+ * HdrHistogram.
+ *
+ * <p>Values below {@value #SUB_BUCKETS} have their own bucket. Above that every power of two is
+ * split into {@value #SUB_BUCKETS} buckets of equal width, which bounds the relative error of the
+ * reported percentiles by 1/{@value #SUB_BUCKETS}. Recording a value increments a single counter
+ * and doesn't block, unlike the sampling reservoirs which lock or allocate on every update.
+ *
+ * <p>The snapshot covers the measurements made in the current and in the previous window, i.e. the
+ * measurements of the last one to two windows.
+ */
+class LogLinearReservoir implements Reservoir {
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final long windowNanos;
+  private final Clock clock;
+  private final AtomicLong windowStart;
+  private volatile Windows windows;
+
+  LogLinearReservoir(long window, TimeUnit unit) {
+    this(window, unit, Clock.defaultClock());
+  }
+
+  @VisibleForTesting
+  LogLinearReservoir(long window, TimeUnit unit, Clock clock) {
+    this.windowNanos = unit.toNanos(window);
+    this.clock = clock;
+    this.windowStart = new AtomicLong(clock.getTick());
+    this.windows = new Windows(new Counts(), new Counts());
+  }
+
+  @Override
+  public int size() {
+    return getSnapshot().size();
+  }
+
+  @Override
+  public void update(long value) {
+    rotateIfNeeded();
+    windows.current.add(bucket(value));
+  }
+
+  @Override
+  public Snapshot getSnapshot() {
+    rotateIfNeeded();
+    Windows w = windows;
+    long[] counts = new long[BUCKETS];
+    w.previous.addTo(counts);
+    w.current.addTo(counts);
+    return new BucketSnapshot(counts);
+  }
+
+  private void rotateIfNeeded() {
+    long start = windowStart.get();
+    long now = clock.getTick();
+    long elapsed = now - start;
+    if (elapsed < windowNanos || !windowStart.compareAndSet(start, now)) {
+      return;
+    }
+    // Only the thread that moved the window start rotates. Measurements that race with the
+    // rotation may end up in either window, which doesn't matter for the percentiles.
+    Windows w = windows;
+    Counts next = w.previous;
+    next.clear();
+    if (elapsed >= 2 * windowNanos) {
+      w.current.clear();
+    }
+    windows = new Windows(next, w.current);
+  }
+
+  @VisibleForTesting
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return value < 0 ? 0 : (int) value;
+    }
+    int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+    return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+  }
+
+  @VisibleForTesting
+  static long lowestValue(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+    int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+    return (long) (SUB_BUCKETS + subBucket) << shift;
+  }
+
+  @VisibleForTesting
+  static long highestValue(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+    return lowestValue(bucket) + ((1L << shift) - 1);
+  }
+
+  /** Value reported for the measurements in a bucket, the middle of the bucket's range. */
+  private static long value(int bucket) {
+    long low = lowestValue(bucket);
+    return low + (highestValue(bucket) - low) / 2;
+  }
+
+  private static class Windows {
+    final Counts current;
+    final Counts previous;
+
+    Windows(Counts current, Counts previous) {
+      this.current = current;
+      this.previous = previous;
+    }
+  }
+
+  private static class Counts {
+    final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    void add(int bucket) {
+      buckets.incrementAndGet(bucket);
+    }
+
+    void addTo(long[] counts) {
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] += buckets.get(i);
+      }
+    }
+
+    void clear() {
+      for (int i = 0; i < BUCKETS; i++) {
+        buckets.set(i, 0);
+      }
+    }
+  }
+
+  private static class BucketSnapshot extends Snapshot {
+    private final long[] counts;
+    private final long size;
+    private final int first;
+    private final int last;
+
+    BucketSnapshot(long[] counts) {
+      this.counts = counts;
+      long n = 0;
+      int f = -1;
+      int l = -1;
+      for (int i = 0; i < counts.length; i++) {
+        if (counts[i] > 0) {
+          n += counts[i];
+          if (f < 0) {
+            f = i;
+          }
+          l = i;
+        }
+      }
+      this.size = n;
+      this.first = f;
+      this.last = l;
+    }
+
+    @Override
+    public double getValue(double quantile) {
+      if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+        throw new IllegalArgumentException(quantile + " is not in [0..1]");
+      }
+      if (size == 0) {
+        return 0.0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(quantile * size));
+      long seen = 0;
+      for (int i = first; i <= last; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return value(i);
+        }
+      }
+      return value(last);
+    }
+
+    /**
+     * Returns the value of each bucket that has measurements, in ascending order.
+     *
+     * <p>Unlike for the sampling reservoirs, a value isn't repeated for every measurement in its
+     * bucket, hence the result has at most one entry per bucket and may be shorter than {@link
+     * #size()}. Otherwise polling the snapshot would allocate an array with one entry per
+     * measurement of the last one to two windows.
+     */
+    @Override
+    public long[] getValues() {
+      if (size == 0) {
+        return new long[0];
+      }
+      long[] values = new long[last - first + 1];
+      int n = 0;
+      for (int i = first; i <= last; i++) {
+        if (counts[i] > 0) {
+          values[n++] = value(i);
+        }
+      }
+      return Arrays.copyOf(values, n);
+    }
+
+    @Override
+    public int size() {
+      return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getMax() {
+      return size == 0 ? 0 : value(last);
+    }
+
+    @Override
+    public double getMean() {
+      if (size == 0) {
+        return 0.0;
+      }
+      double sum = 0;
+      for (int i = first; i <= last; i++) {
+        sum += (double) counts[i] * value(i);
+      }
+      return sum / size;
+    }
+
+    @Override
+    public long getMin() {
+      return size == 0 ? 0 : value(first);
+    }
+
+    @Override
+    public double getStdDev() {
+      if (size <= 1) {
+        return 0.0;
+      }
+      double mean = getMean();
+      double variance = 0;
+      for (int i = first; i <= last; i++) {
+        double diff = value(i) - mean;
+        variance += counts[i] * diff * diff;
+      }
+      return Math.sqrt(variance / (size - 1));
+    }
+
+    @Override
+    public void dump(OutputStream output) {
+      try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, UTF_8))) {
+        for (long value : getValues()) {
+          out.printf("%d%n", value);
+        }
+      }
+    }
+  }
+}
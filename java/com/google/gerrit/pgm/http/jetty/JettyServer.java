@@ -27,6 +27,7 @@ import com.google.gerrit.pgm.http.jetty.HttpLog.HttpLogFactory;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.config.ThreadSettingsConfig;
+import com.google.gerrit.server.util.VirtualThreads;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.Singleton;
@@ -44,6 +45,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.DispatcherType;
@@ -472,16 +474,29 @@ public class JettyServer {
     int maxQueued = cfg.getInt("httpd", null, "maxqueued", 200);
     int idleTimeout = (int) MILLISECONDS.convert(60, SECONDS);
     int maxCapacity = maxQueued == 0 ? Integer.MAX_VALUE : Math.max(minThreads, maxQueued);
-    QueuedThreadPool pool =
-        new QueuedThreadPool(
-            maxThreads,
-            minThreads,
-            idleTimeout,
-            new BlockingArrayQueue<>(
-                minThreads, // capacity,
-                minThreads, // growBy,
-                maxCapacity // maxCapacity
-                ));
+    BlockingArrayQueue<Runnable> queue =
+        new BlockingArrayQueue<>(
+            minThreads, // capacity,
+            minThreads, // growBy,
+            maxCapacity // maxCapacity
+            );
+    QueuedThreadPool pool;
+    if (cfg.getBoolean("httpd", "virtualThreads", false) && VirtualThreads.isSupported()) {
+      // maxThreads still bounds the number of concurrent requests, but as virtual threads are cheap
+      // the limit can be much higher than for platform threads.
+      ThreadFactory virtualThreadFactory = VirtualThreads.newThreadFactory();
+      pool =
+          new QueuedThreadPool(maxThreads, minThreads, idleTimeout, queue) {
+            @Override
+            public Thread newThread(Runnable runnable) {
+              return virtualThreadFactory.newThread(runnable);
+            }
+          };
+      // Virtual threads are always daemon threads.
+      pool.setDaemon(true);
+    } else {
+      pool = new QueuedThreadPool(maxThreads, minThreads, idleTimeout, queue);
+    }
     pool.setName("HTTP");
     return pool;
   }
@@ -24,6 +24,8 @@ import com.google.gerrit.server.account.AccountLimits;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.QueueProvider;
 import com.google.gerrit.server.git.WorkQueue.CancelableRunnable;
+import com.google.gerrit.server.quota.AdmissionController;
+import com.google.gerrit.server.quota.QuotaException;
 import com.google.gerrit.sshd.CommandExecutorQueueProvider;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
@@ -62,6 +64,10 @@ import org.eclipse.jgit.lib.Config;
  * from the SSH execution queue. Trying to complete the request on the SSH execution queue caused
  * Jetty's HTTP parser to crash, so we instead block the SSH execution queue thread and ask Jetty to
  * resume processing on the web service thread.
+ *
+ * <p>Requests that are shed by the {@link AdmissionController} are rejected before they are
+ * queued. The permit of an admitted request is held while the request waits in the queue, so that
+ * a growing queue shows up in the latency that the admission control adapts to.
  */
 @Singleton
 public class ProjectQoSFilter implements Filter {
@@ -133,6 +139,7 @@ public class ProjectQoSFilter implements Filter {
   }
 
   private final AccountLimits.Factory limitsFactory;
+  private final AdmissionController admissionController;
   private final Provider<CurrentUser> user;
   private final QueueProvider queue;
   private final ServletContext context;
@@ -141,11 +148,13 @@ public class ProjectQoSFilter implements Filter {
   @Inject
   ProjectQoSFilter(
       AccountLimits.Factory limitsFactory,
+      AdmissionController admissionController,
       Provider<CurrentUser> user,
       QueueProvider queue,
       ServletContext context,
       @GerritServerConfig Config cfg) {
     this.limitsFactory = limitsFactory;
+    this.admissionController = admissionController;
     this.user = user;
     this.queue = queue;
     this.context = context;
@@ -162,8 +171,16 @@ public class ProjectQoSFilter implements Filter {
 
     switch (RequestState.get(request)) {
       case INITIAL:
+        AdmissionController.Permit permit;
+        try {
+          permit =
+              admissionController.admit(AdmissionController.EndpointClass.GIT_HTTP, user.get());
+        } catch (QuotaException e) {
+          rsp.sendError(SC_SERVICE_UNAVAILABLE, e.getMessage());
+          break;
+        }
         AsyncContext asyncContext = suspend(request);
-        task = new TaskThunk(asyncContext, req);
+        task = new TaskThunk(asyncContext, req, permit);
         if (maxWait > 0) {
           asyncContext.setTimeout(maxWait);
         }
@@ -245,13 +262,16 @@ public class ProjectQoSFilter implements Filter {
   protected class TaskThunk implements CancelableRunnable {
     private final AsyncContext asyncContext;
     private final String name;
+    private final AdmissionController.Permit permit;
     private final Object lock = new Object();
     private boolean done;
     private Thread worker;
 
-    TaskThunk(AsyncContext asyncContext, HttpServletRequest req) {
+    TaskThunk(
+        AsyncContext asyncContext, HttpServletRequest req, AdmissionController.Permit permit) {
       this.asyncContext = asyncContext;
       this.name = generateName(req);
+      this.permit = permit;
     }
 
     @Override
@@ -285,6 +305,7 @@ public class ProjectQoSFilter implements Filter {
         done = true;
         lock.notifyAll();
       }
+      permit.close();
     }
 
     @Override
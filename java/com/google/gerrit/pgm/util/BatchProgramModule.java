@@ -77,10 +77,12 @@ import com.google.gerrit.server.patch.DiffOperationsForCommitValidation;
 import com.google.gerrit.server.patch.DiffOperationsImpl;
 import com.google.gerrit.server.patch.PatchListCacheImpl;
 import com.google.gerrit.server.permissions.DefaultPermissionBackendModule;
+import com.google.gerrit.server.permissions.PermissionCollection;
 import com.google.gerrit.server.permissions.SectionSortCache;
 import com.google.gerrit.server.plugins.PluginModule;
 import com.google.gerrit.server.project.CommentLinkProvider;
 import com.google.gerrit.server.project.CommitResource;
+import com.google.gerrit.server.project.CompiledSectionMatcher;
 import com.google.gerrit.server.project.ProjectCacheImpl;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.project.SubmitRequirementsEvaluatorImpl;
@@ -189,6 +191,8 @@ public class BatchProgramModule extends FactoryModule {
     modules.add(GroupCacheImpl.module());
     modules.add(GroupIncludeCacheImpl.module());
     modules.add(ProjectCacheImpl.module());
+    modules.add(PermissionCollection.module());
+    modules.add(CompiledSectionMatcher.module());
     modules.add(SectionSortCache.module());
     modules.add(ChangeKindCacheImpl.module());
     modules.add(MergeabilityCacheImpl.module());
@@ -0,0 +1,239 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Counter2;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.gerrit.server.logging.SamplingPerformanceLogger;
+import com.google.gerrit.server.logging.TraceContext;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Aggregates the performance log records of a sample of the requests into a latency breakdown per
+ * request and operation, e.g. how much time a REST endpoint spends on cache loads, index queries
+ * and NoteDb reads.
+ *
+ * <p>Requests are identified by the redacted request that is set as logging tag by {@link
+ * TraceRequestListener}, operations by the names of the trace timers and timer metrics. The number
+ * of distinct requests and of distinct operations per request is limited, further requests and
+ * operations are counted as {@value #OTHER}.
+ */
+@Singleton
+public class RequestProfiler implements SamplingPerformanceLogger {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  public static final String OTHER = "_other";
+
+  private static final double DEFAULT_SAMPLE_RATE = 0.01;
+  private static final int DEFAULT_MAX_REQUESTS = 100;
+  private static final int DEFAULT_MAX_OPERATIONS = 50;
+
+  private final double sampleRate;
+  private final int maxRequests;
+  private final int maxOperations;
+  private final Counter1<String> sampledRequests;
+  private final Counter2<String, String> operationTime;
+  private final ConcurrentHashMap<String, RequestProfile> profiles = new ConcurrentHashMap<>();
+
+  @Inject
+  RequestProfiler(@GerritServerConfig Config cfg, MetricMaker metricMaker) {
+    this.sampleRate = getSampleRate(cfg);
+    this.maxRequests = cfg.getInt("tracing", "profilingMaxRequests", DEFAULT_MAX_REQUESTS);
+    this.maxOperations = cfg.getInt("tracing", "profilingMaxOperations", DEFAULT_MAX_OPERATIONS);
+
+    Field<String> requestField =
+        Field.ofString("request", (metadataBuilder, fieldValue) -> {})
+            .description("The sampled request (format = '<request-type> <redacted-request-uri>').")
+            .build();
+    Field<String> operationNameField =
+        Field.ofString(
+                "operation_name",
+                (metadataBuilder, fieldValue) -> metadataBuilder.operationName(fieldValue))
+            .description("The operation that was performed.")
+            .build();
+    this.sampledRequests =
+        metricMaker.newCounter(
+            "performance/profile/requests",
+            new Description("Number of requests that were sampled for profiling")
+                .setRate()
+                .setUnit("requests"),
+            requestField);
+    this.operationTime =
+        metricMaker.newCounter(
+            "performance/profile/operation_time",
+            new Description("Total time spent on an operation by the sampled requests")
+                .setCumulative()
+                .setUnit(Description.Units.MICROSECONDS),
+            requestField,
+            operationNameField);
+  }
+
+  private static double getSampleRate(Config cfg) {
+    String value = cfg.getString("tracing", null, "profilingSampleRate");
+    if (value == null) {
+      return DEFAULT_SAMPLE_RATE;
+    }
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      logger.atWarning().log(
+          "Invalid tracing.profilingSampleRate %s, using %s", value, DEFAULT_SAMPLE_RATE);
+      return DEFAULT_SAMPLE_RATE;
+    }
+  }
+
+  @Override
+  public boolean sample() {
+    return sampleRate > 0
+        && (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate);
+  }
+
+  @Override
+  public void logNanos(String operation, long durationNanos, Instant endTime) {
+    logNanos(operation, durationNanos, endTime, /* metadata= */ null);
+  }
+
+  @Override
+  public void logNanos(
+      String operation, long durationNanos, Instant endTime, @Nullable Metadata metadata) {
+    RequestProfile profile = profile();
+    String op = profile.operationKey(operation);
+    profile.operation(op).add(durationNanos);
+    operationTime.incrementBy(profile.request, op, TimeUnit.NANOSECONDS.toMicros(durationNanos));
+  }
+
+  @Override
+  public void done() {
+    RequestProfile profile = profile();
+    profile.requests.increment();
+    sampledRequests.increment(profile.request);
+  }
+
+  /** Returns the latency breakdown of the sampled requests, sorted by request. */
+  public ImmutableSortedMap<String, RequestStats> getProfile() {
+    ImmutableSortedMap.Builder<String, RequestStats> result = ImmutableSortedMap.naturalOrder();
+    profiles.forEach((request, profile) -> result.put(request, profile.stats()));
+    return result.build();
+  }
+
+  /** Discards the latency breakdown of the requests that were sampled so far. */
+  public void reset() {
+    profiles.clear();
+  }
+
+  private RequestProfile profile() {
+    String request = TraceContext.getTag(TraceRequestListener.TAG_REQUEST).orElse(OTHER);
+    RequestProfile profile = profiles.get(request);
+    if (profile != null) {
+      return profile;
+    }
+    if (profiles.size() >= maxRequests) {
+      request = OTHER;
+    }
+    return profiles.computeIfAbsent(request, RequestProfile::new);
+  }
+
+  private class RequestProfile {
+    final String request;
+    final LongAdder requests = new LongAdder();
+    final ConcurrentHashMap<String, OperationProfile> operations = new ConcurrentHashMap<>();
+
+    RequestProfile(String request) {
+      this.request = request;
+    }
+
+    String operationKey(String operation) {
+      if (operations.containsKey(operation) || operations.size() < maxOperations) {
+        return operation;
+      }
+      return OTHER;
+    }
+
+    OperationProfile operation(String operation) {
+      return operations.computeIfAbsent(operation, o -> new OperationProfile());
+    }
+
+    RequestStats stats() {
+      ImmutableMap.Builder<String, OperationStats> ops = ImmutableMap.builder();
+      operations.forEach((name, op) -> ops.put(name, op.stats()));
+      return RequestStats.create(requests.sum(), ops.buildOrThrow());
+    }
+  }
+
+  private static class OperationProfile {
+    final LongAdder count = new LongAdder();
+    final LongAdder totalNanos = new LongAdder();
+    final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    void add(long durationNanos) {
+      count.increment();
+      totalNanos.add(durationNanos);
+      maxNanos.accumulate(durationNanos);
+    }
+
+    OperationStats stats() {
+      return OperationStats.create(count.sum(), totalNanos.sum(), maxNanos.get());
+    }
+  }
+
+  /** Latency breakdown of a request. */
+  @AutoValue
+  public abstract static class RequestStats {
+    /** Number of sampled requests. */
+    public abstract long requests();
+
+    /** Statistics by operation name. */
+    public abstract ImmutableMap<String, OperationStats> operations();
+
+    static RequestStats create(long requests, ImmutableMap<String, OperationStats> operations) {
+      return new AutoValue_RequestProfiler_RequestStats(requests, operations);
+    }
+  }
+
+  /** Statistics of an operation that was performed by the sampled requests. */
+  @AutoValue
+  public abstract static class OperationStats {
+    /** Number of times the operation was performed. */
+    public abstract long count();
+
+    /** Total time the operation took, in nanoseconds. */
+    public abstract long totalNanos();
+
+    /** Longest time a single execution of the operation took, in nanoseconds. */
+    public abstract long maxNanos();
+
+    static OperationStats create(long count, long totalNanos, long maxNanos) {
+      return new AutoValue_RequestProfiler_OperationStats(count, totalNanos, maxNanos);
+    }
+  }
+}
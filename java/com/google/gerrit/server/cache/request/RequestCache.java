@@ -0,0 +1,233 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.request;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Objects.requireNonNull;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.flogger.FluentLogger;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.google.gerrit.common.Nullable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Memoizes values for the duration of a request, across all threads that serve the request.
+ *
+ * <p>The cache is opened by the thread that starts serving a request. It is propagated to the
+ * threads to which the request fans out by {@code LoggingContextAwareRunnable}, {@code
+ * LoggingContextAwareCallable} and {@code RequestScopePropagator}. Unlike {@code PerThreadCache}
+ * the cache is shared between these threads, hence it must only hold thread-safe values.
+ *
+ * <p>Values are grouped by {@link Key}s, each of which limits the number of values that are cached
+ * per request. Once the limit is reached further values are computed on every lookup. When the
+ * cache is closed the hits and misses of each key are logged, which makes them show up in traces.
+ *
+ * <p>Tasks that are created while serving a request may outlive it, e.g. background or periodic
+ * tasks that are scheduled by the request. Once the request is done and the cache is closed, these
+ * tasks compute all values, so that they don't keep working with values of the finished request.
+ *
+ * <p>Callers that update a value must {@link #invalidate(Key, Object)} it, so that later lookups
+ * in the same request don't see the old value.
+ */
+public class RequestCache implements AutoCloseable {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final ThreadLocal<RequestCache> CURRENT = new ThreadLocal<>();
+
+  /**
+   * Kind of the values in the cache, e.g. project states by project name.
+   *
+   * <p>Keys are compared by identity, hence they should be held in constants.
+   *
+   * @param <K> type of the identifiers of the values
+   * @param <V> type of the values
+   */
+  public static final class Key<K, V> {
+    private final String name;
+    private final int maxEntries;
+
+    /**
+     * Creates a key.
+     *
+     * @param name name of the key for the statistics in the trace
+     * @param maxEntries maximum number of values of this key that are cached per request
+     */
+    public static <K, V> Key<K, V> create(String name, int maxEntries) {
+      checkArgument(maxEntries > 0, "maxEntries must be positive: %s", maxEntries);
+      return new Key<>(name, maxEntries);
+    }
+
+    private Key(String name, int maxEntries) {
+      this.name = requireNonNull(name);
+      this.maxEntries = maxEntries;
+    }
+
+    public String name() {
+      return name;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /** Opens a cache for the request that the current thread starts serving. */
+  public static RequestCache open() {
+    checkState(CURRENT.get() == null, "called open() twice on the same request");
+    RequestCache cache = new RequestCache();
+    CURRENT.set(cache);
+    return cache;
+  }
+
+  /** Returns the cache of the request that the current thread serves, if any. */
+  @Nullable
+  public static RequestCache current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Makes the given cache the cache of the current thread, so that the thread can serve the
+   * request that opened the cache.
+   *
+   * @param cache the cache to attach, or {@code null} to detach the current cache
+   * @return the cache that was attached before, to be restored when the thread is done
+   */
+  @Nullable
+  @CanIgnoreReturnValue
+  public static RequestCache attach(@Nullable RequestCache cache) {
+    RequestCache old = CURRENT.get();
+    if (cache != null && !cache.closed) {
+      CURRENT.set(cache);
+    } else {
+      CURRENT.remove();
+    }
+    return old;
+  }
+
+  /**
+   * Returns the value with the given identifier from the cache of the current request, or computes
+   * it if it's not cached. Without a current request the value is always computed.
+   */
+  public static <K, V> V getOrCompute(Key<K, V> key, K id, Supplier<V> loader) {
+    RequestCache cache = current();
+    return cache != null ? cache.get(key, id, loader) : loader.get();
+  }
+
+  /** Removes the value with the given identifier from the cache of the current request. */
+  public static <K> void invalidate(Key<K, ?> key, K id) {
+    RequestCache cache = current();
+    if (cache != null) {
+      cache.remove(key, id);
+    }
+  }
+
+  /** Removes all values of the given key from the cache of the current request. */
+  public static void invalidateAll(Key<?, ?> key) {
+    RequestCache cache = current();
+    if (cache != null) {
+      cache.removeAll(key);
+    }
+  }
+
+  private final ConcurrentHashMap<Key<?, ?>, Entries> entries = new ConcurrentHashMap<>();
+
+  private volatile boolean closed;
+
+  private RequestCache() {}
+
+  /**
+   * Returns the value with the given identifier from this cache, or computes it if it's not cached.
+   *
+   * <p>The value is computed without holding a lock, so that loaders may look up other values. If
+   * several threads compute the same value concurrently, the value of the first one is cached.
+   * Once the cache is closed values are always computed.
+   */
+  public <K, V> V get(Key<K, V> key, K id, Supplier<V> loader) {
+    if (closed) {
+      return loader.get();
+    }
+    Entries e = entries.computeIfAbsent(key, k -> new Entries());
+    @SuppressWarnings("unchecked")
+    V value = (V) e.values.get(id);
+    if (value != null) {
+      e.hits.increment();
+      return value;
+    }
+    e.misses.increment();
+    value = loader.get();
+    if (value != null && !closed && e.values.size() < key.maxEntries) {
+      e.values.putIfAbsent(id, value);
+    }
+    return value;
+  }
+
+  private void remove(Key<?, ?> key, Object id) {
+    Entries e = entries.get(key);
+    if (e != null) {
+      e.values.remove(id);
+    }
+  }
+
+  private void removeAll(Key<?, ?> key) {
+    Entries e = entries.get(key);
+    if (e != null) {
+      e.values.clear();
+    }
+  }
+
+  @VisibleForTesting
+  long hits(Key<?, ?> key) {
+    Entries e = entries.get(key);
+    return e != null ? e.hits.sum() : 0;
+  }
+
+  @VisibleForTesting
+  long misses(Key<?, ?> key) {
+    Entries e = entries.get(key);
+    return e != null ? e.misses.sum() : 0;
+  }
+
+  @VisibleForTesting
+  boolean isClosed() {
+    return closed;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    if (CURRENT.get() == this) {
+      CURRENT.remove();
+    }
+    entries.forEach(
+        (key, e) -> {
+          logger.atFine().log(
+              "Request cache %s: %d hits, %d misses, %d entries",
+              key, e.hits.sum(), e.misses.sum(), e.values.size());
+          // Tasks of the request may still hold on to the cache, don't retain the values for them.
+          e.values.clear();
+        });
+  }
+
+  private static class Entries {
+    final ConcurrentHashMap<Object, Object> values = new ConcurrentHashMap<>();
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+  }
+}
@@ -0,0 +1,461 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.change;
+
+import static java.util.Comparator.comparing;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.io.CountingOutputStream;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Stream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipParameters;
+import org.eclipse.jgit.api.ArchiveCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZOutputStream;
+
+/**
+ * Writes archives of trees for the REST API and the Git upload-archive protocol.
+ *
+ * <p>If {@code archive.compressionThreads} is greater than 1, tgz, tbz2 and txz archives are
+ * written as tar archives that are compressed in parallel blocks by a {@link
+ * ParallelCompressionOutputStream}.
+ *
+ * <p>If {@code archive.cacheSize} is set, archives of whole trees are cached on disk, keyed by the
+ * ID of the archived commit or tree and the format. Since these objects are immutable, cached
+ * archives never become stale. The least recently used archives are evicted when the cache grows
+ * beyond its size. Failures to write the cache never fail the download, the archive is then just
+ * not cached.
+ */
+@Singleton
+public class ArchiveGenerator {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String COMPRESSION_LEVEL = "compression-level";
+  private static final int BLOCK_SIZE = 1 << 20;
+  private static final String TMP_SUFFIX = ".tmp";
+
+  @Nullable private final ExecutorService compressionExecutor;
+  private final int compressionThreads;
+  @Nullable private final Path cacheDir;
+  private final long maxCacheSize;
+  private final Metrics metrics;
+
+  @Inject
+  ArchiveGenerator(
+      @GerritServerConfig Config cfg, SitePaths site, WorkQueue workQueue, Metrics metrics) {
+    this.metrics = metrics;
+    this.compressionThreads = cfg.getInt("archive", "compressionThreads", 1);
+    this.compressionExecutor =
+        compressionThreads > 1
+            ? workQueue.createQueue(compressionThreads, "Archive-Compression", true)
+            : null;
+    this.maxCacheSize = cfg.getLong("archive", "cacheSize", 0);
+    this.cacheDir = maxCacheSize > 0 ? getCacheDir(site, cfg) : null;
+  }
+
+  /**
+   * Writes the archive of a commit or tree to the given stream.
+   *
+   * @param repo repository containing the commit or tree
+   * @param id ID of the commit or tree; for commits the commit time is used as modification time
+   *     of the archive entries
+   * @param format format of the archive
+   * @param formatOptions options for the archive format, see {@link
+   *     ArchiveCommand#setFormatOptions(Map)}
+   * @param prefix prefix that is prepended to the paths of the archive entries, may be {@code null}
+   * @param paths paths to include into the archive, an empty list includes the whole tree
+   * @param out stream to write the archive to, is not closed by this method
+   */
+  public void writeArchive(
+      Repository repo,
+      ObjectId id,
+      ArchiveFormatInternal format,
+      Map<String, Object> formatOptions,
+      @Nullable String prefix,
+      List<String> paths,
+      OutputStream out)
+      throws IOException, GitAPIException {
+    CountingOutputStream counting = new CountingOutputStream(out);
+    try (Timer1.Context<ArchiveFormatInternal> ctx = metrics.latency.start(format)) {
+      if (cacheDir != null && formatOptions.isEmpty() && prefix == null && paths.isEmpty()) {
+        writeCached(repo, id, format, counting);
+      } else {
+        generate(repo, id, format, formatOptions, prefix, paths, counting);
+      }
+    } finally {
+      metrics.bytes.incrementBy(format, counting.getCount());
+    }
+  }
+
+  private void writeCached(
+      Repository repo, ObjectId id, ArchiveFormatInternal format, OutputStream out)
+      throws IOException, GitAPIException {
+    Path cached = cacheDir.resolve(id.name() + "." + format.getShortName());
+    try (InputStream in = Files.newInputStream(cached)) {
+      touch(cached);
+      metrics.cacheHits.increment();
+      in.transferTo(out);
+      return;
+    } catch (NoSuchFileException e) {
+      metrics.cacheMisses.increment();
+    }
+
+    // Stream the archive to the caller and into a temporary file at the same time. The file is
+    // only moved into the cache if the archive was written completely.
+    Path tmp;
+    try {
+      tmp = Files.createTempFile(cacheDir, id.name(), TMP_SUFFIX);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Failed to create archive cache file in %s", cacheDir);
+      generate(repo, id, format, Map.of(), null, List.of(), out);
+      return;
+    }
+    try {
+      CacheTeeOutputStream tee = new CacheTeeOutputStream(out, tmp);
+      boolean complete;
+      try {
+        generate(repo, id, format, Map.of(), null, List.of(), tee);
+      } finally {
+        complete = tee.closeCacheFile();
+      }
+      if (complete && moveToCache(tmp, cached)) {
+        evict();
+      }
+    } finally {
+      deleteTempFile(tmp);
+    }
+  }
+
+  /** Opens the stream to write an archive into the cache, can be overridden by tests. */
+  @VisibleForTesting
+  OutputStream newCacheFileStream(Path path) throws IOException {
+    return Files.newOutputStream(path);
+  }
+
+  private static boolean moveToCache(Path tmp, Path cached) {
+    try {
+      Files.move(tmp, cached, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      return true;
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Failed to move archive into cache: %s", cached);
+      return false;
+    }
+  }
+
+  private static void deleteTempFile(Path tmp) {
+    try {
+      Files.deleteIfExists(tmp);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Failed to delete temporary archive %s", tmp);
+    }
+  }
+
+  private void generate(
+      Repository repo,
+      ObjectId id,
+      ArchiveFormatInternal format,
+      Map<String, Object> formatOptions,
+      @Nullable String prefix,
+      List<String> paths,
+      OutputStream out)
+      throws IOException, GitAPIException {
+    ParallelCompressionOutputStream.BlockCompressor compressor =
+        compressionExecutor != null ? getBlockCompressor(format, formatOptions) : null;
+    if (compressor == null) {
+      archiveCommand(repo, id, prefix, paths)
+          .setFormat(format.name())
+          .setFormatOptions(formatOptions)
+          .setOutputStream(out)
+          .call();
+      return;
+    }
+
+    try (ParallelCompressionOutputStream compressed =
+        new ParallelCompressionOutputStream(
+            out, compressionExecutor, compressor, BLOCK_SIZE, 2 * compressionThreads)) {
+      archiveCommand(repo, id, prefix, paths)
+          .setFormat(ArchiveFormatInternal.TAR.name())
+          .setOutputStream(compressed)
+          .call();
+    }
+  }
+
+  private static ArchiveCommand archiveCommand(
+      Repository repo, ObjectId id, @Nullable String prefix, List<String> paths) {
+    return new ArchiveCommand(repo)
+        .setTree(id)
+        .setPrefix(prefix)
+        .setPaths(paths.toArray(new String[0]));
+  }
+
+  @Nullable
+  private static ParallelCompressionOutputStream.BlockCompressor getBlockCompressor(
+      ArchiveFormatInternal format, Map<String, Object> formatOptions) {
+    Integer level = (Integer) formatOptions.get(COMPRESSION_LEVEL);
+    switch (format) {
+      case TGZ:
+        return (data, len, out) -> {
+          GzipParameters parameters = new GzipParameters();
+          if (level != null) {
+            parameters.setCompressionLevel(level);
+          }
+          try (GzipCompressorOutputStream gz = new GzipCompressorOutputStream(out, parameters)) {
+            gz.write(data, 0, len);
+          }
+        };
+      case TBZ2:
+        return (data, len, out) -> {
+          int blockSize =
+              level != null
+                  ? Math.max(
+                      BZip2CompressorOutputStream.MIN_BLOCKSIZE,
+                      Math.min(level, BZip2CompressorOutputStream.MAX_BLOCKSIZE))
+                  : BZip2CompressorOutputStream.MAX_BLOCKSIZE;
+          try (BZip2CompressorOutputStream bz = new BZip2CompressorOutputStream(out, blockSize)) {
+            bz.write(data, 0, len);
+          }
+        };
+      case TXZ:
+        return (data, len, out) -> {
+          LZMA2Options options =
+              new LZMA2Options(level != null ? level : LZMA2Options.PRESET_DEFAULT);
+          try (XZOutputStream xz = new XZOutputStream(out, options)) {
+            xz.write(data, 0, len);
+          }
+        };
+      case TAR:
+      case ZIP:
+        break;
+    }
+    return null;
+  }
+
+  private static void touch(Path path) {
+    try {
+      Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
+    } catch (IOException e) {
+      logger.atFine().withCause(e).log("Failed to update modification time of %s", path);
+    }
+  }
+
+  private synchronized void evict() {
+    List<Path> files = new ArrayList<>();
+    long size = 0;
+    try (Stream<Path> s = Files.list(cacheDir)) {
+      for (Path p : (Iterable<Path>) s::iterator) {
+        if (!p.getFileName().toString().endsWith(TMP_SUFFIX)) {
+          files.add(p);
+          size += Files.size(p);
+        }
+      }
+      files.sort(comparing(ArchiveGenerator::lastModified));
+      for (Path p : files) {
+        if (size <= maxCacheSize) {
+          break;
+        }
+        long fileSize = Files.size(p);
+        Files.deleteIfExists(p);
+        size -= fileSize;
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Failed to evict archives from %s", cacheDir);
+    }
+  }
+
+  private static FileTime lastModified(Path p) {
+    try {
+      return Files.getLastModifiedTime(p);
+    } catch (IOException e) {
+      return FileTime.fromMillis(0);
+    }
+  }
+
+  @Nullable
+  private static Path getCacheDir(SitePaths site, Config cfg) {
+    String dir = cfg.getString("cache", null, "directory");
+    if (dir == null) {
+      logger.atWarning().log("archive.cacheSize is set, but cache.directory is not configured");
+      return null;
+    }
+    Path loc = site.resolve(dir).resolve("archives");
+    try {
+      Files.createDirectories(loc);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Can't create archive cache: %s", loc.toAbsolutePath());
+      return null;
+    }
+    return loc;
+  }
+
+  /**
+   * Writes everything to the caller's stream and to a cache file. Failures to write the cache file
+   * are logged and stop writing to it, but don't affect the caller's stream.
+   */
+  private class CacheTeeOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final Path path;
+    @Nullable private OutputStream file;
+    private boolean failed;
+
+    CacheTeeOutputStream(OutputStream out, Path path) {
+      this.out = out;
+      this.path = path;
+      try {
+        file = newCacheFileStream(path);
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+      out.write(c);
+      if (file != null) {
+        try {
+          file.write(c);
+        } catch (IOException e) {
+          fail(e);
+        }
+      }
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) throws IOException {
+      out.write(buf, off, len);
+      if (file != null) {
+        try {
+          file.write(buf, off, len);
+        } catch (IOException e) {
+          fail(e);
+        }
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+      if (file != null) {
+        try {
+          file.flush();
+        } catch (IOException e) {
+          fail(e);
+        }
+      }
+    }
+
+    /**
+     * Closes the cache file, without closing the caller's stream.
+     *
+     * @return whether the cache file was written completely.
+     */
+    boolean closeCacheFile() {
+      if (file != null) {
+        try {
+          file.close();
+        } catch (IOException e) {
+          fail(e);
+        }
+        file = null;
+      }
+      return !failed;
+    }
+
+    private void fail(IOException e) {
+      failed = true;
+      if (file != null) {
+        try {
+          file.close();
+        } catch (IOException closeException) {
+          e.addSuppressed(closeException);
+        }
+        file = null;
+      }
+      logger.atWarning().withCause(e).log("Failed to write archive cache file %s", path);
+    }
+  }
+
+  @Singleton
+  static class Metrics {
+    final Timer1<ArchiveFormatInternal> latency;
+    final Counter1<ArchiveFormatInternal> bytes;
+    final Counter0 cacheHits;
+    final Counter0 cacheMisses;
+
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      Field<ArchiveFormatInternal> formatField =
+          Field.ofEnum(ArchiveFormatInternal.class, "format", Metadata.Builder::operationName)
+              .description("The format of the archive.")
+              .build();
+      latency =
+          metricMaker.newTimer(
+              "archive/latency",
+              new Description("Latency of writing an archive")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS),
+              formatField);
+      bytes =
+          metricMaker.newCounter(
+              "archive/bytes",
+              new Description("Number of bytes of archives that have been written")
+                  .setRate()
+                  .setUnit(Units.BYTES),
+              formatField);
+      cacheHits =
+          metricMaker.newCounter(
+              "archive/cache_hits",
+              new Description("Number of archives that were served from the archive cache")
+                  .setRate());
+      cacheMisses =
+          metricMaker.newCounter(
+              "archive/cache_misses",
+              new Description("Number of cacheable archives that were not in the archive cache")
+                  .setRate());
+    }
+  }
+}
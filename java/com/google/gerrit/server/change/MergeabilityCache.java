@@ -16,7 +16,9 @@ package com.google.gerrit.server.change;
 
 import com.google.gerrit.entities.BranchNameKey;
 import com.google.gerrit.extensions.client.SubmitType;
+import java.util.Set;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 
@@ -34,6 +36,19 @@ public interface MergeabilityCache {
       throw new UnsupportedOperationException("Mergeability checking disabled");
     }
 
+    @Override
+    public boolean get(
+        ObjectId commit,
+        Ref intoRef,
+        SubmitType submitType,
+        String mergeStrategy,
+        BranchNameKey dest,
+        Repository repo,
+        ObjectReader reader,
+        Set<ObjectId> alreadyAccepted) {
+      throw new UnsupportedOperationException("Mergeability checking disabled");
+    }
+
     @Override
     public Boolean getIfPresent(
         ObjectId commit, Ref intoRef, SubmitType submitType, String mergeStrategy) {
@@ -49,5 +64,27 @@ public interface MergeabilityCache {
       BranchNameKey dest,
       Repository repo);
 
+  /**
+   * Same as {@link #get(ObjectId, Ref, SubmitType, String, BranchNameKey, Repository)}, but reads
+   * objects through the given reader and takes the already accepted commits of the repository
+   * from the caller instead of scanning the refs of the repository.
+   *
+   * <p>This allows callers that check the mergeability of many changes of the same repository to
+   * scan the refs only once and to share the object caches of a single reader between the checks.
+   *
+   * @param reader reader for {@code repo}, must not be shared between threads
+   * @param alreadyAccepted IDs of the commits that the branch and tag refs of {@code repo} point
+   *     to, with tags peeled
+   */
+  boolean get(
+      ObjectId commit,
+      Ref intoRef,
+      SubmitType submitType,
+      String mergeStrategy,
+      BranchNameKey dest,
+      Repository repo,
+      ObjectReader reader,
+      Set<ObjectId> alreadyAccepted);
+
   Boolean getIfPresent(ObjectId commit, Ref intoRef, SubmitType submitType, String mergeStrategy);
 }
@@ -34,16 +34,21 @@ import com.google.gerrit.server.cache.serialize.CacheSerializer;
 import com.google.gerrit.server.cache.serialize.ObjectIdConverter;
 import com.google.gerrit.server.git.CodeReviewCommit;
 import com.google.gerrit.server.git.CodeReviewCommit.CodeReviewRevWalk;
+import com.google.gerrit.server.project.NoSuchProjectException;
 import com.google.gerrit.server.submit.SubmitDryRun;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -193,8 +198,43 @@ public class MergeabilityCacheImpl implements MergeabilityCache {
       String mergeStrategy,
       BranchNameKey dest,
       Repository repo) {
-    ObjectId into = intoRef != null ? intoRef.getObjectId() : ObjectId.zeroId();
-    EntryKey key = new EntryKey(commit, into, submitType, mergeStrategy);
+    EntryKey key = new EntryKey(commit, toId(intoRef), submitType, mergeStrategy);
+    return get(
+        key,
+        () -> {
+          try (CodeReviewRevWalk rw = CodeReviewCommit.newRevWalk(repo)) {
+            return dryRun(key, dest, repo, rw, SubmitDryRun.getAlreadyAccepted(repo, rw));
+          }
+        });
+  }
+
+  @Override
+  public boolean get(
+      ObjectId commit,
+      Ref intoRef,
+      SubmitType submitType,
+      String mergeStrategy,
+      BranchNameKey dest,
+      Repository repo,
+      ObjectReader reader,
+      Set<ObjectId> alreadyAccepted) {
+    EntryKey key = new EntryKey(commit, toId(intoRef), submitType, mergeStrategy);
+    return get(
+        key,
+        () -> {
+          // SubmitDryRun allocates a flag on the walk, hence every check needs its own walk. Only
+          // looking up the accepted commits keeps them unparsed until the walk needs them.
+          try (CodeReviewRevWalk rw = CodeReviewCommit.newRevWalk(reader)) {
+            Set<RevCommit> accepted = new HashSet<>();
+            for (ObjectId id : alreadyAccepted) {
+              accepted.add(rw.lookupCommit(id));
+            }
+            return dryRun(key, dest, repo, rw, accepted);
+          }
+        });
+  }
+
+  private boolean get(EntryKey key, Callable<Boolean> loader) {
     try {
       return cache.get(
           key,
@@ -202,13 +242,7 @@ public class MergeabilityCacheImpl implements MergeabilityCache {
             if (key.into.equals(ObjectId.zeroId())) {
               return true; // Assume yes on new branch.
             }
-            try (CodeReviewRevWalk rw = CodeReviewCommit.newRevWalk(repo)) {
-              Set<RevCommit> accepted = SubmitDryRun.getAlreadyAccepted(repo, rw);
-              accepted.add(rw.parseCommit(key.into));
-              accepted.addAll(Arrays.asList(rw.parseCommit(key.commit).getParents()));
-              return submitDryRun.run(
-                  null, key.submitType, repo, rw, dest, key.into, key.commit, accepted);
-            }
+            return loader.call();
           });
     } catch (ExecutionException | UncheckedExecutionException e) {
       logger.atSevere().withCause(e.getCause()).log(
@@ -218,6 +252,18 @@ public class MergeabilityCacheImpl implements MergeabilityCache {
     }
   }
 
+  private boolean dryRun(
+      EntryKey key,
+      BranchNameKey dest,
+      Repository repo,
+      CodeReviewRevWalk rw,
+      Set<RevCommit> accepted)
+      throws NoSuchProjectException, IOException {
+    accepted.add(rw.parseCommit(key.into));
+    accepted.addAll(Arrays.asList(rw.parseCommit(key.commit).getParents()));
+    return submitDryRun.run(null, key.submitType, repo, rw, dest, key.into, key.commit, accepted);
+  }
+
   @Override
   public Boolean getIfPresent(
       ObjectId commit, Ref intoRef, SubmitType submitType, String mergeStrategy) {
@@ -0,0 +1,274 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.change;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static com.google.gerrit.server.project.ProjectCache.illegalState;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.PatchSet;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.SubmitTypeRecord;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.MergeUtilFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.submit.SubmitDryRun;
+import com.google.gerrit.server.util.ManualRequestContext;
+import com.google.gerrit.server.util.OneOffRequestContext;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Computes the mergeability of open changes in the background and stores it in the {@link
+ * MergeabilityCache}.
+ *
+ * <p>When a branch advances, the mergeability of all open changes on that branch becomes stale.
+ * Precomputing it on a low-priority queue before the changes are reindexed means that the index
+ * threads find the mergeability in the cache instead of computing it one change at a time. The
+ * wait for the precomputation is bounded, so that a busy queue doesn't keep the index stale.
+ *
+ * <p>The refs of a repository are scanned only once per branch update, and all changes of a batch
+ * share a single {@link ObjectReader}. Batches are computed in parallel. Since {@link ChangeData}
+ * is not thread-safe, the changes are passed by ID and loaded on the thread that computes their
+ * batch.
+ */
+@Singleton
+public class MergeabilityPrecomputer {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final GitRepositoryManager repoManager;
+  private final ChangeData.Factory changeDataFactory;
+  private final ProjectCache projectCache;
+  private final MergeUtilFactory mergeUtilFactory;
+  private final MergeabilityCache mergeabilityCache;
+  private final OneOffRequestContext requestContext;
+  private final Metrics metrics;
+  private final int batchSize;
+  private final long timeoutMillis;
+  private final ScheduledExecutorService timeoutExecutor;
+  @Nullable private final ListeningExecutorService executor;
+
+  @Inject
+  MergeabilityPrecomputer(
+      @GerritServerConfig Config cfg,
+      WorkQueue workQueue,
+      GitRepositoryManager repoManager,
+      ChangeData.Factory changeDataFactory,
+      ProjectCache projectCache,
+      MergeUtilFactory mergeUtilFactory,
+      MergeabilityCache mergeabilityCache,
+      OneOffRequestContext requestContext,
+      Metrics metrics) {
+    this.repoManager = repoManager;
+    this.changeDataFactory = changeDataFactory;
+    this.projectCache = projectCache;
+    this.mergeUtilFactory = mergeUtilFactory;
+    this.mergeabilityCache = mergeabilityCache;
+    this.requestContext = requestContext;
+    this.metrics = metrics;
+    this.batchSize = Math.max(1, cfg.getInt("change", "mergeabilityPrecomputeBatchSize", 50));
+    this.timeoutMillis =
+        ConfigUtil.getTimeUnit(
+            cfg,
+            "change",
+            null,
+            "mergeabilityPrecomputeTimeout",
+            TimeUnit.SECONDS.toMillis(10),
+            TimeUnit.MILLISECONDS);
+    this.timeoutExecutor = workQueue.getDefaultQueue();
+    int threads = cfg.getInt("change", "mergeabilityPrecomputeThreads", 0);
+    this.executor =
+        threads > 0
+            ? MoreExecutors.listeningDecorator(
+                workQueue.createQueue(
+                    threads, "Mergeability-Precompute", Thread.MIN_PRIORITY, true))
+            : null;
+  }
+
+  /** Whether mergeability precomputation is enabled. */
+  public boolean isEnabled() {
+    return executor != null;
+  }
+
+  /**
+   * Precomputes the mergeability of the given open changes of a project.
+   *
+   * <p>The already accepted commits of the repository are read on the calling thread, the
+   * mergeability checks run on the precomputation queue.
+   *
+   * @param project the project of the changes
+   * @param changeIds IDs of open changes of {@code project}
+   * @param staleSinceNanos value of {@link System#nanoTime()} when the mergeability of the changes
+   *     became stale, used to report how long it took to bring it up to date
+   * @return future that is done once the mergeability of all changes has been computed, or once
+   *     {@code change.mergeabilityPrecomputeTimeout} has passed, whichever comes first; it never
+   *     fails since errors are logged and the affected changes are skipped
+   */
+  public ListenableFuture<?> precompute(
+      Project.NameKey project, List<Change.Id> changeIds, long staleSinceNanos) {
+    if (executor == null || changeIds.isEmpty()) {
+      return Futures.immediateVoidFuture();
+    }
+
+    ImmutableSet<ObjectId> alreadyAccepted;
+    String mergeStrategy;
+    try (Repository repo = repoManager.openRepository(project);
+        RevWalk rw = new RevWalk(repo)) {
+      alreadyAccepted =
+          SubmitDryRun.getAlreadyAccepted(repo, rw).stream()
+              .map(RevCommit::copy)
+              .collect(toImmutableSet());
+      mergeStrategy =
+          mergeUtilFactory
+              .create(projectCache.get(project).orElseThrow(illegalState(project)))
+              .mergeStrategyName();
+    } catch (IOException | RuntimeException e) {
+      logger.atWarning().withCause(e).log(
+          "Failed to prepare mergeability precomputation for project %s", project);
+      return Futures.immediateVoidFuture();
+    }
+
+    List<ListenableFuture<?>> futures = new ArrayList<>();
+    for (List<Change.Id> batch : Lists.partition(changeIds, batchSize)) {
+      futures.add(
+          executor.submit(
+              () -> computeBatch(project, batch, mergeStrategy, alreadyAccepted, staleSinceNanos)));
+    }
+    ListenableFuture<Void> done =
+        Futures.whenAllComplete(futures).call(() -> null, directExecutor());
+    if (timeoutMillis <= 0) {
+      return done;
+    }
+    // Don't let the timeout cancel the batches, they still fill the cache for later requests.
+    return Futures.catching(
+        Futures.withTimeout(
+            Futures.nonCancellationPropagating(done),
+            timeoutMillis,
+            TimeUnit.MILLISECONDS,
+            timeoutExecutor),
+        TimeoutException.class,
+        e -> {
+          logger.atWarning().log(
+              "Mergeability of %d changes in project %s was not precomputed within %d ms",
+              changeIds.size(), project, timeoutMillis);
+          return null;
+        },
+        directExecutor());
+  }
+
+  private void computeBatch(
+      Project.NameKey project,
+      List<Change.Id> batch,
+      String mergeStrategy,
+      ImmutableSet<ObjectId> alreadyAccepted,
+      long staleSinceNanos) {
+    try (ManualRequestContext ctx = requestContext.open();
+        Repository repo = repoManager.openRepository(project);
+        ObjectReader reader = repo.newObjectReader()) {
+      Map<String, Ref> destRefs = new HashMap<>();
+      for (Change.Id id : batch) {
+        try (Timer0.Context timer = metrics.latency.start()) {
+          ChangeData cd = changeDataFactory.create(project, id);
+          Change c = cd.change();
+          PatchSet ps = cd.currentPatchSet();
+          if (c == null || !c.isNew() || ps == null) {
+            continue;
+          }
+          SubmitTypeRecord str = cd.submitTypeRecord();
+          if (!str.isOk()) {
+            continue;
+          }
+          String branch = c.getDest().branch();
+          if (!destRefs.containsKey(branch)) {
+            destRefs.put(branch, repo.exactRef(branch));
+          }
+          mergeabilityCache.get(
+              ps.commitId(),
+              destRefs.get(branch),
+              str.type,
+              mergeStrategy,
+              c.getDest(),
+              repo,
+              reader,
+              alreadyAccepted);
+        } catch (IOException | RuntimeException e) {
+          logger.atWarning().withCause(e).log(
+              "Failed to precompute mergeability of change %s", id);
+        }
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log(
+          "Failed to precompute mergeability of %d changes in project %s", batch.size(), project);
+    } finally {
+      metrics.staleness.record(System.nanoTime() - staleSinceNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  @Singleton
+  static class Metrics {
+    final Timer0 latency;
+    final Timer0 staleness;
+
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      latency =
+          metricMaker.newTimer(
+              "change/mergeability_precompute/latency",
+              new Description("Latency of precomputing the mergeability of a single change")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS));
+      staleness =
+          metricMaker.newTimer(
+              "change/mergeability_precompute/staleness",
+              new Description(
+                      "Time from a branch update until the mergeability of a batch of open"
+                          + " changes on that branch has been precomputed")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS));
+    }
+  }
+}
@@ -0,0 +1,173 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.change;
+
+import com.google.common.base.Throwables;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Output stream that splits its input into blocks and compresses the blocks in parallel.
+ *
+ * <p>Every block is compressed into a complete, independent stream of the compression format and
+ * the compressed blocks are written to the underlying stream in order. gzip, bzip2 and xz all
+ * define the concatenation of such streams to decompress to the concatenation of their contents,
+ * so the output can be read by the standard tools. The price is a slightly worse compression ratio
+ * since blocks do not share a dictionary.
+ *
+ * <p>The number of blocks that are compressed or waiting to be written is bounded, so that a slow
+ * reader of the underlying stream does not make the memory usage grow without bounds.
+ *
+ * <p>Closing this stream writes all remaining blocks but does not close the underlying stream.
+ */
+class ParallelCompressionOutputStream extends OutputStream {
+  /** Compresses a block into a complete stream of the compression format. */
+  @FunctionalInterface
+  interface BlockCompressor {
+    void compress(byte[] data, int len, OutputStream out) throws IOException;
+  }
+
+  private final OutputStream out;
+  private final ExecutorService executor;
+  private final BlockCompressor compressor;
+  private final int blockSize;
+  private final int maxPendingBlocks;
+  private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+  private byte[] buf;
+  private int count;
+  private boolean wroteBlock;
+  private boolean closed;
+
+  ParallelCompressionOutputStream(
+      OutputStream out,
+      ExecutorService executor,
+      BlockCompressor compressor,
+      int blockSize,
+      int maxPendingBlocks) {
+    this.out = out;
+    this.executor = executor;
+    this.compressor = compressor;
+    this.blockSize = blockSize;
+    this.maxPendingBlocks = Math.max(1, maxPendingBlocks);
+    this.buf = new byte[blockSize];
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureOpen();
+    buf[count++] = (byte) b;
+    if (count == blockSize) {
+      submitBlock();
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    ensureOpen();
+    while (len > 0) {
+      int n = Math.min(len, blockSize - count);
+      System.arraycopy(b, off, buf, count, n);
+      count += n;
+      off += n;
+      len -= n;
+      if (count == blockSize) {
+        submitBlock();
+      }
+    }
+  }
+
+  /**
+   * Writes all blocks that have been compressed already and flushes the underlying stream.
+   *
+   * <p>Buffered data that does not fill a block yet is not flushed, since compressing it as a block
+   * of its own would hurt the compression ratio.
+   */
+  @Override
+  public void flush() throws IOException {
+    ensureOpen();
+    while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+      writeBlock(pending.removeFirst());
+    }
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      if (count > 0 || !wroteBlock) {
+        // An empty input still needs to produce a valid (empty) compressed stream.
+        submitBlock();
+      }
+      while (!pending.isEmpty()) {
+        writeBlock(pending.removeFirst());
+      }
+      out.flush();
+    } finally {
+      closed = true;
+      for (Future<byte[]> f : pending) {
+        f.cancel(true);
+      }
+      pending.clear();
+    }
+  }
+
+  private void submitBlock() throws IOException {
+    byte[] data = buf;
+    int len = count;
+    buf = new byte[blockSize];
+    count = 0;
+    wroteBlock = true;
+    pending.addLast(
+        executor.submit(
+            () -> {
+              ByteArrayOutputStream compressed = new ByteArrayOutputStream(len / 2 + 64);
+              compressor.compress(data, len, compressed);
+              return compressed.toByteArray();
+            }));
+    while (pending.size() > maxPendingBlocks) {
+      writeBlock(pending.removeFirst());
+    }
+  }
+
+  private void writeBlock(Future<byte[]> block) throws IOException {
+    try {
+      out.write(block.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while compressing block");
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IOException("Failed to compress block", e.getCause());
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+  }
+}
@@ -32,6 +32,7 @@ import com.google.gerrit.extensions.common.ContextLineInfo;
 import com.google.gerrit.server.change.FileContentUtil;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.mime.FileTypeRegistry;
+import com.google.gerrit.server.patch.BlobTextCache;
 import com.google.gerrit.server.patch.ComparisonType;
 import com.google.gerrit.server.patch.SrcContentResolver;
 import com.google.gerrit.server.patch.Text;
@@ -48,6 +49,7 @@ import java.util.Map;
 import java.util.Optional;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
@@ -64,6 +66,7 @@ public class CommentContextLoader {
 
   private final FileTypeRegistry registry;
   private final GitRepositoryManager repoManager;
+  private final BlobTextCache blobTextCache;
   private final Project.NameKey project;
   private final ProjectState projectState;
 
@@ -75,10 +78,12 @@ public class CommentContextLoader {
   CommentContextLoader(
       FileTypeRegistry registry,
       GitRepositoryManager repoManager,
+      BlobTextCache blobTextCache,
       ProjectCache projectCache,
       @Assisted Project.NameKey project) {
     this.registry = registry;
     this.repoManager = repoManager;
+    this.blobTextCache = blobTextCache;
     this.project = project;
     projectState = projectCache.get(project).orElseThrow(illegalState(project));
   }
@@ -170,8 +175,7 @@ public class CommentContextLoader {
       Range commentRange,
       int contextPadding)
       throws IOException {
-    // TODO(ghareeb): We can further group the comments by file paths to avoid opening
-    // the same file multiple times.
+    // The contents of files with many comments are served from the blob text cache.
     try (TreeWalk tw = TreeWalk.forPath(rw.getObjectReader(), filePath, commit.getTree())) {
       if (tw == null) {
         logger.atWarning().log(
@@ -179,8 +183,10 @@ public class CommentContextLoader {
         return CommentContext.empty();
       }
       ObjectId id = tw.getObjectId(0);
-      byte[] sourceContent = SrcContentResolver.getSourceContent(repo, id, tw.getFileMode(0));
-      Text textSrc = new Text(sourceContent);
+      Text textSrc =
+          tw.getFileMode(0).getObjectType() == Constants.OBJ_BLOB
+              ? blobTextCache.get(rw.getObjectReader(), id)
+              : new Text(SrcContentResolver.getSourceContent(repo, id, tw.getFileMode(0)));
       String contentType = getContentType(tw, filePath, textSrc);
       return createContext(textSrc, commentRange, contextPadding, contentType);
     }
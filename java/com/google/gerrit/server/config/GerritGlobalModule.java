@@ -91,6 +91,7 @@ import com.google.gerrit.server.ExternalUser;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.PerformanceMetrics;
 import com.google.gerrit.server.RequestListener;
+import com.google.gerrit.server.RequestProfiler;
 import com.google.gerrit.server.ServerStateProvider;
 import com.google.gerrit.server.TraceRequestListener;
 import com.google.gerrit.server.account.AccountControl;
@@ -175,9 +176,11 @@ import com.google.gerrit.server.mime.MimeUtilFileTypeRegistry;
 import com.google.gerrit.server.notedb.DeleteZombieCommentsRefs;
 import com.google.gerrit.server.notedb.NoteDbModule;
 import com.google.gerrit.server.notedb.StoreSubmitRequirementsOp;
+import com.google.gerrit.server.patch.BlobTextCacheImpl;
 import com.google.gerrit.server.patch.DiffFileSizeValidator;
 import com.google.gerrit.server.patch.DiffOperationsForCommitValidation;
 import com.google.gerrit.server.patch.DiffOperationsImpl;
+import com.google.gerrit.server.patch.DiffPrecomputer;
 import com.google.gerrit.server.patch.DiffValidator;
 import com.google.gerrit.server.patch.PatchListCacheImpl;
 import com.google.gerrit.server.patch.PatchScriptFactory;
@@ -188,6 +191,7 @@ import com.google.gerrit.server.permissions.SectionSortCache;
 import com.google.gerrit.server.plugins.ReloadPluginListener;
 import com.google.gerrit.server.project.AccessControlModule;
 import com.google.gerrit.server.project.CommentLinkProvider;
+import com.google.gerrit.server.project.CompiledSectionMatcher;
 import com.google.gerrit.server.project.LockManager;
 import com.google.gerrit.server.project.ProjectCacheImpl;
 import com.google.gerrit.server.project.ProjectState;
@@ -266,8 +270,11 @@ public class GerritGlobalModule extends FactoryModule {
     install(MergeabilityCacheImpl.module());
     install(ServiceUserClassifierImpl.module());
     install(PatchListCacheImpl.module());
+    install(BlobTextCacheImpl.module());
     install(ProjectCacheImpl.module());
     install(DiffOperationsImpl.module());
+    install(PermissionCollection.module());
+    install(CompiledSectionMatcher.module());
     install(SectionSortCache.module());
     install(SubmitStrategy.module());
     install(TagCache.module());
@@ -380,6 +387,7 @@ public class GerritGlobalModule extends FactoryModule {
     DynamicSet.setOf(binder(), VoteDeletedListener.class);
     DynamicSet.setOf(binder(), WorkInProgressStateChangedListener.class);
     DynamicSet.setOf(binder(), RevisionCreatedListener.class);
+    DynamicSet.bind(binder(), RevisionCreatedListener.class).to(DiffPrecomputer.class);
     DynamicSet.setOf(binder(), TopicEditedListener.class);
     DynamicSet.setOf(binder(), AgreementSignupListener.class);
     DynamicSet.setOf(binder(), PluginEventListener.class);
@@ -457,6 +465,7 @@ public class GerritGlobalModule extends FactoryModule {
     DynamicSet.setOf(binder(), QuotaEnforcer.class);
     DynamicSet.setOf(binder(), PerformanceLogger.class);
     DynamicSet.bind(binder(), PerformanceLogger.class).to(PerformanceMetrics.class);
+    DynamicSet.bind(binder(), PerformanceLogger.class).to(RequestProfiler.class);
     DynamicSet.setOf(binder(), RequestListener.class);
     DynamicSet.bind(binder(), RequestListener.class).to(TraceRequestListener.class);
     DynamicSet.setOf(binder(), ExceptionHook.class);
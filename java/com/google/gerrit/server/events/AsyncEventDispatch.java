@@ -0,0 +1,161 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.permissions.PermissionBackendException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Runs the dispatching of events to the listeners of the {@link EventBroker} in the background, if
+ * configured by {@code event.dispatchThreads}.
+ *
+ * <p>The events are partitioned by project and each partition is dispatched by a single thread, so
+ * that the events of a project, and hence of a change, reach the listeners in the order in which
+ * they were posted. If the queue of a partition is full, further events of that partition are
+ * dropped and counted, so that a slow listener can't block the threads that post events, e.g. the
+ * threads that handle pushes and REST requests.
+ *
+ * <p>The {@link EventBroker} only hands off the dispatching to the user-scoped listeners, whose
+ * visibility checks are the expensive part. The partitions are shared by all listeners instead of
+ * having a queue per listener, so that the visibility of an event is checked only once per user.
+ */
+@Singleton
+public class AsyncEventDispatch {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Dispatches an event to the listeners. */
+  @FunctionalInterface
+  interface DispatchTask {
+    void run() throws PermissionBackendException;
+  }
+
+  private static class Partition {
+    final ExecutorService executor;
+    final Semaphore permits;
+
+    Partition(ExecutorService executor, int maxQueued) {
+      this.executor = executor;
+      this.permits = new Semaphore(maxQueued);
+    }
+  }
+
+  private final ImmutableList<Partition> partitions;
+  private final Timer0 lag;
+  private final Counter0 dropped;
+
+  @Inject
+  AsyncEventDispatch(@GerritServerConfig Config cfg, WorkQueue workQueue, MetricMaker metricMaker) {
+    int threads = cfg.getInt("event", "dispatchThreads", 0);
+    int maxQueued = Math.max(1, cfg.getInt("event", "dispatchQueueSize", 10_000));
+    ImmutableList.Builder<Partition> partitions = ImmutableList.builder();
+    for (int i = 0; i < threads; i++) {
+      partitions.add(
+          new Partition(workQueue.createQueue(1, "EventDispatch-" + i, true), maxQueued));
+    }
+    this.partitions = partitions.build();
+
+    this.lag =
+        metricMaker.newTimer(
+            "events/dispatch/lag",
+            new Description("Time from posting an event until it is dispatched to the listeners")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+    this.dropped =
+        metricMaker.newCounter(
+            "events/dispatch/dropped_count",
+            new Description(
+                    "Number of events that were not dispatched to the user-scoped listeners"
+                        + " because the dispatch queue was full")
+                .setRate()
+                .setUnit("events"));
+  }
+
+  /** Whether events are dispatched in the background. */
+  boolean isEnabled() {
+    return !partitions.isEmpty();
+  }
+
+  /**
+   * Dispatches an event.
+   *
+   * <p>If background dispatching is disabled, the task is run immediately and its exceptions are
+   * propagated. Otherwise exceptions are logged.
+   *
+   * @param project the project of the event, {@code null} for events which don't belong to a
+   *     project
+   * @param task the dispatching of the event to the listeners
+   * @return {@code false} if the event was dropped because the queue of its partition is full
+   */
+  @CanIgnoreReturnValue
+  boolean dispatch(@Nullable Project.NameKey project, DispatchTask task)
+      throws PermissionBackendException {
+    if (partitions.isEmpty()) {
+      task.run();
+      return true;
+    }
+
+    Partition partition =
+        partitions.get(
+            project == null ? 0 : Math.floorMod(project.get().hashCode(), partitions.size()));
+    if (!partition.permits.tryAcquire()) {
+      dropped.increment();
+      logger.atWarning().atMostEvery(1, TimeUnit.MINUTES).log(
+          "Dropping event of %s, the event dispatch queue is full", project);
+      return false;
+    }
+
+    long postedNanos = System.nanoTime();
+    @SuppressWarnings("unused")
+    Future<?> possiblyIgnoredError =
+        partition.executor.submit(
+            new Runnable() {
+              @Override
+              public void run() {
+                lag.record(System.nanoTime() - postedNanos, TimeUnit.NANOSECONDS);
+                try {
+                  task.run();
+                } catch (Exception e) {
+                  logger.atWarning().withCause(e).log("Failed to dispatch event of %s", project);
+                } finally {
+                  partition.permits.release();
+                }
+              }
+
+              @Override
+              public String toString() {
+                return "Dispatch event of " + (project != null ? project : "server");
+              }
+            });
+    return true;
+  }
+}
@@ -14,6 +14,7 @@
 
 package com.google.gerrit.server.events;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.Nullable;
@@ -22,9 +23,11 @@ import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.PatchSet;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.registration.DynamicItem;
+import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.config.GerritInstanceId;
+import com.google.gerrit.server.data.ChangeAttribute;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.permissions.ChangePermission;
 import com.google.gerrit.server.permissions.PermissionBackend;
@@ -39,6 +42,8 @@ import com.google.gerrit.server.project.ProjectState;
 import com.google.gson.Gson;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 
 /** Distributes Events to listeners if they are allowed to see them */
@@ -53,6 +58,9 @@ public class EventBroker implements EventDispatcher {
       DynamicItem.bind(binder(), EventDispatcher.class).to(EventBroker.class);
 
       bind(Gson.class).annotatedWith(EventGson.class).toProvider(EventGsonProvider.class);
+
+      DynamicSet.bind(binder(), EventListener.class).to(EventJournal.class);
+      listener().to(EventJournal.class);
     }
   }
 
@@ -69,6 +77,8 @@ public class EventBroker implements EventDispatcher {
 
   protected final String gerritInstanceId;
 
+  private AsyncEventDispatch asyncDispatch;
+
   @Inject
   public EventBroker(
       PluginSetContext<UserScopedEventListener> listeners,
@@ -85,25 +95,75 @@ public class EventBroker implements EventDispatcher {
     this.gerritInstanceId = gerritInstanceId;
   }
 
+  @Inject
+  void setAsyncDispatch(AsyncEventDispatch asyncDispatch) {
+    this.asyncDispatch = asyncDispatch;
+  }
+
   @Override
   public void postEvent(Change change, ChangeEvent event) throws PermissionBackendException {
-    fireEvent(change, event);
+    dispatch(
+        change != null ? change.getProject() : null,
+        event,
+        () -> fireEvent(change, event),
+        () -> fireEventForUserScopedListeners(change, event));
   }
 
   @Override
   public void postEvent(BranchNameKey branchName, RefEvent event)
       throws PermissionBackendException {
-    fireEvent(branchName, event);
+    dispatch(
+        branchName.project(),
+        event,
+        () -> fireEvent(branchName, event),
+        () -> fireEventForUserScopedListeners(branchName, event));
   }
 
   @Override
   public void postEvent(Project.NameKey projectName, ProjectEvent event) {
-    fireEvent(projectName, event);
+    try {
+      dispatch(
+          projectName,
+          event,
+          () -> fireEvent(projectName, event),
+          () -> fireEventForUserScopedListeners(projectName, event));
+    } catch (PermissionBackendException e) {
+      // Can't happen, firing project events doesn't throw.
+      throw new IllegalStateException(e);
+    }
   }
 
   @Override
   public void postEvent(Event event) throws PermissionBackendException {
-    fireEvent(event);
+    Project.NameKey project = null;
+    if (event instanceof ProjectEvent) {
+      project = ((ProjectEvent) event).getProjectNameKey();
+    }
+    dispatch(
+        project, event, () -> fireEvent(event), () -> fireEventForUserScopedListeners(event));
+  }
+
+  /**
+   * Fires the event on the posting thread, or on the threads of the {@link AsyncEventDispatch} if
+   * it is enabled.
+   *
+   * <p>Only the user-scoped listeners are handed off to the {@link AsyncEventDispatch}, which may
+   * drop events if its queue is full. The unrestricted listeners, e.g. the {@link EventJournal},
+   * are called by the posting thread so that they receive every event.
+   */
+  private void dispatch(
+      @Nullable Project.NameKey project,
+      Event event,
+      AsyncEventDispatch.DispatchTask fireEvent,
+      AsyncEventDispatch.DispatchTask fireEventForUserScopedListeners)
+      throws PermissionBackendException {
+    if (asyncDispatch == null || !asyncDispatch.isEnabled()) {
+      fireEvent.run();
+      return;
+    }
+    setInstanceIdWhenEmpty(event);
+    fireEventForUnrestrictedListeners(event);
+    asyncDispatch.dispatch(project, fireEventForUserScopedListeners);
   }
 
   protected void fireEventForUnrestrictedListeners(Event event) {
@@ -112,48 +172,96 @@ public class EventBroker implements EventDispatcher {
 
   protected void fireEvent(Change change, ChangeEvent event) throws PermissionBackendException {
     setInstanceIdWhenEmpty(event);
+    fireEventForUserScopedListeners(change, event);
+    fireEventForUnrestrictedListeners(event);
+  }
+
+  protected void fireEvent(Project.NameKey project, ProjectEvent event) {
+    setInstanceIdWhenEmpty(event);
+    fireEventForUserScopedListeners(project, event);
+    fireEventForUnrestrictedListeners(event);
+  }
+
+  protected void fireEvent(BranchNameKey branchName, RefEvent event)
+      throws PermissionBackendException {
+    setInstanceIdWhenEmpty(event);
+    fireEventForUserScopedListeners(branchName, event);
+    fireEventForUnrestrictedListeners(event);
+  }
+
+  protected void fireEvent(Event event) throws PermissionBackendException {
+    setInstanceIdWhenEmpty(event);
+    fireEventForUserScopedListeners(event);
+    fireEventForUnrestrictedListeners(event);
+  }
+
+  protected void fireEventForUserScopedListeners(Change change, ChangeEvent event)
+      throws PermissionBackendException {
+    Map<Object, Boolean> visibility = new HashMap<>();
     for (PluginSetEntryContext<UserScopedEventListener> c : listeners) {
       CurrentUser user = c.call(UserScopedEventListener::getUser);
-      if (isVisibleTo(change, user)) {
+      if (isVisibleTo(visibility, user, () -> isVisibleTo(change, user))) {
         c.run(l -> l.onEvent(event));
       }
     }
-    fireEventForUnrestrictedListeners(event);
   }
 
-  protected void fireEvent(Project.NameKey project, ProjectEvent event) {
-    setInstanceIdWhenEmpty(event);
+  protected void fireEventForUserScopedListeners(Project.NameKey project, ProjectEvent event) {
+    Map<Object, Boolean> visibility = new HashMap<>();
     for (PluginSetEntryContext<UserScopedEventListener> c : listeners) {
-
       CurrentUser user = c.call(UserScopedEventListener::getUser);
-      if (isVisibleTo(project, user)) {
-        c.run(l -> l.onEvent(event));
+      try {
+        if (isVisibleTo(visibility, user, () -> isVisibleTo(project, user))) {
+          c.run(l -> l.onEvent(event));
+        }
+      } catch (PermissionBackendException e) {
+        // Can't happen, isVisibleTo(Project.NameKey, CurrentUser) doesn't throw.
+        throw new IllegalStateException(e);
       }
     }
-    fireEventForUnrestrictedListeners(event);
   }
 
-  protected void fireEvent(BranchNameKey branchName, RefEvent event)
+  protected void fireEventForUserScopedListeners(BranchNameKey branchName, RefEvent event)
       throws PermissionBackendException {
-    setInstanceIdWhenEmpty(event);
+    Map<Object, Boolean> visibility = new HashMap<>();
     for (PluginSetEntryContext<UserScopedEventListener> c : listeners) {
       CurrentUser user = c.call(UserScopedEventListener::getUser);
-      if (isVisibleTo(branchName, user)) {
+      if (isVisibleTo(visibility, user, () -> isVisibleTo(branchName, user))) {
         c.run(l -> l.onEvent(event));
       }
     }
-    fireEventForUnrestrictedListeners(event);
   }
 
-  protected void fireEvent(Event event) throws PermissionBackendException {
-    setInstanceIdWhenEmpty(event);
+  protected void fireEventForUserScopedListeners(Event event) throws PermissionBackendException {
+    Map<Object, Boolean> visibility = new HashMap<>();
     for (PluginSetEntryContext<UserScopedEventListener> c : listeners) {
       CurrentUser user = c.call(UserScopedEventListener::getUser);
-      if (isVisibleTo(event, user)) {
+      if (isVisibleTo(visibility, user, () -> isVisibleTo(event, user))) {
         c.run(l -> l.onEvent(event));
       }
     }
-    fireEventForUnrestrictedListeners(event);
+  }
+
+  @FunctionalInterface
+  interface VisibilityCheck {
+    boolean isVisible() throws PermissionBackendException;
+  }
+
+  /**
+   * Checks the visibility of an event only once per user, as many listeners, e.g. several stream
+   * events sessions, may belong to the same user.
+   */
+  @VisibleForTesting
+  static boolean isVisibleTo(
+      Map<Object, Boolean> visibilityByUser, CurrentUser user, VisibilityCheck check)
+      throws PermissionBackendException {
+    Object key = user.getCacheKey();
+    Boolean visible = visibilityByUser.get(key);
+    if (visible == null) {
+      visible = check.isVisible();
+      visibilityByUser.put(key, visible);
+    }
+    return visible;
   }
 
   protected void setInstanceIdWhenEmpty(Event event) {
@@ -219,4 +327,31 @@ public class EventBroker implements EventDispatcher {
     }
     return true;
   }
+
+  /**
+   * Checks the visibility of an event that was read back from the {@link EventJournal}.
+   *
+   * <p>Unlike when the event is posted, the change of a change event is not at hand and is loaded
+   * by its number. Events of changes which don't exist anymore are not visible.
+   */
+  public boolean isJournaledEventVisibleTo(Event event, CurrentUser user)
+      throws PermissionBackendException {
+    if (event instanceof ChangeEvent) {
+      ChangeEvent changeEvent = (ChangeEvent) event;
+      ChangeAttribute change = changeEvent.change != null ? changeEvent.change.get() : null;
+      if (change == null) {
+        return false;
+      }
+      try {
+        return isVisibleTo(
+            notesFactory
+                .createChecked(changeEvent.getProjectNameKey(), Change.id(change.number))
+                .getChange(),
+            user);
+      } catch (NoSuchChangeException e) {
+        return false;
+      }
+    }
+    return isVisibleTo(event, user);
+  }
 }
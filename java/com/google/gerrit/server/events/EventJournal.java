@@ -0,0 +1,424 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.registration.RegistrationHandle;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Append-only journal of all events, from which clients can resume reading events at an offset.
+ *
+ * <p>Every event gets an offset, which is one larger than the offset of the previous event, also
+ * across restarts. The serialized event is stored with its offset in the {@code offset} property,
+ * so that clients can tell where to resume after a reconnect.
+ *
+ * <p>The journal is stored in segment files in {@code event.journal.directory}. Each segment file
+ * is named after the offset of its first event and consists of records of the payload length, the
+ * offset and the UTF-8 encoded JSON of the event. When the active segment exceeds {@code
+ * event.journal.segmentSize}, a new segment is started and the oldest segments are deleted as long
+ * as the journal exceeds {@code event.journal.maxSize} or they are older than {@code
+ * event.journal.maxAge}.
+ *
+ * <p>Events are stored regardless of their visibility. Readers must check the visibility of every
+ * event for the user on whose behalf they read the journal, see {@link
+ * EventBroker#isJournaledEventVisibleTo(Event, com.google.gerrit.server.CurrentUser)}.
+ */
+@Singleton
+public class EventJournal implements EventListener, LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String SEGMENT_SUFFIX = ".journal";
+  private static final Pattern SEGMENT_NAME = Pattern.compile("[0-9]{20}\\.journal");
+
+  /** Length of the payload as {@code int} followed by the offset as {@code long}. */
+  private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+
+  /** An event read from the journal. */
+  @AutoValue
+  public abstract static class Entry {
+    public abstract long offset();
+
+    /** The JSON of the event, including its offset. */
+    public abstract String json();
+
+    static Entry create(long offset, String json) {
+      return new AutoValue_EventJournal_Entry(offset, json);
+    }
+  }
+
+  /** Consecutive events read from the journal. */
+  @AutoValue
+  public abstract static class Batch {
+    public abstract ImmutableList<Entry> entries();
+
+    /** The offset from which to continue reading. */
+    public abstract long nextOffset();
+
+    /** Whether events were skipped because they were already removed from the journal. */
+    public abstract boolean eventsDropped();
+
+    static Batch create(ImmutableList<Entry> entries, long nextOffset, boolean eventsDropped) {
+      return new AutoValue_EventJournal_Batch(entries, nextOffset, eventsDropped);
+    }
+  }
+
+  private final boolean enabled;
+  private final Path dir;
+  private final long segmentSize;
+  private final long maxSize;
+  private final long maxAgeMillis;
+  private final Gson gson;
+  private final EventJsonCache jsonCache;
+
+  /** Segment files by the offset of their first event. */
+  private final NavigableMap<Long, Path> segments = new ConcurrentSkipListMap<>();
+
+  private final List<Runnable> appendListeners = new CopyOnWriteArrayList<>();
+
+  // Written while holding the lock on this.
+  private volatile FileChannel active;
+  private long activeSize;
+
+  /** Offset of the next event, all events below it are completely written. */
+  private volatile long nextOffset;
+
+  @Inject
+  EventJournal(
+      @GerritServerConfig Config cfg,
+      SitePaths site,
+      @EventGson Gson gson,
+      EventJsonCache jsonCache) {
+    this(cfg, getDirectory(cfg, site), gson, jsonCache);
+  }
+
+  @VisibleForTesting
+  EventJournal(Config cfg, Path dir, Gson gson, EventJsonCache jsonCache) {
+    this.enabled = cfg.getBoolean("event", "journal", "enabled", false);
+    this.dir = dir;
+    this.segmentSize = cfg.getLong("event", "journal", "segmentSize", 64 * 1024 * 1024);
+    this.maxSize = cfg.getLong("event", "journal", "maxSize", 1024 * 1024 * 1024);
+    this.maxAgeMillis =
+        ConfigUtil.getTimeUnit(
+            cfg, "event", "journal", "maxAge", TimeUnit.DAYS.toMillis(7), TimeUnit.MILLISECONDS);
+    this.gson = gson;
+    this.jsonCache = jsonCache;
+  }
+
+  private static Path getDirectory(Config cfg, SitePaths site) {
+    String dir = cfg.getString("event", "journal", "directory");
+    return dir != null ? site.resolve(dir) : site.data_dir.resolve("events");
+  }
+
+  /** Whether the journal is enabled and could be opened. */
+  public boolean isEnabled() {
+    return enabled && active != null;
+  }
+
+  @Override
+  public synchronized void start() {
+    if (!enabled) {
+      return;
+    }
+    try {
+      Files.createDirectories(dir);
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+        for (Path file : files) {
+          String name = file.getFileName().toString();
+          if (SEGMENT_NAME.matcher(name).matches()) {
+            segments.put(Long.parseLong(name.substring(0, 20)), file);
+          }
+        }
+      }
+      if (segments.isEmpty()) {
+        openSegment(0);
+      } else {
+        recover(segments.lastEntry());
+      }
+    } catch (IOException e) {
+      logger.atSevere().withCause(e).log("Cannot open event journal in %s", dir);
+      active = null;
+    }
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (active != null) {
+      try {
+        active.close();
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot close event journal");
+      }
+      active = null;
+    }
+  }
+
+  /**
+   * Opens the last segment for appending. Incomplete records, which were left by a crash during a
+   * write, are truncated. So is everything from the first record with a corrupt header on, i.e. a
+   * negative length, a length past the end of the segment or an unexpected offset.
+   */
+  private void recover(Map.Entry<Long, Path> segment) throws IOException {
+    long offset = segment.getKey();
+    FileChannel channel =
+        FileChannel.open(segment.getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long size = channel.size();
+    long pos = 0;
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    while (pos + HEADER_SIZE <= size) {
+      header.clear();
+      readFully(channel, header, pos);
+      int length = header.getInt(0);
+      if (length < 0
+          || length > size - pos - HEADER_SIZE
+          || header.getLong(Integer.BYTES) != offset) {
+        break;
+      }
+      offset++;
+      pos += HEADER_SIZE + length;
+    }
+    if (pos < size) {
+      logger.atWarning().log(
+          "Truncating incomplete or corrupt event journal record in %s at %d",
+          segment.getValue(), pos);
+      channel.truncate(pos);
+    }
+    channel.position(pos);
+    active = channel;
+    activeSize = pos;
+    nextOffset = offset;
+  }
+
+  private void openSegment(long firstOffset) throws IOException {
+    Path file = dir.resolve(String.format("%020d%s", firstOffset, SEGMENT_SUFFIX));
+    active = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    activeSize = 0;
+    nextOffset = firstOffset;
+    segments.put(firstOffset, file);
+  }
+
+  @Override
+  public void onEvent(Event event) {
+    if (!isEnabled()) {
+      return;
+    }
+    byte[] json;
+    try {
+      json = jsonCache.toJson(event);
+    } catch (RuntimeException e) {
+      logger.atWarning().withCause(e).log("Cannot serialize event of type %s", event.getType());
+      return;
+    }
+    if (append(json)) {
+      for (Runnable listener : appendListeners) {
+        listener.run();
+      }
+    }
+  }
+
+  private synchronized boolean append(byte[] json) {
+    if (active == null) {
+      return false;
+    }
+    long offset = nextOffset;
+    // The JSON of an event is an object with at least the type, so the offset can be added as
+    // last property without parsing the JSON again.
+    byte[] suffix = (",\"offset\":" + offset + "}").getBytes(UTF_8);
+    int length = json.length - 1 + suffix.length;
+    try {
+      if (activeSize > 0 && activeSize + HEADER_SIZE + length > segmentSize) {
+        active.close();
+        openSegment(offset);
+        prune();
+      }
+      ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + length);
+      buf.putInt(length).putLong(offset).put(json, 0, json.length - 1).put(suffix).flip();
+      while (buf.hasRemaining()) {
+        active.write(buf);
+      }
+      activeSize += HEADER_SIZE + length;
+      nextOffset = offset + 1;
+      return true;
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot append event %d to event journal", offset);
+      return false;
+    }
+  }
+
+  /** Deletes the oldest segments, except the active one, as configured by the retention. */
+  private void prune() {
+    long size = 0;
+    for (Path file : segments.values()) {
+      size += sizeOf(file);
+    }
+    long minModified = System.currentTimeMillis() - maxAgeMillis;
+    for (Map.Entry<Long, Path> e : segments.headMap(segments.lastKey()).entrySet()) {
+      Path file = e.getValue();
+      long fileSize = sizeOf(file);
+      try {
+        if (size <= maxSize && Files.getLastModifiedTime(file).toMillis() >= minModified) {
+          break;
+        }
+        segments.remove(e.getKey());
+        Files.deleteIfExists(file);
+        size -= fileSize;
+      } catch (IOException err) {
+        logger.atWarning().withCause(err).log("Cannot delete event journal segment %s", file);
+        break;
+      }
+    }
+  }
+
+  private static long sizeOf(Path file) {
+    try {
+      return Files.size(file);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  /** Offset of the next event that will be appended. */
+  public long getNextOffset() {
+    return nextOffset;
+  }
+
+  /**
+   * Reads events from the journal.
+   *
+   * <p>Records before {@code fromOffset} are skipped by reading their headers only. If the events
+   * starting at {@code fromOffset} were already removed by the retention, reading starts at the
+   * oldest available event and {@link Batch#eventsDropped()} is set.
+   *
+   * @param fromOffset offset of the first event to read
+   * @param limit maximum number of events to read
+   * @return the events, with the offset from which to continue reading
+   */
+  public Batch read(long fromOffset, int limit) throws IOException {
+    long end = nextOffset;
+    if (fromOffset >= end || limit <= 0) {
+      return Batch.create(ImmutableList.of(), Math.min(fromOffset, end), false);
+    }
+
+    Map.Entry<Long, Path> first = segments.floorEntry(fromOffset);
+    boolean dropped = false;
+    if (first == null) {
+      first = segments.firstEntry();
+      if (first == null) {
+        return Batch.create(ImmutableList.of(), end, true);
+      }
+      dropped = true;
+    }
+
+    List<Entry> entries = new ArrayList<>();
+    long next = fromOffset;
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    for (Map.Entry<Long, Path> segment : segments.tailMap(first.getKey(), true).entrySet()) {
+      // Records are only read up to the offset that was known to be complete when reading started,
+      // as the writer may be appending to the last segment.
+      // Each segment ends where the next one starts.
+      long offset = segment.getKey();
+      Long nextSegment = segments.higherKey(offset);
+      long segmentEnd = nextSegment != null ? Math.min(nextSegment, end) : end;
+      try (FileChannel channel = FileChannel.open(segment.getValue(), StandardOpenOption.READ)) {
+        long pos = 0;
+        while (offset < segmentEnd && entries.size() < limit) {
+          header.clear();
+          readFully(channel, header, pos);
+          int length = header.getInt(0);
+          if (offset >= next) {
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, pos + HEADER_SIZE);
+            entries.add(Entry.create(offset, new String(payload.array(), UTF_8)));
+            next = offset + 1;
+          }
+          pos += HEADER_SIZE + length;
+          offset++;
+        }
+      } catch (NoSuchFileException e) {
+        // The segment was removed by the retention in the meantime.
+        dropped = true;
+      }
+      if (offset >= end || entries.size() >= limit) {
+        break;
+      }
+    }
+    if (entries.isEmpty() && dropped) {
+      Map.Entry<Long, Path> oldest = segments.firstEntry();
+      next = oldest != null ? Math.max(next, oldest.getKey()) : end;
+    }
+    return Batch.create(ImmutableList.copyOf(entries), next, dropped);
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buf, long pos) throws IOException {
+    while (buf.hasRemaining()) {
+      int n = channel.read(buf, pos + buf.position());
+      if (n < 0) {
+        throw new IOException("Unexpected end of event journal segment");
+      }
+    }
+  }
+
+  /**
+   * Deserializes an event read from the journal.
+   *
+   * @return the event, or {@code null} if the event cannot be deserialized, e.g. because its type
+   *     was registered by a plugin which is no longer loaded
+   */
+  @Nullable
+  public Event parse(Entry entry) {
+    try {
+      return gson.fromJson(entry.json(), Event.class);
+    } catch (JsonParseException e) {
+      logger.atFine().withCause(e).log("Cannot parse event %d of event journal", entry.offset());
+      return null;
+    }
+  }
+
+  /** Registers a callback which is invoked after an event was appended to the journal. */
+  public RegistrationHandle addAppendListener(Runnable listener) {
+    appendListeners.add(listener);
+    return () -> appendListeners.remove(listener);
+  }
+}
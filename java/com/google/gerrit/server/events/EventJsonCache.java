@@ -0,0 +1,63 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gson.Gson;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Serializes events to JSON once for all listeners that send them to clients.
+ *
+ * <p>The {@link EventBroker} hands the same {@link Event} instance to every listener, e.g. to every
+ * stream-events session. The JSON of an event is remembered as long as the event is referenced, so
+ * that the cost of serializing grows with the number of events rather than with the number of
+ * events times the number of listeners.
+ *
+ * <p>Events must not be modified after they were serialized.
+ */
+@Singleton
+public class EventJsonCache {
+  private final Gson gson;
+
+  /** Keys are compared by identity, as events don't implement {@code equals}. */
+  private final Cache<Event, byte[]> json =
+      CacheBuilder.newBuilder().weakKeys().maximumSize(4096).build();
+
+  @Inject
+  EventJsonCache(@EventGson Gson gson) {
+    this.gson = gson;
+  }
+
+  /**
+   * Returns the UTF-8 encoded JSON of the event, without trailing newline. The returned array is
+   * shared and must not be modified.
+   */
+  public byte[] toJson(Event event) {
+    try {
+      return json.get(event, () -> gson.toJson(event).getBytes(UTF_8));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+}
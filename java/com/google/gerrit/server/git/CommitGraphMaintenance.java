@@ -0,0 +1,296 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.events.GitBatchRefUpdateListener;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.metrics.CallbackMetric0;
+import com.google.gerrit.metrics.CallbackMetric1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.ScheduleConfig;
+import com.google.gerrit.server.config.ScheduleConfig.Schedule;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphWriter;
+import org.eclipse.jgit.internal.storage.commitgraph.GraphCommits;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.LockFile;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.CoreConfig;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Maintains the commit-graph files of the repositories, including changed-path Bloom filters.
+ *
+ * <p>The commit-graph is rewritten by JGit's garbage collection, which is enabled by {@code
+ * gc.writeCommitGraph}, and, if {@code commitGraph.startTime} and {@code commitGraph.interval} are
+ * configured, periodically for all repositories that had ref updates since the commit-graph was
+ * last written. JGit reads the commit-graph transparently in all {@link RevWalk}s, see {@link
+ * SystemReaderInstaller}.
+ */
+@Singleton
+public class CommitGraphMaintenance implements GitBatchRefUpdateListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  public static final String SECTION = "commitGraph";
+
+  private static final int MAX_REPO_COUNT = 1000;
+
+  /** Returns whether commit-graph maintenance is enabled in the given Gerrit server config. */
+  public static boolean isEnabled(Config cfg) {
+    return cfg.getBoolean(SECTION, "enabled", false);
+  }
+
+  /** Returns whether changed-path Bloom filters are written and read. */
+  public static boolean changedPathsEnabled(Config cfg) {
+    return cfg.getBoolean(SECTION, "changedPaths", true);
+  }
+
+  static class Lifecycle implements LifecycleListener {
+    private final WorkQueue queue;
+    private final CommitGraphMaintenance maintenance;
+    private final Optional<Schedule> schedule;
+
+    @Inject
+    Lifecycle(
+        WorkQueue queue, CommitGraphMaintenance maintenance, @GerritServerConfig Config cfg) {
+      this.queue = queue;
+      this.maintenance = maintenance;
+      this.schedule = ScheduleConfig.createSchedule(cfg, SECTION);
+    }
+
+    @Override
+    public void start() {
+      if (maintenance.isEnabled()) {
+        schedule.ifPresent(
+            s ->
+                queue.scheduleAtFixedRate(
+                    new Runnable() {
+                      @Override
+                      public void run() {
+                        maintenance.writeStale();
+                      }
+
+                      @Override
+                      public String toString() {
+                        return "Commit-graph writer";
+                      }
+                    },
+                    s));
+      }
+    }
+
+    @Override
+    public void stop() {
+      // handled by WorkQueue.stop() already
+    }
+  }
+
+  private final GitRepositoryManager repoManager;
+  private final boolean enabled;
+  private final boolean changedPaths;
+  private final Set<Project.NameKey> stale = ConcurrentHashMap.newKeySet();
+  private final Map<String, Double> coverage = new ConcurrentHashMap<>();
+  private final Timer0 writeLatency;
+
+  @Inject
+  CommitGraphMaintenance(
+      @GerritServerConfig Config cfg, GitRepositoryManager repoManager, MetricMaker metricMaker) {
+    this.repoManager = repoManager;
+    this.enabled = isEnabled(cfg);
+    this.changedPaths = changedPathsEnabled(cfg);
+
+    writeLatency =
+        metricMaker.newTimer(
+            "git/commit_graph/write_latency",
+            new Description("Latency of writing the commit-graph of a repository")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+    CallbackMetric0<Integer> staleRepos =
+        metricMaker.newCallbackMetric(
+            "git/commit_graph/stale_repositories",
+            Integer.class,
+            new Description(
+                    "Number of repositories with ref updates that are not yet covered by the"
+                        + " commit-graph")
+                .setGauge());
+    metricMaker.newTrigger(staleRepos, () -> staleRepos.set(stale.size()));
+    CallbackMetric1<String, Double> coveragePerRepo =
+        metricMaker.newCallbackMetric(
+            "git/commit_graph/coverage_per_repository",
+            Double.class,
+            new Description(
+                    "Fraction of the reachable commits that were already contained in the"
+                        + " commit-graph when it was last rewritten")
+                .setGauge(),
+            Field.ofProjectName("repository_name")
+                .description("The name of the repository.")
+                .build());
+    metricMaker.newTrigger(
+        coveragePerRepo,
+        () -> {
+          if (coverage.isEmpty()) {
+            coveragePerRepo.forceCreate("");
+          } else {
+            coverage.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue())
+                .limit(MAX_REPO_COUNT)
+                .forEach(e -> coveragePerRepo.set(e.getKey(), e.getValue()));
+            coveragePerRepo.prune();
+          }
+        });
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void onGitBatchRefUpdate(GitBatchRefUpdateListener.Event event) {
+    if (enabled) {
+      stale.add(Project.nameKey(event.getProjectName()));
+    }
+  }
+
+  /** Rewrites the commit-graph of all repositories that had ref updates since the last write. */
+  void writeStale() {
+    Set<Project.NameKey> projects = new HashSet<>(stale);
+    for (Project.NameKey p : projects) {
+      try (Repository repo = repoManager.openRepository(p)) {
+        write(p, repo);
+      } catch (RepositoryNotFoundException e) {
+        stale.remove(p);
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Failed to write commit-graph of %s", p);
+      }
+    }
+  }
+
+  /**
+   * Rewrites the commit-graph of a repository so that it contains all commits reachable from its
+   * refs.
+   *
+   * <p>JGit can only write a single commit-graph file, hence the whole commit-graph is rewritten if
+   * any ref points to a commit that it doesn't contain yet. The commit data and the changed-path
+   * Bloom filters of the commits that it already contains are reused from it.
+   *
+   * <p>Does nothing for repositories that are not stored on the local file system and for
+   * repositories in which {@code core.commitGraph} is disabled. Refs that point to missing objects
+   * are ignored.
+   *
+   * @return whether the commit-graph was rewritten, {@code false} if it was up to date already.
+   */
+  @CanIgnoreReturnValue
+  public boolean write(Project.NameKey project, Repository repo) throws IOException {
+    if (!enabled) {
+      return false;
+    }
+    Repository r =
+        repo instanceof DelegateRepository ? ((DelegateRepository) repo).delegate() : repo;
+    if (!(r instanceof FileRepository) || !r.getConfig().get(CoreConfig.KEY).enableCommitGraph()) {
+      stale.remove(project);
+      return false;
+    }
+
+    // Remove before reading the refs, so that concurrent ref updates mark the repository as
+    // stale again.
+    stale.remove(project);
+    try (Timer0.Context ctx = writeLatency.start();
+        RevWalk rw = new RevWalk(r)) {
+      Set<ObjectId> tips = new HashSet<>();
+      for (Ref ref : r.getRefDatabase().getRefs()) {
+        if (ref.getObjectId() == null) {
+          continue;
+        }
+        RevObject obj;
+        try {
+          obj = rw.peel(rw.parseAny(ref.getObjectId()));
+        } catch (MissingObjectException e) {
+          logger.atFine().log(
+              "Skipping ref %s of %s for commit-graph: %s", ref.getName(), project, e.getMessage());
+          continue;
+        }
+        if (obj instanceof RevCommit) {
+          tips.add(obj);
+        }
+      }
+      if (tips.isEmpty()) {
+        return false;
+      }
+
+      Optional<CommitGraph> graph = rw.getObjectReader().getCommitGraph();
+      if (graph.isPresent() && tips.stream().allMatch(t -> graph.get().findGraphPosition(t) >= 0)) {
+        // All commits reachable from the tips are contained, since the commit-graph is closed
+        // under reachability.
+        coverage.put(project.get(), 1.0);
+        return false;
+      }
+
+      long previousCount = graph.map(CommitGraph::getCommitCnt).orElse(0L);
+      GraphCommits commits = GraphCommits.fromWalk(NullProgressMonitor.INSTANCE, tips, rw);
+      File file = new File(((FileRepository) r).getObjectsDirectory(), "info/commit-graph");
+      LockFile lock = new LockFile(file);
+      if (!lock.lock()) {
+        throw new IOException("Cannot lock " + file);
+      }
+      try {
+        try (OutputStream out = lock.getOutputStream()) {
+          new CommitGraphWriter(commits, changedPaths).write(NullProgressMonitor.INSTANCE, out);
+        }
+        if (!lock.commit()) {
+          throw new IOException("Cannot commit write to " + file);
+        }
+      } finally {
+        lock.unlock();
+      }
+
+      coverage.put(
+          project.get(),
+          commits.size() > 0 ? Math.min(1.0, (double) previousCount / commits.size()) : 1.0);
+      logger.atFine().log(
+          "Wrote commit-graph of %s with %d commits (%d before)",
+          project, commits.size(), previousCount);
+      return true;
+    } catch (IOException e) {
+      stale.add(project);
+      throw e;
+    }
+  }
+}
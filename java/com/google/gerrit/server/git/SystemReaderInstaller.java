@@ -16,11 +16,13 @@ package com.google.gerrit.server.git;
 
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
 import com.google.gerrit.server.util.git.DelegateSystemReader;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.storage.file.FileBasedConfig;
 import org.eclipse.jgit.util.FS;
 import org.eclipse.jgit.util.SystemReader;
@@ -30,10 +32,12 @@ public class SystemReaderInstaller implements LifecycleListener {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private final SitePaths site;
+  private final Config cfg;
 
   @Inject
-  SystemReaderInstaller(SitePaths site) {
+  SystemReaderInstaller(SitePaths site, @GerritServerConfig Config cfg) {
     this.site = site;
+    this.cfg = cfg;
   }
 
   @Override
@@ -51,8 +55,40 @@ public class SystemReaderInstaller implements LifecycleListener {
     return new DelegateSystemReader(current) {
       @Override
       public FileBasedConfig openSystemConfig(Config parent, FS fs) {
-        return new FileBasedConfig(parent, site.jgit_config.toFile(), FS.DETECTED);
+        return new FileBasedConfig(defaults(parent), site.jgit_config.toFile(), FS.DETECTED);
       }
     };
   }
+
+  /**
+   * Returns the defaults for the JGit configuration that are implied by the Gerrit server config.
+   * Values in {@code etc/jgit.config} take precedence over them.
+   */
+  private Config defaults(Config parent) {
+    Config defaults = new Config(parent);
+    if (CommitGraphMaintenance.isEnabled(cfg)) {
+      // Let all RevWalks read the commit-graph that is written by CommitGraphMaintenance.
+      defaults.setBoolean(
+          ConfigConstants.CONFIG_CORE_SECTION, null, ConfigConstants.CONFIG_COMMIT_GRAPH, true);
+      // Let JGit's garbage collection rewrite the commit-graph, so that it isn't written twice.
+      defaults.setBoolean(
+          ConfigConstants.CONFIG_GC_SECTION,
+          null,
+          ConfigConstants.CONFIG_KEY_WRITE_COMMIT_GRAPH,
+          true);
+      if (CommitGraphMaintenance.changedPathsEnabled(cfg)) {
+        defaults.setBoolean(
+            ConfigConstants.CONFIG_COMMIT_GRAPH_SECTION,
+            null,
+            ConfigConstants.CONFIG_KEY_READ_CHANGED_PATHS,
+            true);
+        defaults.setBoolean(
+            ConfigConstants.CONFIG_GC_SECTION,
+            null,
+            ConfigConstants.CONFIG_KEY_WRITE_CHANGED_PATHS,
+            true);
+      }
+    }
+    return defaults;
+  }
 }
@@ -0,0 +1,24 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+/** Used to retrieve the user on whose behalf an operation runs. */
+public interface UserRunnable extends Runnable {
+  /**
+   * Returns a key for the user, which is equal for all operations of the same user, e.g. {@link
+   * com.google.gerrit.server.CurrentUser#getCacheKey()}.
+   */
+  Object getUserKey();
+}
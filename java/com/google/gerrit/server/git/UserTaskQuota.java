@@ -0,0 +1,113 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue.Task;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Counts the tasks that each user runs per queue, so that a single user can't occupy all threads of
+ * a queue.
+ *
+ * <p>The maximum is configured per queue by {@code queue.<name>.maxTasksPerUser} and applies to the
+ * tasks which run on behalf of a user, see {@link UserRunnable}. The queue defers the tasks of a
+ * user that is at the maximum without holding a thread for them, and starts them once a task of the
+ * user is done.
+ */
+@Singleton
+public class UserTaskQuota {
+  private final Config cfg;
+  private final Map<String, Integer> maxTasksPerUserByQueue = new ConcurrentHashMap<>();
+
+  // Guarded by this.
+  private final Table<String, Object, Integer> runningByQueueAndUser = HashBasedTable.create();
+  private final Map<Integer, Object> userByAdmittedTask = new HashMap<>();
+
+  @Inject
+  UserTaskQuota(@GerritServerConfig Config cfg) {
+    this.cfg = cfg;
+  }
+
+  /** Returns whether tasks of the given queue are limited per user. */
+  public boolean isLimited(String queue) {
+    return getMaxTasksPerUser(queue) > 0;
+  }
+
+  /**
+   * Admits a task if its user runs less than the maximum number of tasks in the queue of the task.
+   * Tasks that were admitted before are admitted again.
+   *
+   * @return whether the task may start.
+   */
+  public boolean tryAcquire(Task<?> task) {
+    Object user = task.getUserKey();
+    if (user == null) {
+      return true;
+    }
+    String queue = task.getQueueName();
+    int max = getMaxTasksPerUser(queue);
+    if (max <= 0) {
+      return true;
+    }
+
+    synchronized (this) {
+      if (userByAdmittedTask.containsKey(task.getTaskId())) {
+        return true;
+      }
+      Integer running = runningByQueueAndUser.get(queue, user);
+      int count = running != null ? running : 0;
+      if (count >= max) {
+        return false;
+      }
+      runningByQueueAndUser.put(queue, user, count + 1);
+      userByAdmittedTask.put(task.getTaskId(), user);
+      return true;
+    }
+  }
+
+  /**
+   * Frees the slot of an admitted task. Does nothing if the task wasn't admitted or its slot was
+   * freed before.
+   *
+   * @return whether a slot was freed.
+   */
+  public synchronized boolean release(Task<?> task) {
+    Object user = userByAdmittedTask.remove(task.getTaskId());
+    if (user == null) {
+      return false;
+    }
+    String queue = task.getQueueName();
+    Integer running = runningByQueueAndUser.get(queue, user);
+    if (running == null || running <= 1) {
+      runningByQueueAndUser.remove(queue, user);
+    } else {
+      runningByQueueAndUser.put(queue, user, running - 1);
+    }
+    return true;
+  }
+
+  private int getMaxTasksPerUser(String queue) {
+    return maxTasksPerUserByQueue.computeIfAbsent(
+        queue, q -> cfg.getInt("queue", q, "maxTasksPerUser", 0));
+  }
+}
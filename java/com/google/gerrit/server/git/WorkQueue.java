@@ -26,22 +26,30 @@ import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.extensions.registration.DynamicMap;
 import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
 import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.ScheduleConfig.Schedule;
 import com.google.gerrit.server.logging.LoggingContext;
 import com.google.gerrit.server.logging.LoggingContextAwareRunnable;
 import com.google.gerrit.server.plugincontext.PluginMapContext;
 import com.google.gerrit.server.util.IdGenerator;
+import com.google.gerrit.server.util.VirtualThreadPinningMetrics;
+import com.google.gerrit.server.util.VirtualThreads;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.lang.reflect.Field;
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
@@ -166,6 +174,7 @@ public class WorkQueue {
       DynamicMap.mapOf(binder(), WorkQueue.TaskListener.class);
       bind(WorkQueue.class);
       listener().to(Lifecycle.class);
+      listener().to(VirtualThreadPinningMetrics.class);
     }
   }
 
@@ -174,18 +183,21 @@ public class WorkQueue {
   private final MetricMaker metrics;
   private final CopyOnWriteArrayList<Executor> queues;
   private final PluginMapContext<TaskListener> listeners;
+  private final UserTaskQuota userTaskQuota;
 
   @Inject
   WorkQueue(
       IdGenerator idGenerator,
       @GerritServerConfig Config cfg,
       MetricMaker metrics,
-      PluginMapContext<TaskListener> listeners) {
+      PluginMapContext<TaskListener> listeners,
+      UserTaskQuota userTaskQuota) {
     this(
         idGenerator,
         Math.max(cfg.getInt("execution", "defaultThreadPoolSize", 2), 2),
         metrics,
-        listeners);
+        listeners,
+        userTaskQuota);
   }
 
   /** Constructor to allow binding the WorkQueue more explicitly in a vhost setup. */
@@ -194,11 +206,25 @@ public class WorkQueue {
       int defaultThreadPoolSize,
       MetricMaker metrics,
       PluginMapContext<TaskListener> listeners) {
+    this(idGenerator, defaultThreadPoolSize, metrics, listeners, new UserTaskQuota(new Config()));
+  }
+
+  /**
+   * Constructor to allow binding the WorkQueue more explicitly in a vhost setup, with limits on the
+   * tasks per user.
+   */
+  public WorkQueue(
+      IdGenerator idGenerator,
+      int defaultThreadPoolSize,
+      MetricMaker metrics,
+      PluginMapContext<TaskListener> listeners,
+      UserTaskQuota userTaskQuota) {
     this.idGenerator = idGenerator;
     this.metrics = metrics;
     this.queues = new CopyOnWriteArrayList<>();
-    this.defaultQueue = createQueue(defaultThreadPoolSize, "WorkQueue", true);
     this.listeners = listeners;
+    this.userTaskQuota = userTaskQuota;
+    this.defaultQueue = createQueue(defaultThreadPoolSize, "WorkQueue", true);
   }
 
   /** Get the default work queue, for miscellaneous tasks. */
@@ -247,10 +273,43 @@ public class WorkQueue {
    * @param threadPriority thread priority.
    * @param withMetrics whether to create metrics.
    */
-  @SuppressWarnings("ThreadPriorityCheck")
   public ScheduledThreadPoolExecutor createQueue(
       int poolsize, String queueName, int threadPriority, boolean withMetrics) {
-    Executor executor = new Executor(poolsize, queueName);
+    return createQueue(poolsize, queueName, threadPriority, withMetrics, false);
+  }
+
+  /**
+   * Create a new executor queue, optionally with metrics and virtual threads.
+   *
+   * <p>If virtual threads are requested, the pool size still bounds the number of tasks that run
+   * at the same time, but the threads don't block platform threads while they wait for I/O. If
+   * the runtime doesn't support virtual threads, platform threads are used.
+   *
+   * @param poolsize the size of the pool.
+   * @param queueName the name of the queue.
+   * @param threadPriority thread priority, ignored for virtual threads.
+   * @param withMetrics whether to create metrics.
+   * @param virtualThreads whether to run the tasks on virtual threads.
+   */
+  @SuppressWarnings("ThreadPriorityCheck")
+  public ScheduledThreadPoolExecutor createQueue(
+      int poolsize,
+      String queueName,
+      int threadPriority,
+      boolean withMetrics,
+      boolean virtualThreads) {
+    boolean useVirtualThreads = virtualThreads && VirtualThreads.isSupported();
+    if (virtualThreads && !useVirtualThreads) {
+      logger.atWarning().log(
+          "Virtual threads are not supported, using platform threads for queue %s", queueName);
+    }
+    Executor executor =
+        new Executor(
+            poolsize,
+            queueName,
+            useVirtualThreads
+                ? VirtualThreads.newThreadFactory()
+                : Executors.defaultThreadFactory());
     if (withMetrics) {
       logger.atInfo().log("Adding metrics for '%s' queue", queueName);
       executor.buildMetrics(queueName);
@@ -258,7 +317,7 @@ public class WorkQueue {
     executor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
     executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(true);
     queues.add(executor);
-    if (threadPriority != Thread.NORM_PRIORITY) {
+    if (threadPriority != Thread.NORM_PRIORITY && !useVirtualThreads) {
       ThreadFactory parent = executor.getThreadFactory();
       executor.setThreadFactory(
           task -> {
@@ -412,12 +471,16 @@ public class WorkQueue {
     private final String queueName;
     private final AtomicLong priorityGenerator = new AtomicLong();
     private final PriorityBlockingQueue<ParkedTask> parked = new PriorityBlockingQueue<>();
+    private volatile Timer0 queueTime;
+
+    // Tasks of users that run the maximum number of tasks in this queue, by user. Guarded by
+    // itself.
+    private final Map<Object, Queue<Task<?>>> deferredByUser = new HashMap<>();
 
-    Executor(int corePoolSize, final String queueName) {
+    Executor(int corePoolSize, final String queueName, ThreadFactory parent) {
       super(
           corePoolSize,
           new ThreadFactory() {
-            private final ThreadFactory parent = Executors.defaultThreadFactory();
             private final AtomicInteger tid = new AtomicInteger(1);
 
             @Override
@@ -517,6 +580,14 @@ public class WorkQueue {
     }
 
     private void buildMetrics(String queueName) {
+      queueTime =
+          metrics.newTimer(
+              getMetricName(queueName, "queue_time"),
+              new Description(
+                      "Time from when a task was ready to run until it started, including the time"
+                          + " it was deferred or parked")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS));
       metrics.newCallbackMetric(
           getMetricName(queueName, "max_pool_size"),
           Long.class,
@@ -613,6 +684,63 @@ public class WorkQueue {
       if (isRemoved && !listeners.isEmpty()) {
         cancelIfParked(task);
       }
+      if (isRemoved) {
+        releaseUserQuota(task);
+      }
+    }
+
+    /**
+     * Defers the task if its user already runs the maximum number of tasks in this queue. The
+     * deferred task doesn't hold a thread, it's put back into the queue once a task of the user is
+     * done.
+     *
+     * @return whether the task was deferred.
+     */
+    boolean deferIfOverUserQuota(Task<?> task) {
+      Object user = task.getUserKey();
+      if (user == null || !userTaskQuota.isLimited(queueName)) {
+        return false;
+      }
+      synchronized (deferredByUser) {
+        if (userTaskQuota.tryAcquire(task)) {
+          return false;
+        }
+        task.runningState.set(null);
+        deferredByUser.computeIfAbsent(user, u -> new ArrayDeque<>()).add(task);
+        return true;
+      }
+    }
+
+    private void releaseUserQuota(Task<?> task) {
+      Object user = task.getUserKey();
+      if (user == null || !userTaskQuota.isLimited(queueName)) {
+        return;
+      }
+      Task<?> next;
+      synchronized (deferredByUser) {
+        Queue<Task<?>> deferred = deferredByUser.get(user);
+        if (deferred != null) {
+          deferred.remove(task);
+        }
+        if (!userTaskQuota.release(task) || deferred == null) {
+          return;
+        }
+        next = deferred.poll();
+        if (deferred.isEmpty()) {
+          deferredByUser.remove(user);
+        }
+        if (next == null || !userTaskQuota.tryAcquire(next)) {
+          return;
+        }
+      }
+
+      if (isShutdown()) {
+        next.cancel(false);
+        return;
+      }
+      // The task was already queued and run once, so it's not decorated again.
+      getQueue().add(next);
+      prestartCoreThread();
     }
 
     void cancelIfParked(Task<?> task) {
@@ -651,6 +779,13 @@ public class WorkQueue {
       }
     }
 
+    void recordQueueTime(Task<?> task) {
+      Timer0 timer = queueTime;
+      if (timer != null && !task.isPeriodic()) {
+        timer.record(Math.max(0, System.nanoTime() - task.readyNanos), TimeUnit.NANOSECONDS);
+      }
+    }
+
     public void onStart(Task<?> task) {
       listeners.runEach(extension -> extension.get().onStart(task));
     }
@@ -780,6 +915,7 @@ public class WorkQueue {
     private final int taskId;
     private final Instant startTime;
     private final long nanosPeriod;
+    private final long readyNanos;
 
     // runningState is non-null when listener or task code is running in an executor thread
     private final AtomicReference<State> runningState = new AtomicReference<>();
@@ -796,6 +932,7 @@ public class WorkQueue {
       this.executor = executor;
       this.taskId = taskId;
       this.startTime = Instant.now();
+      this.readyNanos = System.nanoTime() + Math.max(0, task.getDelay(TimeUnit.NANOSECONDS));
     }
 
     public int getTaskId() {
@@ -829,6 +966,15 @@ public class WorkQueue {
       return executor.queueName;
     }
 
+    /**
+     * Returns the key of the user on whose behalf the task runs, {@code null} if the task doesn't
+     * run on behalf of a user.
+     */
+    @Nullable
+    public Object getUserKey() {
+      return runnable instanceof UserRunnable ? ((UserRunnable) runnable).getUserKey() : null;
+    }
+
     @Override
     @CanIgnoreReturnValue
     public boolean cancel(boolean mayInterruptIfRunning) {
@@ -901,10 +1047,15 @@ public class WorkQueue {
     @Override
     public void run() {
       if (runningState.compareAndSet(null, State.READY)) {
+        if (executor.deferIfOverUserQuota(this)) {
+          // Put back into the queue once a task of the same user is done.
+          return;
+        }
         String oldThreadName = Thread.currentThread().getName();
         try {
           Thread.currentThread().setName(oldThreadName + "[" + this + "]");
           executor.waitUntilReadyToStart(this); // Transitions to PARKED while not ready to start
+          executor.recordQueueTime(this);
           runningState.set(State.STARTING);
           executor.onStart(this);
           runningState.set(State.RUNNING);
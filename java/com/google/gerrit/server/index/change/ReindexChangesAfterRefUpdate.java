@@ -14,8 +14,8 @@
 
 package com.google.gerrit.server.index.change;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
-import static com.google.gerrit.server.query.change.ChangeData.asChanges;
 
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.FutureCallback;
@@ -27,10 +27,12 @@ import com.google.gerrit.entities.Project;
 import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.extensions.events.GitBatchRefUpdateListener;
 import com.google.gerrit.server.change.MergeabilityComputationBehavior;
+import com.google.gerrit.server.change.MergeabilityPrecomputer;
 import com.google.gerrit.server.config.AllUsersName;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.QueueProvider.QueueType;
 import com.google.gerrit.server.index.IndexExecutor;
+import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.query.change.InternalChangeQuery;
 import com.google.gerrit.server.util.ManualRequestContext;
 import com.google.gerrit.server.util.OneOffRequestContext;
@@ -47,7 +49,9 @@ import org.eclipse.jgit.lib.Config;
  * to compute contents of an index document.
  *
  * <p>Reindexes any open changes that has a destination branch that was updated to ensure that
- * 'mergeable' is still current.
+ * 'mergeable' is still current. If enabled, the mergeability of the changes is precomputed by the
+ * {@link MergeabilityPrecomputer} before the changes are reindexed. The changes are reindexed
+ * anyway if the precomputation doesn't finish in time.
  */
 public class ReindexChangesAfterRefUpdate implements GitBatchRefUpdateListener {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
@@ -58,6 +62,7 @@ public class ReindexChangesAfterRefUpdate implements GitBatchRefUpdateListener {
   private final ChangeIndexCollection changeIndexes;
   private final AllUsersName allUsersName;
   private final ListeningExecutorService executor;
+  private final MergeabilityPrecomputer mergeabilityPrecomputer;
   private final boolean enabled;
 
   @Inject
@@ -68,13 +73,15 @@ public class ReindexChangesAfterRefUpdate implements GitBatchRefUpdateListener {
       ChangeIndexer.Factory changeIndexerFactory,
       ChangeIndexCollection changeIndexes,
       AllUsersName allUsersName,
-      @IndexExecutor(QueueType.BATCH) ListeningExecutorService executor) {
+      @IndexExecutor(QueueType.BATCH) ListeningExecutorService executor,
+      MergeabilityPrecomputer mergeabilityPrecomputer) {
     this.requestContext = requestContext;
     this.queryProvider = queryProvider;
     this.changeIndexerFactory = changeIndexerFactory;
     this.changeIndexes = changeIndexes;
     this.allUsersName = allUsersName;
     this.executor = executor;
+    this.mergeabilityPrecomputer = mergeabilityPrecomputer;
     this.enabled = MergeabilityComputationBehavior.fromConfig(cfg).includeInIndex();
   }
 
@@ -89,6 +96,7 @@ public class ReindexChangesAfterRefUpdate implements GitBatchRefUpdateListener {
       }
     }
 
+    long staleSinceNanos = System.nanoTime();
     for (UpdatedRef ref : event.getUpdatedRefs()) {
       if (!enabled
           || ref.getRefName().startsWith(RefNames.REFS_CHANGES)
@@ -96,18 +104,17 @@ public class ReindexChangesAfterRefUpdate implements GitBatchRefUpdateListener {
           || ref.getRefName().startsWith(RefNames.REFS_USERS)) {
         continue;
       }
+      Project.NameKey project = Project.nameKey(event.getProjectName());
       Futures.addCallback(
           executor.submit(new GetChanges(event.getProjectName(), ref)),
           new FutureCallback<>() {
             @Override
-            public void onSuccess(List<Change> changes) {
-              for (Change c : changes) {
-                @SuppressWarnings("unused")
-                Future<?> possiblyIgnoredError =
-                    changeIndexerFactory
-                        .create(executor, changeIndexes)
-                        .indexAsync(c.getProject(), c.getId());
-              }
+            public void onSuccess(List<Change.Id> changeIds) {
+              // Reindex once the mergeability is in the cache or the precomputation timed out,
+              // regardless of whether the precomputation succeeded.
+              mergeabilityPrecomputer
+                  .precompute(project, changeIds, staleSinceNanos)
+                  .addListener(() -> reindex(project, changeIds), directExecutor());
             }
 
             @Override
@@ -119,6 +126,14 @@ public class ReindexChangesAfterRefUpdate implements GitBatchRefUpdateListener {
     }
   }
 
+  private void reindex(Project.NameKey project, List<Change.Id> changeIds) {
+    for (Change.Id id : changeIds) {
+      @SuppressWarnings("unused")
+      Future<?> possiblyIgnoredError =
+          changeIndexerFactory.create(executor, changeIndexes).indexAsync(project, id);
+    }
+  }
+
   private abstract class Task<V> implements Callable<V> {
     protected UpdatedRef updatedRef;
 
@@ -142,7 +157,7 @@ public class ReindexChangesAfterRefUpdate implements GitBatchRefUpdateListener {
     protected abstract void remove();
   }
 
-  private class GetChanges extends Task<List<Change>> {
+  private class GetChanges extends Task<List<Change.Id>> {
     protected String projectName;
 
     private GetChanges(String projectName, UpdatedRef updatedRef) {
@@ -151,13 +166,15 @@ public class ReindexChangesAfterRefUpdate implements GitBatchRefUpdateListener {
     }
 
     @Override
-    protected List<Change> impl(RequestContext ctx) {
+    protected List<Change.Id> impl(RequestContext ctx) {
       String ref = updatedRef.getRefName();
       Project.NameKey project = Project.nameKey(projectName);
-      if (ref.equals(RefNames.REFS_CONFIG)) {
-        return asChanges(queryProvider.get().byProjectOpen(project));
-      }
-      return asChanges(queryProvider.get().byBranchNew(BranchNameKey.create(project, ref)));
+      List<ChangeData> changes =
+          ref.equals(RefNames.REFS_CONFIG)
+              ? queryProvider.get().byProjectOpen(project)
+              : queryProvider.get().byBranchNew(BranchNameKey.create(project, ref));
+      // Only pass the IDs on, ChangeData must not be shared between threads.
+      return changes.stream().map(ChangeData::getId).collect(toImmutableList());
     }
 
     @Override
@@ -16,6 +16,8 @@ package com.google.gerrit.server.logging;
 
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.cache.request.RequestCache;
 import java.util.concurrent.Callable;
 
 /**
@@ -42,6 +44,7 @@ class LoggingContextAwareCallable<T> implements Callable<T> {
   private final MutablePerformanceLogRecords mutablePerformanceLogRecords;
   private final boolean aclLogging;
   private final MutableAclLogRecords mutableAclLogRecords;
+  @Nullable private final RequestCache requestCache;
 
   /**
    * Creates a LoggingContextAwareCallable that wraps the given {@link Callable}.
@@ -64,6 +67,7 @@ class LoggingContextAwareCallable<T> implements Callable<T> {
     this.mutablePerformanceLogRecords = mutablePerformanceLogRecords;
     this.aclLogging = LoggingContext.getInstance().isAclLogging();
     this.mutableAclLogRecords = mutableAclLogRecords;
+    this.requestCache = RequestCache.current();
   }
 
   @Override
@@ -86,11 +90,13 @@ class LoggingContextAwareCallable<T> implements Callable<T> {
     loggingCtx.setMutablePerformanceLogRecords(mutablePerformanceLogRecords);
     loggingCtx.aclLogging(aclLogging);
     loggingCtx.setMutableAclLogRecords(mutableAclLogRecords);
+    RequestCache oldRequestCache = RequestCache.attach(requestCache);
     try {
       return callable.call();
     } finally {
       // Cleanup logging context. This is important if the thread is pooled and reused.
       loggingCtx.clear();
+      RequestCache.attach(oldRequestCache);
     }
   }
 }
@@ -16,6 +16,8 @@ package com.google.gerrit.server.logging;
 
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.cache.request.RequestCache;
 
 /**
  * Wrapper for a {@link Runnable} that copies the {@link LoggingContext} from the current thread to
@@ -60,6 +62,7 @@ public class LoggingContextAwareRunnable implements Runnable {
   private final MutablePerformanceLogRecords mutablePerformanceLogRecords;
   private final boolean aclLogging;
   private final MutableAclLogRecords mutableAclLogRecords;
+  @Nullable private final RequestCache requestCache;
 
   /**
    * Creates a LoggingContextAwareRunnable that wraps the given {@link Runnable}.
@@ -82,6 +85,7 @@ public class LoggingContextAwareRunnable implements Runnable {
     this.mutablePerformanceLogRecords = mutablePerformanceLogRecords;
     this.aclLogging = LoggingContext.getInstance().isAclLogging();
     this.mutableAclLogRecords = mutableAclLogRecords;
+    this.requestCache = RequestCache.current();
   }
 
   public Runnable unwrap() {
@@ -109,11 +113,13 @@ public class LoggingContextAwareRunnable implements Runnable {
     loggingCtx.setMutablePerformanceLogRecords(mutablePerformanceLogRecords);
     loggingCtx.aclLogging(aclLogging);
     loggingCtx.setMutableAclLogRecords(mutableAclLogRecords);
+    RequestCache oldRequestCache = RequestCache.attach(requestCache);
     try {
       runnable.run();
     } finally {
       // Cleanup logging context. This is important if the thread is pooled and reused.
       loggingCtx.clear();
+      RequestCache.attach(oldRequestCache);
     }
   }
 }
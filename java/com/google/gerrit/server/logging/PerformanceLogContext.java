@@ -28,6 +28,9 @@ import org.eclipse.jgit.lib.Config;
  * <p>Capturing performance log records is disabled if there are no {@link PerformanceLogger}
  * registered (in this case the captured performance log records would never be used).
  *
+ * <p>{@link SamplingPerformanceLogger}s only get the performance log records of the requests that
+ * they sampled, but they get them even if performance logging is disabled.
+ *
  * <p>It's important to enable capturing of performance log records in a context that ensures to
  * consume the captured performance log records. Otherwise captured performance log records might
  * leak into other requests that are executed by the same thread (if a thread pool is used to
@@ -44,6 +47,9 @@ public class PerformanceLogContext implements AutoCloseable {
   private final boolean oldPerformanceLogging;
   private final ImmutableList<PerformanceLogRecord> oldPerformanceLogRecords;
 
+  private final boolean invokePerformanceLoggers;
+  private final ImmutableList<Extension<PerformanceLogger>> sampledBy;
+
   public PerformanceLogContext(
       Config gerritConfig, DynamicSet<PerformanceLogger> performanceLoggers) {
     this.performanceLoggers = performanceLoggers;
@@ -54,18 +60,39 @@ public class PerformanceLogContext implements AutoCloseable {
     LoggingContext.getInstance().clearPerformanceLogEntries();
 
     // Do not create performance log entries if performance logging is disabled or if no
-    // PerformanceLogger is registered.
+    // PerformanceLogger is registered, unless the request was sampled by a
+    // SamplingPerformanceLogger.
     boolean enablePerformanceLogging =
         gerritConfig.getBoolean("tracing", "performanceLogging", false);
+    ImmutableList.Builder<Extension<PerformanceLogger>> sampledBy = ImmutableList.builder();
+    boolean hasPerformanceLoggers = false;
+    for (Extension<PerformanceLogger> p : performanceLoggers.entries()) {
+      if (p.get() instanceof SamplingPerformanceLogger) {
+        if (((SamplingPerformanceLogger) p.get()).sample()) {
+          sampledBy.add(p);
+        }
+      } else {
+        hasPerformanceLoggers = true;
+      }
+    }
+    this.invokePerformanceLoggers = enablePerformanceLogging && hasPerformanceLoggers;
+    this.sampledBy = sampledBy.build();
     LoggingContext.getInstance()
-        .performanceLogging(
-            enablePerformanceLogging && !Iterables.isEmpty(performanceLoggers.entries()));
+        .performanceLogging(invokePerformanceLoggers || !this.sampledBy.isEmpty());
   }
 
   @Override
   public void close() {
     if (LoggingContext.getInstance().isPerformanceLogging()) {
-      runEach(performanceLoggers, LoggingContext.getInstance().getPerformanceLogRecords());
+      ImmutableList<PerformanceLogRecord> performanceLogRecords =
+          LoggingContext.getInstance().getPerformanceLogRecords();
+      if (invokePerformanceLoggers) {
+        runEach(
+            Iterables.filter(
+                performanceLoggers.entries(), p -> !(p.get() instanceof SamplingPerformanceLogger)),
+            performanceLogRecords);
+      }
+      runEach(sampledBy, performanceLogRecords);
     }
 
     // Restore old state. Required to support nesting of PerformanceLogContext's.
@@ -84,20 +111,18 @@ public class PerformanceLogContext implements AutoCloseable {
    *     performance loggers
    */
   private static void runEach(
-      DynamicSet<PerformanceLogger> performanceLoggers,
+      Iterable<Extension<PerformanceLogger>> performanceLoggers,
       ImmutableList<PerformanceLogRecord> performanceLogRecords) {
-    performanceLoggers
-        .entries()
-        .forEach(
-            p -> {
-              try (TraceContext traceContext = newPluginTrace(p)) {
-                performanceLogRecords.forEach(r -> r.writeTo(p.get()));
-                p.get().done();
-              } catch (RuntimeException e) {
-                logger.atWarning().withCause(e).log(
-                    "Failure in %s of plugin %s", p.get().getClass(), p.getPluginName());
-              }
-            });
+    performanceLoggers.forEach(
+        p -> {
+          try (TraceContext traceContext = newPluginTrace(p)) {
+            performanceLogRecords.forEach(r -> r.writeTo(p.get()));
+            p.get().done();
+          } catch (RuntimeException e) {
+            logger.atWarning().withCause(e).log(
+                "Failure in %s of plugin %s", p.get().getClass(), p.getPluginName());
+          }
+        });
   }
 
   /**
@@ -0,0 +1,35 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.logging;
+
+/**
+ * Performance logger that gets the performance log records of a sample of the requests.
+ *
+ * <p>Unlike other {@link PerformanceLogger}s, sampling performance loggers are invoked even if
+ * performance logging ({@code tracing.performanceLogging}) is disabled, but only for the requests
+ * that they sampled. Capturing performance log records is enabled for a request if any of the
+ * registered sampling performance loggers samples it.
+ */
+public interface SamplingPerformanceLogger extends PerformanceLogger {
+  /**
+   * Decides whether the performance log records of the request that is starting should be handed
+   * over to this logger.
+   *
+   * <p>Invoked once per request, hence implementations must be cheap.
+   *
+   * @return whether the request is sampled
+   */
+  boolean sample();
+}
@@ -388,9 +388,7 @@ public class ChangeEmailImpl implements ChangeEmail {
   /** TO or CC all vested parties (change owner, patch set uploader, author). */
   @Override
   public void addAuthors(RecipientType rt) {
-    for (Account.Id id : getAuthors()) {
-      email.addByAccountId(rt, id);
-    }
+    email.addByAccountIds(rt, getAuthors());
   }
 
   /** BCC any user who has starred this change. */
@@ -400,7 +398,7 @@ public class ChangeEmailImpl implements ChangeEmail {
       return;
     }
 
-    stars.forEach(accountId -> email.addByAccountId(RecipientType.BCC, accountId));
+    email.addByAccountIds(RecipientType.BCC, stars);
   }
 
   /** Include users and groups that want notification of events. */
@@ -428,9 +426,7 @@ public class ChangeEmailImpl implements ChangeEmail {
   /** Add users or email addresses to the TO, CC, or BCC list. */
   private void addWatchers(RecipientType type, WatcherList watcherList) {
     watcherAccounts.addAll(watcherList.accounts);
-    for (Account.Id user : watcherList.accounts) {
-      email.addByAccountId(type, user);
-    }
+    email.addByAccountIds(type, watcherList.accounts);
 
     watcherEmails.addAll(watcherList.emails);
     for (Address addr : watcherList.emails) {
@@ -456,9 +452,7 @@ public class ChangeEmailImpl implements ChangeEmail {
     }
 
     try {
-      for (Account.Id id : changeData.reviewers().all()) {
-        email.addByAccountId(RecipientType.CC, id);
-      }
+      email.addByAccountIds(RecipientType.CC, changeData.reviewers().all());
       for (Address addr : this.changeData.reviewersByEmail().all()) {
         email.addByEmail(RecipientType.CC, addr);
       }
@@ -476,9 +470,8 @@ public class ChangeEmailImpl implements ChangeEmail {
     }
 
     try {
-      for (Account.Id id : changeData.reviewers().byState(ReviewerStateInternal.REVIEWER)) {
-        email.addByAccountId(RecipientType.CC, id);
-      }
+      email.addByAccountIds(
+          RecipientType.CC, changeData.reviewers().byState(ReviewerStateInternal.REVIEWER));
       for (Address addr : changeData.reviewersByEmail().byState(ReviewerStateInternal.REVIEWER)) {
         email.addByEmail(RecipientType.CC, addr);
       }
@@ -518,7 +511,7 @@ public class ChangeEmailImpl implements ChangeEmail {
     }
     // Watchers ignore AttentionSet rules.
     if (!watcherAccounts.contains(to)) {
-      Optional<AccountState> accountState = args.accountCache.get(to);
+      Optional<AccountState> accountState = email.getAccount(to);
       if (emailOnlyAttentionSetIfEnabled
           && accountState.isPresent()
           && accountState.get().generalPreferences().getEmailStrategy()
@@ -49,6 +49,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -125,6 +126,13 @@ public final class OutgoingEmail {
   private final Map<String, EmailHeader> headers = new LinkedHashMap<>();
   private final Set<Address> smtpRcptTo = new HashSet<>();
   private final Set<Address> smtpBccRcptTo = new HashSet<>();
+
+  /**
+   * Accounts that were looked up for this email. The same accounts are needed for checking the
+   * recipients, for the headers and for rendering the templates.
+   */
+  private final Map<Account.Id, Optional<AccountState>> accounts = new HashMap<>();
+
   private Address smtpFromAddress;
   private StringBuilder textBody;
   private ArrayList<SanitizedContent> htmlBodySections;
@@ -225,8 +233,13 @@ public final class OutgoingEmail {
 
     Set<Address> smtpRcptToPlaintextOnly = new HashSet<>();
     if (shouldSendMessage()) {
+      Set<Account.Id> accountsToCheck = new HashSet<>(rcptTo);
       if (fromId != null) {
-        Optional<AccountState> fromUser = args.accountCache.get(fromId);
+        accountsToCheck.add(fromId);
+      }
+      loadAccounts(accountsToCheck);
+      if (fromId != null) {
+        Optional<AccountState> fromUser = getAccount(fromId);
         if (fromUser.isPresent()) {
           GeneralPreferencesInfo senderPrefs = fromUser.get().generalPreferences();
           CurrentUser user = args.currentUserProvider.get();
@@ -278,7 +291,7 @@ public final class OutgoingEmail {
       // his email notifications then drop him from recipients' list.
       // In addition, check if users only want to receive plaintext email.
       for (Account.Id id : rcptTo) {
-        Optional<AccountState> thisUser = args.accountCache.get(id);
+        Optional<AccountState> thisUser = getAccount(id);
         if (thisUser.isPresent()) {
           Account thisUserAccount = thisUser.get().account();
           GeneralPreferencesInfo prefs = thisUser.get().generalPreferences();
@@ -426,7 +439,7 @@ public final class OutgoingEmail {
 
   private String getFromLine() {
     StringBuilder f = new StringBuilder();
-    Optional<Account> account = args.accountCache.get(fromId).map(AccountState::account);
+    Optional<Account> account = getAccount(fromId).map(AccountState::account);
     if (account.isPresent()) {
       String name = account.get().fullName();
       String email = account.get().preferredEmail();
@@ -510,7 +523,7 @@ public final class OutgoingEmail {
       return args.gerritPersonIdent.get().getName();
     }
 
-    Optional<Account> account = args.accountCache.get(accountId).map(AccountState::account);
+    Optional<Account> account = getAccount(accountId).map(AccountState::account);
     String name = null;
     if (account.isPresent()) {
       name = account.get().fullName();
@@ -537,7 +550,7 @@ public final class OutgoingEmail {
       return gerritIdent.getName() + " <" + gerritIdent.getEmailAddress() + ">";
     }
 
-    Optional<Account> account = args.accountCache.get(accountId).map(AccountState::account);
+    Optional<Account> account = getAccount(accountId).map(AccountState::account);
     if (account.isPresent()) {
       String name = account.get().fullName();
       String email = account.get().preferredEmail();
@@ -565,7 +578,7 @@ public final class OutgoingEmail {
       return null;
     }
 
-    Optional<AccountState> accountState = args.accountCache.get(accountId);
+    Optional<AccountState> accountState = getAccount(accountId);
     if (!accountState.isPresent()) {
       return null;
     }
@@ -685,6 +698,51 @@ public final class OutgoingEmail {
     }
   }
 
+  /**
+   * Adds recipients that the email will be sent to.
+   *
+   * <p>The accounts are looked up at once, which is cheaper than looking them up one by one.
+   *
+   * @param rt category of recipient (TO, CC, BCC)
+   * @param to Gerrit Accounts of the recipients.
+   */
+  public void addByAccountIds(RecipientType rt, Collection<Account.Id> to) {
+    loadAccounts(to);
+    for (Account.Id id : to) {
+      addByAccountId(rt, id);
+    }
+  }
+
+  /**
+   * Returns the state of the given account.
+   *
+   * <p>Accounts are looked up only once per email.
+   */
+  public Optional<AccountState> getAccount(Account.Id id) {
+    Optional<AccountState> accountState = accounts.get(id);
+    if (accountState == null) {
+      accountState = args.accountCache.get(id);
+      accounts.put(id, accountState);
+    }
+    return accountState;
+  }
+
+  private void loadAccounts(Collection<Account.Id> ids) {
+    Set<Account.Id> missing = new HashSet<>();
+    for (Account.Id id : ids) {
+      if (!accounts.containsKey(id)) {
+        missing.add(id);
+      }
+    }
+    if (missing.isEmpty()) {
+      return;
+    }
+    Map<Account.Id, AccountState> loaded = args.accountCache.get(missing);
+    for (Account.Id id : missing) {
+      accounts.put(id, Optional.ofNullable(loaded.get(id)));
+    }
+  }
+
   /**
    * Returns whether this email is allowed to be sent to the given account
    *
@@ -727,7 +785,7 @@ public final class OutgoingEmail {
   /** Returns preferred email address for the account. */
   @Nullable
   public Address toAddress(Account.Id id) {
-    Optional<Account> accountState = args.accountCache.get(id).map(AccountState::account);
+    Optional<Account> accountState = getAccount(id).map(AccountState::account);
     if (!accountState.isPresent()) {
       return null;
     }
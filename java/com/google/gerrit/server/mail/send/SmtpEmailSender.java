@@ -16,6 +16,8 @@ package com.google.gerrit.server.mail.send;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.io.BaseEncoding;
 import com.google.common.primitives.Ints;
@@ -25,11 +27,17 @@ import com.google.gerrit.entities.Address;
 import com.google.gerrit.entities.EmailHeader;
 import com.google.gerrit.entities.EmailHeader.StringEmailHeader;
 import com.google.gerrit.exceptions.EmailException;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
 import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.mail.Encryption;
 import com.google.gerrit.server.util.time.TimeUtil;
-import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.io.BufferedWriter;
@@ -39,10 +47,14 @@ import java.io.Writer;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
@@ -57,23 +69,42 @@ import org.eclipse.jgit.lib.Config;
  * Sends email via a nearby SMTP server.
  *
  * <p>Doesn't support including EmailResource in the payload.
+ *
+ * <p>If {@code sendemail.maxIdleConnections} is set, connections are kept open after a message is
+ * sent and are reused for the next messages, which saves the TCP, TLS and authentication handshakes
+ * when many emails are sent in a burst. Idle connections are closed once they exceed {@code
+ * sendemail.idleConnectionTimeout} and when the server stops.
  */
 @Singleton
-public class SmtpEmailSender implements EmailSender {
+public class SmtpEmailSender implements EmailSender, LifecycleListener {
   /** The socket's connect timeout (0 = infinite timeout) */
   private static final int DEFAULT_CONNECT_TIMEOUT = 0;
 
+  /** How long an idle connection is kept open by default. */
+  private static final long DEFAULT_IDLE_CONNECTION_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
-  public static class SmtpEmailSenderModule extends AbstractModule {
+  public static class SmtpEmailSenderModule extends LifecycleModule {
     @Override
     protected void configure() {
       bind(EmailSender.class).to(SmtpEmailSender.class);
+      listener().to(SmtpEmailSender.class);
     }
   }
 
   private final boolean enabled;
   private final int connectTimeout;
+  private final int maxIdleConnections;
+  private final long idleConnectionTimeoutNanos;
+  private final Ticker ticker;
+
+  /** Connections that may be reused, the most recently used one first. */
+  private final Deque<IdleConnection> idleConnections = new ArrayDeque<>();
+
+  private final Counter0 sentCount;
+  private final Timer0 sendLatency;
+  private final Counter0 connectionsOpened;
 
   private String smtpHost;
   private int smtpPort;
@@ -87,7 +118,13 @@ public class SmtpEmailSender implements EmailSender {
   private int expiryDays;
 
   @Inject
-  SmtpEmailSender(@GerritServerConfig Config cfg) {
+  SmtpEmailSender(@GerritServerConfig Config cfg, MetricMaker metricMaker) {
+    this(cfg, metricMaker, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  SmtpEmailSender(Config cfg, MetricMaker metricMaker, Ticker ticker) {
+    this.ticker = ticker;
     enabled = cfg.getBoolean("sendemail", null, "enable", true);
     connectTimeout =
         Ints.checkedCast(
@@ -98,6 +135,16 @@ public class SmtpEmailSender implements EmailSender {
                 "connectTimeout",
                 DEFAULT_CONNECT_TIMEOUT,
                 TimeUnit.MILLISECONDS));
+    maxIdleConnections = Math.max(0, cfg.getInt("sendemail", null, "maxIdleConnections", 0));
+    idleConnectionTimeoutNanos =
+        TimeUnit.MILLISECONDS.toNanos(
+            ConfigUtil.getTimeUnit(
+                cfg,
+                "sendemail",
+                null,
+                "idleConnectionTimeout",
+                DEFAULT_IDLE_CONNECTION_TIMEOUT_MS,
+                TimeUnit.MILLISECONDS));
 
     smtpHost = cfg.getString("sendemail", null, "smtpserver");
     if (smtpHost == null) {
@@ -132,6 +179,38 @@ public class SmtpEmailSender implements EmailSender {
     denyrcpt = Collections.unmodifiableSet(rcptdeny);
     importance = cfg.getString("sendemail", null, "importance");
     expiryDays = cfg.getInt("sendemail", null, "expiryDays", 0);
+
+    sentCount =
+        metricMaker.newCounter(
+            "email/sent_count",
+            new Description("Number of emails that were handed over to the SMTP server")
+                .setRate()
+                .setUnit("emails"));
+    sendLatency =
+        metricMaker.newTimer(
+            "email/send_latency",
+            new Description("Latency of handing an email over to the SMTP server")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+    connectionsOpened =
+        metricMaker.newCounter(
+            "email/smtp_connections_opened_count",
+            new Description("Number of connections that were opened to the SMTP server")
+                .setRate()
+                .setUnit("connections"));
+  }
+
+  @Override
+  public void start() {}
+
+  @Override
+  public void stop() {
+    List<IdleConnection> toClose;
+    synchronized (this) {
+      toClose = new ArrayList<>(idleConnections);
+      idleConnections.clear();
+    }
+    toClose.forEach(idle -> close(idle.client));
   }
 
   @Override
@@ -209,8 +288,9 @@ public class SmtpEmailSender implements EmailSender {
     }
 
     StringBuilder rejected = new StringBuilder();
-    try {
-      final SMTPClient client = open();
+    try (Timer0.Context ignored = sendLatency.start()) {
+      final SMTPClient client = acquire();
+      boolean reusable = false;
       try {
         if (!client.setSender(from.email())) {
           throw new EmailException("Server " + smtpHost + " rejected from address " + from.email());
@@ -257,21 +337,108 @@ public class SmtpEmailSender implements EmailSender {
             throw new EmailException(
                 "Server " + smtpHost + " rejected message body: " + client.getReplyString());
           }
+          sentCount.increment();
+          reusable = true;
 
-          @SuppressWarnings("unused")
-          var unused = client.logout();
           if (rejected.length() > 0) {
             throw new EmailException(rejected.toString());
           }
         }
       } finally {
-        client.disconnect();
+        release(client, reusable);
       }
     } catch (IOException e) {
       throw new EmailException("Cannot send outgoing email", e);
     }
   }
 
+  /**
+   * Returns an idle connection that is still usable, or opens a new connection if there is none.
+   */
+  private SMTPClient acquire() throws EmailException {
+    IdleConnection idle;
+    while ((idle = pollIdleConnection()) != null) {
+      if (isExpired(idle)) {
+        close(idle.client);
+        continue;
+      }
+      try {
+        // RSET verifies that the server didn't drop the connection while it was idle.
+        if (idle.client.reset()) {
+          return idle.client;
+        }
+      } catch (IOException e) {
+        logger.atFine().withCause(e).log("Discarding broken SMTP connection to %s", smtpHost);
+      }
+      disconnect(idle.client);
+    }
+    return open();
+  }
+
+  private synchronized IdleConnection pollIdleConnection() {
+    return idleConnections.pollFirst();
+  }
+
+  /**
+   * Returns the connection to the idle connections if it can be reused and there is room for it,
+   * otherwise closes it. Idle connections that expired in the meantime are closed as well, so that
+   * they are not kept open until the next email is sent.
+   */
+  private void release(SMTPClient client, boolean reusable) {
+    boolean pooled = false;
+    List<SMTPClient> toClose = new ArrayList<>();
+    synchronized (this) {
+      // The least recently used connections are at the end.
+      while (!idleConnections.isEmpty() && isExpired(idleConnections.peekLast())) {
+        toClose.add(idleConnections.pollLast().client);
+      }
+      if (reusable && client.isConnected() && idleConnections.size() < maxIdleConnections) {
+        idleConnections.addFirst(new IdleConnection(client, ticker.read()));
+        pooled = true;
+      }
+    }
+    if (!pooled) {
+      if (reusable && client.isConnected()) {
+        toClose.add(client);
+      } else {
+        disconnect(client);
+      }
+    }
+    toClose.forEach(SmtpEmailSender::close);
+  }
+
+  private boolean isExpired(IdleConnection idle) {
+    return ticker.read() - idle.idleSinceNanos > idleConnectionTimeoutNanos;
+  }
+
+  private static void close(SMTPClient client) {
+    try {
+      @SuppressWarnings("unused")
+      var unused = client.logout();
+    } catch (IOException e) {
+      // Ignored, the connection is closed anyway.
+    }
+    disconnect(client);
+  }
+
+  private static void disconnect(SMTPClient client) {
+    try {
+      client.disconnect();
+    } catch (IOException e) {
+      // Ignored
+    }
+  }
+
+  private static class IdleConnection {
+    final SMTPClient client;
+    final long idleSinceNanos;
+
+    IdleConnection(SMTPClient client, long idleSinceNanos) {
+      this.client = client;
+      this.idleSinceNanos = idleSinceNanos;
+    }
+  }
+
   private void render(
       Writer out,
       Map<String, EmailHeader> callerHeaders,
@@ -405,6 +572,7 @@ public class SmtpEmailSender implements EmailSender {
     client.setConnectTimeout(connectTimeout);
     try {
       client.connect(smtpHost, smtpPort);
+      connectionsOpened.increment();
       int replyCode = client.getReplyCode();
       String replyString = client.getReplyString();
       if (!SMTPReply.isPositiveCompletion(replyCode)) {
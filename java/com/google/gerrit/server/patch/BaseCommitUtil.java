@@ -14,6 +14,7 @@
 
 package com.google.gerrit.server.patch;
 
+import com.google.auto.value.AutoValue;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Project;
@@ -21,15 +22,25 @@ import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.InMemoryInserter;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.update.RepoView;
+import com.google.gerrit.server.util.ReplicaUtil;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.io.IOException;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
@@ -45,11 +56,30 @@ class BaseCommitUtil {
   /** If true, auto-merge results are stored in the repository. */
   private final boolean saveAutomerge;
 
+  /** If true, auto-merge refs are not written. */
+  private final boolean isReplica;
+
+  private final Executor refUpdateExecutor;
+
+  /**
+   * Computations of auto-merges of merge commits without an auto-merge ref, e.g. of merge commits
+   * that were uploaded before auto-merges were written at push time. An entry is removed once the
+   * auto-merge ref was written.
+   */
+  private final ConcurrentHashMap<AutoMergeKey, CompletableFuture<ObjectId>> autoMerges =
+      new ConcurrentHashMap<>();
+
   @Inject
-  BaseCommitUtil(AutoMerger am, @GerritServerConfig Config cfg, GitRepositoryManager repoManager) {
+  BaseCommitUtil(
+      AutoMerger am,
+      @GerritServerConfig Config cfg,
+      GitRepositoryManager repoManager,
+      WorkQueue workQueue) {
     this.autoMerger = am;
     this.saveAutomerge = AutoMerger.cacheAutomerge(cfg);
+    this.isReplica = ReplicaUtil.isReplica(cfg);
     this.repoManager = repoManager;
+    this.refUpdateExecutor = workQueue.getDefaultQueue();
   }
 
   /**
@@ -72,6 +102,7 @@ class BaseCommitUtil {
   /**
    * Returns the base commit for the provided commit.
    *
+   * @param project the project of the repository that {@code repoView} gives access to
    * @param repoView repo view
    * @param ins a git object inserter in the database.
    * @param commitId 20 bytes commitId SHA-1 hash.
@@ -85,7 +116,11 @@ class BaseCommitUtil {
    */
   @Nullable
   RevCommit getBaseCommit(
-      RepoView repoView, ObjectInserter ins, ObjectId commitId, @Nullable Integer parentNum)
+      Project.NameKey project,
+      RepoView repoView,
+      ObjectInserter ins,
+      ObjectId commitId,
+      @Nullable Integer parentNum)
       throws IOException {
     RevCommit current = repoView.getRevWalk().parseCommit(commitId);
     switch (current.getParentCount()) {
@@ -106,25 +141,125 @@ class BaseCommitUtil {
                 "diff against auto-merge commits is only supported if 'change.cacheAutomerge' config is set to true.");
           }
           // TODO(ghareeb): Avoid persisting auto-merge commits.
-          return getAutoMergeFromGitOrCreate(repoView, ins, current);
+          return getAutoMergeFromGitOrCreate(project, repoView, ins, current);
         }
         return null;
     }
   }
 
   /**
-   * Gets the auto-merge commit from git if it already exists. If not, the auto-merge is created,
-   * persisted in git and the cache-automerge ref is updated for the merge commit.
+   * Gets the auto-merge commit from git if it already exists. If not, the auto-merge is created and
+   * persisted in git, and the cache-automerge ref is updated asynchronously for the merge commit.
    *
    * @return the auto-merge {@link RevCommit}
    */
   private RevCommit getAutoMergeFromGitOrCreate(
-      RepoView repoView, ObjectInserter ins, RevCommit mergeCommit) throws IOException {
+      Project.NameKey project, RepoView repoView, ObjectInserter ins, RevCommit mergeCommit)
+      throws IOException {
     String refName = RefNames.refsCacheAutomerge(mergeCommit.name());
-    Optional<RevCommit> autoMergeCommit = autoMerger.lookupCommit(repoView, refName);
-    if (autoMergeCommit.isPresent()) {
-      return autoMergeCommit.get();
+    try {
+      Optional<RevCommit> autoMergeCommit = autoMerger.lookupCommit(repoView, refName);
+      if (autoMergeCommit.isPresent()) {
+        return autoMergeCommit.get();
+      }
+    } catch (MissingObjectException e) {
+      logger.atWarning().log("AutoMerge ref %s in %s points to a missing object", refName, project);
+    }
+    if (ins instanceof InMemoryInserter) {
+      // The created objects are not visible to other requests, hence there is nothing to share.
+      return createAutoMerge(repoView, ins, mergeCommit);
+    }
+
+    // Concurrent requests for the same merge commit wait for a single computation. Each request
+    // reads the result with its own repo view, the objects were flushed by the computing request.
+    AutoMergeKey key = AutoMergeKey.create(project, mergeCommit);
+    CompletableFuture<ObjectId> computation = new CompletableFuture<>();
+    CompletableFuture<ObjectId> inFlight = autoMerges.putIfAbsent(key, computation);
+    if (inFlight != null) {
+      try {
+        return repoView.getRevWalk().parseCommit(inFlight.join());
+      } catch (CompletionException e) {
+        logger.atFine().withCause(e.getCause()).log(
+            "Shared computation of the AutoMerge of %s in %s failed, computing it again",
+            mergeCommit.name(),
+            project);
+        return createAutoMerge(repoView, ins, mergeCommit);
+      }
+    }
+
+    RevCommit autoMerge;
+    try {
+      autoMerge = createAutoMerge(repoView, ins, mergeCommit);
+    } catch (IOException | RuntimeException e) {
+      autoMerges.remove(key, computation);
+      computation.completeExceptionally(e);
+      throw e;
+    }
+    computation.complete(autoMerge.copy());
+    if (isReplica) {
+      // Replicas don't write refs, the auto-merge is computed again by the next request.
+      autoMerges.remove(key, computation);
+    } else {
+      // Keep sharing the computed auto-merge until its ref has been written.
+      writeAutoMergeRefAsync(key, computation, refName, autoMerge.copy());
+    }
+    return autoMerge;
+  }
+
+  private void writeAutoMergeRefAsync(
+      AutoMergeKey key,
+      CompletableFuture<ObjectId> computation,
+      String refName,
+      ObjectId autoMerge) {
+    try {
+      refUpdateExecutor.execute(
+          () -> {
+            try {
+              writeAutoMergeRef(key.project(), refName, autoMerge);
+            } finally {
+              autoMerges.remove(key, computation);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      logger.atWarning().withCause(e).log("Failed to schedule the update of %s", refName);
+      autoMerges.remove(key, computation);
     }
+  }
+
+  /**
+   * Writes the cache-automerge ref, so that the auto-merge commit is found by later requests and
+   * is not pruned by garbage collection. Failing to write the ref doesn't fail any request, the
+   * auto-merge commit is only computed again by the next request.
+   */
+  private void writeAutoMergeRef(Project.NameKey project, String refName, ObjectId autoMerge) {
+    try (Repository repo = repoManager.openRepository(project)) {
+      // An existing ref points to a missing object or was written by another server meanwhile.
+      Ref ref = repo.exactRef(refName);
+      RefUpdate ru = repo.updateRef(refName);
+      ru.setExpectedOldObjectId(ref != null ? ref.getObjectId() : ObjectId.zeroId());
+      ru.setNewObjectId(autoMerge);
+      ru.setForceUpdate(true);
+      ru.disableRefLog();
+      RefUpdate.Result result = ru.update();
+      switch (result) {
+        case NEW:
+        case FORCED:
+        case NO_CHANGE:
+          return;
+        case LOCK_FAILURE:
+          // Another server wrote the ref concurrently.
+          logger.atFine().log("Failed to write %s in %s: %s", refName, project, result);
+          return;
+        default:
+          logger.atWarning().log("Failed to write %s in %s: %s", refName, project, result);
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Failed to write %s in %s", refName, project);
+    }
+  }
+
+  private RevCommit createAutoMerge(RepoView repoView, ObjectInserter ins, RevCommit mergeCommit)
+      throws IOException {
     if (!saveAutomerge && !(ins instanceof InMemoryInserter)) {
       ins = new InMemoryInserter(repoView.getRevWalk().getObjectReader());
     }
@@ -133,4 +268,15 @@ class BaseCommitUtil {
     ins.flush();
     return repoView.getRevWalk().parseCommit(autoMergeId);
   }
+
+  @AutoValue
+  abstract static class AutoMergeKey {
+    abstract Project.NameKey project();
+
+    abstract ObjectId mergeCommit();
+
+    static AutoMergeKey create(Project.NameKey project, ObjectId mergeCommit) {
+      return new AutoValue_BaseCommitUtil_AutoMergeKey(project, mergeCommit.copy());
+    }
+  }
 }
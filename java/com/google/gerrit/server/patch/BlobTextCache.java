@@ -0,0 +1,42 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import java.io.IOException;
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+
+/**
+ * Caches the contents of blobs together with the offsets of their lines.
+ *
+ * <p>Diffs, comment context and the other views of a file read the same blobs over and over again
+ * while a change is being reviewed. Looking them up here avoids reading, inflating and splitting
+ * them into lines every time.
+ *
+ * <p>The returned {@link Text} instances are shared and must not be modified.
+ */
+public interface BlobTextCache {
+  /**
+   * Returns the content of a blob.
+   *
+   * @param reader reader to load the blob with if it is not cached yet
+   * @param blobId ID of the blob
+   * @return the content of the blob
+   * @throws LargeObjectException if the blob is too large to be loaded into memory
+   * @throws IOException if the blob cannot be read
+   */
+  Text get(ObjectReader reader, ObjectId blobId) throws IOException;
+}
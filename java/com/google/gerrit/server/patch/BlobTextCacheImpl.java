@@ -0,0 +1,66 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+
+/** In-memory implementation of {@link BlobTextCache}, bounded by the size of the contents. */
+@Singleton
+public class BlobTextCacheImpl implements BlobTextCache {
+  static final String NAME = "blob_text";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(NAME, ObjectId.class, Text.class)
+            .maximumWeight(20 << 20)
+            .weigher(BlobTextWeigher.class);
+        bind(BlobTextCache.class).to(BlobTextCacheImpl.class);
+      }
+    };
+  }
+
+  private final Cache<ObjectId, Text> cache;
+
+  @Inject
+  BlobTextCacheImpl(@Named(NAME) Cache<ObjectId, Text> cache) {
+    this.cache = cache;
+  }
+
+  @Override
+  public Text get(ObjectReader reader, ObjectId blobId) throws IOException {
+    try {
+      return cache.get(
+          blobId.copy(), () -> new Text(Text.asByteArray(reader.open(blobId, Constants.OBJ_BLOB))));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IOException(e.getCause());
+    }
+  }
+}
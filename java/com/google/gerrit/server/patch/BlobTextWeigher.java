@@ -0,0 +1,33 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.common.cache.Weigher;
+import org.eclipse.jgit.lib.ObjectId;
+
+/** Approximates the memory used by a blob content and its line index in bytes. */
+public class BlobTextWeigher implements Weigher<ObjectId, Text> {
+  @Override
+  public int weigh(ObjectId key, Text value) {
+    return 16
+        + 20 // Size of ObjectId, 64 bit JVM
+        + 16
+        + 8
+        + 8
+        + 8 // Size of Text, 64 bit JVM
+        + value.getContent().length
+        + 4 * (value.size() + 2); // Line offsets
+  }
+}
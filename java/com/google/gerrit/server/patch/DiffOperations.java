@@ -14,6 +14,7 @@
 
 package com.google.gerrit.server.patch;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Patch;
 import com.google.gerrit.entities.Patch.ChangeType;
@@ -114,6 +115,31 @@ public interface DiffOperations {
       Project.NameKey project, ObjectId oldCommit, ObjectId newCommit, DiffOptions diffOptions)
       throws DiffNotAvailableException;
 
+  /**
+   * This method is similar to {@link #listModifiedFiles(NameKey, ObjectId, ObjectId, DiffOptions)}
+   * but computes the file diffs only for the files whose old or new path is contained in {@code
+   * paths}. The modified files are still determined across the whole tree, so renames and copies
+   * of the given paths are detected. The commit message and merge list are always returned.
+   *
+   * <p>Use this method if only a few files of a large diff are of interest.
+   *
+   * @param project a project name representing a git repository.
+   * @param oldCommit 20 bytes SHA-1 of the old commit used in the diff.
+   * @param newCommit 20 bytes SHA-1 of the new commit used in the diff.
+   * @param paths the old or new paths of the files for which the diff should be computed.
+   * @return map of file paths to the file diffs, keyed as for {@link #listModifiedFiles(NameKey,
+   *     ObjectId, ObjectId, DiffOptions)}.
+   * @throws DiffNotAvailableException if an internal error occurred in Git while evaluating the
+   *     diff.
+   */
+  Map<String, FileDiffOutput> listModifiedFiles(
+      Project.NameKey project,
+      ObjectId oldCommit,
+      ObjectId newCommit,
+      ImmutableSet<String> paths,
+      DiffOptions diffOptions)
+      throws DiffNotAvailableException;
+
   /**
    * This method is similar to {@link #listModifiedFilesAgainstParent(NameKey, ObjectId, int,
    * DiffOptions)} but it loads the modified files directly if the modified files are not cached yet
@@ -24,6 +24,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Patch;
@@ -170,6 +171,25 @@ public class DiffOperationsImpl implements DiffOperations {
     return getModifiedFiles(params, diffOptions);
   }
 
+  @Override
+  public Map<String, FileDiffOutput> listModifiedFiles(
+      Project.NameKey project,
+      ObjectId oldCommit,
+      ObjectId newCommit,
+      ImmutableSet<String> paths,
+      DiffOptions diffOptions)
+      throws DiffNotAvailableException {
+    DiffParameters params =
+        DiffParameters.builder()
+            .project(project)
+            .newCommit(newCommit)
+            .baseCommit(oldCommit)
+            .comparisonType(ComparisonType.againstOtherPatchSet())
+            .onlyPaths(paths)
+            .build();
+    return getModifiedFiles(params, diffOptions);
+  }
+
   @Override
   public Map<String, ModifiedFile> loadModifiedFilesIfNecessary(
       Project.NameKey project,
@@ -278,7 +298,13 @@ public class DiffOperationsImpl implements DiffOperations {
       }
 
       if (diffParams.skipFiles() == null) {
+        ImmutableSet<String> onlyPaths = diffParams.onlyPaths();
         modifiedFiles.stream()
+            .filter(
+                entity ->
+                    onlyPaths == null
+                        || entity.oldPath().map(onlyPaths::contains).orElse(false)
+                        || entity.newPath().map(onlyPaths::contains).orElse(false))
             .map(
                 entity ->
                     createFileDiffCacheKey(
@@ -488,6 +514,14 @@ public class DiffOperationsImpl implements DiffOperations {
     @Nullable
     abstract Boolean skipFiles();
 
+    /**
+     * Compute the diff only for the files whose old or new path is contained in this set (and for
+     * {@value Patch#COMMIT_MSG} and {@link Patch#MERGE_LIST}). If {@code null}, the diff is
+     * computed for all files.
+     */
+    @Nullable
+    abstract ImmutableSet<String> onlyPaths();
+
     static Builder builder() {
       return new AutoValue_DiffOperationsImpl_DiffParameters.Builder();
     }
@@ -505,6 +539,8 @@ public class DiffOperationsImpl implements DiffOperations {
 
       abstract Builder skipFiles(@Nullable Boolean skipFiles);
 
+      abstract Builder onlyPaths(@Nullable ImmutableSet<String> onlyPaths);
+
       abstract Builder comparisonType(ComparisonType comparisonType);
 
       public abstract DiffParameters build();
@@ -522,7 +558,8 @@ public class DiffOperationsImpl implements DiffOperations {
     DiffParameters.Builder result =
         DiffParameters.builder().project(project).newCommit(newCommit).parent(parent);
     if (parent > 0) {
-      RevCommit baseCommit = baseCommitUtil.getBaseCommit(repoView, ins, newCommit, parent);
+      RevCommit baseCommit =
+          baseCommitUtil.getBaseCommit(project, repoView, ins, newCommit, parent);
       if (baseCommit == null) {
         // The specified parent doesn't exist or is not supported, fall back to comparing against
         // the root.
@@ -542,7 +579,7 @@ public class DiffOperationsImpl implements DiffOperations {
       return result.build();
     }
     if (numParents == 1) {
-      result.baseCommit(baseCommitUtil.getBaseCommit(repoView, ins, newCommit, parent));
+      result.baseCommit(baseCommitUtil.getBaseCommit(project, repoView, ins, newCommit, parent));
       result.comparisonType(ComparisonType.againstParent(1));
       return result.build();
     }
@@ -552,12 +589,12 @@ public class DiffOperationsImpl implements DiffOperations {
               + "with more than two parents is not supported. Commit %s has %d parents."
               + " Falling back to the diff against the first parent.",
           newCommit, numParents);
-      result.baseCommit(baseCommitUtil.getBaseCommit(repoView, ins, newCommit, 1).getId());
+      result.baseCommit(baseCommitUtil.getBaseCommit(project, repoView, ins, newCommit, 1).getId());
       result.comparisonType(ComparisonType.againstParent(1));
       result.skipFiles(true);
     } else {
       result.baseCommit(
-          baseCommitUtil.getBaseCommit(repoView, ins, newCommit, /* parentNum= */ null));
+          baseCommitUtil.getBaseCommit(project, repoView, ins, newCommit, /* parentNum= */ null));
       result.comparisonType(ComparisonType.againstAutoMerge());
     }
     return result.build();
@@ -0,0 +1,382 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.PatchSet;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.Patch;
+import com.google.gerrit.entities.Patch.ChangeType;
+import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.extensions.events.RevisionCreatedListener;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.server.PatchSetUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.patch.filediff.FileDiffOutput;
+import com.google.gerrit.server.patch.filediff.TaggedEdit;
+import com.google.gerrit.server.util.ManualRequestContext;
+import com.google.gerrit.server.util.OneOffRequestContext;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+/**
+ * Precomputes the diffs of new patch sets in the background, so that the first reviewer or bot
+ * that looks at a new patch set does not have to wait for the diff computation.
+ *
+ * <p>For every new patch set the list of modified files, the diff summary, and the file and
+ * intraline diffs of each file with the default diff preferences are computed against the parent
+ * and, if there is one, against the previous patch set. All results are written into the regular
+ * diff caches. The intraline diffs of all files of a comparison are computed as one batch, see
+ * {@link PatchListCache#getIntraLineDiffs(Map)}, and the file contents are read through a single
+ * {@link ObjectReader} into the {@link BlobTextCache}.
+ *
+ * <p>The precomputation runs on a low-priority queue. The number of queued and running
+ * precomputations per project is limited, further patch sets of the project are skipped.
+ */
+@Singleton
+public class DiffPrecomputer implements RevisionCreatedListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  enum Result {
+    /** The diffs were precomputed. */
+    PRECOMPUTED,
+
+    /** The project had too many pending precomputations. */
+    THROTTLED,
+
+    /** The diffs could not be computed. */
+    FAILED
+  }
+
+  enum Request {
+    /** A diff of a patch set was first requested after its precomputation was done. */
+    WARM,
+
+    /**
+     * A diff of a patch set was first requested while its precomputation was pending or skipped.
+     */
+    COLD
+  }
+
+  private enum State {
+    /** The precomputation is queued or running, or it was skipped or failed. */
+    PENDING,
+
+    /** The precomputation is done. */
+    DONE,
+
+    /** A diff of the patch set was requested and counted as {@link Request}. */
+    REQUESTED
+  }
+
+  private final GitRepositoryManager repoManager;
+  private final ChangeNotes.Factory notesFactory;
+  private final PatchSetUtil psUtil;
+  private final DiffOperations diffOperations;
+  private final PatchListCache patchListCache;
+  private final BlobTextCache blobTextCache;
+  private final OneOffRequestContext requestContext;
+  private final Metrics metrics;
+  private final int maxTasksPerProject;
+  private final int maxFiles;
+  @Nullable private final ExecutorService executor;
+
+  private final Map<Project.NameKey, AtomicInteger> tasksPerProject = new ConcurrentHashMap<>();
+  private final Cache<PatchSet.Id, State> precomputed;
+
+  @Inject
+  DiffPrecomputer(
+      @GerritServerConfig Config cfg,
+      WorkQueue workQueue,
+      GitRepositoryManager repoManager,
+      ChangeNotes.Factory notesFactory,
+      PatchSetUtil psUtil,
+      DiffOperations diffOperations,
+      PatchListCache patchListCache,
+      BlobTextCache blobTextCache,
+      OneOffRequestContext requestContext,
+      Metrics metrics) {
+    this.repoManager = repoManager;
+    this.notesFactory = notesFactory;
+    this.psUtil = psUtil;
+    this.diffOperations = diffOperations;
+    this.patchListCache = patchListCache;
+    this.blobTextCache = blobTextCache;
+    this.requestContext = requestContext;
+    this.metrics = metrics;
+    this.maxTasksPerProject = cfg.getInt("change", "diffPrecomputeMaxTasksPerProject", 4);
+    this.maxFiles = cfg.getInt("change", "diffPrecomputeMaxFiles", 100);
+    int threads = cfg.getInt("change", "diffPrecomputeThreads", 0);
+    this.executor =
+        threads > 0
+            ? workQueue.createQueue(threads, "Diff-Precompute", Thread.MIN_PRIORITY, true)
+            : null;
+    this.precomputed = CacheBuilder.newBuilder().maximumSize(10_000).build();
+  }
+
+  @Override
+  public void onRevisionCreated(RevisionCreatedListener.Event event) {
+    if (executor == null) {
+      return;
+    }
+    Project.NameKey project = Project.nameKey(event.getChange().project);
+    PatchSet.Id psId =
+        PatchSet.id(Change.id(event.getChange()._number), event.getRevision()._number);
+    long createdNanos = System.nanoTime();
+
+    precomputed.put(psId, State.PENDING);
+    AtomicInteger tasks = tasksPerProject.computeIfAbsent(project, p -> new AtomicInteger());
+    if (tasks.incrementAndGet() > maxTasksPerProject) {
+      tasks.decrementAndGet();
+      metrics.results.increment(Result.THROTTLED);
+      return;
+    }
+
+    @SuppressWarnings("unused")
+    Future<?> possiblyIgnoredError =
+        executor.submit(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  precompute(project, psId);
+                  // Unless a diff was requested in the meantime, which was counted as COLD.
+                  precomputed.asMap().replace(psId, State.PENDING, State.DONE);
+                  metrics.results.increment(Result.PRECOMPUTED);
+                } catch (Exception e) {
+                  logger.atWarning().withCause(e).log(
+                      "Failed to precompute diffs of %s in %s", psId, project);
+                  metrics.results.increment(Result.FAILED);
+                } finally {
+                  tasks.decrementAndGet();
+                  metrics.lag.record(System.nanoTime() - createdNanos, TimeUnit.NANOSECONDS);
+                }
+              }
+
+              @Override
+              public String toString() {
+                return "Precompute diffs of " + psId + " in " + project;
+              }
+            });
+  }
+
+  /**
+   * Records that a diff of the given patch set was requested, to measure how often the diffs were
+   * precomputed in time.
+   *
+   * <p>Only the first request for a patch set is counted, since a reviewer who opens a patch set
+   * requests the diffs of all its files.
+   */
+  public void onDiffRequested(PatchSet.Id psId) {
+    if (executor == null) {
+      return;
+    }
+    State state = precomputed.getIfPresent(psId);
+    if (state != null
+        && state != State.REQUESTED
+        && precomputed.asMap().replace(psId, state, State.REQUESTED)) {
+      metrics.requests.increment(state == State.DONE ? Request.WARM : Request.COLD);
+    }
+  }
+
+  private void precompute(Project.NameKey project, PatchSet.Id psId) throws Exception {
+    try (ManualRequestContext ctx = requestContext.open();
+        Repository repo = repoManager.openRepository(project);
+        ObjectReader reader = repo.newObjectReader();
+        RevWalk rw = new RevWalk(reader)) {
+      ChangeNotes notes = notesFactory.createChecked(project, psId.changeId());
+      PatchSet ps = psUtil.get(notes, psId);
+      if (ps == null) {
+        return;
+      }
+      // Against the parent (or the auto-merge for merge commits).
+      Map<String, FileDiffOutput> files =
+          diffOperations.listModifiedFilesAgainstParent(
+              project, ps.commitId(), 0, DiffOptions.DEFAULTS);
+      patchListCache.getDiffSummary(
+          DiffSummaryKey.fromPatchListKey(
+              PatchListKey.againstBase(
+                  ps.commitId(), rw.parseCommit(ps.commitId()).getParentCount())),
+          project);
+      precomputeIntraLineDiffs(project, rw, files);
+
+      // Against the previous patch set.
+      if (psId.get() > 1) {
+        PatchSet previous = psUtil.get(notes, PatchSet.id(psId.changeId(), psId.get() - 1));
+        if (previous != null) {
+          files =
+              diffOperations.listModifiedFiles(
+                  project, previous.commitId(), ps.commitId(), DiffOptions.DEFAULTS);
+          precomputeIntraLineDiffs(project, rw, files);
+        }
+      }
+    }
+  }
+
+  private void precomputeIntraLineDiffs(
+      Project.NameKey project, RevWalk rw, Map<String, FileDiffOutput> files) throws IOException {
+    if (files.size() > maxFiles) {
+      return;
+    }
+    ObjectReader reader = rw.getObjectReader();
+    Map<IntraLineDiffKey, IntraLineDiffArgs> args = new LinkedHashMap<>();
+    for (FileDiffOutput f : files.values()) {
+      if (!isModify(f.changeType())
+          || f.patchType().orElse(null) == Patch.PatchType.BINARY
+          || !f.newPath().isPresent()
+          || Patch.isMagic(f.newPath().get())) {
+        continue;
+      }
+      String newPath = f.newPath().get();
+      String oldPath = f.oldPath().orElse(newPath);
+      ObjectId aId = findBlob(reader, rw.parseTree(f.oldCommitId()), oldPath);
+      ObjectId bId = findBlob(reader, rw.parseTree(f.newCommitId()), newPath);
+      if (aId == null || bId == null) {
+        continue;
+      }
+      try {
+        // The contents of the new patch set are needed for both comparisons, the blob text cache
+        // reads them only once.
+        Text aText = blobTextCache.get(reader, aId);
+        Text bText = blobTextCache.get(reader, bId);
+        // Same key and arguments as computed for the diff REST endpoint with default preferences.
+        args.put(
+            IntraLineDiffKey.create(aId, bId, Whitespace.IGNORE_NONE),
+            IntraLineDiffArgs.create(
+                aText,
+                bText,
+                f.edits().stream().map(TaggedEdit::jgitEdit).collect(toImmutableList()),
+                f.edits().stream()
+                    .filter(TaggedEdit::dueToRebase)
+                    .map(TaggedEdit::jgitEdit)
+                    .collect(toImmutableSet()),
+                project,
+                f.newCommitId(),
+                newPath));
+      } catch (LargeObjectException e) {
+        // The diff view does not show intraline diffs for such files either.
+      }
+    }
+    if (!args.isEmpty()) {
+      try (Timer0.Context ctx = metrics.intraLineLatency.start()) {
+        @SuppressWarnings("unused")
+        var unused = patchListCache.getIntraLineDiffs(args);
+      }
+    }
+  }
+
+  @Nullable
+  private static ObjectId findBlob(ObjectReader reader, RevTree tree, String path)
+      throws IOException {
+    try (TreeWalk tw = TreeWalk.forPath(reader, path, tree)) {
+      if (tw == null || tw.getFileMode(0).getObjectType() != Constants.OBJ_BLOB) {
+        return null;
+      }
+      return tw.getObjectId(0);
+    }
+  }
+
+  private static boolean isModify(ChangeType changeType) {
+    switch (changeType) {
+      case MODIFIED:
+      case COPIED:
+      case RENAMED:
+      case REWRITE:
+        return true;
+      case ADDED:
+      case DELETED:
+      default:
+        return false;
+    }
+  }
+
+  @Singleton
+  static class Metrics {
+    final Counter1<Result> results;
+    final Counter1<Request> requests;
+    final Timer0 lag;
+    final Timer0 intraLineLatency;
+
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      results =
+          metricMaker.newCounter(
+              "diff/precompute/results",
+              new Description("Number of patch sets whose diffs were to be precomputed")
+                  .setRate(),
+              Field.ofEnum(Result.class, "result", Metadata.Builder::operationName)
+                  .description("The result of the precomputation (PRECOMPUTED, THROTTLED, FAILED).")
+                  .build());
+      requests =
+          metricMaker.newCounter(
+              "diff/precompute/requests",
+              new Description(
+                      "Number of new patch sets whose diffs were requested, by whether their"
+                          + " diffs had been precomputed when the first diff was requested")
+                  .setRate(),
+              Field.ofEnum(Request.class, "state", Metadata.Builder::operationName)
+                  .description("Whether the diffs had been precomputed (WARM, COLD).")
+                  .build());
+      lag =
+          metricMaker.newTimer(
+              "diff/precompute/lag",
+              new Description(
+                      "Time from the creation of a patch set until its diffs were precomputed")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS));
+      intraLineLatency =
+          metricMaker.newTimer(
+              "diff/precompute/intraline_latency",
+              new Description(
+                      "Latency of precomputing the intraline diffs of all files of a patch set"
+                          + " against one base")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS));
+    }
+  }
+}
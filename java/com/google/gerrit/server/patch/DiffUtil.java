@@ -144,7 +144,7 @@ public class DiffUtil {
       @Nullable String path,
       OutputStream out)
       throws IOException {
-    getFormattedDiff(repo, null, baseCommit.getTree(), childCommit.getTree(), path, out);
+    getFormattedDiff(repo, null, baseCommit.getTree(), childCommit.getTree(), path, 0, out);
   }
 
   public static void getFormattedDiff(
@@ -155,11 +155,35 @@ public class DiffUtil {
       @Nullable String path,
       OutputStream out)
       throws IOException {
+    getFormattedDiff(repo, reader, baseTree, childTree, path, 0, out);
+  }
+
+  /**
+   * Writes the diff between two trees in the git patch format.
+   *
+   * <p>The diff is written file by file, so that only the contents of the file that is currently
+   * formatted are held in memory.
+   *
+   * @param maxFileSize size in bytes above which the content of a file is not diffed, the file is
+   *     then formatted as if it was binary. If zero or negative, JGit's default threshold is used.
+   */
+  public static void getFormattedDiff(
+      Repository repo,
+      @Nullable ObjectReader reader,
+      RevTree baseTree,
+      RevTree childTree,
+      @Nullable String path,
+      int maxFileSize,
+      OutputStream out)
+      throws IOException {
     try (DiffFormatter fmt = new DiffFormatter(out)) {
       fmt.setRepository(repo);
       if (reader != null) {
         fmt.setReader(reader, repo.getConfig());
       }
+      if (maxFileSize > 0) {
+        fmt.setBinaryFileThreshold(maxFileSize);
+      }
       if (path != null) {
         fmt.setPathFilter(PathFilter.create(path));
       }
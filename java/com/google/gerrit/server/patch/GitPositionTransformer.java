@@ -55,12 +55,11 @@ import java.util.stream.Stream;
  *       duplicate the position entry and use each of the new file paths with it. If a file path
  *       maps to no file in the target tree (deleted file), apply the specified conflict strategy
  *       (e.g. drop position completely or map to next best guess).
- *   <li>Per file path, go through the file from top to bottom and keep track of how the range
- *       mappings for that file shift the lines. Derive the shifted amount by comparing the number
- *       of lines between source and target in the range mapping. While going through the file,
- *       shift each encountered position by the currently tracked amount. If a position overlaps
- *       with the lines of a range mapping, apply the specified conflict strategy (e.g. drop
- *       position completely or map to next best guess).
+ *   <li>Per file path, sort the range mappings for that file and look up the last range mapping
+ *       which ends before each position. Derive the shifted amount by comparing the end lines
+ *       between source and target in that range mapping and shift the position by it. If a
+ *       position overlaps with the lines of the next range mapping, apply the specified conflict
+ *       strategy (e.g. drop position completely or map to next best guess).
  * </ol>
  */
 public class GitPositionTransformer {
@@ -206,41 +205,62 @@ public class GitPositionTransformer {
     ImmutableList<PositionedEntity<T>> sortedEntities = sortByStartEnd(sameFileEntities);
     ImmutableList<RangeMapping> sortedMappings = sortByOldStartEnd(sameFileRangeMappings);
 
-    int shiftedAmount = 0;
-    int mappingIndex = 0;
-    int entityIndex = 0;
+    // Running maximum of the old end lines of the sorted mappings. Unlike the end lines themselves,
+    // it never decreases, not even for overlapping mappings, and hence can be binary searched. This
+    // avoids walking through all hunks of a file if only a few positions need to be shifted.
+    int[] maxOldEnds = new int[sortedMappings.size()];
+    int maxOldEnd = Integer.MIN_VALUE;
+    for (int i = 0; i < sortedMappings.size(); i++) {
+      maxOldEnd = Math.max(maxOldEnd, sortedMappings.get(i).oldLineRange().end());
+      maxOldEnds[i] = maxOldEnd;
+    }
+
     ImmutableList.Builder<PositionedEntity<T>> resultingEntities =
         ImmutableList.builderWithExpectedSize(sortedEntities.size());
-    while (entityIndex < sortedEntities.size() && mappingIndex < sortedMappings.size()) {
-      PositionedEntity<T> entity = sortedEntities.get(entityIndex);
-      if (entity.position().lineRange().isPresent()) {
-        Range range = entity.position().lineRange().get();
-        RangeMapping mapping = sortedMappings.get(mappingIndex);
-        if (mapping.oldLineRange().end() <= range.start()) {
-          shiftedAmount = mapping.newLineRange().end() - mapping.oldLineRange().end();
-          mappingIndex++;
-        } else if (range.end() <= mapping.oldLineRange().start()) {
-          resultingEntities.add(entity.shiftPositionBy(shiftedAmount));
-          entityIndex++;
-        } else {
-          positionConflictStrategy
-              .getOnRangeConflict(entity.position())
-              .map(entity::withPosition)
-              .ifPresent(resultingEntities::add);
-          entityIndex++;
-        }
-      } else {
-        // No range -> no need to shift.
+    for (PositionedEntity<T> entity : sortedEntities) {
+      if (!entity.position().lineRange().isPresent()) {
+        // No range -> no need to shift position.
         resultingEntities.add(entity);
-        entityIndex++;
+        continue;
+      }
+      Range range = entity.position().lineRange().get();
+      // All mappings before this index end before the range starts and hence shift it.
+      int mappingIndex = findFirstEndingAfter(maxOldEnds, range.start());
+      if (mappingIndex < sortedMappings.size()
+          && range.end() > sortedMappings.get(mappingIndex).oldLineRange().start()) {
+        positionConflictStrategy
+            .getOnRangeConflict(entity.position())
+            .map(entity::withPosition)
+            .ifPresent(resultingEntities::add);
+      } else if (mappingIndex > 0) {
+        RangeMapping mapping = sortedMappings.get(mappingIndex - 1);
+        resultingEntities.add(
+            entity.shiftPositionBy(mapping.newLineRange().end() - mapping.oldLineRange().end()));
+      } else {
+        resultingEntities.add(entity.shiftPositionBy(0));
       }
-    }
-    for (int i = entityIndex; i < sortedEntities.size(); i++) {
-      resultingEntities.add(sortedEntities.get(i).shiftPositionBy(shiftedAmount));
     }
     return resultingEntities.build();
   }
 
+  /**
+   * Returns the index of the first element of the non-decreasing {@code values} which is greater
+   * than {@code line}, or the length of {@code values} if there is no such element.
+   */
+  private static int findFirstEndingAfter(int[] values, int line) {
+    int low = 0;
+    int high = values.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (values[mid] <= line) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
   private static <T> ImmutableList<PositionedEntity<T>> sortByStartEnd(
       List<PositionedEntity<T>> entities) {
     return entities.stream()
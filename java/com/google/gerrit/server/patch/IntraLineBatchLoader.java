@@ -0,0 +1,128 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.inject.Inject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Computes the intraline diffs of many files in a single task on the {@link DiffExecutor}.
+ *
+ * <p>Unlike {@link IntraLineLoader}, which hands every file over to the executor separately, the
+ * files of a batch are computed one after another by one executor thread. The caller waits for the
+ * batch as long as the thread makes progress, i.e. as long as no single file takes longer than the
+ * configured {@code cache.diff_intraline.timeout}. If a file exceeds the timeout, it gets a {@link
+ * IntraLineDiff.Status#TIMEOUT} result and the batch is abandoned.
+ *
+ * <p>Files that were not computed, because the batch was abandoned or because their computation
+ * failed, are missing from the result, so that the caller can fall back to computing them one by
+ * one.
+ */
+class IntraLineBatchLoader {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final ExecutorService diffExecutor;
+  private final long timeoutMillis;
+
+  @Inject
+  IntraLineBatchLoader(@DiffExecutor ExecutorService diffExecutor, @GerritServerConfig Config cfg) {
+    this.diffExecutor = diffExecutor;
+    this.timeoutMillis = IntraLineLoader.getTimeoutMillis(cfg);
+  }
+
+  ImmutableMap<IntraLineDiffKey, IntraLineDiff> load(
+      Map<IntraLineDiffKey, IntraLineDiffArgs> batch) {
+    Map<IntraLineDiffKey, IntraLineDiff> results = new ConcurrentHashMap<>();
+    AtomicReference<IntraLineDiffKey> current = new AtomicReference<>();
+    AtomicLong currentStartNanos = new AtomicLong(System.nanoTime());
+    Future<?> task =
+        diffExecutor.submit(
+            () -> {
+              for (Map.Entry<IntraLineDiffKey, IntraLineDiffArgs> e : batch.entrySet()) {
+                if (Thread.currentThread().isInterrupted()) {
+                  return;
+                }
+                IntraLineDiffArgs args = e.getValue();
+                currentStartNanos.set(System.nanoTime());
+                current.set(e.getKey());
+                try {
+                  results.put(
+                      e.getKey(),
+                      IntraLineLoader.compute(
+                          args.aText(), args.bText(), args.edits(), args.editsDueToRebase()));
+                } catch (RuntimeException err) {
+                  // Leave the file to the per-file fallback of the caller, which reports the error.
+                  logger.atFine().withCause(err).log(
+                      "Failed to compute intraline diff of %s in batch", e.getKey());
+                }
+              }
+              current.set(null);
+            });
+
+    long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    try {
+      while (true) {
+        long remaining = currentStartNanos.get() + timeoutNanos - System.nanoTime();
+        if (remaining <= 0) {
+          break;
+        }
+        try {
+          task.get(remaining, TimeUnit.NANOSECONDS);
+          return ImmutableMap.copyOf(results);
+        } catch (TimeoutException e) {
+          // The current file may have started after we began to wait, check again.
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      task.cancel(true);
+      return ImmutableMap.copyOf(results);
+    } catch (ExecutionException e) {
+      logger.atWarning().withCause(e).log("Failed to compute intraline diffs in batch");
+      return ImmutableMap.copyOf(results);
+    }
+
+    task.cancel(true);
+    IntraLineDiffKey timedOut = current.get();
+    if (timedOut != null
+        && !results.containsKey(timedOut)
+        && System.nanoTime() - currentStartNanos.get() >= timeoutNanos) {
+      IntraLineDiffArgs args = batch.get(timedOut);
+      logger.atWarning().log(
+          "%s ms timeout reached for IntraLineDiff"
+              + " in project %s on commit %s for path %s comparing %s..%s",
+          timeoutMillis,
+          args.project(),
+          args.commit().name(),
+          args.path(),
+          timedOut.getBlobA().name(),
+          timedOut.getBlobB().name());
+      results.put(timedOut, new IntraLineDiff(IntraLineDiff.Status.TIMEOUT));
+    }
+    return ImmutableMap.copyOf(results);
+  }
+}
@@ -64,18 +64,22 @@ public class IntraLineLoader implements Callable<IntraLineDiff> {
       @Assisted IntraLineDiffKey key,
       @Assisted IntraLineDiffArgs args) {
     this.diffExecutor = diffExecutor;
-    timeoutMillis =
-        ConfigUtil.getTimeUnit(
-            cfg,
-            "cache",
-            PatchListCacheImpl.INTRA_NAME,
-            "timeout",
-            TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS),
-            TimeUnit.MILLISECONDS);
+    timeoutMillis = getTimeoutMillis(cfg);
     this.key = key;
     this.args = args;
   }
 
+  /** Returns the configured timeout for computing the intraline diff of a single file. */
+  static long getTimeoutMillis(Config cfg) {
+    return ConfigUtil.getTimeUnit(
+        cfg,
+        "cache",
+        PatchListCacheImpl.INTRA_NAME,
+        "timeout",
+        TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS),
+        TimeUnit.MILLISECONDS);
+  }
+
   @Override
   public IntraLineDiff call() throws Exception {
     Future<IntraLineDiff> result =
@@ -14,7 +14,9 @@
 
 package com.google.gerrit.server.patch;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.gerrit.entities.Project;
+import java.util.Map;
 
 /**
  * Provides a cached list of intra-line and summary diffs. Use {@link DiffOperations} to compute
@@ -24,6 +26,16 @@ public interface PatchListCache {
 
   IntraLineDiff getIntraLineDiff(IntraLineDiffKey key, IntraLineDiffArgs args);
 
+  /**
+   * Returns the intraline diffs of many files, e.g. all files of a patch set.
+   *
+   * <p>The files that are not cached yet are computed together, which avoids handing every file
+   * over to the diff executor separately. The result contains an entry for every key of {@code
+   * args}.
+   */
+  ImmutableMap<IntraLineDiffKey, IntraLineDiff> getIntraLineDiffs(
+      Map<IntraLineDiffKey, IntraLineDiffArgs> args);
+
   DiffSummary getDiffSummary(DiffSummaryKey key, Project.NameKey project)
       throws PatchListNotAvailableException;
 }
@@ -16,6 +16,7 @@
 package com.google.gerrit.server.patch;
 
 import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gerrit.entities.Project;
@@ -25,6 +26,8 @@ import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import org.eclipse.jgit.errors.LargeObjectException;
 import org.eclipse.jgit.lib.Config;
@@ -61,6 +64,7 @@ public class PatchListCacheImpl implements PatchListCache {
   private final Cache<IntraLineDiffKey, IntraLineDiff> intraCache;
   private final Cache<DiffSummaryKey, DiffSummary> diffSummaryCache;
   private final IntraLineLoader.Factory intraLoaderFactory;
+  private final IntraLineBatchLoader intraBatchLoader;
   private final DiffSummaryLoader.Factory diffSummaryLoaderFactory;
   private final boolean computeIntraline;
 
@@ -69,11 +73,13 @@ public class PatchListCacheImpl implements PatchListCache {
       @Named(INTRA_NAME) Cache<IntraLineDiffKey, IntraLineDiff> intraCache,
       @Named(DIFF_SUMMARY) Cache<DiffSummaryKey, DiffSummary> diffSummaryCache,
       IntraLineLoader.Factory intraLoaderFactory,
+      IntraLineBatchLoader intraBatchLoader,
       DiffSummaryLoader.Factory diffSummaryLoaderFactory,
       @GerritServerConfig Config cfg) {
     this.intraCache = intraCache;
     this.diffSummaryCache = diffSummaryCache;
     this.intraLoaderFactory = intraLoaderFactory;
+    this.intraBatchLoader = intraBatchLoader;
     this.diffSummaryLoaderFactory = diffSummaryLoaderFactory;
 
     this.computeIntraline =
@@ -94,6 +100,40 @@ public class PatchListCacheImpl implements PatchListCache {
     return new IntraLineDiff(IntraLineDiff.Status.DISABLED);
   }
 
+  @Override
+  public ImmutableMap<IntraLineDiffKey, IntraLineDiff> getIntraLineDiffs(
+      Map<IntraLineDiffKey, IntraLineDiffArgs> args) {
+    ImmutableMap.Builder<IntraLineDiffKey, IntraLineDiff> result = ImmutableMap.builder();
+    if (!computeIntraline) {
+      args.keySet().forEach(k -> result.put(k, new IntraLineDiff(IntraLineDiff.Status.DISABLED)));
+      return result.build();
+    }
+
+    ImmutableMap<IntraLineDiffKey, IntraLineDiff> cached = intraCache.getAllPresent(args.keySet());
+    Map<IntraLineDiffKey, IntraLineDiffArgs> missing = new LinkedHashMap<>();
+    for (Map.Entry<IntraLineDiffKey, IntraLineDiffArgs> e : args.entrySet()) {
+      if (!cached.containsKey(e.getKey())) {
+        missing.put(e.getKey(), e.getValue());
+      }
+    }
+    ImmutableMap<IntraLineDiffKey, IntraLineDiff> computed =
+        missing.isEmpty() ? ImmutableMap.of() : intraBatchLoader.load(missing);
+    intraCache.putAll(computed);
+
+    for (Map.Entry<IntraLineDiffKey, IntraLineDiffArgs> e : args.entrySet()) {
+      IntraLineDiff d = cached.get(e.getKey());
+      if (d == null) {
+        d = computed.get(e.getKey());
+      }
+      if (d == null) {
+        // Not computed by the batch, e.g. because it timed out on an earlier file.
+        d = getIntraLineDiff(e.getKey(), e.getValue());
+      }
+      result.put(e.getKey(), d);
+    }
+    return result.build();
+  }
+
   @Override
   public DiffSummary getDiffSummary(DiffSummaryKey key, Project.NameKey project)
       throws PatchListNotAvailableException {
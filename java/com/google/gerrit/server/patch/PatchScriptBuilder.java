@@ -57,11 +57,13 @@ class PatchScriptBuilder {
 
   private DiffPreferencesInfo diffPrefs;
   private final FileTypeRegistry registry;
+  private final BlobTextCache blobTextCache;
   private IntraLineDiffCalculator intralineDiffCalculator;
 
   @Inject
-  PatchScriptBuilder(FileTypeRegistry ftr) {
+  PatchScriptBuilder(FileTypeRegistry ftr, BlobTextCache blobTextCache) {
     registry = ftr;
+    this.blobTextCache = blobTextCache;
   }
 
   void setDiffPrefs(DiffPreferencesInfo dp) {
@@ -86,7 +88,8 @@ class PatchScriptBuilder {
             FilePathAdapter.getNewPath(content.oldPath(), content.newPath(), content.changeType()),
             content.changeType(),
             content.patchType().orElse(null));
-    SidesResolver sidesResolver = new SidesResolver(git, content.comparisonType());
+    SidesResolver sidesResolver =
+        new SidesResolver(git, content.comparisonType(), blobTextCache);
     ResolvedSides sides =
         resolveSides(
             git,
@@ -117,7 +120,8 @@ class PatchScriptBuilder {
   PatchScript toPatchScript(
       Repository git, ObjectId baseId, String fileName, List<FixReplacement> fixReplacements)
       throws IOException, ResourceConflictException, ResourceNotFoundException {
-    SidesResolver sidesResolver = new SidesResolver(git, ComparisonType.againstOtherPatchSet());
+    SidesResolver sidesResolver =
+        new SidesResolver(git, ComparisonType.againstOtherPatchSet(), blobTextCache);
     PatchSide a = resolveSideA(git, sidesResolver, fileName, baseId);
     if (a.mode == FileMode.MISSING) {
       throw new ResourceNotFoundException(String.format("File %s not found", fileName));
@@ -299,10 +303,12 @@ class PatchScriptBuilder {
 
     private final Repository db;
     private final ComparisonType comparisonType;
+    private final BlobTextCache blobTextCache;
 
-    SidesResolver(Repository db, ComparisonType comparisonType) {
+    SidesResolver(Repository db, ComparisonType comparisonType, BlobTextCache blobTextCache) {
       this.db = db;
       this.comparisonType = comparisonType;
+      this.blobTextCache = blobTextCache;
     }
 
     PatchSide resolve(
@@ -326,8 +332,7 @@ class PatchScriptBuilder {
                 Text.NO_BYTES,
                 Text.EMPTY,
                 MimeUtil2.UNKNOWN_MIME_TYPE.toString(),
-                DisplayMethod.NONE,
-                false);
+                DisplayMethod.NONE);
           }
           Text src =
               isCommitMsg
@@ -351,8 +356,7 @@ class PatchScriptBuilder {
               srcContent,
               src,
               MimeUtil2.UNKNOWN_MIME_TYPE.toString(),
-              displayMethod,
-              false);
+              displayMethod);
         }
         final TreeWalk tw = find(reader, path, within);
         ObjectId id = tw != null ? tw.getObjectId(0) : ObjectId.zeroId();
@@ -365,6 +369,9 @@ class PatchScriptBuilder {
         byte[] srcContent;
         if (reuse) {
           srcContent = other.srcContent;
+        } else if (mode.getObjectType() == Constants.OBJ_BLOB) {
+          src = blobTextCache.get(reader, id);
+          srcContent = src.getContent();
         } else {
           srcContent = SrcContentResolver.getSourceContent(db, id, mode);
         }
@@ -383,7 +390,7 @@ class PatchScriptBuilder {
           }
           mimeType = registryMimeType.toString();
         }
-        return createSide(within, path, id, mode, srcContent, src, mimeType, displayMethod, reuse);
+        return createSide(within, path, id, mode, srcContent, src, mimeType, displayMethod);
 
       } catch (IOException err) {
         throw new IOException("Cannot read " + within.name() + ":" + path, err);
@@ -398,9 +405,8 @@ class PatchScriptBuilder {
         byte[] srcContent,
         Text src,
         String mimeType,
-        DisplayMethod displayMethod,
-        boolean reuse) {
-      if (!reuse) {
+        DisplayMethod displayMethod) {
+      if (src == null) {
         if (srcContent == Text.NO_BYTES) {
           src = Text.EMPTY;
         } else {
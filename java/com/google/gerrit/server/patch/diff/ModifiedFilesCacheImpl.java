@@ -24,6 +24,7 @@ import com.google.gerrit.server.patch.gitdiff.GitModifiedFilesCache;
 import com.google.gerrit.server.patch.gitdiff.GitModifiedFilesCacheImpl;
 import com.google.gerrit.server.patch.gitdiff.GitModifiedFilesCacheKey;
 import com.google.gerrit.server.patch.gitdiff.ModifiedFile;
+import com.google.gerrit.server.patch.gitdiff.RenameDetectionTimeoutException;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
@@ -89,6 +90,11 @@ public class ModifiedFilesCacheImpl implements ModifiedFilesCache {
     try {
       return cache.get(key);
     } catch (Exception e) {
+      RenameDetectionTimeoutException timeout = RenameDetectionTimeoutException.find(e);
+      if (timeout != null) {
+        // Only exact renames were detected, return the files without caching them.
+        return timeout.getModifiedFiles();
+      }
       throw new DiffNotAvailableException(e);
     }
   }
@@ -31,6 +31,7 @@ import com.google.gerrit.server.patch.gitdiff.GitModifiedFilesCache;
 import com.google.gerrit.server.patch.gitdiff.GitModifiedFilesCacheKey;
 import com.google.gerrit.server.patch.gitdiff.GitModifiedFilesLoader;
 import com.google.gerrit.server.patch.gitdiff.ModifiedFile;
+import com.google.gerrit.server.patch.gitdiff.RenameDetectionTimeoutException;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.io.IOException;
@@ -106,6 +107,7 @@ public class ModifiedFilesLoader {
   @Nullable private final GitModifiedFilesCache gitModifiedFilesCache;
 
   @Nullable private Integer renameScore = null;
+  private boolean renameDetectionTimedOut;
 
   ModifiedFilesLoader(@Nullable GitModifiedFilesCache gitModifiedFilesCache) {
     this.gitModifiedFilesCache = gitModifiedFilesCache;
@@ -132,6 +134,10 @@ public class ModifiedFilesLoader {
    * Factory#createWithRetrievingModifiedFilesForTreesFromGitModifiedFilesCache()} in which case the
    * trees are looked up via a new {@link RevWalk} instance that is created by {@code
    * GitModifiedFilesCacheImpl.Loader}. Also see the javadoc on this class.
+   *
+   * @throws RenameDetectionTimeoutException if the rename detection timeout of the {@link
+   *     GitModifiedFilesCache} was exceeded, with the modified files in which only exact renames
+   *     are detected attached.
    */
   public ImmutableList<ModifiedFile> load(
       Project.NameKey project,
@@ -140,6 +146,22 @@ public class ModifiedFilesLoader {
       ObjectId baseCommit,
       ObjectId newCommit)
       throws DiffNotAvailableException {
+    renameDetectionTimedOut = false;
+    ImmutableList<ModifiedFile> modifiedFiles =
+        loadModifiedFiles(project, repoConfig, revWalk, baseCommit, newCommit);
+    if (renameDetectionTimedOut) {
+      throw new RenameDetectionTimeoutException(modifiedFiles);
+    }
+    return modifiedFiles;
+  }
+
+  private ImmutableList<ModifiedFile> loadModifiedFiles(
+      Project.NameKey project,
+      Config repoConfig,
+      RevWalk revWalk,
+      ObjectId baseCommit,
+      ObjectId newCommit)
+      throws DiffNotAvailableException {
     try {
       ObjectId baseTree =
           baseCommit.equals(ObjectId.zeroId())
@@ -242,7 +264,12 @@ public class ModifiedFilesLoader {
       } else {
         cacheKeyBuilder.disableRenameDetection();
       }
-      return gitModifiedFilesCache.get(cacheKeyBuilder.build());
+      try {
+        return gitModifiedFilesCache.get(cacheKeyBuilder.build());
+      } catch (RenameDetectionTimeoutException e) {
+        renameDetectionTimedOut = true;
+        return e.getModifiedFiles();
+      }
     }
 
     GitModifiedFilesLoader gitModifiedFilesLoader = new GitModifiedFilesLoader();
@@ -35,6 +35,8 @@ public interface GitModifiedFilesCache {
    *     calculation.
    * @return the list of {@link ModifiedFile}s between the 2 git trees identified by the key.
    * @throws DiffNotAvailableException trees cannot be read or file contents cannot be read.
+   * @throws RenameDetectionTimeoutException the rename detection timeout was exceeded, the modified
+   *     files in which only exact renames are detected are attached and are not cached.
    */
   ImmutableList<ModifiedFile> get(GitModifiedFilesCacheKey key) throws DiffNotAvailableException;
 }
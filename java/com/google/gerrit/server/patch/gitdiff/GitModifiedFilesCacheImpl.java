@@ -14,6 +14,8 @@
 
 package com.google.gerrit.server.patch.gitdiff;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
@@ -21,6 +23,8 @@ import com.google.gerrit.proto.Protos;
 import com.google.gerrit.server.cache.CacheModule;
 import com.google.gerrit.server.cache.proto.Cache.ModifiedFilesProto;
 import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.patch.DiffNotAvailableException;
 import com.google.inject.Inject;
@@ -30,6 +34,8 @@ import com.google.inject.TypeLiteral;
 import com.google.inject.name.Named;
 import java.io.IOException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 
@@ -78,27 +84,52 @@ public class GitModifiedFilesCacheImpl implements GitModifiedFilesCache {
     try {
       return cache.get(key);
     } catch (ExecutionException e) {
+      RenameDetectionTimeoutException timeout = RenameDetectionTimeoutException.find(e);
+      if (timeout != null) {
+        throw timeout;
+      }
       throw new DiffNotAvailableException(e);
     }
   }
 
   static class Loader extends CacheLoader<GitModifiedFilesCacheKey, ImmutableList<ModifiedFile>> {
     private final GitRepositoryManager repoManager;
+    private final long renameDetectionTimeoutMillis;
+    private final Ticker ticker;
 
     @Inject
-    Loader(GitRepositoryManager repoManager) {
+    Loader(GitRepositoryManager repoManager, @GerritServerConfig Config cfg) {
+      this(repoManager, cfg, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    Loader(GitRepositoryManager repoManager, Config cfg, Ticker ticker) {
       this.repoManager = repoManager;
+      this.renameDetectionTimeoutMillis =
+          ConfigUtil.getTimeUnit(
+              cfg, "cache", GIT_MODIFIED_FILES, "renameDetectionTimeout", 0, TimeUnit.MILLISECONDS);
+      this.ticker = ticker;
     }
 
     @Override
-    public ImmutableList<ModifiedFile> load(GitModifiedFilesCacheKey key) throws IOException {
+    public ImmutableList<ModifiedFile> load(GitModifiedFilesCacheKey key)
+        throws IOException, RenameDetectionTimeoutException {
       try (Repository repo = repoManager.openRepository(key.project());
           ObjectReader reader = repo.newObjectReader()) {
-        GitModifiedFilesLoader loader = new GitModifiedFilesLoader();
+        GitModifiedFilesLoader loader = new GitModifiedFilesLoader().withTicker(ticker);
         if (key.renameDetection()) {
-          loader.withRenameDetection(key.renameScore());
+          loader
+              .withRenameDetection(key.renameScore())
+              .withRenameDetectionTimeout(renameDetectionTimeoutMillis);
+        }
+        ImmutableList<ModifiedFile> modifiedFiles =
+            loader.load(repo.getConfig(), reader, key.aTree(), key.bTree());
+        if (loader.hasRenameDetectionTimedOut()) {
+          // Don't cache the result, so that the files are listed with all renames once rename
+          // detection finishes in time, e.g. when the server is less loaded.
+          throw new RenameDetectionTimeoutException(modifiedFiles);
         }
-        return loader.load(repo.getConfig(), reader, key.aTree(), key.bTree());
+        return modifiedFiles;
       }
     }
   }
@@ -17,32 +17,47 @@ package com.google.gerrit.server.patch.gitdiff;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Patch;
 import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.api.errors.CanceledException;
+import org.eclipse.jgit.diff.DiffConfig;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffEntry.ChangeType;
 import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.RenameDetector;
 import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.util.io.DisabledOutputStream;
 
 /**
  * /** Class to load the files that have been modified between two Git trees.
  *
- * <p>Rename detection is off unless {@link #withRenameDetection(int)} is called.
+ * <p>Rename detection is off unless {@link #withRenameDetection(int)} is called. The time spent on
+ * detecting renames by content similarity can be limited with {@link
+ * #withRenameDetectionTimeout(long)}, in which case only exact renames are detected once the
+ * timeout is exceeded. Such results should not be cached, see {@link
+ * #hasRenameDetectionTimedOut()}.
  *
  * <p>The commits and the commit trees are looked up via the {@link RevWalk} instance that is
  * provided to the {@link #load(Config, ObjectReader, ObjectId, ObjectId)} method.
  */
 public class GitModifiedFilesLoader {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
   private static final ImmutableMap<ChangeType, Patch.ChangeType> changeTypeMap =
       ImmutableMap.of(
           DiffEntry.ChangeType.ADD,
@@ -57,6 +72,9 @@ public class GitModifiedFilesLoader {
           Patch.ChangeType.COPIED);
 
   @Nullable private Integer renameScore = null;
+  private long renameDetectionTimeoutMillis = 0;
+  private Ticker ticker = Ticker.systemTicker();
+  private boolean renameDetectionTimedOut;
 
   /**
    * Enables rename detection
@@ -70,6 +88,37 @@ public class GitModifiedFilesLoader {
     return this;
   }
 
+  /**
+   * Limits the time spent on rename detection.
+   *
+   * <p>If detecting renames by content similarity takes longer than the given timeout, it is
+   * aborted and only the renames of files with identical content are reported. The other renamed
+   * files are reported as added and deleted files.
+   *
+   * @param timeoutMillis the timeout in milliseconds, zero or a negative value means no timeout.
+   */
+  @CanIgnoreReturnValue
+  public GitModifiedFilesLoader withRenameDetectionTimeout(long timeoutMillis) {
+    this.renameDetectionTimeoutMillis = timeoutMillis;
+    return this;
+  }
+
+  @VisibleForTesting
+  @CanIgnoreReturnValue
+  GitModifiedFilesLoader withTicker(Ticker ticker) {
+    this.ticker = ticker;
+    return this;
+  }
+
+  /**
+   * Returns whether the rename detection timeout was exceeded by the last {@link #load(Config,
+   * ObjectReader, ObjectId, ObjectId)}, in which case renames of files with different content are
+   * missing from its result.
+   */
+  public boolean hasRenameDetectionTimedOut() {
+    return renameDetectionTimedOut;
+  }
+
   /**
    * Loads the files that have been modified between {@code aTree} and {@code bTree}.
    *
@@ -83,19 +132,60 @@ public class GitModifiedFilesLoader {
 
   private List<DiffEntry> getGitTreeDiff(
       Config repoConfig, ObjectReader reader, ObjectId aTree, ObjectId bTree) throws IOException {
+    renameDetectionTimedOut = false;
+    List<DiffEntry> entries;
     try (DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
       df.setReader(reader, repoConfig);
-      if (renameScore != null) {
-        df.setDetectRenames(true);
-        df.getRenameDetector().setRenameScore(renameScore);
-
-        // Skip detecting content renames for binary files.
-        df.getRenameDetector().setSkipContentRenamesForBinaryFiles(true);
-      }
       // The scan method only returns the file paths that are different. Callers may choose to
       // format these paths themselves.
-      return df.scan(aTree.equals(ObjectId.zeroId()) ? null : aTree, bTree);
+      entries = df.scan(aTree.equals(ObjectId.zeroId()) ? null : aTree, bTree);
+    }
+    if (renameScore == null) {
+      return entries;
     }
+
+    // Run the rename detection separately from the scan, so that it can be aborted without
+    // losing the scanned entries.
+    RenameDetector renameDetector = newRenameDetector(repoConfig, reader);
+    renameDetector.addAll(entries);
+    if (renameDetectionTimeoutMillis <= 0) {
+      return computeUncancelled(renameDetector, reader);
+    }
+    try {
+      return renameDetector.compute(
+          reader, new DeadlineProgressMonitor(ticker, renameDetectionTimeoutMillis));
+    } catch (CanceledException e) {
+      renameDetectionTimedOut = true;
+      logger.atWarning().log(
+          "%d ms timeout reached for rename detection between trees %s and %s with %d entries,"
+              + " detecting exact renames only",
+          renameDetectionTimeoutMillis, aTree.name(), bTree.name(), entries.size());
+      RenameDetector exactRenameDetector = newRenameDetector(repoConfig, reader);
+      // With a limit of 1 the content similarity is only computed for a single added/deleted pair,
+      // and with a score of 100 only files with identical content are reported as renamed.
+      exactRenameDetector.setRenameLimit(1);
+      exactRenameDetector.setRenameScore(100);
+      exactRenameDetector.addAll(entries);
+      return computeUncancelled(exactRenameDetector, reader);
+    }
+  }
+
+  private static List<DiffEntry> computeUncancelled(
+      RenameDetector renameDetector, ObjectReader reader) throws IOException {
+    try {
+      return renameDetector.compute(reader, NullProgressMonitor.INSTANCE);
+    } catch (CanceledException e) {
+      // Can't happen, NullProgressMonitor is never cancelled.
+      throw new IOException(e);
+    }
+  }
+
+  private RenameDetector newRenameDetector(Config repoConfig, ObjectReader reader) {
+    RenameDetector renameDetector = new RenameDetector(reader, repoConfig.get(DiffConfig.KEY));
+    renameDetector.setRenameScore(renameScore);
+    // Skip detecting content renames for binary files.
+    renameDetector.setSkipContentRenamesForBinaryFiles(true);
+    return renameDetector;
   }
 
   private static ModifiedFile toModifiedFile(DiffEntry entry) {
@@ -114,4 +204,35 @@ public class GitModifiedFilesLoader {
     }
     return changeTypeMap.get(changeType);
   }
+
+  /** Cancels the monitored task once the deadline has passed. */
+  private static class DeadlineProgressMonitor implements ProgressMonitor {
+    private final Ticker ticker;
+    private final long deadlineNanos;
+
+    DeadlineProgressMonitor(Ticker ticker, long timeoutMillis) {
+      this.ticker = ticker;
+      this.deadlineNanos = ticker.read() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    @Override
+    public void start(int totalTasks) {}
+
+    @Override
+    public void beginTask(String title, int totalWork) {}
+
+    @Override
+    public void update(int completed) {}
+
+    @Override
+    public void endTask() {}
+
+    @Override
+    public boolean isCancelled() {
+      return ticker.read() - deadlineNanos > 0;
+    }
+
+    @Override
+    public void showDuration(boolean enabled) {}
+  }
 }
@@ -0,0 +1,53 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch.gitdiff;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.patch.DiffNotAvailableException;
+
+/**
+ * Thrown by the diff caches if the rename detection timeout was exceeded while loading the modified
+ * files. The modified files in which only exact renames are detected are attached, so that callers
+ * can use them without caching them.
+ */
+public class RenameDetectionTimeoutException extends DiffNotAvailableException {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Returns the exception in the cause chain of the given exception, {@code null} if there is none.
+   */
+  @Nullable
+  public static RenameDetectionTimeoutException find(Throwable e) {
+    for (Throwable t = e; t != null; t = t.getCause()) {
+      if (t instanceof RenameDetectionTimeoutException) {
+        return (RenameDetectionTimeoutException) t;
+      }
+    }
+    return null;
+  }
+
+  private final ImmutableList<ModifiedFile> modifiedFiles;
+
+  public RenameDetectionTimeoutException(ImmutableList<ModifiedFile> modifiedFiles) {
+    super("Timeout reached for rename detection, only exact renames were detected");
+    this.modifiedFiles = modifiedFiles;
+  }
+
+  /** Returns the modified files in which only exact renames are detected. */
+  public ImmutableList<ModifiedFile> getModifiedFiles() {
+    return modifiedFiles;
+  }
+}
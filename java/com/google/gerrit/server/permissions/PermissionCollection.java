@@ -21,6 +21,8 @@ import static java.util.stream.Collectors.mapping;
 import static java.util.stream.Collectors.toList;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.AccessSection;
@@ -34,18 +36,22 @@ import com.google.gerrit.metrics.Description.Units;
 import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.metrics.Timer0;
 import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.project.CompiledSectionMatcher;
 import com.google.gerrit.server.project.RefPattern;
-import com.google.gerrit.server.project.RefPatternMatcher.ExpandParameters;
-import com.google.gerrit.server.project.SectionMatcher;
 import com.google.inject.Inject;
+import com.google.inject.Module;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -56,15 +62,33 @@ import java.util.stream.Collectors;
  * appears in the reference name, and also only if the user is a member of the relevant group.
  */
 public class PermissionCollection {
+  private static final String CACHE_NAME = "permission_collections";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, Key.class, PermissionCollection.class)
+            .maximumWeight(10 << 20)
+            .weigher(Weigher.class);
+      }
+    };
+  }
+
   @Singleton
   public static class Factory {
     private final SectionSortCache sorter;
+    private final Cache<Key, PermissionCollection> cache;
     // TODO(hiesel): Remove this once we got production data
     private final Timer0 filterLatency;
 
     @Inject
-    Factory(SectionSortCache sorter, MetricMaker metricMaker) {
+    Factory(
+        SectionSortCache sorter,
+        @Named(CACHE_NAME) Cache<Key, PermissionCollection> cache,
+        MetricMaker metricMaker) {
       this.sorter = sorter;
+      this.cache = cache;
       this.filterLatency =
           metricMaker.newTimer(
               "permissions/permission_collection/filter_latency",
@@ -73,63 +97,60 @@ public class PermissionCollection {
                   .setUnit(Units.NANOSECONDS));
     }
 
-    /**
-     * Drop the SectionMatchers that don't apply to the current ref. The user is only used for
-     * expanding per-user ref patterns, and not for checking group memberships.
-     *
-     * @param matcherList the input sections.
-     * @param ref the ref name for which to filter.
-     * @param user Only used for expanding per-user ref patterns.
-     * @param out the filtered sections.
-     * @return true if the result is only valid for this user.
-     */
-    private static boolean filterRefMatchingSections(
-        Iterable<SectionMatcher> matcherList,
-        String ref,
-        CurrentUser user,
-        Map<AccessSection, Project.NameKey> out) {
-      boolean perUser = false;
-      for (SectionMatcher sm : matcherList) {
-        // If the matcher has to expand parameters and its prefix matches the
-        // reference there is a very good chance the reference is actually user
-        // specific, even if the matcher does not match the reference. Since its
-        // difficult to prove this is true all of the time, use an approximation
-        // to prevent reuse of collections across users accessing the same
-        // reference at the same time.
-        //
-        // This check usually gets caching right, as most per-user references
-        // use a common prefix like "refs/sandbox/" or "refs/heads/users/"
-        // that will never be shared with non-user references, and the per-user
-        // references are usually less frequent than the non-user references.
-        if (sm.getMatcher() instanceof ExpandParameters) {
-          if (!((ExpandParameters) sm.getMatcher()).matchPrefix(ref)) {
-            continue;
-          }
-          perUser = true;
-          if (sm.match(ref, user)) {
-            out.put(sm.getSection(), sm.getProject());
-          }
-        } else if (sm.match(ref, null)) {
-          out.put(sm.getSection(), sm.getProject());
-        }
-      }
-      return perUser;
-    }
-
     /**
      * Get all permissions that apply to a reference. The user is only used for per-user ref names,
      * so the return value may include permissions for groups the user is not part of.
      *
-     * @param matcherList collection of sections that should be considered, in priority order
-     *     (project specific definitions must appear before inherited ones).
+     * @param matcher sections that should be considered, in priority order (project specific
+     *     definitions must appear before inherited ones).
      * @param ref reference being accessed.
      * @param user if the reference is a per-user reference, e.g. access sections using the
      *     parameter variable "${username}" will have each username inserted into them to see if
      *     they apply to the reference named by {@code ref}.
      * @return map of permissions that apply to this reference, keyed by permission name.
      */
+    PermissionCollection filter(CompiledSectionMatcher matcher, String ref, CurrentUser user) {
+      return filter(matcher.getConfigRevisions(), () -> matcher, ref, user);
+    }
+
+    /**
+     * Like {@link #filter(CompiledSectionMatcher, String, CurrentUser)}, but looks up the cached
+     * collection before the sections are compiled.
+     *
+     * @param configRevisions the names and config revisions of the project and its parents, which
+     *     identify the sections; empty if not known.
+     * @param matcher supplies the compiled sections, only called if the collection isn't cached.
+     * @param ref reference being accessed.
+     * @param user if the reference is a per-user reference, the user whose name is inserted into
+     *     the access sections.
+     */
     PermissionCollection filter(
-        Iterable<SectionMatcher> matcherList, String ref, CurrentUser user) {
+        Optional<ImmutableList<String>> configRevisions,
+        Supplier<CompiledSectionMatcher> matcher,
+        String ref,
+        CurrentUser user) {
+      // The collection only depends on the access sections and the ref, unless it's per-user. The
+      // config revisions of the projects identify the sections, hence collections of the same
+      // revisions and ref can be shared between requests and users.
+      if (configRevisions.isPresent()) {
+        PermissionCollection cached = cache.getIfPresent(Key.create(configRevisions.get(), ref));
+        if (cached != null) {
+          return cached;
+        }
+      }
+      CompiledSectionMatcher compiled = matcher.get();
+      PermissionCollection collection = compute(compiled, ref, user);
+      // Cached by the revisions the sections were compiled from, in case a project was updated in
+      // the meantime.
+      Optional<ImmutableList<String>> compiledRevisions = compiled.getConfigRevisions();
+      if (compiledRevisions.isPresent() && !collection.isUserSpecific()) {
+        cache.put(Key.create(compiledRevisions.get(), ref), collection);
+      }
+      return collection;
+    }
+
+    private PermissionCollection compute(
+        CompiledSectionMatcher matcher, String ref, CurrentUser user) {
       try (Timer0.Context ignored = filterLatency.start()) {
         if (isRE(ref)) {
           if (!containsParameters(ref)) {
@@ -141,7 +162,8 @@ public class PermissionCollection {
 
         // LinkedHashMap to maintain input ordering.
         Map<AccessSection, Project.NameKey> sectionToProject = new LinkedHashMap<>();
-        boolean perUser = filterRefMatchingSections(matcherList, ref, user, sectionToProject);
+        boolean perUser =
+            matcher.match(ref, user, sm -> sectionToProject.put(sm.getSection(), sm.getProject()));
         List<AccessSection> sections = Lists.newArrayList(sectionToProject.keySet());
 
         // Sort by ref pattern specificity. For equally specific patterns, the sections from the
@@ -258,8 +280,8 @@ public class PermissionCollection {
     return result;
   }
 
-  private List<List<AccessSection>> accessSectionsPerProjectDownward;
-  private List<AccessSection> accessSectionsUpward;
+  private final List<List<AccessSection>> accessSectionsPerProjectDownward;
+  private final List<AccessSection> accessSectionsUpward;
 
   private final Map<String, List<PermissionRule>> rulesByPermission;
   private final Map<String, List<List<Permission>>> blockPerProjectByPermission;
@@ -271,8 +293,9 @@ public class PermissionCollection {
       boolean perUser) {
     this.accessSectionsPerProjectDownward = accessSectionsDownward;
     this.accessSectionsUpward = accessSectionsUpward;
-    this.rulesByPermission = new HashMap<>();
-    this.blockPerProjectByPermission = new HashMap<>();
+    // Collections are shared between threads through the cache.
+    this.rulesByPermission = new ConcurrentHashMap<>();
+    this.blockPerProjectByPermission = new ConcurrentHashMap<>();
     this.perUser = perUser;
   }
 
@@ -284,6 +307,37 @@ public class PermissionCollection {
     return perUser;
   }
 
+  /** Key of a collection in the cache. */
+  @AutoValue
+  abstract static class Key {
+    /** Names and config revisions of the project and its parents. */
+    abstract ImmutableList<String> configRevisions();
+
+    abstract String ref();
+
+    static Key create(ImmutableList<String> configRevisions, String ref) {
+      return new AutoValue_PermissionCollection_Key(configRevisions, ref);
+    }
+  }
+
+  static class Weigher implements com.google.common.cache.Weigher<Key, PermissionCollection> {
+    @Override
+    public int weigh(Key key, PermissionCollection collection) {
+      // Approximate size in bytes. The access sections are shared with the project cache, only
+      // the references to them are counted.
+      int weight = 2 * key.ref().length();
+      for (String revision : key.configRevisions()) {
+        weight += 2 * revision.length();
+      }
+      weight += 8 * collection.accessSectionsUpward.size();
+      for (List<AccessSection> sections : collection.accessSectionsPerProjectDownward) {
+        weight += 8 * sections.size();
+      }
+      // Lazily computed rules.
+      return weight + 512;
+    }
+  }
+
   /** (ref, permission, group) tuple. */
   @AutoValue
   abstract static class SeenRule {
@@ -20,6 +20,7 @@ import static com.google.gerrit.entities.AccessSection.REGEX_PREFIX;
 import static com.google.gerrit.entities.RefNames.REFS_TAGS;
 import static com.google.gerrit.server.util.MagicBranch.NEW_CHANGE;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.common.UsedAt;
@@ -51,6 +52,7 @@ import com.google.gerrit.server.permissions.PermissionBackend.ForChange;
 import com.google.gerrit.server.permissions.PermissionBackend.ForProject;
 import com.google.gerrit.server.permissions.PermissionBackend.ForRef;
 import com.google.gerrit.server.permissions.PermissionBackend.RefFilterOptions;
+import com.google.gerrit.server.project.CompiledSectionMatcher;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.project.SectionMatcher;
 import com.google.gerrit.server.query.change.ChangeData;
@@ -62,6 +64,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Ref;
@@ -84,7 +87,8 @@ public class ProjectControl {
   private final RefControl.Factory refControlFactory;
   private final ChangeControl.Factory changeControlFactory;
 
-  private List<SectionMatcher> allSections;
+  private CompiledSectionMatcher allSections;
+  private Optional<ImmutableList<String>> configRevisions;
   private Map<String, RefControl> refControls;
   private Boolean declaredOwner;
   private Config cfg;
@@ -133,7 +137,8 @@ public class ProjectControl {
     }
     RefControl ctl = refControls.get(refName);
     if (ctl == null) {
-      PermissionCollection relevant = permissionFilter.filter(access(), refName, user);
+      PermissionCollection relevant =
+          permissionFilter.filter(configRevisions(), this::compiledAccess, refName, user);
       ctl = refControlFactory.create(this, refName, relevant);
       refControls.put(refName, ctl);
     }
@@ -331,12 +336,25 @@ public class ProjectControl {
   }
 
   private List<SectionMatcher> access() {
+    return compiledAccess().getSections();
+  }
+
+  private CompiledSectionMatcher compiledAccess() {
     if (allSections == null) {
-      allSections = state.getAllSections();
+      allSections = state.getAllSectionsMatcher();
     }
     return allSections;
   }
 
+  /** Identifies the access sections without compiling them. */
+  private Optional<ImmutableList<String>> configRevisions() {
+    if (configRevisions == null) {
+      configRevisions =
+          allSections != null ? allSections.getConfigRevisions() : state.getConfigRevisions();
+    }
+    return configRevisions;
+  }
+
   private boolean match(PermissionRule rule) {
     return match(rule.getGroup().getUUID());
   }
@@ -0,0 +1,241 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import static com.google.gerrit.server.project.RefPattern.isRE;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.project.RefPatternMatcher.Exact;
+import com.google.gerrit.server.project.RefPatternMatcher.ExpandParameters;
+import com.google.gerrit.server.project.RefPatternMatcher.Prefix;
+import com.google.inject.Module;
+import com.google.inject.TypeLiteral;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Finds the access sections that match a ref in one pass over the ref name.
+ *
+ * <p>All sections are put into a trie by the prefix that the refs they match must start with:
+ * exact names and {@code refs/foo/*} patterns by their name, regular expressions by their literal
+ * prefix and per-user patterns by the text before the first parameter. Matching a ref walks the
+ * trie along the ref name; sections that are reached either match right away (exact names and
+ * prefixes) or are candidates that are evaluated. Sections on other paths are never looked at.
+ */
+public class CompiledSectionMatcher {
+  static final String CACHE_NAME = "permission_section_matchers";
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(
+                CACHE_NAME,
+                new TypeLiteral<ImmutableList<String>>() {},
+                new TypeLiteral<CompiledSectionMatcher>() {})
+            .maximumWeight(10 << 20)
+            .weigher(Weigher.class);
+      }
+    };
+  }
+
+  public static CompiledSectionMatcher compile(List<SectionMatcher> sections) {
+    return compile(sections, Optional.empty());
+  }
+
+  /**
+   * Compiles the given sections.
+   *
+   * @param sections the sections, in priority order.
+   * @param configRevisions the names and config revisions of the projects that the sections are
+   *     from, which identify the sections; empty if not known.
+   */
+  public static CompiledSectionMatcher compile(
+      List<SectionMatcher> sections, Optional<ImmutableList<String>> configRevisions) {
+    return new CompiledSectionMatcher(ImmutableList.copyOf(sections), configRevisions);
+  }
+
+  private final ImmutableList<SectionMatcher> sections;
+  private final Optional<ImmutableList<String>> configRevisions;
+  private final Node root = new Node();
+
+  private CompiledSectionMatcher(
+      ImmutableList<SectionMatcher> sections, Optional<ImmutableList<String>> configRevisions) {
+    this.sections = sections;
+    this.configRevisions = configRevisions;
+    for (int i = 0; i < sections.size(); i++) {
+      RefPatternMatcher matcher = sections.get(i).getMatcher();
+      Node node = root.add(matcher.requiredPrefix());
+      if (matcher instanceof Exact) {
+        node.exact.add(i);
+      } else if (matcher instanceof Prefix) {
+        node.prefix.add(i);
+      } else if (matcher instanceof ExpandParameters) {
+        node.perUser.add(i);
+      } else {
+        node.candidates.add(i);
+      }
+    }
+  }
+
+  /** Returns the sections of this matcher, in the order in which they were compiled. */
+  public ImmutableList<SectionMatcher> getSections() {
+    return sections;
+  }
+
+  /**
+   * Returns the names and config revisions of the projects that the sections are from, from the
+   * project up to All-Projects. Matchers with the same revisions match refs in the same way.
+   */
+  public Optional<ImmutableList<String>> getConfigRevisions() {
+    return configRevisions;
+  }
+
+  /** Returns whether this matcher was compiled from exactly the given section matchers. */
+  boolean isCompiledFrom(List<SectionMatcher> other) {
+    if (other.size() != sections.size()) {
+      return false;
+    }
+    for (int i = 0; i < sections.size(); i++) {
+      if (other.get(i) != sections.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Finds the sections that match a ref. The user is only used for expanding per-user ref
+   * patterns, and not for checking group memberships.
+   *
+   * @param ref the ref name to match.
+   * @param user only used for expanding per-user ref patterns.
+   * @param out receives the matching sections, in the order in which they were compiled.
+   * @return true if the result is only valid for this user.
+   */
+  public boolean match(String ref, CurrentUser user, Consumer<SectionMatcher> out) {
+    if (isRE(ref)) {
+      // Ref patterns are matched by comparing the patterns, which the trie doesn't cover. This is
+      // rare, so just evaluate all sections.
+      return matchAll(ref, user, out);
+    }
+
+    BitSet matched = new BitSet(sections.size());
+    boolean perUser = false;
+    Node node = root;
+    for (int depth = 0; node != null; depth++) {
+      for (int i : node.prefix) {
+        matched.set(i);
+      }
+      if (depth == ref.length()) {
+        for (int i : node.exact) {
+          matched.set(i);
+        }
+      }
+      for (int i : node.candidates) {
+        if (sections.get(i).match(ref, null)) {
+          matched.set(i);
+        }
+      }
+      for (int i : node.perUser) {
+        // See matchAll for why reaching a per-user section makes the result per-user.
+        perUser = true;
+        if (sections.get(i).match(ref, user)) {
+          matched.set(i);
+        }
+      }
+      node = depth < ref.length() ? node.children.get(ref.charAt(depth)) : null;
+    }
+
+    for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+      out.accept(sections.get(i));
+    }
+    return perUser;
+  }
+
+  private boolean matchAll(String ref, CurrentUser user, Consumer<SectionMatcher> out) {
+    boolean perUser = false;
+    for (SectionMatcher sm : sections) {
+      // If the matcher has to expand parameters and its prefix matches the
+      // reference there is a very good chance the reference is actually user
+      // specific, even if the matcher does not match the reference. Since its
+      // difficult to prove this is true all of the time, use an approximation
+      // to prevent reuse of collections across users accessing the same
+      // reference at the same time.
+      //
+      // This check usually gets caching right, as most per-user references
+      // use a common prefix like "refs/sandbox/" or "refs/heads/users/"
+      // that will never be shared with non-user references, and the per-user
+      // references are usually less frequent than the non-user references.
+      if (sm.getMatcher() instanceof ExpandParameters) {
+        if (!((ExpandParameters) sm.getMatcher()).matchPrefix(ref)) {
+          continue;
+        }
+        perUser = true;
+        if (sm.match(ref, user)) {
+          out.accept(sm);
+        }
+      } else if (sm.match(ref, null)) {
+        out.accept(sm);
+      }
+    }
+    return perUser;
+  }
+
+  private static class Node {
+    final Map<Character, Node> children = new HashMap<>();
+
+    /** Sections that match all refs that reach this node. */
+    final List<Integer> prefix = new ArrayList<>();
+
+    /** Sections that match the ref if it ends at this node. */
+    final List<Integer> exact = new ArrayList<>();
+
+    /** Sections that have to be evaluated against refs that reach this node. */
+    final List<Integer> candidates = new ArrayList<>();
+
+    /** Per-user sections that have to be evaluated against refs that reach this node. */
+    final List<Integer> perUser = new ArrayList<>();
+
+    Node add(String path) {
+      Node node = this;
+      for (int i = 0; i < path.length(); i++) {
+        node = node.children.computeIfAbsent(path.charAt(i), c -> new Node());
+      }
+      return node;
+    }
+  }
+
+  static class Weigher
+      implements com.google.common.cache.Weigher<ImmutableList<String>, CompiledSectionMatcher> {
+    @Override
+    public int weigh(ImmutableList<String> configRevisions, CompiledSectionMatcher matcher) {
+      // Approximate size in bytes. The access sections are shared with the project cache, only the
+      // section matchers that wrap them and the trie nodes are counted.
+      int weight = 0;
+      for (String revision : configRevisions) {
+        weight += 2 * revision.length();
+      }
+      return weight + 128 * matcher.sections.size();
+    }
+  }
+}
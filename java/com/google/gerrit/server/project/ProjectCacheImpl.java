@@ -48,6 +48,7 @@ import com.google.gerrit.proto.Protos;
 import com.google.gerrit.server.CacheRefreshExecutor;
 import com.google.gerrit.server.cache.CacheModule;
 import com.google.gerrit.server.cache.proto.Cache;
+import com.google.gerrit.server.cache.request.RequestCache;
 import com.google.gerrit.server.cache.serialize.CacheSerializer;
 import com.google.gerrit.server.cache.serialize.ObjectIdConverter;
 import com.google.gerrit.server.cache.serialize.ProtobufSerializer;
@@ -99,6 +100,15 @@ public class ProjectCacheImpl implements ProjectCache {
 
   public static final String PERSISTED_CACHE_NAME = "persisted_projects";
 
+  /**
+   * Project states that were looked up by the current request. Looking up a project state reads the
+   * revision of the project config and creates a new {@link ProjectState} that computes its
+   * permissions from scratch. Endpoints like ListProjects look up many projects, hence the number
+   * of memoized project states per request is limited.
+   */
+  private static final RequestCache.Key<Project.NameKey, Optional<ProjectState>> PROJECT_STATES =
+      RequestCache.Key.create("project_states", 100);
+
   public static final String CACHE_LIST = "project_list";
 
   public static Module module() {
@@ -219,6 +229,10 @@ public class ProjectCacheImpl implements ProjectCache {
       return Optional.empty();
     }
 
+    return RequestCache.getOrCompute(PROJECT_STATES, projectName, () -> load(projectName));
+  }
+
+  private Optional<ProjectState> load(Project.NameKey projectName) {
     try {
       return inMemoryProjectCache.get(projectName).map(projectStateFactory::create);
     } catch (ExecutionException e) {
@@ -232,6 +246,7 @@ public class ProjectCacheImpl implements ProjectCache {
     if (p != null) {
       logger.atFine().log("Evict project '%s'", p.get());
       inMemoryProjectCache.invalidate(p);
+      RequestCache.invalidate(PROJECT_STATES, p);
     }
   }
 
@@ -522,6 +537,7 @@ public class ProjectCacheImpl implements ProjectCache {
   @VisibleForTesting
   public void evictAllByName() {
     inMemoryProjectCache.invalidateAll();
+    RequestCache.invalidateAll(PROJECT_STATES);
   }
 
   @VisibleForTesting
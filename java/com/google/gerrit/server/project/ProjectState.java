@@ -18,6 +18,7 @@ import static com.google.common.base.Preconditions.checkState;
 import static com.google.gerrit.entities.PermissionRule.Action.ALLOW;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -50,6 +51,7 @@ import com.google.gerrit.server.git.TransferConfig;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
+import com.google.inject.name.Named;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -62,6 +64,7 @@ import java.util.Optional;
 import java.util.Set;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
 
 /**
  * State of a project, aggregated from the project and its parents. This is obtained from the {@link
@@ -88,6 +91,18 @@ public class ProjectState {
   /** Local access sections, wrapped in SectionMatchers for faster evaluation. */
   private volatile List<SectionMatcher> localAccessSections;
 
+  /**
+   * Compiled local and inherited access sections, shared by the project states that have the same
+   * config revisions.
+   */
+  private final Cache<ImmutableList<String>, CompiledSectionMatcher> sectionMatcherCache;
+
+  /**
+   * Local and inherited access sections, compiled for matching refs, if a project in the hierarchy
+   * has no config revision.
+   */
+  private volatile CompiledSectionMatcher allSectionsMatcher;
+
   /** If this is all projects, the capabilities used by the server. */
   private final CapabilityCollection capabilities;
 
@@ -99,8 +114,11 @@ public class ProjectState {
       List<CommentLinkInfo> commentLinks,
       CapabilityCollection.Factory limitsFactory,
       TransferConfig transferConfig,
+      @Named(CompiledSectionMatcher.CACHE_NAME)
+          Cache<ImmutableList<String>, CompiledSectionMatcher> sectionMatcherCache,
       @Assisted CachedProjectConfig cachedProjectConfig) {
     this.projectCache = projectCache;
+    this.sectionMatcherCache = sectionMatcherCache;
     this.isAllProjects = cachedProjectConfig.getProject().getNameKey().equals(allProjectsName);
     this.isAllUsers = cachedProjectConfig.getProject().getNameKey().equals(allUsersName);
     this.allProjectsName = allProjectsName;
@@ -297,6 +315,64 @@ public class ProjectState {
     return all;
   }
 
+  /**
+   * Obtain all local and inherited sections, compiled for matching refs. The compiled matcher is
+   * cached by the config revisions of the project and its parents, so it's shared by all project
+   * states until the project or one of its parents is updated.
+   */
+  public CompiledSectionMatcher getAllSectionsMatcher() {
+    List<ProjectState> projects =
+        isAllProjects ? ImmutableList.of(this) : Lists.newArrayList(tree());
+    // The revisions must be taken from the same projects as the sections, so that they identify
+    // the sections.
+    Optional<ImmutableList<String>> configRevisions = getConfigRevisions(projects);
+    if (configRevisions.isEmpty()) {
+      List<SectionMatcher> all = getLocalAccessSections(projects);
+      CompiledSectionMatcher matcher = allSectionsMatcher;
+      if (matcher == null || !matcher.isCompiledFrom(all)) {
+        matcher = CompiledSectionMatcher.compile(all, configRevisions);
+        allSectionsMatcher = matcher;
+      }
+      return matcher;
+    }
+
+    CompiledSectionMatcher matcher = sectionMatcherCache.getIfPresent(configRevisions.get());
+    if (matcher == null) {
+      matcher = CompiledSectionMatcher.compile(getLocalAccessSections(projects), configRevisions);
+      sectionMatcherCache.put(configRevisions.get(), matcher);
+    }
+    return matcher;
+  }
+
+  private static List<SectionMatcher> getLocalAccessSections(List<ProjectState> projects) {
+    List<SectionMatcher> all = new ArrayList<>();
+    for (ProjectState s : projects) {
+      all.addAll(s.getLocalAccessSections());
+    }
+    return all;
+  }
+
+  /**
+   * Returns the names and config revisions of the project and its parents, from the project up to
+   * All-Projects, which identify the access sections of {@link #getAllSectionsMatcher()}; empty if
+   * a project has no config revision.
+   */
+  public Optional<ImmutableList<String>> getConfigRevisions() {
+    return getConfigRevisions(isAllProjects ? ImmutableList.of(this) : Lists.newArrayList(tree()));
+  }
+
+  private static Optional<ImmutableList<String>> getConfigRevisions(List<ProjectState> projects) {
+    ImmutableList.Builder<String> revisions = ImmutableList.builder();
+    for (ProjectState s : projects) {
+      Optional<ObjectId> revision = s.getConfig().getRevision();
+      if (revision.isEmpty()) {
+        return Optional.empty();
+      }
+      revisions.add(s.getName() + "@" + revision.get().name());
+    }
+    return Optional.of(revisions.build());
+  }
+
   /**
    * Returns all {@link AccountGroup}'s to which the owner privilege for 'refs/*' is assigned for
    * this project (the local owners), if there are no local owners the local owners of the nearest
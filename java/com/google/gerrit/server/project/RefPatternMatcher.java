@@ -54,7 +54,38 @@ public abstract class RefPatternMatcher {
 
   public abstract boolean match(String ref, CurrentUser user);
 
-  private static class Exact extends RefPatternMatcher {
+  /**
+   * Returns a prefix that all refs matched by this matcher start with. Used to index matchers by
+   * prefix in {@link CompiledSectionMatcher}; the empty string is always correct.
+   */
+  String requiredPrefix() {
+    return "";
+  }
+
+  /**
+   * Returns the literal text at the start of the given anchored regular expression. The result is
+   * conservative: it stops at the first meta character and is empty for alternations.
+   */
+  static String literalPrefix(String re) {
+    if (!isRE(re) || re.indexOf('|') >= 0) {
+      return "";
+    }
+    StringBuilder prefix = new StringBuilder();
+    for (int i = 1; i < re.length(); i++) {
+      char c = re.charAt(i);
+      if (".\\[](){}*+?^$".indexOf(c) >= 0) {
+        if ((c == '*' || c == '?' || c == '{') && prefix.length() > 0) {
+          // The quantifier makes the preceding character optional.
+          prefix.setLength(prefix.length() - 1);
+        }
+        break;
+      }
+      prefix.append(c);
+    }
+    return prefix.toString();
+  }
+
+  static class Exact extends RefPatternMatcher {
     private final String expect;
 
     Exact(String name) {
@@ -65,9 +96,14 @@ public abstract class RefPatternMatcher {
     public boolean match(String ref, CurrentUser user) {
       return expect.equals(ref);
     }
+
+    @Override
+    String requiredPrefix() {
+      return expect;
+    }
   }
 
-  private static class Prefix extends RefPatternMatcher {
+  static class Prefix extends RefPatternMatcher {
     private final String prefix;
 
     Prefix(String pfx) {
@@ -78,6 +114,11 @@ public abstract class RefPatternMatcher {
     public boolean match(String ref, CurrentUser user) {
       return ref.startsWith(prefix);
     }
+
+    @Override
+    String requiredPrefix() {
+      return prefix;
+    }
   }
 
   private static class Regexp extends RefPatternMatcher {
@@ -95,6 +136,11 @@ public abstract class RefPatternMatcher {
     public boolean match(String ref, CurrentUser user) {
       return pattern.matcher(ref).matches() || (isRE(ref) && pattern.pattern().equals(ref));
     }
+
+    @Override
+    String requiredPrefix() {
+      return literalPrefix(pattern.pattern());
+    }
   }
 
   public static class ExpandParameters extends RefPatternMatcher {
@@ -165,6 +211,11 @@ public abstract class RefPatternMatcher {
       return ref.startsWith(prefix);
     }
 
+    @Override
+    String requiredPrefix() {
+      return prefix;
+    }
+
     private String expand(String parameterizedRef, String userName, Account.Id accountId) {
       if (parameterizedRef.contains("${")) {
         return expand(new ParameterizedString(parameterizedRef), userName, accountId);
@@ -302,6 +302,36 @@ public class InternalChangeQuery extends InternalQuery<ChangeData, InternalChang
     return and(project(project), or(groupPredicates));
   }
 
+  private static Predicate<ChangeData> byTopicsOpenPredicate(
+      IndexConfig indexConfig, Collection<String> topics) {
+    int n = indexConfig.maxTerms() - 1;
+    checkArgument(topics.size() <= n, "cannot exceed %s topics", n);
+    List<Predicate<ChangeData>> topicPredicates = new ArrayList<>(topics.size());
+    for (String topic : topics) {
+      topicPredicates.add(ChangePredicates.exactTopic(topic));
+    }
+    return and(or(topicPredicates), open());
+  }
+
+  /**
+   * Returns the open changes of all given topics.
+   *
+   * <p>The topics are batched into as few queries as the index allows. As the changes of all topics
+   * of a batch count against the result limit of a single query, every batch is queried
+   * exhaustively with pagination.
+   */
+  public static ImmutableList<ChangeData> byTopicsOpen(
+      Provider<InternalChangeQuery> queryProvider,
+      IndexConfig indexConfig,
+      Collection<String> topics) {
+    Supplier<InternalChangeQuery> querySupplier = queryProvider::get;
+    ImmutableList.Builder<ChangeData> result = ImmutableList.builder();
+    for (List<String> part : Iterables.partition(topics, indexConfig.maxTerms() - 1)) {
+      result.addAll(queryExhaustively(querySupplier, byTopicsOpenPredicate(indexConfig, part)));
+    }
+    return result.build();
+  }
+
   public static ImmutableList<ChangeData> byProjectGroups(
       Provider<InternalChangeQuery> queryProvider,
       IndexConfig indexConfig,
@@ -0,0 +1,163 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.quota;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.Optional;
+
+/**
+ * Limit on the number of concurrent requests that adapts to the latency of the requests, in the
+ * manner of a gradient limiter.
+ *
+ * <p>The limiter tracks a short-term and a long-term moving average of the request latency. While
+ * the short-term average stays within {@code tolerance} times the long-term average the limit
+ * grows, by about its square root per completed request. Once requests get slower, e.g. because
+ * the index or NoteDb is slow, the limit shrinks by the ratio of the two averages. The limit only
+ * changes while at least half of it is in use, so that it doesn't drift while the server is idle.
+ *
+ * <p>Low priority requests are only admitted while the number of requests in flight is below a
+ * share of the limit, which keeps the remaining capacity for high priority requests.
+ */
+public class AdaptiveConcurrencyLimiter {
+  public enum Priority {
+    HIGH,
+    LOW
+  }
+
+  /** Weight of a new latency sample in the short-term average, i.e. about the last 10 requests. */
+  private static final double SHORT_WEIGHT = 0.1;
+
+  /** Weight of a new latency sample in the long-term average, i.e. about the last 500 requests. */
+  private static final double LONG_WEIGHT = 0.002;
+
+  /** Weight of a new limit, which smooths out the reaction to single slow requests. */
+  private static final double SMOOTHING = 0.2;
+
+  /** Lower bound of the gradient, the limit shrinks by at most half per request. */
+  private static final double MIN_GRADIENT = 0.5;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final double lowPriorityShare;
+  private final double tolerance;
+
+  private double limit;
+  private int inFlight;
+  private double shortLatency;
+  private double longLatency;
+
+  public AdaptiveConcurrencyLimiter(
+      int minLimit, int maxLimit, double lowPriorityShare, double tolerance) {
+    checkArgument(minLimit > 0, "minLimit must be positive: %s", minLimit);
+    checkArgument(
+        maxLimit >= minLimit, "maxLimit %s is smaller than minLimit %s", maxLimit, minLimit);
+    checkArgument(
+        lowPriorityShare > 0 && lowPriorityShare <= 1,
+        "lowPriorityShare must be in (0, 1]: %s",
+        lowPriorityShare);
+    checkArgument(tolerance >= 1, "tolerance must be at least 1: %s", tolerance);
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.lowPriorityShare = lowPriorityShare;
+    this.tolerance = tolerance;
+    this.limit = maxLimit;
+  }
+
+  /**
+   * Admits a request if the limit for its priority is not reached yet.
+   *
+   * @return the permit of the admitted request, which must be released when the request is done,
+   *     or empty if the request should be shed
+   */
+  public synchronized Optional<Permit> tryAcquire(Priority priority) {
+    int allowed = getLimit();
+    if (priority == Priority.LOW) {
+      allowed = Math.max(1, (int) (allowed * lowPriorityShare));
+    }
+    if (inFlight >= allowed) {
+      return Optional.empty();
+    }
+    inFlight++;
+    return Optional.of(new Permit(inFlight, System.nanoTime()));
+  }
+
+  /** Returns the current limit on the number of concurrent high priority requests. */
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  /** Returns the number of admitted requests that didn't release their permit yet. */
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  private synchronized void release(Permit permit, long latencyNanos) {
+    if (permit.released) {
+      return;
+    }
+    permit.released = true;
+    inFlight--;
+
+    if (shortLatency == 0) {
+      shortLatency = latencyNanos;
+      longLatency = latencyNanos;
+      return;
+    }
+    shortLatency += SHORT_WEIGHT * (latencyNanos - shortLatency);
+    longLatency += LONG_WEIGHT * (latencyNanos - longLatency);
+    if (longLatency > 2 * shortLatency) {
+      // Requests got much faster, e.g. after an outage of a backend. Let the long-term average
+      // catch up, so that it doesn't tolerate a latency that is way above the current one.
+      longLatency *= 0.95;
+    }
+
+    if (permit.inFlight < limit / 2) {
+      // The server isn't loaded, the latency doesn't tell anything about the limit.
+      return;
+    }
+    double gradient =
+        Math.max(MIN_GRADIENT, Math.min(1.0, tolerance * longLatency / Math.max(1, shortLatency)));
+    double newLimit = limit * gradient + Math.sqrt(limit);
+    newLimit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+    limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+  }
+
+  /** Admission of a request by the limiter. */
+  public class Permit {
+    private final int inFlight;
+    private final long startNanos;
+    private boolean released;
+
+    private Permit(int inFlight, long startNanos) {
+      this.inFlight = inFlight;
+      this.startNanos = startNanos;
+    }
+
+    /**
+     * Releases the permit and feeds the latency of the request into the limit. Releasing a permit
+     * more than once has no effect.
+     */
+    public void release() {
+      release(System.nanoTime() - startNanos);
+    }
+
+    @VisibleForTesting
+    void release(long latencyNanos) {
+      AdaptiveConcurrencyLimiter.this.release(this, latencyNanos);
+    }
+  }
+}
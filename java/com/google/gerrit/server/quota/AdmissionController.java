@@ -0,0 +1,196 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.quota;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.metrics.CallbackMetric;
+import com.google.gerrit.metrics.CallbackMetric1;
+import com.google.gerrit.metrics.Counter2;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.AnonymousUser;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.account.AccountLimits;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.config.ThreadSettingsConfig;
+import com.google.gerrit.server.git.QueueProvider;
+import com.google.gerrit.server.quota.AdaptiveConcurrencyLimiter.Priority;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Locale;
+import java.util.Optional;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Sheds requests when the server is overloaded.
+ *
+ * <p>Every class of endpoints has an {@link AdaptiveConcurrencyLimiter} that lowers the number of
+ * requests that are served concurrently when the requests get slower. Requests of anonymous users
+ * and of service users (users whose tasks go to the batch queue) have low priority and are shed
+ * first, which keeps capacity for the interactive requests of the other users.
+ *
+ * <p>Admission control is disabled unless {@code admission.enabled} is set.
+ */
+@Singleton
+public class AdmissionController {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String SECTION = "admission";
+
+  /** Class of endpoints that share a concurrency limit. */
+  public enum EndpointClass {
+    REST("rest"),
+    GIT_HTTP("git-http"),
+    SSH("ssh");
+
+    private final String configName;
+
+    EndpointClass(String configName) {
+      this.configName = configName;
+    }
+
+    public String configName() {
+      return configName;
+    }
+  }
+
+  /** Admission of a request, to be closed when the request is done. */
+  public interface Permit extends AutoCloseable {
+    /** Permit for requests that are not subject to admission control. */
+    Permit NONE = () -> {};
+
+    @Override
+    void close();
+  }
+
+  private final boolean enabled;
+  private final AccountLimits.Factory limitsFactory;
+  private final ImmutableMap<EndpointClass, AdaptiveConcurrencyLimiter> limiters;
+  private final Counter2<String, String> rejected;
+
+  @Inject
+  AdmissionController(
+      @GerritServerConfig Config cfg,
+      ThreadSettingsConfig threadSettings,
+      AccountLimits.Factory limitsFactory,
+      MetricMaker metricMaker) {
+    this.enabled = cfg.getBoolean(SECTION, "enabled", false);
+    this.limitsFactory = limitsFactory;
+
+    double lowPriorityShare = getDouble(cfg, "lowPriorityShare", 0.5);
+    double tolerance = getDouble(cfg, "latencyTolerance", 2.0);
+    ImmutableMap.Builder<EndpointClass, AdaptiveConcurrencyLimiter> b = ImmutableMap.builder();
+    for (EndpointClass c : EndpointClass.values()) {
+      int defaultMaxLimit =
+          c == EndpointClass.REST
+              ? threadSettings.getHttpdMaxThreads()
+              : 2 * threadSettings.getSshdThreads();
+      int maxLimit = Math.max(1, cfg.getInt(SECTION, c.configName(), "maxLimit", defaultMaxLimit));
+      int minLimit =
+          Math.min(
+              maxLimit,
+              Math.max(1, cfg.getInt(SECTION, c.configName(), "minLimit", maxLimit / 10)));
+      b.put(c, new AdaptiveConcurrencyLimiter(minLimit, maxLimit, lowPriorityShare, tolerance));
+    }
+    this.limiters = b.buildOrThrow();
+
+    Field<String> endpointClassField =
+        Field.ofString("endpoint_class", (metadataBuilder, fieldValue) -> {})
+            .description("The class of endpoints (rest, git-http or ssh).")
+            .build();
+    Field<String> priorityField =
+        Field.ofString("priority", (metadataBuilder, fieldValue) -> {})
+            .description("The priority of the request (high or low).")
+            .build();
+    this.rejected =
+        metricMaker.newCounter(
+            "admission/rejected_count",
+            new Description("Number of requests that were shed because the server is overloaded")
+                .setRate()
+                .setUnit("requests"),
+            endpointClassField,
+            priorityField);
+    CallbackMetric1<String, Integer> limit =
+        metricMaker.newCallbackMetric(
+            "admission/limit",
+            Integer.class,
+            new Description("Current limit on concurrent requests").setGauge().setUnit("requests"),
+            endpointClassField);
+    CallbackMetric1<String, Integer> inFlight =
+        metricMaker.newCallbackMetric(
+            "admission/in_flight",
+            Integer.class,
+            new Description("Number of admitted requests in flight").setGauge().setUnit("requests"),
+            endpointClassField);
+    ImmutableSet<CallbackMetric<?>> gauges = ImmutableSet.of(limit, inFlight);
+    metricMaker.newTrigger(
+        gauges,
+        () -> {
+          limiters.forEach(
+              (c, limiter) -> {
+                limit.set(c.configName(), limiter.getLimit());
+                inFlight.set(c.configName(), limiter.getInFlight());
+              });
+          gauges.forEach(CallbackMetric::prune);
+        });
+  }
+
+  private static double getDouble(Config cfg, String name, double defaultValue) {
+    String value = cfg.getString(SECTION, null, name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      logger.atWarning().log("Invalid %s.%s %s, using %s", SECTION, name, value, defaultValue);
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Admits a request of the given user to an endpoint of the given class.
+   *
+   * @return the permit of the request, which must be closed when the request is done
+   * @throws QuotaException if the request is shed because the server is overloaded
+   */
+  public Permit admit(EndpointClass endpointClass, CurrentUser user) throws QuotaException {
+    if (!enabled) {
+      return Permit.NONE;
+    }
+    Priority priority = priority(user);
+    Optional<AdaptiveConcurrencyLimiter.Permit> permit =
+        limiters.get(endpointClass).tryAcquire(priority);
+    if (permit.isEmpty()) {
+      rejected.increment(endpointClass.configName(), priority.name().toLowerCase(Locale.ROOT));
+      throw new QuotaException("Server is overloaded, retry later");
+    }
+    return permit.get()::release;
+  }
+
+  private Priority priority(CurrentUser user) {
+    if (user instanceof AnonymousUser) {
+      return Priority.LOW;
+    }
+    if (user.isIdentifiedUser()
+        && limitsFactory.create(user).getQueueType() == QueueProvider.QueueType.BATCH) {
+      return Priority.LOW;
+    }
+    return Priority.HIGH;
+  }
+}
@@ -18,6 +18,7 @@ import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static java.util.stream.Collectors.groupingBy;
 
+import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -31,7 +32,9 @@ import com.google.gerrit.entities.PatchSet;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.metrics.Counter0;
 import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
 import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
 import com.google.gerrit.server.CommentsUtil;
 import com.google.gerrit.server.logging.Metadata;
 import com.google.gerrit.server.logging.TraceContext;
@@ -52,6 +55,8 @@ import com.google.gerrit.server.patch.filediff.FileEdits;
 import com.google.gerrit.server.patch.filediff.TaggedEdit;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -77,6 +82,8 @@ public class CommentPorter {
     final Counter0 portedAsPatchsetLevel;
     final Counter0 portedAsFileLevel;
     final Counter0 portedAsRangeComments;
+    final Counter0 portedComments;
+    final Timer0 portingLatency;
 
     @Inject
     Metrics(MetricMaker metricMaker) {
@@ -99,6 +106,16 @@ public class CommentPorter {
                       "Total number of comments having line/range values in the ported patchset.")
                   .setRate()
                   .setUnit("count"));
+      portedComments =
+          metricMaker.newCounter(
+              "ported_comments/count",
+              new Description("Total number of ported comments.").setRate().setUnit("count"));
+      portingLatency =
+          metricMaker.newTimer(
+              "ported_comments/latency",
+              new Description("Latency of porting the comments of a change to a patchset.")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS));
     }
   }
 
@@ -147,10 +164,14 @@ public class CommentPorter {
       List<HumanCommentFilter> filters) {
     try (TraceTimer ignored =
         TraceContext.newTimer(
-            "Porting comments", Metadata.builder().patchSetId(targetPatchset.number()).build())) {
+            "Porting comments", Metadata.builder().patchSetId(targetPatchset.number()).build());
+        Timer0.Context ctx = metrics.portingLatency.start()) {
       ImmutableList<HumanCommentFilter> allFilters = addDefaultFilters(filters, targetPatchset);
       ImmutableList<HumanComment> relevantComments = filter(comments, allFilters);
-      return port(changeNotes, targetPatchset, relevantComments);
+      ImmutableList<HumanComment> portedComments =
+          port(changeNotes, targetPatchset, relevantComments);
+      metrics.portedComments.incrementBy(portedComments.size());
+      return portedComments;
     }
   }
 
@@ -180,121 +201,106 @@ public class CommentPorter {
 
     ImmutableList.Builder<HumanComment> portedComments =
         ImmutableList.builderWithExpectedSize(comments.size());
+    // Comments of different patchsets often need the same diff, e.g. the comments on the parent
+    // side of all patchsets which weren't rebased. Group them so that each diff is computed and
+    // each transformation is done only once.
+    Map<CommitPair, List<HumanComment>> commentsPerCommitPair = new LinkedHashMap<>();
     for (Integer originalPatchsetId : commentsPerPatchset.keySet()) {
       ImmutableList<HumanComment> patchsetComments = commentsPerPatchset.get(originalPatchsetId);
       PatchSet originalPatchset =
           notes.getPatchSets().get(PatchSet.id(notes.getChangeId(), originalPatchsetId));
-      if (originalPatchset != null) {
-        portedComments.addAll(
-            portSamePatchset(
-                notes.getProjectName(),
-                notes.getChange(),
-                originalPatchset,
-                targetPatchset,
-                patchsetComments));
-      } else {
+      if (originalPatchset == null) {
         logger.atWarning().log(
             "Some comments which should be ported refer to the non-existent patchset %s of"
                 + " change %d. Omitting %d affected comments.",
             originalPatchsetId, notes.getChangeId().get(), patchsetComments.size());
+        continue;
       }
-    }
-    return portedComments.build();
-  }
-
-  private ImmutableList<HumanComment> portSamePatchset(
-      Project.NameKey project,
-      Change change,
-      PatchSet originalPatchset,
-      PatchSet targetPatchset,
-      ImmutableList<HumanComment> comments) {
-    try (TraceTimer ignored =
-        TraceContext.newTimer(
-            "Porting comments same patchset",
-            Metadata.builder()
-                .projectName(project.get())
-                .changeId(change.getChangeId())
-                .patchSetId(originalPatchset.number())
-                .build())) {
       Map<Short, List<HumanComment>> commentsPerSide =
-          comments.stream().collect(groupingBy(comment -> comment.side));
-      ImmutableList.Builder<HumanComment> portedComments = ImmutableList.builder();
+          patchsetComments.stream().collect(groupingBy(comment -> comment.side));
       for (Map.Entry<Short, List<HumanComment>> sideAndComments : commentsPerSide.entrySet()) {
-        portedComments.addAll(
-            portSamePatchsetAndSide(
-                project,
-                change,
-                originalPatchset,
-                targetPatchset,
-                sideAndComments.getValue(),
-                sideAndComments.getKey()));
+        short side = sideAndComments.getKey();
+        List<HumanComment> sideComments = sideAndComments.getValue();
+        CommitPair commitPair;
+        try {
+          commitPair =
+              CommitPair.create(
+                  determineCommitId(notes.getChange(), originalPatchset, side),
+                  determineCommitId(notes.getChange(), targetPatchset, side));
+        } catch (Exception e) {
+          logger.atWarning().withCause(e).log(
+              "Could not determine the commits for porting comments on change %s from patchset"
+                  + " %s to patchset %s. Mapping %d affected comments to the fallback"
+                  + " destination.",
+              notes.getChange().getChangeId(),
+              originalPatchset.id().getId(),
+              targetPatchset.id().getId(),
+              sideComments.size());
+          portedComments.addAll(transform(sideComments, getFallbackMappings(sideComments)));
+          continue;
+        }
+        commentsPerCommitPair
+            .computeIfAbsent(commitPair, k -> new ArrayList<>())
+            .addAll(sideComments);
       }
-      return portedComments.build();
     }
+
+    for (Map.Entry<CommitPair, List<HumanComment>> pairAndComments :
+        commentsPerCommitPair.entrySet()) {
+      portedComments.addAll(
+          portSameCommitPair(
+              notes.getProjectName(),
+              notes.getChange(),
+              targetPatchset,
+              pairAndComments.getKey(),
+              pairAndComments.getValue()));
+    }
+    return portedComments.build();
   }
 
-  private ImmutableList<HumanComment> portSamePatchsetAndSide(
+  private ImmutableList<HumanComment> portSameCommitPair(
       Project.NameKey project,
       Change change,
-      PatchSet originalPatchset,
       PatchSet targetPatchset,
-      List<HumanComment> comments,
-      short side) {
+      CommitPair commitPair,
+      List<HumanComment> comments) {
     try (TraceTimer ignored =
         TraceContext.newTimer(
-            "Porting comments same patchset and side",
+            "Porting comments same commits",
             Metadata.builder()
                 .projectName(project.get())
                 .changeId(change.getChangeId())
-                .patchSetId(originalPatchset.number())
-                .commentSide(side)
+                .commit(commitPair.originalCommit().name())
                 .build())) {
       ImmutableSet<Mapping> mappings;
       try {
-        mappings = loadMappings(project, change, originalPatchset, targetPatchset, side);
+        mappings = loadCommitMappings(project, commitPair, getCommentedFiles(comments));
       } catch (Exception e) {
         logger.atWarning().withCause(e).log(
             "Could not determine some necessary diff mappings for porting comments on change %s"
-                + " from patchset %s to patchset %s. Mapping %d affected comments to the fallback"
+                + " from commit %s to patchset %s. Mapping %d affected comments to the fallback"
                 + " destination.",
             change.getChangeId(),
-            originalPatchset.id().getId(),
+            commitPair.originalCommit().name(),
             targetPatchset.id().getId(),
             comments.size());
         mappings = getFallbackMappings(comments);
       }
-
-      ImmutableList<PositionedEntity<HumanComment>> positionedComments =
-          comments.stream().map(this::toPositionedEntity).collect(toImmutableList());
-      ImmutableMap<PositionedEntity<HumanComment>, HumanComment> origToPortedMap =
-          positionTransformer.transform(positionedComments, mappings).stream()
-              .collect(
-                  ImmutableMap.toImmutableMap(
-                      Function.identity(), PositionedEntity::getEntityAtUpdatedPosition));
-      collectMetrics(origToPortedMap);
-      return ImmutableList.copyOf(origToPortedMap.values());
+      return transform(comments, mappings);
     }
   }
 
-  private ImmutableSet<Mapping> loadMappings(
-      Project.NameKey project,
-      Change change,
-      PatchSet originalPatchset,
-      PatchSet targetPatchset,
-      short side)
-      throws DiffNotAvailableException {
-    try (TraceTimer ignored =
-        TraceContext.newTimer(
-            "Loading commit mappings",
-            Metadata.builder()
-                .projectName(project.get())
-                .changeId(change.getChangeId())
-                .patchSetId(originalPatchset.number())
-                .build())) {
-      ObjectId originalCommit = determineCommitId(change, originalPatchset, side);
-      ObjectId targetCommit = determineCommitId(change, targetPatchset, side);
-      return loadCommitMappings(project, originalCommit, targetCommit);
-    }
+  private ImmutableList<HumanComment> transform(
+      List<HumanComment> comments, ImmutableSet<Mapping> mappings) {
+    ImmutableList<PositionedEntity<HumanComment>> positionedComments =
+        comments.stream().map(this::toPositionedEntity).collect(toImmutableList());
+    ImmutableMap<PositionedEntity<HumanComment>, HumanComment> origToPortedMap =
+        positionTransformer.transform(positionedComments, mappings).stream()
+            .collect(
+                ImmutableMap.toImmutableMap(
+                    Function.identity(), PositionedEntity::getEntityAtUpdatedPosition));
+    collectMetrics(origToPortedMap);
+    return ImmutableList.copyOf(origToPortedMap.values());
   }
 
   private ObjectId determineCommitId(Change change, PatchSet patchset, short side) {
@@ -308,17 +314,28 @@ public class CommentPorter {
                         change.getId().get(), patchset.id().get(), side)));
   }
 
+  private static ImmutableSet<String> getCommentedFiles(List<HumanComment> comments) {
+    return comments.stream()
+        .map(comment -> comment.key.filename)
+        .filter(filename -> !Patch.PATCHSET_LEVEL.equals(filename))
+        .collect(toImmutableSet());
+  }
+
   private ImmutableSet<Mapping> loadCommitMappings(
-      Project.NameKey project, ObjectId originalCommit, ObjectId targetCommit)
+      Project.NameKey project, CommitPair commitPair, ImmutableSet<String> paths)
       throws DiffNotAvailableException {
     try (TraceTimer ignored =
         TraceContext.newTimer(
-            "Computing diffs", Metadata.builder().commit(originalCommit.name()).build())) {
+            "Computing diffs",
+            Metadata.builder().commit(commitPair.originalCommit().name()).build())) {
+      // Only the diffs of the commented files are needed. Files which were renamed or copied in
+      // the target commit are still found as the rename detection isn't limited to these paths.
       Map<String, FileDiffOutput> modifiedFiles =
           diffOperations.listModifiedFiles(
               project,
-              originalCommit,
-              targetCommit,
+              commitPair.originalCommit(),
+              commitPair.targetCommit(),
+              paths,
               DiffOptions.builder().skipFilesWithAllEditsDueToRebase(false).build());
       return modifiedFiles.values().stream()
           .map(CommentPorter::getFileEdits)
@@ -439,6 +456,18 @@ public class CommentPorter {
     }
   }
 
+  /** The commits between which the comments of a patchset and side are ported. */
+  @AutoValue
+  abstract static class CommitPair {
+    abstract ObjectId originalCommit();
+
+    abstract ObjectId targetCommit();
+
+    static CommitPair create(ObjectId originalCommit, ObjectId targetCommit) {
+      return new AutoValue_CommentPorter_CommitPair(originalCommit.copy(), targetCommit.copy());
+    }
+  }
+
   /** A filter which just keeps those comments which are before the given patchset. */
   private static class EarlierPatchsetCommentFilter implements HumanCommentFilter {
 
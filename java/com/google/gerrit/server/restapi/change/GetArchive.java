@@ -17,6 +17,8 @@ package com.google.gerrit.server.restapi.change;
 import static com.google.gerrit.git.ObjectIds.abbreviateName;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.extensions.restapi.BinaryResult;
@@ -24,12 +26,12 @@ import com.google.gerrit.extensions.restapi.MethodNotAllowedException;
 import com.google.gerrit.extensions.restapi.Response;
 import com.google.gerrit.extensions.restapi.RestReadView;
 import com.google.gerrit.server.change.ArchiveFormatInternal;
+import com.google.gerrit.server.change.ArchiveGenerator;
 import com.google.gerrit.server.change.RevisionResource;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.inject.Inject;
 import java.io.IOException;
 import java.io.OutputStream;
-import org.eclipse.jgit.api.ArchiveCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -39,6 +41,7 @@ import org.kohsuke.args4j.Option;
 public class GetArchive implements RestReadView<RevisionResource> {
   private final GitRepositoryManager repoManager;
   private final AllowedFormats allowedFormats;
+  private final ArchiveGenerator archiveGenerator;
   @Nullable private String format;
 
   @Option(name = "--format")
@@ -47,9 +50,13 @@ public class GetArchive implements RestReadView<RevisionResource> {
   }
 
   @Inject
-  GetArchive(GitRepositoryManager repoManager, AllowedFormats allowedFormats) {
+  GetArchive(
+      GitRepositoryManager repoManager,
+      AllowedFormats allowedFormats,
+      ArchiveGenerator archiveGenerator) {
     this.repoManager = repoManager;
     this.allowedFormats = allowedFormats;
+    this.archiveGenerator = archiveGenerator;
   }
 
   @Override
@@ -80,11 +87,8 @@ public class GetArchive implements RestReadView<RevisionResource> {
             @Override
             public void writeTo(OutputStream out) throws IOException {
               try {
-                new ArchiveCommand(repo)
-                    .setFormat(f.name())
-                    .setTree(commit.getTree())
-                    .setOutputStream(out)
-                    .call();
+                archiveGenerator.writeArchive(
+                    repo, commit.getTree(), f, ImmutableMap.of(), null, ImmutableList.of(), out);
               } catch (GitAPIException e) {
                 throw new IOException(e);
               }
@@ -46,6 +46,7 @@ import com.google.gerrit.server.diff.DiffSide;
 import com.google.gerrit.server.diff.DiffWebLinksProvider;
 import com.google.gerrit.server.git.LargeObjectException;
 import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.patch.DiffPrecomputer;
 import com.google.gerrit.server.patch.PatchScriptFactory;
 import com.google.gerrit.server.permissions.PermissionBackendException;
 import com.google.gerrit.server.project.InvalidChangeOperationException;
@@ -71,6 +72,7 @@ public class GetDiff implements RestReadView<FileResource> {
   private final Revisions revisions;
   private final WebLinks webLinks;
   private final Provider<CurrentUser> currentUser;
+  private final DiffPrecomputer diffPrecomputer;
 
   @Option(name = "--base", metaVar = "REVISION")
   String base;
@@ -99,12 +101,14 @@ public class GetDiff implements RestReadView<FileResource> {
       PatchScriptFactory.Factory patchScriptFactoryFactory,
       Revisions revisions,
       WebLinks webLinks,
-      Provider<CurrentUser> currentUser) {
+      Provider<CurrentUser> currentUser,
+      DiffPrecomputer diffPrecomputer) {
     this.projectCache = projectCache;
     this.patchScriptFactoryFactory = patchScriptFactoryFactory;
     this.revisions = revisions;
     this.webLinks = webLinks;
     this.currentUser = currentUser;
+    this.diffPrecomputer = diffPrecomputer;
   }
 
   @Override
@@ -131,6 +135,7 @@ public class GetDiff implements RestReadView<FileResource> {
     logger.atFine().log(
         "patchSetId = %d, fileName = %s, base = %s, parentNum = %d",
         pId.get(), fileName, base, parentNum);
+    diffPrecomputer.onDiffRequested(pId);
     ChangeNotes notes = resource.getRevision().getNotes();
     if (base != null) {
       RevisionResource baseResource =
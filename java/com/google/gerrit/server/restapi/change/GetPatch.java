@@ -24,6 +24,7 @@ import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
 import com.google.gerrit.extensions.restapi.Response;
 import com.google.gerrit.extensions.restapi.RestReadView;
 import com.google.gerrit.server.change.RevisionResource;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.patch.DiffUtil;
 import com.google.inject.Inject;
@@ -34,14 +35,17 @@ import java.util.Calendar;
 import java.util.Locale;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
 import org.kohsuke.args4j.Option;
 
 public class GetPatch implements RestReadView<RevisionResource> {
   private final GitRepositoryManager repoManager;
+  private final int maxFileSize;
 
   @Option(name = "--zip")
   private boolean zip;
@@ -57,8 +61,10 @@ public class GetPatch implements RestReadView<RevisionResource> {
   private Integer parentNum;
 
   @Inject
-  GetPatch(GitRepositoryManager repoManager) {
+  GetPatch(GitRepositoryManager repoManager, @GerritServerConfig Config cfg) {
     this.repoManager = repoManager;
+    long maxFileSizeMiB = cfg.getLong("change", "maxFileSizePatch", 0);
+    this.maxFileSize = (int) Math.min(maxFileSizeMiB << 20, Integer.MAX_VALUE);
   }
 
   @Override
@@ -107,7 +113,8 @@ public class GetPatch implements RestReadView<RevisionResource> {
                 if (path == null) {
                   out.write(formatEmailHeader(commit).getBytes(UTF_8));
                 }
-                DiffUtil.getFormattedDiff(repo, base, commit, path, out);
+                DiffUtil.getFormattedDiff(
+                    repo, null, base.getTree(), commit.getTree(), path, maxFileSize, out);
               }
 
               @Override
@@ -117,7 +124,7 @@ public class GetPatch implements RestReadView<RevisionResource> {
               }
             };
 
-        if (path != null && bin.asString().isEmpty()) {
+        if (path != null && !isModified(rw, base, commit, path)) {
           throw new ResourceNotFoundException(String.format("File not found: %s.", path));
         }
 
@@ -148,6 +155,18 @@ public class GetPatch implements RestReadView<RevisionResource> {
     }
   }
 
+  /**
+   * Whether the given path differs between the two commits, i.e. whether the patch has any content.
+   * Checked on the trees so that the patch of a huge file doesn't need to be buffered.
+   */
+  private static boolean isModified(RevWalk rw, RevCommit base, RevCommit commit, String path)
+      throws IOException {
+    try (TreeWalk tw =
+        TreeWalk.forPath(rw.getObjectReader(), path, base.getTree(), commit.getTree())) {
+      return tw != null && (tw.getRawMode(0) != tw.getRawMode(1) || !tw.idEqual(0, 1));
+    }
+  }
+
   public GetPatch setPath(String path) {
     this.path = path;
     return this;
@@ -0,0 +1,83 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.restapi.config;
+
+import static java.util.Comparator.comparingLong;
+
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.RequestProfiler;
+import com.google.gerrit.server.RequestProfiler.OperationStats;
+import com.google.gerrit.server.RequestProfiler.RequestStats;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.inject.Inject;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Returns the latency breakdown of the requests sampled by the {@link RequestProfiler}. */
+@RequiresCapability(GlobalCapability.MAINTAIN_SERVER)
+public class GetProfile implements RestReadView<ConfigResource> {
+  private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+  private final RequestProfiler profiler;
+
+  @Inject
+  GetProfile(RequestProfiler profiler) {
+    this.profiler = profiler;
+  }
+
+  @Override
+  public Response<Map<String, RequestProfileInfo>> apply(ConfigResource rsrc) {
+    Map<String, RequestProfileInfo> result = new TreeMap<>();
+    profiler.getProfile().forEach((request, stats) -> result.put(request, toInfo(stats)));
+    return Response.ok(result);
+  }
+
+  private static RequestProfileInfo toInfo(RequestStats stats) {
+    RequestProfileInfo info = new RequestProfileInfo();
+    info.requests = stats.requests();
+    info.operations = new LinkedHashMap<>();
+    stats.operations().entrySet().stream()
+        .sorted(comparingLong(e -> -e.getValue().totalNanos()))
+        .forEach(e -> info.operations.put(e.getKey(), toInfo(e.getValue(), stats.requests())));
+    return info;
+  }
+
+  private static OperationProfileInfo toInfo(OperationStats stats, long requests) {
+    OperationProfileInfo info = new OperationProfileInfo();
+    info.count = stats.count();
+    info.totalMs = stats.totalNanos() / NANOS_PER_MILLI;
+    if (requests > 0) {
+      info.perRequestMs = stats.totalNanos() / NANOS_PER_MILLI / requests;
+    }
+    info.maxMs = stats.maxNanos() / NANOS_PER_MILLI;
+    return info;
+  }
+
+  public static class RequestProfileInfo {
+    public long requests;
+    public Map<String, OperationProfileInfo> operations;
+  }
+
+  public static class OperationProfileInfo {
+    public long count;
+    public double totalMs;
+    public Double perRequestMs;
+    public double maxMs;
+  }
+}
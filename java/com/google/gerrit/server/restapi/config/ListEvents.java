@@ -0,0 +1,115 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.restapi.config;
+
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.MethodNotAllowedException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.EventBroker;
+import com.google.gerrit.server.events.EventJournal;
+import com.google.gerrit.server.permissions.PermissionBackendException;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.kohsuke.args4j.Option;
+
+/** Reads the events that are visible to the caller from the event journal. */
+@RequiresCapability(GlobalCapability.STREAM_EVENTS)
+public class ListEvents implements RestReadView<ConfigResource> {
+  private static final int DEFAULT_LIMIT = 100;
+  private static final int MAX_LIMIT = 1000;
+
+  private final EventJournal journal;
+  private final EventBroker eventBroker;
+  private final Provider<CurrentUser> self;
+
+  @Option(
+      name = "--resume-from",
+      metaVar = "OFFSET",
+      usage = "offset of the first event to read from the event journal")
+  private long resumeFrom;
+
+  @Option(
+      name = "--limit",
+      aliases = {"-n"},
+      metaVar = "CNT",
+      usage = "maximum number of events to read from the event journal")
+  private int limit = DEFAULT_LIMIT;
+
+  @Option(
+      name = "--subscribe",
+      aliases = {"-s"},
+      metaVar = "TYPE",
+      usage = "type of the events to return")
+  private Set<String> subscribedToEvents = new HashSet<>();
+
+  @Inject
+  ListEvents(EventJournal journal, EventBroker eventBroker, Provider<CurrentUser> self) {
+    this.journal = journal;
+    this.eventBroker = eventBroker;
+    this.self = self;
+  }
+
+  @Override
+  public Response<EventsInfo> apply(ConfigResource resource)
+      throws BadRequestException,
+          MethodNotAllowedException,
+          IOException,
+          PermissionBackendException {
+    if (!journal.isEnabled()) {
+      throw new MethodNotAllowedException("event journal is not enabled");
+    }
+    if (resumeFrom < 0) {
+      throw new BadRequestException("offset must not be negative");
+    }
+    if (limit <= 0) {
+      throw new BadRequestException("limit must be positive");
+    }
+
+    CurrentUser user = self.get();
+    EventJournal.Batch batch = journal.read(resumeFrom, Math.min(limit, MAX_LIMIT));
+    EventsInfo info = new EventsInfo();
+    info.events = new ArrayList<>();
+    for (EventJournal.Entry entry : batch.entries()) {
+      Event event = journal.parse(entry);
+      if (event != null
+          && (subscribedToEvents.isEmpty() || subscribedToEvents.contains(event.getType()))
+          && eventBroker.isJournaledEventVisibleTo(event, user)) {
+        info.events.add(JsonParser.parseString(entry.json()));
+      }
+    }
+    info.nextOffset = batch.nextOffset();
+    info.eventsDropped = batch.eventsDropped() ? true : null;
+    return Response.ok(info);
+  }
+
+  public static class EventsInfo {
+    public List<JsonElement> events;
+    public long nextOffset;
+    public Boolean eventsDropped;
+  }
+}
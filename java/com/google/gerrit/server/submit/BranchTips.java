@@ -18,9 +18,9 @@ import com.google.gerrit.entities.BranchNameKey;
 import com.google.gerrit.server.git.CodeReviewCommit;
 import com.google.gerrit.server.submit.MergeOpRepoManager.OpenRepo;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import org.eclipse.jgit.lib.Ref;
 
 /**
@@ -29,7 +29,9 @@ import org.eclipse.jgit.lib.Ref;
  */
 class BranchTips {
 
-  private final Map<BranchNameKey, CodeReviewCommit> branchTips = new HashMap<>();
+  // Submit strategies of different projects may record their tips concurrently, see
+  // change.submitParallelism.
+  private final Map<BranchNameKey, CodeReviewCommit> branchTips = new ConcurrentHashMap<>();
 
   /**
    * Returns current tip of the branch, taking into account commits created during the submit
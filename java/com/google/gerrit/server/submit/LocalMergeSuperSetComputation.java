@@ -17,10 +17,13 @@ package com.google.gerrit.server.submit;
 import static com.google.common.base.Preconditions.checkState;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.UsedAt;
 import com.google.gerrit.entities.BranchNameKey;
@@ -29,34 +32,45 @@ import com.google.gerrit.entities.SubmitTypeRecord;
 import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.extensions.client.SubmitType;
 import com.google.gerrit.extensions.registration.DynamicItem;
+import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.FanOutExecutor;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.project.NoSuchProjectException;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.query.change.ChangeIsVisibleToPredicate;
 import com.google.gerrit.server.query.change.InternalChangeQuery;
 import com.google.gerrit.server.submit.MergeOpRepoManager.OpenRepo;
+import com.google.gerrit.server.submit.MergeSuperSetMetrics.Phase;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevSort;
 
 /**
- * Default implementation of MergeSuperSet that does the computation of the merge super set
- * sequentially on the local Gerrit instance.
+ * Default implementation of MergeSuperSet that does the computation of the merge super set on the
+ * local Gerrit instance.
+ *
+ * <p>By default the computation is done sequentially. If {@code change.mergeSuperSetParallelism}
+ * is configured, the ancestry walks of branches in different projects are done in parallel.
  */
 public class LocalMergeSuperSetComputation implements MergeSuperSetComputation {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
@@ -83,24 +97,60 @@ public class LocalMergeSuperSetComputation implements MergeSuperSetComputation {
     abstract ImmutableSet<String> hashes();
   }
 
+  /** Key of an ancestry walk that is memoized in {@link OpenRepo#superSetWalks}. */
+  @AutoValue
+  abstract static class WalkKey {
+    private static WalkKey create(
+        BranchNameKey branch,
+        Optional<ObjectId> head,
+        Collection<RevCommit> sourceCommits,
+        Set<String> ignoreHashes,
+        int limit) {
+      ImmutableList.Builder<ObjectId> sources = ImmutableList.builder();
+      for (RevCommit c : sourceCommits) {
+        sources.add(c.copy());
+      }
+      return new AutoValue_LocalMergeSuperSetComputation_WalkKey(
+          branch, head, sources.build(), ImmutableSet.copyOf(ignoreHashes), limit);
+    }
+
+    abstract BranchNameKey branch();
+
+    abstract Optional<ObjectId> head();
+
+    abstract ImmutableList<ObjectId> sourceCommits();
+
+    abstract ImmutableSet<String> ignoreHashes();
+
+    abstract int limit();
+  }
+
   private final Provider<InternalChangeQuery> queryProvider;
   private final Map<QueryKey, ImmutableList<ChangeData>> queryCache;
   private final Map<BranchNameKey, Optional<RevCommit>> heads;
   private final ChangeIsVisibleToPredicate.Factory changeIsVisibleToPredicateFactory;
+  private final ExecutorService executor;
+  private final MergeSuperSetMetrics metrics;
   private final int maxSubmittableChangesAtOnce;
+  private final int parallelism;
 
   @Inject
   LocalMergeSuperSetComputation(
       Provider<InternalChangeQuery> queryProvider,
       ChangeIsVisibleToPredicate.Factory changeIsVisibleToPredicateFactory,
+      @FanOutExecutor ExecutorService executor,
+      MergeSuperSetMetrics metrics,
       @GerritServerConfig Config gerritConfig) {
     this.queryProvider = queryProvider;
     this.queryCache = new HashMap<>();
-    this.heads = new HashMap<>();
+    this.heads = new ConcurrentHashMap<>();
     this.changeIsVisibleToPredicateFactory = changeIsVisibleToPredicateFactory;
+    this.executor = executor;
+    this.metrics = metrics;
     this.maxSubmittableChangesAtOnce =
         gerritConfig.getInt(
             "change", "maxSubmittableAtOnce", MAX_SUBMITTABLE_CHANGES_AT_ONCE_DEFAULT);
+    this.parallelism = gerritConfig.getInt("change", "mergeSuperSetParallelism", 1);
   }
 
   @Override
@@ -118,46 +168,154 @@ public class LocalMergeSuperSetComputation implements MergeSuperSetComputation {
     ImmutableListMultimap<BranchNameKey, ChangeData> nonVisibleChangesPerBranch =
         byBranch(changeSet.nonVisibleChanges());
 
-    for (BranchNameKey branchNameKey : branches) {
-      OpenRepo or = getRepo(orm, branchNameKey.project());
-      List<RevCommit> visibleCommits = new ArrayList<>();
-      List<RevCommit> nonVisibleCommits = new ArrayList<>();
-
-      for (ChangeData cd : visibleChangesPerBranch.get(branchNameKey)) {
-        if (submitType(cd) == SubmitType.CHERRY_PICK) {
-          visibleChanges.add(cd);
-        } else {
-          visibleCommits.add(or.rw.parseCommit(cd.currentPatchSet().commitId()));
+    // The repositories are opened and the commits are parsed on the calling thread, since
+    // MergeOpRepoManager and ChangeData are not thread safe.
+    List<BranchWalk> walks = new ArrayList<>(branches.size());
+    try (Timer1.Context<Phase> ignored = metrics.phaseLatency.start(Phase.PREPARE)) {
+      for (BranchNameKey branchNameKey : branches) {
+        BranchWalk walk = new BranchWalk(getRepo(orm, branchNameKey.project()), branchNameKey);
+        for (ChangeData cd : visibleChangesPerBranch.get(branchNameKey)) {
+          if (submitType(cd) == SubmitType.CHERRY_PICK) {
+            walk.visibleCherryPicks.add(cd);
+          } else {
+            walk.visibleCommits.add(walk.or.rw.parseCommit(cd.currentPatchSet().commitId()));
+          }
         }
-      }
-      for (ChangeData cd : nonVisibleChangesPerBranch.get(branchNameKey)) {
-        if (submitType(cd) == SubmitType.CHERRY_PICK) {
-          nonVisibleChanges.add(cd);
-        } else {
-          nonVisibleCommits.add(or.rw.parseCommit(cd.currentPatchSet().commitId()));
+        for (ChangeData cd : nonVisibleChangesPerBranch.get(branchNameKey)) {
+          if (submitType(cd) == SubmitType.CHERRY_PICK) {
+            walk.nonVisibleCherryPicks.add(cd);
+          } else {
+            walk.nonVisibleCommits.add(walk.or.rw.parseCommit(cd.currentPatchSet().commitId()));
+          }
         }
+        walks.add(walk);
       }
+    }
 
-      Set<String> visibleHashes =
-          walkChangesByHashes(
-              visibleCommits,
-              Collections.emptySet(),
-              or,
-              branchNameKey,
-              maxSubmittableChangesAtOnce);
-      Set<String> nonVisibleHashes =
-          walkChangesByHashes(
-              nonVisibleCommits, visibleHashes, or, branchNameKey, maxSubmittableChangesAtOnce);
-
-      ChangeSet partialSet =
-          byCommitsOnBranchNotMerged(or, branchNameKey, visibleHashes, nonVisibleHashes, user);
-      Iterables.addAll(visibleChanges, partialSet.changes());
-      Iterables.addAll(nonVisibleChanges, partialSet.nonVisibleChanges());
+    try (Timer1.Context<Phase> ignored = metrics.phaseLatency.start(Phase.WALK)) {
+      walk(walks);
+    }
+
+    try (Timer1.Context<Phase> ignored = metrics.phaseLatency.start(Phase.CHANGE_QUERY)) {
+      for (BranchWalk walk : walks) {
+        visibleChanges.addAll(walk.visibleCherryPicks);
+        nonVisibleChanges.addAll(walk.nonVisibleCherryPicks);
+        ChangeSet partialSet =
+            byCommitsOnBranchNotMerged(
+                walk.or, walk.branch, walk.visibleHashes, walk.nonVisibleHashes, user);
+        Iterables.addAll(visibleChanges, partialSet.changes());
+        Iterables.addAll(nonVisibleChanges, partialSet.nonVisibleChanges());
+      }
     }
 
     return new ChangeSet(visibleChanges, nonVisibleChanges);
   }
 
+  /**
+   * Runs the given branch walks.
+   *
+   * <p>Each repository has a single {@code RevWalk}, hence the walks of branches in the same
+   * project are always done one after the other. If {@code change.mergeSuperSetParallelism} is
+   * greater than 1, the projects are distributed over up to that many tasks which are run
+   * concurrently on the fan-out executor.
+   */
+  private void walk(List<BranchWalk> walks) throws IOException {
+    ListMultimap<Project.NameKey, BranchWalk> walksByProject =
+        MultimapBuilder.linkedHashKeys().arrayListValues().build();
+    for (BranchWalk walk : walks) {
+      walksByProject.put(walk.branch.project(), walk);
+    }
+
+    int numTasks = Math.min(parallelism, walksByProject.keySet().size());
+    if (numTasks <= 1) {
+      for (BranchWalk walk : walks) {
+        walk.run();
+      }
+      return;
+    }
+
+    List<List<BranchWalk>> buckets = new ArrayList<>(numTasks);
+    for (int i = 0; i < numTasks; i++) {
+      buckets.add(new ArrayList<>());
+    }
+    int i = 0;
+    for (Project.NameKey project : walksByProject.keySet()) {
+      buckets.get(i++ % numTasks).addAll(walksByProject.get(project));
+    }
+
+    List<Callable<Void>> tasks = new ArrayList<>(numTasks);
+    for (List<BranchWalk> bucket : buckets) {
+      tasks.add(
+          () -> {
+            for (BranchWalk walk : bucket) {
+              walk.run();
+            }
+            return null;
+          });
+    }
+
+    try {
+      for (Future<Void> f : executor.invokeAll(tasks)) {
+        f.get();
+      }
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new StorageException("Failed to compute merge super set", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StorageException("Interrupted while computing merge super set", e);
+    }
+  }
+
+  /**
+   * The ancestry walk of one target branch, finding the commits that need to be merged together
+   * with the changes of the super set that target this branch.
+   */
+  private class BranchWalk {
+    final OpenRepo or;
+    final BranchNameKey branch;
+    final List<RevCommit> visibleCommits = new ArrayList<>();
+    final List<RevCommit> nonVisibleCommits = new ArrayList<>();
+    final List<ChangeData> visibleCherryPicks = new ArrayList<>();
+    final List<ChangeData> nonVisibleCherryPicks = new ArrayList<>();
+
+    Set<String> visibleHashes;
+    Set<String> nonVisibleHashes;
+
+    BranchWalk(OpenRepo or, BranchNameKey branch) {
+      this.or = or;
+      this.branch = branch;
+    }
+
+    void run() throws IOException {
+      visibleHashes = memoizedWalk(visibleCommits, ImmutableSet.of());
+      nonVisibleHashes = memoizedWalk(nonVisibleCommits, visibleHashes);
+    }
+
+    private Set<String> memoizedWalk(List<RevCommit> sourceCommits, Set<String> ignoreHashes)
+        throws IOException {
+      WalkKey key =
+          WalkKey.create(
+              branch,
+              getHead(or, branch).map(RevCommit::copy),
+              sourceCommits,
+              ignoreHashes,
+              maxSubmittableChangesAtOnce);
+      ImmutableSet<String> hashes = or.superSetWalks.get(key);
+      if (hashes != null) {
+        metrics.memoizedWalks.increment();
+        return hashes;
+      }
+      hashes =
+          ImmutableSet.copyOf(
+              walkChangesByHashes(
+                  sourceCommits, ignoreHashes, or, branch, maxSubmittableChangesAtOnce));
+      or.superSetWalks.put(key, hashes);
+      return hashes;
+    }
+  }
+
   private static ImmutableListMultimap<BranchNameKey, ChangeData> byBranch(
       Iterable<ChangeData> changes) {
     ImmutableListMultimap.Builder<BranchNameKey, ChangeData> builder =
@@ -268,15 +426,20 @@ public class LocalMergeSuperSetComputation implements MergeSuperSetComputation {
   }
 
   private void markHeadUninteresting(OpenRepo or, BranchNameKey b) throws IOException {
+    Optional<RevCommit> head = getHead(or, b);
+    if (head.isPresent()) {
+      or.rw.markUninteresting(head.get());
+    }
+  }
+
+  private Optional<RevCommit> getHead(OpenRepo or, BranchNameKey b) throws IOException {
     Optional<RevCommit> head = heads.get(b);
     if (head == null) {
       Ref ref = or.repo.getRefDatabase().exactRef(b.branch());
       head = ref != null ? Optional.of(or.rw.parseCommit(ref.getObjectId())) : Optional.empty();
       heads.put(b, head);
     }
-    if (head.isPresent()) {
-      or.rw.markUninteresting(head.get());
-    }
+    return head;
   }
 
   private void logErrorAndThrow(String msg) {
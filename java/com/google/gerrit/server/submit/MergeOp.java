@@ -38,6 +38,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.Multimaps;
 import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 import com.google.common.flogger.FluentLogger;
@@ -70,6 +71,7 @@ import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.server.ChangeMessagesUtil;
 import com.google.gerrit.server.ChangeUtil;
 import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.FanOutExecutor;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.InternalUser;
 import com.google.gerrit.server.change.NotifyResolver;
@@ -114,6 +116,7 @@ import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -124,6 +127,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -176,9 +180,13 @@ public class MergeOp implements AutoCloseable {
         bb.put(cd.change().getDest(), cd.getId());
       }
       byBranch = bb.build();
-      commits = new HashMap<>();
-      problems = MultimapBuilder.treeKeys(comparing(Change.Id::get)).arrayListValues(1).build();
-      implicitMergeProblems = new HashSet<>();
+      // The updateRepo phases of submit strategies of different projects may run concurrently and
+      // report their results here, see change.submitParallelism.
+      commits = Collections.synchronizedMap(new HashMap<>());
+      problems =
+          Multimaps.synchronizedListMultimap(
+              MultimapBuilder.treeKeys(comparing(Change.Id::get)).arrayListValues(1).build());
+      implicitMergeProblems = Collections.synchronizedSet(new HashSet<>());
       this.allowClosed = allowClosed;
     }
 
@@ -309,6 +317,8 @@ public class MergeOp implements AutoCloseable {
 
   private final ProjectCache projectCache;
   private final long hasImplicitMergeTimeoutSeconds;
+  private final ExecutorService fanOutExecutor;
+  private final int submitParallelism;
 
   private Instant ts;
   private SubmissionId submissionId;
@@ -346,7 +356,8 @@ public class MergeOp implements AutoCloseable {
       ProjectCache projectCache,
       ExperimentFeatures experimentFeatures,
       @GerritServerConfig Config config,
-      PermissionBackend permissionBackend) {
+      PermissionBackend permissionBackend,
+      @FanOutExecutor ExecutorService fanOutExecutor) {
     this.cmUtil = cmUtil;
     this.batchUpdateFactory = batchUpdateFactory;
     this.batchUpdates = batchUpdates;
@@ -373,6 +384,8 @@ public class MergeOp implements AutoCloseable {
         ConfigUtil.getTimeUnit(
             config, "change", null, "implicitMergeCalculationTimeout", 60, TimeUnit.SECONDS);
     this.permissionBackend = permissionBackend;
+    this.fanOutExecutor = fanOutExecutor;
+    this.submitParallelism = config.getInt("change", "submitParallelism", 1);
   }
 
   @Override
@@ -928,6 +941,11 @@ public class MergeOp implements AutoCloseable {
         try {
           submissionExecutor.setAdditionalBatchUpdateListeners(
               ImmutableList.of(new SubmitStrategyListener(submitInput, strategies, commitStatus)));
+          // Gitlink updates of superprojects depend on the new tips of their submodules, hence the
+          // repositories must be updated in order if any superproject is affected.
+          submissionExecutor.setUpdateRepoParallelism(
+              fanOutExecutor,
+              subscriptionGraph.getAffectedSuperProjects().isEmpty() ? submitParallelism : 1);
           submissionExecutor.execute(batchUpdates);
         } finally {
           // If the BatchUpdate fails it can be that merging some of the changes was actually
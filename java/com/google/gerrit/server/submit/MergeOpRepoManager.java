@@ -68,6 +68,12 @@ public class MergeOpRepoManager implements AutoCloseable {
     final ProjectState project;
     BatchUpdate update;
 
+    /**
+     * Ancestry walks done by {@link LocalMergeSuperSetComputation} on this repository, memoized for
+     * the lifetime of the submission.
+     */
+    final Map<LocalMergeSuperSetComputation.WalkKey, ImmutableSet<String>> superSetWalks;
+
     private final ObjectReader reader;
     private final Map<BranchNameKey, OpenBranch> branches;
 
@@ -84,6 +90,7 @@ public class MergeOpRepoManager implements AutoCloseable {
       rw.retainOnReset(canMergeFlag);
 
       branches = Maps.newHashMapWithExpectedSize(1);
+      superSetWalks = new HashMap<>();
     }
 
     OpenBranch getBranch(BranchNameKey branch) throws IntegrationConflictException {
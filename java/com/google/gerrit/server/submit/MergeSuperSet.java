@@ -18,10 +18,14 @@ import static com.google.common.base.Preconditions.checkState;
 import static java.util.Objects.requireNonNull;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.extensions.registration.DynamicItem;
 import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.index.IndexConfig;
+import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.logging.TraceContext;
@@ -33,11 +37,13 @@ import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.query.change.InternalChangeQuery;
+import com.google.gerrit.server.submit.MergeSuperSetMetrics.Phase;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import org.eclipse.jgit.lib.Config;
@@ -60,6 +66,8 @@ public class MergeSuperSet {
   private final PermissionBackend permissionBackend;
   private final Config cfg;
   private final ProjectCache projectCache;
+  private final IndexConfig indexConfig;
+  private final MergeSuperSetMetrics metrics;
 
   private MergeOpRepoManager orm;
   private boolean closeOrm;
@@ -72,7 +80,9 @@ public class MergeSuperSet {
       Provider<MergeOpRepoManager> repoManagerProvider,
       DynamicItem<MergeSuperSetComputation> mergeSuperSetComputation,
       PermissionBackend permissionBackend,
-      ProjectCache projectCache) {
+      ProjectCache projectCache,
+      IndexConfig indexConfig,
+      MergeSuperSetMetrics metrics) {
     this.cfg = cfg;
     this.changeDataFactory = changeDataFactory;
     this.queryProvider = queryProvider;
@@ -80,6 +90,8 @@ public class MergeSuperSet {
     this.mergeSuperSetComputation = mergeSuperSetComputation;
     this.permissionBackend = permissionBackend;
     this.projectCache = projectCache;
+    this.indexConfig = indexConfig;
+    this.metrics = metrics;
   }
 
   public static boolean wholeTopicEnabled(Config config) {
@@ -158,6 +170,8 @@ public class MergeSuperSet {
       throws PermissionBackendException {
     List<ChangeData> visibleChanges = new ArrayList<>();
     List<ChangeData> nonVisibleChanges = new ArrayList<>();
+    ListMultimap<String, ChangeData> changesByTopic =
+        byTopicsOpen(unseenTopics(changeSet, topicsSeen, visibleTopicsSeen));
 
     for (ChangeData cd : changeSet.changes()) {
       visibleChanges.add(cd);
@@ -165,7 +179,7 @@ public class MergeSuperSet {
       if (Strings.isNullOrEmpty(topic) || visibleTopicsSeen.contains(topic)) {
         continue;
       }
-      for (ChangeData topicCd : byTopicOpen(topic)) {
+      for (ChangeData topicCd : changesByTopic.get(topic)) {
         if (canRead(user, topicCd)) {
           visibleChanges.add(topicCd);
         } else {
@@ -181,7 +195,7 @@ public class MergeSuperSet {
       if (Strings.isNullOrEmpty(topic) || topicsSeen.contains(topic)) {
         continue;
       }
-      for (ChangeData topicCd : byTopicOpen(topic)) {
+      for (ChangeData topicCd : changesByTopic.get(topic)) {
         nonVisibleChanges.add(topicCd);
       }
       topicsSeen.add(topic);
@@ -210,8 +224,48 @@ public class MergeSuperSet {
     return changeSet;
   }
 
-  private List<ChangeData> byTopicOpen(String topic) {
-    return queryProvider.get().byTopicOpen(topic);
+  /**
+   * Returns the topics of {@code changeSet} that {@link #topicClosure} is going to explore, i.e.
+   * the topics of visible changes that were not yet explored as visible topics and the topics of
+   * non-visible changes that were not yet explored at all.
+   */
+  private static Set<String> unseenTopics(
+      ChangeSet changeSet, Set<String> topicsSeen, Set<String> visibleTopicsSeen) {
+    Set<String> topics = new LinkedHashSet<>();
+    for (ChangeData cd : changeSet.changes()) {
+      String topic = cd.change().getTopic();
+      if (!Strings.isNullOrEmpty(topic) && !visibleTopicsSeen.contains(topic)) {
+        topics.add(topic);
+      }
+    }
+    for (ChangeData cd : changeSet.nonVisibleChanges()) {
+      String topic = cd.change().getTopic();
+      if (!Strings.isNullOrEmpty(topic) && !topicsSeen.contains(topic)) {
+        topics.add(topic);
+      }
+    }
+    return topics;
+  }
+
+  /**
+   * Queries the open changes of all given topics.
+   *
+   * <p>Instead of running one query per topic, the topics are batched into as few queries as the
+   * index allows. The queries are exhaustive, so that no change of a topic is missing from the
+   * submit-together set because the combined result of a batch exceeded the query limit.
+   */
+  private ListMultimap<String, ChangeData> byTopicsOpen(Set<String> topics) {
+    ListMultimap<String, ChangeData> changesByTopic =
+        MultimapBuilder.hashKeys(topics.size()).arrayListValues().build();
+    if (topics.isEmpty()) {
+      return changesByTopic;
+    }
+    try (Timer1.Context<Phase> ignored = metrics.phaseLatency.start(Phase.TOPIC_QUERY)) {
+      for (ChangeData cd : InternalChangeQuery.byTopicsOpen(queryProvider, indexConfig, topics)) {
+        changesByTopic.put(cd.change().getTopic(), cd);
+      }
+    }
+    return changesByTopic;
   }
 
   private boolean canRead(CurrentUser user, ChangeData cd) throws PermissionBackendException {
@@ -0,0 +1,70 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.submit;
+
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/** Metrics for computing the merge super set of a submission. */
+@Singleton
+class MergeSuperSetMetrics {
+  enum Phase {
+    /** Querying the open changes of the topics that are included into the super set. */
+    TOPIC_QUERY,
+
+    /** Opening repositories and parsing the commits of the changes in the super set. */
+    PREPARE,
+
+    /** Walking the ancestry of the changes in the super set down to their target branches. */
+    WALK,
+
+    /** Querying the open changes for the commits that have been found by the walk. */
+    CHANGE_QUERY
+  }
+
+  /** Latency of the phases of the merge super set computation. */
+  final Timer1<Phase> phaseLatency;
+
+  /** Number of branch walks that were answered from the results memoized for the submission. */
+  final Counter0 memoizedWalks;
+
+  @Inject
+  MergeSuperSetMetrics(MetricMaker metricMaker) {
+    phaseLatency =
+        metricMaker.newTimer(
+            "submit/merge_super_set/phase_latency",
+            new Description("Latency of the phases of computing the merge super set")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            Field.ofEnum(Phase.class, "phase", Metadata.Builder::operationName)
+                .description(
+                    "The phase of the computation (TOPIC_QUERY, PREPARE, WALK, CHANGE_QUERY).")
+                .build());
+    memoizedWalks =
+        metricMaker.newCounter(
+            "submit/merge_super_set/memoized_walks",
+            new Description(
+                    "Branch walks of the merge super set that were served from the results"
+                        + " memoized for the submission")
+                .setRate());
+  }
+}
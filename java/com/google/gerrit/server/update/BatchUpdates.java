@@ -25,6 +25,7 @@ import com.google.common.collect.Multiset;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.restapi.BadRequestException;
@@ -46,6 +47,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 
 /**
@@ -93,6 +98,29 @@ public class BatchUpdates {
   public Result execute(
       Collection<BatchUpdate> updates, ImmutableList<BatchUpdateListener> listeners, boolean dryrun)
       throws UpdateException, RestApiException {
+    return execute(updates, listeners, dryrun, null, 1);
+  }
+
+  /**
+   * Executes the given updates, running the {@code updateRepo} phase of updates for different
+   * projects in parallel.
+   *
+   * <p>The updates are distributed over up to {@code parallelism} tasks that are run on {@code
+   * executor}. Only the {@code updateRepo} phase is parallelized. The ref updates and change
+   * updates are still executed on the calling thread after all {@code updateRepo} calls have
+   * finished, so the ref updates of all projects are still done together.
+   *
+   * <p>Callers must only use this if the {@code updateRepo} phases of the updates do not depend on
+   * each other and if their ops do not depend on the request scope of the calling thread.
+   */
+  @CanIgnoreReturnValue
+  public Result execute(
+      Collection<BatchUpdate> updates,
+      ImmutableList<BatchUpdateListener> listeners,
+      boolean dryrun,
+      @Nullable ExecutorService executor,
+      int parallelism)
+      throws UpdateException, RestApiException {
     requireNonNull(listeners);
     if (updates.isEmpty()) {
       return new Result();
@@ -104,9 +132,7 @@ public class BatchUpdates {
       List<ListenableFuture<ChangeData>> indexFutures = new ArrayList<>();
       List<ChangesHandle> changesHandles = new ArrayList<>(updates.size());
       try {
-        for (BatchUpdate u : updates) {
-          u.executeUpdateRepo();
-        }
+        executeUpdateRepos(updates, executor, parallelism);
         notifyAfterUpdateRepo(listeners);
         for (BatchUpdate u : updates) {
           changesHandles.add(u.executeChangeOps(listeners, dryrun));
@@ -149,6 +175,54 @@ public class BatchUpdates {
     }
   }
 
+  private static void executeUpdateRepos(
+      Collection<BatchUpdate> updates, @Nullable ExecutorService executor, int parallelism)
+      throws UpdateException, RestApiException {
+    int numTasks = executor != null ? Math.min(parallelism, updates.size()) : 1;
+    if (numTasks <= 1) {
+      for (BatchUpdate u : updates) {
+        u.executeUpdateRepo();
+      }
+      return;
+    }
+
+    List<List<BatchUpdate>> buckets = new ArrayList<>(numTasks);
+    for (int i = 0; i < numTasks; i++) {
+      buckets.add(new ArrayList<>());
+    }
+    int i = 0;
+    for (BatchUpdate u : updates) {
+      buckets.get(i++ % numTasks).add(u);
+    }
+
+    List<Callable<Void>> tasks = new ArrayList<>(numTasks);
+    for (List<BatchUpdate> bucket : buckets) {
+      tasks.add(
+          () -> {
+            for (BatchUpdate u : bucket) {
+              u.executeUpdateRepo();
+            }
+            return null;
+          });
+    }
+
+    try {
+      // Wait for all tasks before propagating a failure, so that no task is still using its
+      // repository when the caller starts cleaning up.
+      for (Future<Void> f : executor.invokeAll(tasks)) {
+        f.get();
+      }
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), UpdateException.class);
+      Throwables.throwIfInstanceOf(e.getCause(), RestApiException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new UpdateException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new UpdateException(e);
+    }
+  }
+
   private static void notifyAfterUpdateRepo(ImmutableList<BatchUpdateListener> listeners)
       throws Exception {
     for (BatchUpdateListener listener : listeners) {
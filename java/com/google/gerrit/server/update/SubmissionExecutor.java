@@ -15,10 +15,12 @@
 package com.google.gerrit.server.update;
 
 import com.google.common.collect.ImmutableList;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.server.submit.MergeOpRepoManager;
 import java.util.Collection;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 
 /** Wrapper class for calling BatchUpdates.execute() that manages calls to submission listeners. */
@@ -27,6 +29,8 @@ public class SubmissionExecutor {
   private final ImmutableList<SubmissionListener> submissionListeners;
   private final boolean dryrun;
   private ImmutableList<BatchUpdateListener> additionalListeners = ImmutableList.of();
+  @Nullable private ExecutorService updateRepoExecutor;
+  private int updateRepoParallelism = 1;
 
   public SubmissionExecutor(
       BatchUpdates batchUpdates,
@@ -49,6 +53,17 @@ public class SubmissionExecutor {
     this.additionalListeners = additionalListeners;
   }
 
+  /**
+   * Run the {@code updateRepo} phase of the batch updates for different projects in parallel. Can
+   * be set again in each try (or will be reused if not overwritten).
+   *
+   * @see BatchUpdates#execute(Collection, ImmutableList, boolean, ExecutorService, int)
+   */
+  public void setUpdateRepoParallelism(@Nullable ExecutorService executor, int parallelism) {
+    this.updateRepoExecutor = executor;
+    this.updateRepoParallelism = parallelism;
+  }
+
   /** Execute the batch updates, reporting to all the Submission and BatchUpdateListeners. */
   public void execute(Collection<BatchUpdate> updates) throws RestApiException, UpdateException {
     submissionListeners.forEach(l -> l.beforeBatchUpdates(updates));
@@ -63,7 +78,7 @@ public class SubmissionExecutor {
                     .map(Optional::get)
                     .collect(Collectors.toList()))
             .build();
-    batchUpdates.execute(updates, listeners, dryrun);
+    batchUpdates.execute(updates, listeners, dryrun, updateRepoExecutor, updateRepoParallelism);
   }
 
   /**
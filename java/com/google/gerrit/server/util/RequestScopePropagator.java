@@ -17,8 +17,10 @@ package com.google.gerrit.server.util;
 import static java.util.Objects.requireNonNull;
 
 import com.google.common.base.Throwables;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.server.RequestCleanup;
+import com.google.gerrit.server.cache.request.RequestCache;
 import com.google.gerrit.server.git.ProjectRunnable;
 import com.google.inject.Key;
 import com.google.inject.Scope;
@@ -64,7 +66,8 @@ public abstract class RequestScopePropagator {
    *
    * <ul>
    *   <li>Derived objects (i.e. anything marked created in a request scope) will not be
-   *       transported.
+   *       transported. The {@link RequestCache} of the request is shared with the continued
+   *       thread though.
    *   <li>State changes to the request scoped context after this method is called will not be seen
    *       in the continued thread.
    * </ul>
@@ -75,7 +78,9 @@ public abstract class RequestScopePropagator {
   @SuppressWarnings("javadoc") // See GuiceRequestScopePropagator#wrapImpl
   public final <T> Callable<T> wrap(Callable<T> callable) {
     final RequestContext callerContext = requireNonNull(local.getContext());
-    final Callable<T> wrapped = wrapImpl(context(callerContext, cleanup(callable)));
+    final RequestCache requestCache = RequestCache.current();
+    final Callable<T> wrapped =
+        wrapImpl(context(callerContext, requestCache(requestCache, cleanup(callable))));
     return new Callable<>() {
       @Override
       public T call() throws Exception {
@@ -179,6 +184,18 @@ public abstract class RequestScopePropagator {
     };
   }
 
+  private static <T> Callable<T> requestCache(
+      @Nullable RequestCache requestCache, Callable<T> callable) {
+    return () -> {
+      RequestCache old = RequestCache.attach(requestCache);
+      try {
+        return callable.call();
+      } finally {
+        RequestCache.attach(old);
+      }
+    };
+  }
+
   protected <T> Callable<T> cleanup(Callable<T> callable) {
     return () -> {
       RequestCleanup cleanup =
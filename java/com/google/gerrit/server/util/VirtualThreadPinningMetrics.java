@@ -0,0 +1,104 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.util;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.time.Duration;
+import jdk.jfr.consumer.RecordingStream;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Reports how often virtual threads pin their carrier thread, i.e. block while they can't be
+ * unmounted, e.g. in a {@code synchronized} block or in native code.
+ *
+ * <p>Pinning is observed through the {@code jdk.VirtualThreadPinned} JFR event, which the JVM only
+ * emits if a virtual thread was pinned for longer than 20 milliseconds. The event stream is only
+ * started if virtual threads are enabled for the SSH or HTTP threads.
+ */
+@Singleton
+public class VirtualThreadPinningMetrics implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+  private static final Duration PINNED_THRESHOLD = Duration.ofMillis(20);
+
+  private final boolean enabled;
+  private final Counter0 pinnedCount;
+  private final Timer0 pinnedLatency;
+  private RecordingStream stream;
+
+  @Inject
+  VirtualThreadPinningMetrics(@GerritServerConfig Config cfg, MetricMaker metricMaker) {
+    this.enabled =
+        VirtualThreads.isSupported()
+            && (cfg.getBoolean("sshd", "virtualThreads", false)
+                || cfg.getBoolean("httpd", "virtualThreads", false));
+    this.pinnedCount =
+        metricMaker.newCounter(
+            "virtual_threads/pinned_count",
+            new Description(
+                    "Number of times a virtual thread blocked while it was pinned to its carrier"
+                        + " thread")
+                .setRate()
+                .setUnit("events"));
+    this.pinnedLatency =
+        metricMaker.newTimer(
+            "virtual_threads/pinned_latency",
+            new Description(
+                    "Time a virtual thread blocked while it was pinned to its carrier thread")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+  }
+
+  @Override
+  public synchronized void start() {
+    if (!enabled || stream != null) {
+      return;
+    }
+    try {
+      RecordingStream rs = new RecordingStream();
+      rs.enable(PINNED_EVENT).withThreshold(PINNED_THRESHOLD);
+      rs.onEvent(
+          PINNED_EVENT,
+          e -> {
+            pinnedCount.increment();
+            pinnedLatency.record(e.getDuration().toNanos(), NANOSECONDS);
+          });
+      rs.startAsync();
+      stream = rs;
+    } catch (RuntimeException e) {
+      logger.atWarning().withCause(e).log("Cannot observe pinning of virtual threads");
+    }
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (stream != null) {
+      stream.close();
+      stream = null;
+    }
+  }
+}
@@ -0,0 +1,82 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.util;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.base.Throwables;
+import com.google.gerrit.common.RuntimeVersion;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads if the runtime supports them.
+ *
+ * <p>Gerrit is compiled for Java 17, hence virtual threads, which are final as of Java 21, are
+ * created by reflection.
+ */
+public final class VirtualThreads {
+  private static final MethodHandle OF_VIRTUAL;
+  private static final MethodHandle FACTORY;
+
+  static {
+    MethodHandle ofVirtual = null;
+    MethodHandle factory = null;
+    if (RuntimeVersion.isAtLeast21()) {
+      try {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        Class<?> builder = Class.forName("java.lang.Thread$Builder");
+        ofVirtual =
+            lookup.findStatic(
+                Thread.class,
+                "ofVirtual",
+                MethodType.methodType(Class.forName("java.lang.Thread$Builder$OfVirtual")));
+        factory =
+            lookup.findVirtual(builder, "factory", MethodType.methodType(ThreadFactory.class));
+      } catch (ReflectiveOperationException e) {
+        ofVirtual = null;
+        factory = null;
+      }
+    }
+    OF_VIRTUAL = ofVirtual;
+    FACTORY = factory;
+  }
+
+  /** Returns true if the runtime supports virtual threads. */
+  public static boolean isSupported() {
+    return OF_VIRTUAL != null;
+  }
+
+  /**
+   * Returns a factory for unnamed virtual threads.
+   *
+   * <p>Virtual threads are always daemon threads and ignore their priority.
+   *
+   * @throws IllegalStateException if the runtime doesn't support virtual threads
+   */
+  public static ThreadFactory newThreadFactory() {
+    checkState(isSupported(), "virtual threads require Java 21 or newer");
+    try {
+      return (ThreadFactory) FACTORY.invoke(OF_VIRTUAL.invoke());
+    } catch (Throwable t) {
+      Throwables.throwIfUnchecked(t);
+      throw new IllegalStateException("cannot create virtual thread factory", t);
+    }
+  }
+
+  private VirtualThreads() {}
+}
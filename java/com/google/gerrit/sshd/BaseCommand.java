@@ -30,12 +30,15 @@ import com.google.gerrit.server.DynamicOptions;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.RequestCleanup;
 import com.google.gerrit.server.git.ProjectRunnable;
+import com.google.gerrit.server.git.UserRunnable;
 import com.google.gerrit.server.git.WorkQueue.CancelableRunnable;
 import com.google.gerrit.server.permissions.GlobalPermission;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.PermissionBackendException;
 import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.project.NoSuchProjectException;
+import com.google.gerrit.server.quota.AdmissionController;
+import com.google.gerrit.server.quota.QuotaException;
 import com.google.gerrit.sshd.SshScope.Context;
 import com.google.gerrit.util.cli.CmdLineParser;
 import com.google.gerrit.util.cli.EndOfOptionsHandler;
@@ -54,6 +57,7 @@ import java.util.Arrays;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 import org.apache.sshd.common.SshException;
 import org.apache.sshd.common.channel.exception.SshChannelClosedException;
 import org.apache.sshd.server.Environment;
@@ -98,6 +102,8 @@ public abstract class BaseCommand implements Command {
 
   @Inject private SshScope.Context context;
 
+  @Inject private AdmissionController admissionController;
+
   /** Commands declared by a plugin can be scoped by the plugin name. */
   @Inject(optional = true)
   @PluginName
@@ -447,11 +453,17 @@ public abstract class BaseCommand implements Command {
     return m.toString();
   }
 
-  private final class TaskThunk implements CancelableRunnable, ProjectRunnable {
+  private final class TaskThunk implements CancelableRunnable, ProjectRunnable, UserRunnable {
     private final CommandRunnable thunk;
     private final String taskName;
     private final AccessPath accessPath;
 
+    /**
+     * Serializes running and canceling the command. A lock rather than a monitor, because a monitor
+     * held while the command blocks on I/O would pin the carrier of a virtual thread.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
     private Project.NameKey projectName;
 
     private TaskThunk(final CommandRunnable thunk, AccessPath accessPath) {
@@ -462,19 +474,23 @@ public abstract class BaseCommand implements Command {
 
     @Override
     public void cancel() {
-      synchronized (this) {
+      lock.lock();
+      try {
         final Context old = sshScope.set(context);
         try {
           onExit(STATUS_CANCEL);
         } finally {
           sshScope.set(old);
         }
+      } finally {
+        lock.unlock();
       }
     }
 
     @Override
     public void run() {
-      synchronized (this) {
+      lock.lock();
+      try {
         final Thread thisThread = Thread.currentThread();
         final String thisName = thisThread.getName();
         int rc = 0;
@@ -484,7 +500,7 @@ public abstract class BaseCommand implements Command {
           context.start();
           thisThread.setName("SSH " + taskName);
 
-          try {
+          try (AdmissionController.Permit ignored = admit()) {
             if (thunk instanceof ProjectCommandRunnable) {
               try (DynamicOptions pluginOptions = new DynamicOptions(injector, dynamicBeans)) {
                 ((ProjectCommandRunnable) thunk).executeParseCommand(pluginOptions);
@@ -514,6 +530,16 @@ public abstract class BaseCommand implements Command {
             thisThread.setName(thisName);
           }
         }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private AdmissionController.Permit admit() throws UnloggedFailure {
+      try {
+        return admissionController.admit(AdmissionController.EndpointClass.SSH, user);
+      } catch (QuotaException e) {
+        throw new UnloggedFailure(1, "fatal: " + e.getMessage());
       }
     }
 
@@ -553,6 +579,11 @@ public abstract class BaseCommand implements Command {
     public boolean hasCustomizedPrint() {
       return false;
     }
+
+    @Override
+    public Object getUserKey() {
+      return user.getCacheKey();
+    }
   }
 
   /** Runnable function which can throw an exception. */
@@ -43,11 +43,18 @@ public class CommandExecutorQueueProvider implements QueueProvider {
       poolSize += batchThreads;
     }
     int interactiveThreads = Math.max(1, poolSize - batchThreads);
+    boolean virtualThreads = config.getBoolean("sshd", "virtualThreads", false);
     interactiveExecutor =
-        queues.createQueue(interactiveThreads, "SSH-Interactive-Worker", Thread.MIN_PRIORITY, true);
+        queues.createQueue(
+            interactiveThreads,
+            "SSH-Interactive-Worker",
+            Thread.MIN_PRIORITY,
+            true,
+            virtualThreads);
     if (batchThreads != 0) {
       batchExecutor =
-          queues.createQueue(batchThreads, "SSH-Batch-Worker", Thread.MIN_PRIORITY, true);
+          queues.createQueue(
+              batchThreads, "SSH-Batch-Worker", Thread.MIN_PRIORITY, true, virtualThreads);
     } else {
       batchExecutor = interactiveExecutor;
     }
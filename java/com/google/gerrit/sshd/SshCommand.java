@@ -24,6 +24,7 @@ import com.google.gerrit.server.InvalidDeadlineException;
 import com.google.gerrit.server.RequestInfo;
 import com.google.gerrit.server.RequestListener;
 import com.google.gerrit.server.cache.PerThreadCache;
+import com.google.gerrit.server.cache.request.RequestCache;
 import com.google.gerrit.server.cancellation.RequestCancelledException;
 import com.google.gerrit.server.cancellation.RequestStateContext;
 import com.google.gerrit.server.config.GerritServerConfig;
@@ -64,6 +65,7 @@ public abstract class SshCommand extends BaseCommand {
     startThread(
         () -> {
           try (PerThreadCache ignored = PerThreadCache.create();
+              RequestCache requestCache = RequestCache.open();
               DynamicOptions pluginOptions = new DynamicOptions(injector, dynamicBeans)) {
             parseCommandLine(pluginOptions);
             stdout = toPrintWriter(out);
@@ -25,17 +25,20 @@ import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.DynamicOptions;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.events.Event;
-import com.google.gerrit.server.events.EventGson;
+import com.google.gerrit.server.events.EventBroker;
+import com.google.gerrit.server.events.EventJournal;
+import com.google.gerrit.server.events.EventJsonCache;
 import com.google.gerrit.server.events.EventTypes;
 import com.google.gerrit.server.events.UserScopedEventListener;
 import com.google.gerrit.server.git.WorkQueue.CancelableRunnable;
+import com.google.gerrit.server.permissions.PermissionBackendException;
 import com.google.gerrit.sshd.BaseCommand;
 import com.google.gerrit.sshd.CommandMetaData;
 import com.google.gerrit.sshd.StreamCommandExecutor;
-import com.google.gson.Gson;
 import com.google.inject.Inject;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Future;
@@ -63,19 +66,35 @@ public final class StreamEvents extends BaseCommand {
       usage = "subscribe to specific stream-events")
   private List<String> subscribedToEvents = new ArrayList<>();
 
+  @Option(
+      name = "--resume-from",
+      metaVar = "OFFSET",
+      usage = "stream the events from the event journal, starting at the given offset")
+  private Long resumeFrom;
+
   @Inject private IdentifiedUser currentUser;
 
   @Inject private DynamicSet<UserScopedEventListener> eventListeners;
 
   @Inject @StreamCommandExecutor private ScheduledThreadPoolExecutor pool;
 
-  @Inject @EventGson private Gson gson;
+  @Inject private EventJsonCache jsonCache;
+
+  @Inject private EventJournal journal;
+
+  @Inject private EventBroker eventBroker;
 
   /** Queue of events to stream to the connected user. */
   private final LinkedBlockingQueue<Event> queue = new LinkedBlockingQueue<>(MAX_EVENTS);
 
   private RegistrationHandle eventListenerRegistration;
 
+  /** Offset of the next event to read from the {@link #journal}, if resuming from the journal. */
+  private long journalOffset;
+
+  /** True if events were appended to the {@link #journal} since the writer last read from it. */
+  private boolean journalAppended;
+
   /** Special event to notify clients they missed other events. */
   private static final class DroppedOutputEvent extends Event {
     private static final String TYPE = "dropped-output";
@@ -92,7 +111,7 @@ public final class StreamEvents extends BaseCommand {
   /** True if {@link DroppedOutputEvent} needs to be sent. */
   private volatile boolean dropped;
 
-  /** Lock to protect {@link #queue}, {@link #task}, {@link #done}. */
+  /** Lock to protect {@link #queue}, {@link #task}, {@link #done}, {@link #journalAppended}. */
   private final Object taskLock = new Object();
 
   /** True if no more messages should be sent to the output. */
@@ -111,6 +130,14 @@ public final class StreamEvents extends BaseCommand {
     try (DynamicOptions pluginOptions = new DynamicOptions(injector, dynamicBeans)) {
       try {
         parseCommandLine(pluginOptions);
+        if (resumeFrom != null) {
+          if (!journal.isEnabled()) {
+            throw die("event journal is not enabled");
+          }
+          if (resumeFrom < 0) {
+            throw die("offset must not be negative");
+          }
+        }
       } catch (UnloggedFailure e) {
         String msg = e.getMessage();
         if (!msg.endsWith("\n")) {
@@ -122,12 +149,16 @@ public final class StreamEvents extends BaseCommand {
         return;
       }
 
-      PrintWriter stdout = toPrintWriter(out);
+      EventOutput stdout = new EventOutput(out);
       CancelableRunnable writer =
           new CancelableRunnable() {
             @Override
             public void run() {
-              writeEvents(this, stdout);
+              if (resumeFrom != null) {
+                writeJournalEvents(this, stdout);
+              } else {
+                writeEvents(this, stdout);
+              }
             }
 
             @Override
@@ -146,6 +177,14 @@ public final class StreamEvents extends BaseCommand {
             }
           };
 
+      if (resumeFrom != null) {
+        // Slow clients don't lose events, they just fall behind in the journal.
+        journalOffset = resumeFrom;
+        eventListenerRegistration = journal.addAppendListener(() -> onJournalAppended(writer));
+        onJournalAppended(writer);
+        return;
+      }
+
       eventListenerRegistration =
           eventListeners.add(
               "gerrit",
@@ -214,6 +253,15 @@ public final class StreamEvents extends BaseCommand {
     }
   }
 
+  private void onJournalAppended(CancelableRunnable writer) {
+    synchronized (taskLock) {
+      journalAppended = true;
+      if (task == null && !done) {
+        task = pool.submit(writer);
+      }
+    }
+  }
+
   private Event poll() {
     synchronized (taskLock) {
       Event event = queue.poll();
@@ -224,7 +272,7 @@ public final class StreamEvents extends BaseCommand {
     }
   }
 
-  private void writeEvents(CancelableRunnable writer, PrintWriter stdout) {
+  private void writeEvents(CancelableRunnable writer, EventOutput stdout) {
     int processed = 0;
 
     while (processed < BATCH_SIZE) {
@@ -266,23 +314,117 @@ public final class StreamEvents extends BaseCommand {
     }
   }
 
-  private void write(PrintWriter stdout, Object message) {
-    String msg = null;
+  private void writeJournalEvents(CancelableRunnable writer, EventOutput stdout) {
+    synchronized (taskLock) {
+      journalAppended = false;
+    }
+
+    EventJournal.Batch batch;
     try {
-      msg = gson.toJson(message) + "\n";
+      batch = journal.read(journalOffset, BATCH_SIZE);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot read event journal at %d", journalOffset);
+      removeEventListenerRegistration();
+      flush(stdout);
+      onExit(1);
+      return;
+    }
+
+    if (batch.eventsDropped()) {
+      write(stdout, new DroppedOutputEvent());
+    }
+    for (EventJournal.Entry entry : batch.entries()) {
+      if (Thread.interrupted() || stdout.checkError()) {
+        removeEventListenerRegistration();
+        flush(stdout);
+        onExit(0);
+        return;
+      }
+
+      Event event = journal.parse(entry);
+      if (event != null
+          && (subscribedToEvents.isEmpty() || subscribedToEvents.contains(event.getType()))
+          && isVisible(event)) {
+        stdout.writeLine(entry.json().getBytes(UTF_8));
+      }
+    }
+    journalOffset = batch.nextOffset();
+
+    flush(stdout);
+
+    synchronized (taskLock) {
+      if (!done && (journalAppended || batch.entries().size() >= BATCH_SIZE)) {
+        task = pool.submit(writer);
+      } else {
+        task = null;
+      }
+    }
+  }
+
+  private boolean isVisible(Event event) {
+    try {
+      return eventBroker.isJournaledEventVisibleTo(event, currentUser);
+    } catch (PermissionBackendException e) {
+      logger.atWarning().withCause(e).log("Cannot check visibility of %s", event.getType());
+      return false;
+    }
+  }
+
+  private void write(EventOutput stdout, Event event) {
+    byte[] msg = null;
+    try {
+      // The JSON is shared by all sessions that stream the event.
+      msg = jsonCache.toJson(event);
     } catch (Exception e) {
       logger.atWarning().withCause(e).log("Could not deserialize the msg");
     }
     if (msg != null) {
-      synchronized (stdout) {
-        stdout.print(msg);
-      }
+      stdout.writeLine(msg);
     }
   }
 
-  private void flush(PrintWriter stdout) {
-    synchronized (stdout) {
-      stdout.flush();
+  private void flush(EventOutput stdout) {
+    stdout.flush();
+  }
+
+  /**
+   * Buffered output of UTF-8 encoded events. Like a {@link java.io.PrintWriter}, it doesn't throw
+   * on errors but remembers them.
+   */
+  private static class EventOutput {
+    private final OutputStream out;
+    private boolean error;
+
+    EventOutput(OutputStream out) {
+      this.out = new BufferedOutputStream(out);
+    }
+
+    synchronized void writeLine(byte[] json) {
+      if (error) {
+        return;
+      }
+      try {
+        out.write(json);
+        out.write('\n');
+      } catch (IOException e) {
+        error = true;
+      }
+    }
+
+    synchronized void flush() {
+      if (error) {
+        return;
+      }
+      try {
+        out.flush();
+      } catch (IOException e) {
+        error = true;
+      }
+    }
+
+    synchronized boolean checkError() {
+      flush();
+      return error;
     }
   }
 }
@@ -21,6 +21,7 @@ import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableMap;
 import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.server.change.ArchiveFormatInternal;
+import com.google.gerrit.server.change.ArchiveGenerator;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.PermissionBackendException;
 import com.google.gerrit.server.permissions.ProjectPermission;
@@ -36,7 +37,6 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import org.eclipse.jgit.api.ArchiveCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -133,6 +133,7 @@ public class UploadArchive extends AbstractGitCommand {
   @Inject private CommitsCollection commits;
   @Inject private AllowedFormats allowedFormats;
   @Inject private ProjectCache projectCache;
+  @Inject private ArchiveGenerator archiveGenerator;
   private Options options = new Options();
 
   /**
@@ -202,14 +203,14 @@ public class UploadArchive extends AbstractGitCommand {
       try (SideBandOutputStream sidebandOut =
           new SideBandOutputStream(
               SideBandOutputStream.CH_DATA, SideBandOutputStream.MAX_BUF, out)) {
-        new ArchiveCommand(repo)
-            .setFormat(f.name())
-            .setFormatOptions(getFormatOptions(f))
-            .setTree(treeId)
-            .setPaths(options.path.toArray(new String[0]))
-            .setPrefix(options.prefix)
-            .setOutputStream(sidebandOut)
-            .call();
+        archiveGenerator.writeArchive(
+            repo,
+            treeId,
+            f,
+            getFormatOptions(f),
+            options.prefix,
+            options.path,
+            sidebandOut);
         sidebandOut.flush();
       } catch (GitAPIException e) {
         throw new Failure(7, "fatal: git api exception, " + e);
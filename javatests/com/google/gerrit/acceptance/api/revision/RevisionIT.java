@@ -2129,6 +2129,24 @@ public class RevisionIT extends AbstractDaemonTest {
     assertThat(thrown).hasMessageThat().contains("File not found: nonexistent-file.");
   }
 
+  @Test
+  @GerritConfig(name = "change.maxFileSizePatch", value = "1")
+  public void patchOfFileAboveMaxFileSizeIsFormattedAsBinary() throws Exception {
+    String largeContent = "line\n".repeat(300_000);
+    PushOneCommit.Result r =
+        pushFactory
+            .create(admin.newIdent(), testRepo, "Add large file", "large.txt", largeContent)
+            .to("refs/for/master");
+    r.assertOkStatus();
+    BinaryResult bin =
+        gApi.changes().id(r.getChangeId()).revision(r.getCommit().name()).patch("large.txt");
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    bin.writeTo(os);
+    String res = new String(os.toByteArray(), UTF_8);
+    assertThat(res).contains("Binary files differ");
+    assertThat(res).doesNotContain("+line");
+  }
+
   @Test
   public void actions() throws Exception {
     PushOneCommit.Result r = createChange();
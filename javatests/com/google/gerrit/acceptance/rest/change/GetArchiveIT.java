@@ -21,6 +21,8 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import com.google.gerrit.acceptance.AbstractDaemonTest;
 import com.google.gerrit.acceptance.PushOneCommit;
 import com.google.gerrit.acceptance.RestResponse;
+import com.google.gerrit.acceptance.UseLocalDisk;
+import com.google.gerrit.acceptance.config.GerritConfig;
 import com.google.gerrit.extensions.client.ArchiveFormat;
 import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.extensions.restapi.BinaryResult;
@@ -34,6 +36,7 @@ import java.util.HashMap;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.junit.Before;
 import org.junit.Test;
@@ -119,6 +122,55 @@ public class GetArchiveIT extends AbstractDaemonTest {
     }
   }
 
+  @Test
+  @GerritConfig(name = "archive.compressionThreads", value = "4")
+  public void getTgzArchiveWithParallelCompression() throws Exception {
+    BinaryResult res = gApi.changes().id(changeId).current().getArchive(ArchiveFormat.TGZ);
+    assertThat(res.getContentType()).isEqualTo("application/x-gzip");
+
+    byte[] archiveBytes = getBinaryContent(res);
+    try (ByteArrayInputStream in = new ByteArrayInputStream(archiveBytes);
+        GzipCompressorInputStream gzipIn = new GzipCompressorInputStream(in, true)) {
+      HashMap<String, String> archiveEntries = getTarContent(gzipIn);
+      assertThat(archiveEntries)
+          .containsExactly(DIRECTORY_NAME + "/", null, FILE_NAME, FILE_CONTENT);
+    }
+  }
+
+  @Test
+  @GerritConfig(name = "archive.compressionThreads", value = "4")
+  public void getTxzArchiveWithParallelCompression() throws Exception {
+    BinaryResult res = gApi.changes().id(changeId).current().getArchive(ArchiveFormat.TXZ);
+    assertThat(res.getContentType()).isEqualTo("application/x-xz");
+
+    byte[] archiveBytes = getBinaryContent(res);
+    try (ByteArrayInputStream in = new ByteArrayInputStream(archiveBytes);
+        XZCompressorInputStream xzIn = new XZCompressorInputStream(in, true)) {
+      HashMap<String, String> archiveEntries = getTarContent(xzIn);
+      assertThat(archiveEntries)
+          .containsExactly(DIRECTORY_NAME + "/", null, FILE_NAME, FILE_CONTENT);
+    }
+  }
+
+  @Test
+  @UseLocalDisk
+  @GerritConfig(name = "cache.directory", value = "cache")
+  @GerritConfig(name = "archive.cacheSize", value = "1m")
+  public void getCachedTgzArchive() throws Exception {
+    byte[] first =
+        getBinaryContent(gApi.changes().id(changeId).current().getArchive(ArchiveFormat.TGZ));
+    byte[] second =
+        getBinaryContent(gApi.changes().id(changeId).current().getArchive(ArchiveFormat.TGZ));
+    assertThat(second).isEqualTo(first);
+
+    try (ByteArrayInputStream in = new ByteArrayInputStream(second);
+        GzipCompressorInputStream gzipIn = new GzipCompressorInputStream(in)) {
+      HashMap<String, String> archiveEntries = getTarContent(gzipIn);
+      assertThat(archiveEntries)
+          .containsExactly(DIRECTORY_NAME + "/", null, FILE_NAME, FILE_CONTENT);
+    }
+  }
+
   private HashMap<String, String> getTarContent(InputStream in) throws Exception {
     HashMap<String, String> archiveEntries = new HashMap<>();
     int bufferSize = 100;
@@ -191,6 +191,39 @@ public class SubmitByMergeIfNecessaryIT extends AbstractSubmitByMerge {
     }
   }
 
+  @Test
+  @GerritConfig(name = "change.submitWholeTopic", value = "true")
+  @GerritConfig(name = "change.submitParallelism", value = "4")
+  public void submitChangesAcrossReposInParallel() throws Throwable {
+    Project.NameKey p1 = projectOperations.newProject().create();
+    Project.NameKey p2 = projectOperations.newProject().create();
+    Project.NameKey p3 = projectOperations.newProject().create();
+
+    TestRepository<?> repo1 = cloneProject(p1);
+    TestRepository<?> repo2 = cloneProject(p2);
+    TestRepository<?> repo3 = cloneProject(p3);
+
+    String topic = name("topic-to-submit");
+    PushOneCommit.Result change1 = createChange(repo1, "master", "change 1", "a.txt", "1", topic);
+    PushOneCommit.Result change2 = createChange(repo2, "master", "change 2", "a.txt", "2", topic);
+    PushOneCommit.Result change3 = createChange(repo3, "master", "change 3", "a.txt", "3", topic);
+
+    approve(change1.getChangeId());
+    approve(change2.getChangeId());
+    approve(change3.getChangeId());
+
+    submit(change1.getChangeId());
+
+    assertThat(getRemoteLog(p1, "master").get(0).getShortMessage())
+        .isEqualTo(change1.getCommit().getShortMessage());
+    assertThat(getRemoteLog(p2, "master").get(0).getShortMessage())
+        .isEqualTo(change2.getCommit().getShortMessage());
+    assertThat(getRemoteLog(p3, "master").get(0).getShortMessage())
+        .isEqualTo(change3.getCommit().getShortMessage());
+    assertThat(gApi.changes().id(change2.getChangeId()).get().submissionId)
+        .isEqualTo(gApi.changes().id(change1.getChangeId()).get().submissionId);
+  }
+
   @Test
   public void submitChangesAcrossReposBlocked() throws Throwable {
     Project.NameKey p1 = projectOperations.newProject().create();
@@ -14,11 +14,13 @@
 
 package com.google.gerrit.acceptance.server.change;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.gerrit.acceptance.GitUtil.pushHead;
 import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.allow;
 import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.block;
 import static com.google.gerrit.extensions.api.changes.SubmittedTogetherOption.NON_VISIBLE_CHANGES;
+import static com.google.gerrit.extensions.api.changes.SubmittedTogetherOption.TOPIC_CLOSURE;
 import static com.google.gerrit.server.group.SystemGroupBackend.REGISTERED_USERS;
 import static com.google.gerrit.testing.GerritJUnit.assertThrows;
 
@@ -310,6 +312,74 @@ public class SubmittedTogetherIT extends AbstractDaemonTest {
     assertSubmittedTogether(id2, id2, id1);
   }
 
+  @Test
+  @GerritConfig(name = "change.mergeSuperSetParallelism", value = "4")
+  public void topicsAcrossProjectsWithParallelWalks() throws Exception {
+    Project.NameKey p1 = projectOperations.newProject().create();
+    Project.NameKey p2 = projectOperations.newProject().create();
+    TestRepository<?> repo1 = cloneProject(p1);
+    TestRepository<?> repo2 = cloneProject(p2);
+
+    RevCommit c1 =
+        repo1
+            .branch("HEAD")
+            .commit()
+            .insertChangeId()
+            .add("a.txt", "1")
+            .message("subject: 1")
+            .create();
+    String id1 = GitUtil.getChangeId(repo1, c1).get();
+    pushHead(repo1, "refs/for/master%topic=" + name("topic1"), false);
+
+    RevCommit c2 =
+        repo2
+            .branch("HEAD")
+            .commit()
+            .insertChangeId()
+            .add("b.txt", "2")
+            .message("subject: 2")
+            .create();
+    String id2 = GitUtil.getChangeId(repo2, c2).get();
+    pushHead(repo2, "refs/for/master%topic=" + name("topic2"), false);
+
+    RevCommit c3 =
+        repo2
+            .branch("HEAD")
+            .commit()
+            .insertChangeId()
+            .add("c.txt", "3")
+            .message("subject: 3")
+            .create();
+    String id3 = GitUtil.getChangeId(repo2, c3).get();
+    pushHead(repo2, "refs/for/master%topic=" + name("topic1"), false);
+
+    assertThat(submittedTogetherWithTopicClosure(id1)).containsExactly(id1, id2, id3);
+    assertThat(submittedTogetherWithTopicClosure(id2)).isEmpty();
+    assertThat(submittedTogetherWithTopicClosure(id3)).containsExactly(id1, id2, id3);
+  }
+
+  @Test
+  @GerritConfig(name = "index.maxLimit", value = "2")
+  public void topicWithMoreChangesThanQueryLimit() throws Exception {
+    RevCommit initialHead = projectOperations.project(project).getHead("master");
+    String topic = "refs/for/master%topic=" + name("topic");
+    RevCommit c1 = commitBuilder().add("a.txt", "1").message("subject: 1").create();
+    String id1 = getChangeId(c1);
+    pushHead(testRepo, topic, false);
+
+    testRepo.reset(initialHead);
+    RevCommit c2 = commitBuilder().add("b.txt", "2").message("subject: 2").create();
+    String id2 = getChangeId(c2);
+    pushHead(testRepo, topic, false);
+
+    testRepo.reset(initialHead);
+    RevCommit c3 = commitBuilder().add("c.txt", "3").message("subject: 3").create();
+    String id3 = getChangeId(c3);
+    pushHead(testRepo, topic, false);
+
+    assertThat(submittedTogetherWithTopicClosure(id1)).containsExactly(id1, id2, id3);
+  }
+
   @Test
   @TestProjectInput(submitType = SubmitType.CHERRY_PICK)
   public void testCherryPickWithoutAncestors() throws Exception {
@@ -532,4 +602,11 @@ public class SubmittedTogetherIT extends AbstractDaemonTest {
   private void assertNotMerged(String changeId) throws Exception {
     assertThat(gApi.changes().id(changeId).get().status).isEqualTo(ChangeStatus.NEW);
   }
+
+  private ImmutableList<String> submittedTogetherWithTopicClosure(String changeId)
+      throws Exception {
+    return gApi.changes().id(changeId).submittedTogether(EnumSet.of(TOPIC_CLOSURE)).changes.stream()
+        .map(c -> c.changeId)
+        .collect(toImmutableList());
+  }
 }
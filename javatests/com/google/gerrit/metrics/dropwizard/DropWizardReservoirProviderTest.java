@@ -60,5 +60,8 @@ public class DropWizardReservoirProviderTest {
 
     when(configMock.reservoirType()).thenReturn(ReservoirType.Uniform);
     assertThat(DropWizardReservoirProvider.get(configMock)).isInstanceOf(UniformReservoir.class);
+
+    when(configMock.reservoirType()).thenReturn(ReservoirType.LogLinear);
+    assertThat(DropWizardReservoirProvider.get(configMock)).isInstanceOf(LogLinearReservoir.class);
   }
 }
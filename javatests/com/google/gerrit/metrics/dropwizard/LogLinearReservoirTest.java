@@ -0,0 +1,115 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.metrics.dropwizard;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Snapshot;
+import org.junit.Test;
+
+public class LogLinearReservoirTest {
+  private static class FakeClock extends Clock {
+    long tick;
+
+    @Override
+    public long getTick() {
+      return tick;
+    }
+  }
+
+  private final FakeClock clock = new FakeClock();
+  private final LogLinearReservoir reservoir = new LogLinearReservoir(60, SECONDS, clock);
+
+  @Test
+  public void bucketsCoverAllValues() {
+    for (long value : new long[] {0, 1, 31, 32, 33, 63, 64, 1000, 123456789, Long.MAX_VALUE}) {
+      int bucket = LogLinearReservoir.bucket(value);
+      assertThat(LogLinearReservoir.lowestValue(bucket)).isAtMost(value);
+      assertThat(LogLinearReservoir.highestValue(bucket)).isAtLeast(value);
+    }
+    assertThat(LogLinearReservoir.bucket(-5)).isEqualTo(0);
+  }
+
+  @Test
+  public void smallValuesAreExact() {
+    for (int i = 1; i <= 10; i++) {
+      reservoir.update(i);
+    }
+
+    Snapshot s = reservoir.getSnapshot();
+    assertThat(s.size()).isEqualTo(10);
+    assertThat(s.getMin()).isEqualTo(1);
+    assertThat(s.getMax()).isEqualTo(10);
+    assertThat(s.getMedian()).isEqualTo(5.0);
+    assertThat(s.getMean()).isEqualTo(5.5);
+    assertThat(s.getValues()).asList().containsExactly(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L);
+  }
+
+  @Test
+  public void percentilesHaveBoundedRelativeError() {
+    for (int i = 1; i <= 100_000; i++) {
+      reservoir.update(i);
+    }
+
+    Snapshot s = reservoir.getSnapshot();
+    assertThat(s.getMedian()).isWithin(50_000 / 32.0).of(50_000);
+    assertThat(s.get99thPercentile()).isWithin(99_000 / 32.0).of(99_000);
+    assertThat((double) s.getMax()).isWithin(100_000 / 32.0).of(100_000);
+  }
+
+  @Test
+  public void valuesHaveOneEntryPerBucket() {
+    for (int i = 0; i < 100_000; i++) {
+      reservoir.update(5);
+      reservoir.update(1000);
+      reservoir.update(i);
+    }
+
+    Snapshot s = reservoir.getSnapshot();
+    assertThat(s.size()).isEqualTo(300_000);
+    long[] values = s.getValues();
+    assertThat(values.length).isAtMost(LogLinearReservoir.bucket(100_000) + 1);
+    assertThat(values).asList().isInStrictOrder();
+    assertThat(values[0]).isEqualTo(0);
+    assertThat(values[values.length - 1]).isEqualTo(s.getMax());
+  }
+
+  @Test
+  public void emptySnapshot() {
+    Snapshot s = reservoir.getSnapshot();
+
+    assertThat(s.size()).isEqualTo(0);
+    assertThat(s.getMax()).isEqualTo(0);
+    assertThat(s.getMedian()).isEqualTo(0.0);
+    assertThat(s.getValues()).isEmpty();
+  }
+
+  @Test
+  public void oldMeasurementsExpire() {
+    reservoir.update(1);
+    clock.tick += SECONDS.toNanos(61);
+    reservoir.update(2);
+
+    assertThat(reservoir.getSnapshot().getValues()).asList().containsExactly(1L, 2L);
+
+    clock.tick += SECONDS.toNanos(61);
+    assertThat(reservoir.getSnapshot().getValues()).asList().containsExactly(2L);
+
+    clock.tick += SECONDS.toNanos(121);
+    assertThat(reservoir.size()).isEqualTo(0);
+  }
+}
@@ -21,6 +21,7 @@ import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.account.AccountLimits;
 import com.google.gerrit.server.account.GroupMembership;
 import com.google.gerrit.server.git.QueueProvider;
+import com.google.gerrit.server.quota.AdmissionController;
 import com.google.inject.Provider;
 import java.util.Optional;
 import java.util.concurrent.Future;
@@ -44,6 +45,7 @@ public class ProjectQoSFilterTest {
   @Mock AsyncContext asyncContext;
 
   @Mock AccountLimits.Factory limitsFactory;
+  @Mock AdmissionController admissionController;
   @Mock Provider<CurrentUser> userProvider;
   @Mock QueueProvider queue;
   @Mock ServletContext context;
@@ -127,8 +129,10 @@ public class ProjectQoSFilterTest {
     when(asyncContext.getRequest()).thenReturn(servletRequest);
 
     ProjectQoSFilter projectQoSFilter =
-        new ProjectQoSFilter(limitsFactory, userProvider, queue, context, config);
-    return projectQoSFilter.new TaskThunk(asyncContext, servletRequest);
+        new ProjectQoSFilter(
+            limitsFactory, admissionController, userProvider, queue, context, config);
+    return projectQoSFilter.new TaskThunk(
+        asyncContext, servletRequest, AdmissionController.Permit.NONE);
   }
 
   private static class FakeUser extends CurrentUser {
@@ -0,0 +1,92 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.RequestProfiler.RequestStats;
+import com.google.gerrit.server.logging.TraceContext;
+import java.time.Instant;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+
+public class RequestProfilerTest {
+  private static final String REQUEST = "REST GET /changes/*/detail";
+
+  @Test
+  public void aggregatesOperationsPerRequest() {
+    RequestProfiler profiler = newProfiler(new Config());
+
+    runRequest(profiler, REQUEST, "index", 3_000_000L, "notedb", 2_000_000L);
+    runRequest(profiler, REQUEST, "index", 1_000_000L, "notedb", 4_000_000L);
+
+    RequestStats stats = profiler.getProfile().get(REQUEST);
+    assertThat(stats.requests()).isEqualTo(2);
+    assertThat(stats.operations().get("index").count()).isEqualTo(2);
+    assertThat(stats.operations().get("index").totalNanos()).isEqualTo(4_000_000L);
+    assertThat(stats.operations().get("index").maxNanos()).isEqualTo(3_000_000L);
+    assertThat(stats.operations().get("notedb").totalNanos()).isEqualTo(6_000_000L);
+  }
+
+  @Test
+  public void numberOfRequestsAndOperationsIsLimited() {
+    Config cfg = new Config();
+    cfg.setInt("tracing", null, "profilingMaxRequests", 1);
+    cfg.setInt("tracing", null, "profilingMaxOperations", 1);
+    RequestProfiler profiler = newProfiler(cfg);
+
+    runRequest(profiler, REQUEST, "index", 1L, "notedb", 2L);
+    runRequest(profiler, "REST GET /accounts/*", "index", 3L, "notedb", 4L);
+
+    assertThat(profiler.getProfile().keySet()).containsExactly(REQUEST, RequestProfiler.OTHER);
+    assertThat(profiler.getProfile().get(REQUEST).operations().keySet())
+        .containsExactly("index", RequestProfiler.OTHER);
+  }
+
+  @Test
+  public void reset() {
+    RequestProfiler profiler = newProfiler(new Config());
+    runRequest(profiler, REQUEST, "index", 1L, "notedb", 2L);
+
+    profiler.reset();
+
+    assertThat(profiler.getProfile()).isEmpty();
+  }
+
+  @Test
+  public void sampleRate() {
+    Config cfg = new Config();
+    cfg.setString("tracing", null, "profilingSampleRate", "0");
+    assertThat(newProfiler(cfg).sample()).isFalse();
+
+    cfg.setString("tracing", null, "profilingSampleRate", "1");
+    assertThat(newProfiler(cfg).sample()).isTrue();
+  }
+
+  private static RequestProfiler newProfiler(Config cfg) {
+    return new RequestProfiler(cfg, new DisabledMetricMaker());
+  }
+
+  private static void runRequest(
+      RequestProfiler profiler, String request, String op1, long nanos1, String op2, long nanos2) {
+    try (TraceContext traceContext =
+        TraceContext.open().addTag(TraceRequestListener.TAG_REQUEST, request)) {
+      profiler.logNanos(op1, nanos1, Instant.now());
+      profiler.logNanos(op2, nanos2, Instant.now());
+      profiler.done();
+    }
+  }
+}
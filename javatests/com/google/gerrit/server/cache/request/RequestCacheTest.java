@@ -0,0 +1,131 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.request;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+
+import com.google.gerrit.server.logging.LoggingContext;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class RequestCacheTest {
+  private static final RequestCache.Key<String, String> KEY = RequestCache.Key.create("test", 2);
+
+  private final AtomicInteger loads = new AtomicInteger();
+
+  @Test
+  public void valuesAreComputedOncePerRequest() {
+    try (RequestCache cache = RequestCache.open()) {
+      assertThat(get("foo")).isEqualTo("foo-1");
+      assertThat(get("foo")).isEqualTo("foo-1");
+      assertThat(cache.hits(KEY)).isEqualTo(1);
+      assertThat(cache.misses(KEY)).isEqualTo(1);
+    }
+
+    try (RequestCache cache = RequestCache.open()) {
+      assertThat(get("foo")).isEqualTo("foo-2");
+    }
+  }
+
+  @Test
+  public void valuesAreComputedEveryTimeWithoutRequest() {
+    assertThat(get("foo")).isEqualTo("foo-1");
+    assertThat(get("foo")).isEqualTo("foo-2");
+  }
+
+  @Test
+  public void valuesBeyondBudgetAreNotCached() {
+    try (RequestCache cache = RequestCache.open()) {
+      get("a");
+      get("b");
+      assertThat(get("c")).isEqualTo("c-3");
+      assertThat(get("c")).isEqualTo("c-4");
+      assertThat(get("a")).isEqualTo("a-1");
+    }
+  }
+
+  @Test
+  public void invalidatedValuesAreRecomputed() {
+    try (RequestCache cache = RequestCache.open()) {
+      get("foo");
+      RequestCache.invalidate(KEY, "foo");
+      assertThat(get("foo")).isEqualTo("foo-2");
+
+      RequestCache.invalidateAll(KEY);
+      assertThat(get("foo")).isEqualTo("foo-3");
+    }
+  }
+
+  @Test
+  public void cacheIsSharedWithExecutorThreads() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (RequestCache cache = RequestCache.open()) {
+      get("foo");
+
+      String value = executor.submit(LoggingContext.copy(() -> get("foo"))).get();
+
+      assertThat(value).isEqualTo("foo-1");
+      assertThat(cache.hits(KEY)).isEqualTo(1);
+      assertThat(executor.submit(RequestCache::current).get()).isNull();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void closedCacheIsBypassedByTasksThatOutliveTheRequest() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Callable<String> task;
+      try (RequestCache cache = RequestCache.open()) {
+        get("foo");
+        task = LoggingContext.copy(() -> get("foo") + "," + get("foo"));
+      }
+
+      assertThat(executor.submit(task).get()).isEqualTo("foo-2,foo-3");
+      assertThat(executor.submit(RequestCache::current).get()).isNull();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void closedCacheIsNotAttached() {
+    RequestCache cache = RequestCache.open();
+    cache.close();
+    assertThat(cache.isClosed()).isTrue();
+
+    assertThat(RequestCache.attach(cache)).isNull();
+    assertThat(RequestCache.current()).isNull();
+    assertThat(cache.get(KEY, "foo", () -> "foo-" + loads.incrementAndGet())).isEqualTo("foo-1");
+    assertThat(cache.get(KEY, "foo", () -> "foo-" + loads.incrementAndGet())).isEqualTo("foo-2");
+  }
+
+  @Test
+  public void openTwiceFails() {
+    try (RequestCache cache = RequestCache.open()) {
+      assertThrows(IllegalStateException.class, RequestCache::open);
+    }
+    assertThat(RequestCache.current()).isNull();
+  }
+
+  private String get(String id) {
+    return RequestCache.getOrCompute(KEY, id, () -> id + "-" + loads.incrementAndGet());
+  }
+}
@@ -0,0 +1,168 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.change;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.stream.Collectors.toList;
+
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.plugincontext.PluginContext;
+import com.google.gerrit.server.plugincontext.PluginMapContext;
+import com.google.gerrit.server.util.IdGenerator;
+import com.google.inject.Guice;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArchiveGeneratorTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private InMemoryRepository repo;
+  private RevCommit commit;
+  private Config cfg;
+  private SitePaths site;
+  private Path cacheDir;
+
+  @Before
+  public void setUp() throws Exception {
+    repo = new InMemoryRepository(new DfsRepositoryDescription("repo"));
+    try (TestRepository<InMemoryRepository> testRepo = new TestRepository<>(repo)) {
+      commit = testRepo.commit().add("a.txt", "content of a").add("b.txt", "content of b").create();
+    }
+    site = new SitePaths(temporaryFolder.getRoot().toPath());
+    cfg = new Config();
+    cfg.setLong("archive", null, "cacheSize", 1 << 20);
+    cfg.setString("cache", null, "directory", "cache");
+    cacheDir = site.resolve("cache").resolve("archives");
+  }
+
+  @Test
+  public void archiveIsServedFromCache() throws Exception {
+    ArchiveGenerator generator = newGenerator(-1);
+    byte[] first = write(generator);
+    assertThat(listCache()).containsExactly(commit.name() + ".tar");
+
+    byte[] second = write(generator);
+
+    assertThat(second).isEqualTo(first);
+  }
+
+  @Test
+  public void failureToWriteCacheDoesNotFailDownload() throws Exception {
+    byte[] expected = write(newUncachedGenerator());
+
+    byte[] actual = write(newGenerator(100));
+
+    assertThat(actual).isEqualTo(expected);
+    assertThat(listCache()).isEmpty();
+  }
+
+  @Test
+  public void failureToOpenCacheFileDoesNotFailDownload() throws Exception {
+    byte[] expected = write(newUncachedGenerator());
+
+    byte[] actual = write(newGenerator(0));
+
+    assertThat(actual).isEqualTo(expected);
+    assertThat(listCache()).isEmpty();
+  }
+
+  private byte[] write(ArchiveGenerator generator) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    generator.writeArchive(repo, commit, ArchiveFormatInternal.TAR, Map.of(), null, List.of(), out);
+    return out.toByteArray();
+  }
+
+  private List<String> listCache() throws IOException {
+    try (Stream<Path> files = Files.list(cacheDir)) {
+      return files.map(p -> p.getFileName().toString()).collect(toList());
+    }
+  }
+
+  private ArchiveGenerator newUncachedGenerator() {
+    return new ArchiveGenerator(new Config(), site, newWorkQueue(), newMetrics());
+  }
+
+  /**
+   * Creates a generator whose cache files fail after the given number of bytes, {@code 0} fails
+   * opening them and a negative value never fails.
+   */
+  private ArchiveGenerator newGenerator(int failAfterBytes) {
+    return new ArchiveGenerator(cfg, site, newWorkQueue(), newMetrics()) {
+      @Override
+      OutputStream newCacheFileStream(Path path) throws IOException {
+        if (failAfterBytes == 0) {
+          throw new IOException("no space left on device");
+        }
+        OutputStream file = super.newCacheFileStream(path);
+        return failAfterBytes < 0 ? file : new FailingOutputStream(file, failAfterBytes);
+      }
+    };
+  }
+
+  private static WorkQueue newWorkQueue() {
+    return new WorkQueue(
+        Guice.createInjector().getInstance(IdGenerator.class),
+        1,
+        new DisabledMetricMaker(),
+        new PluginMapContext<>(
+            DynamicMap.emptyMap(), PluginContext.PluginMetrics.DISABLED_INSTANCE));
+  }
+
+  private static ArchiveGenerator.Metrics newMetrics() {
+    return new ArchiveGenerator.Metrics(new DisabledMetricMaker());
+  }
+
+  private static class FailingOutputStream extends FilterOutputStream {
+    private long remaining;
+
+    FailingOutputStream(OutputStream out, long failAfterBytes) {
+      super(out);
+      this.remaining = failAfterBytes;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len > remaining) {
+        throw new IOException("no space left on device");
+      }
+      remaining -= len;
+      out.write(b, off, len);
+    }
+  }
+}
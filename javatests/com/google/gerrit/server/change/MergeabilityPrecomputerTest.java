@@ -0,0 +1,248 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.change;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.BranchNameKey;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.PatchSet;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.SubmitTypeRecord;
+import com.google.gerrit.exceptions.StorageException;
+import com.google.gerrit.extensions.client.SubmitType;
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.git.MergeUtil;
+import com.google.gerrit.server.git.MergeUtilFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.plugincontext.PluginContext;
+import com.google.gerrit.server.plugincontext.PluginMapContext;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.util.IdGenerator;
+import com.google.gerrit.server.util.OneOffRequestContext;
+import com.google.gerrit.testing.InMemoryRepositoryManager;
+import com.google.inject.Guice;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MergeabilityPrecomputerTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+  private static final String QUEUE = "Mergeability-Precompute";
+  private static final BranchNameKey MASTER = BranchNameKey.create(PROJECT, "refs/heads/master");
+
+  private InMemoryRepositoryManager repoManager;
+  private TestRepository<Repository> testRepo;
+  private ChangeData.Factory changeDataFactory;
+  private MergeabilityCache mergeabilityCache;
+  private WorkQueue workQueue;
+  private List<String> loadingThreads;
+
+  @Before
+  public void setUp() throws Exception {
+    repoManager = new InMemoryRepositoryManager();
+    testRepo = new TestRepository<>(repoManager.createRepository(PROJECT));
+    testRepo.branch(MASTER.branch()).commit().add("a.txt", "a").create();
+    changeDataFactory = mock(ChangeData.Factory.class);
+    mergeabilityCache = mock(MergeabilityCache.class);
+    workQueue =
+        new WorkQueue(
+            Guice.createInjector().getInstance(IdGenerator.class),
+            1,
+            new DisabledMetricMaker(),
+            new PluginMapContext<>(
+                DynamicMap.emptyMap(), PluginContext.PluginMetrics.DISABLED_INSTANCE));
+    loadingThreads = new CopyOnWriteArrayList<>();
+  }
+
+  @After
+  public void tearDown() {
+    ScheduledThreadPoolExecutor executor = workQueue.getExecutor(QUEUE);
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    workQueue.getDefaultQueue().shutdownNow();
+    testRepo.close();
+  }
+
+  @Test
+  public void mergeabilityOfNewPatchSetIsPrecomputed() throws Exception {
+    Change.Id id = Change.id(1);
+    RevCommit ps1 = testRepo.commit().parent(head()).add("b.txt", "1").create();
+    RevCommit ps2 = testRepo.amend(ps1).add("b.txt", "2").create();
+    mockChange(id, 2, ps2);
+
+    newPrecomputer(1).precompute(PROJECT, ImmutableList.of(id), System.nanoTime()).get(10, SECONDS);
+
+    verify(mergeabilityCache)
+        .get(
+            eq(ps2),
+            any(),
+            eq(SubmitType.MERGE_IF_NECESSARY),
+            anyString(),
+            eq(MASTER),
+            any(),
+            any(),
+            any());
+    verify(mergeabilityCache, never())
+        .get(eq(ps1), any(), any(), anyString(), any(), any(), any(), any());
+    // ChangeData isn't thread-safe, hence it must be loaded by the thread that uses it.
+    assertThat(loadingThreads).hasSize(1);
+    assertThat(loadingThreads.get(0)).isNotEqualTo(Thread.currentThread().getName());
+  }
+
+  @Test
+  public void failedPrecomputationDoesNotFailOtherChanges() throws Exception {
+    Change.Id failing = Change.id(1);
+    Change.Id missing = Change.id(2);
+    Change.Id ok = Change.id(3);
+    RevCommit failingCommit = testRepo.commit().parent(head()).add("b.txt", "b").create();
+    RevCommit okCommit = testRepo.commit().parent(head()).add("c.txt", "c").create();
+    mockChange(failing, 1, failingCommit);
+    when(changeDataFactory.create(PROJECT, missing))
+        .thenThrow(new StorageException("change not found"));
+    mockChange(ok, 1, okCommit);
+    when(mergeabilityCache.get(
+            eq(failingCommit), any(), any(), anyString(), any(), any(), any(), any()))
+        .thenThrow(new StorageException("mergeability check failed"));
+
+    // The future never fails, so that the changes are reindexed regardless.
+    newPrecomputer(1)
+        .precompute(PROJECT, ImmutableList.of(failing, missing, ok), System.nanoTime())
+        .get(10, SECONDS);
+
+    verify(mergeabilityCache)
+        .get(eq(okCommit), any(), any(), anyString(), any(), any(), any(), any());
+  }
+
+  @Test
+  public void precomputationIsNotAwaitedLongerThanTimeout() throws Exception {
+    Change.Id id = Change.id(1);
+    RevCommit commit = testRepo.commit().parent(head()).add("b.txt", "b").create();
+    mockChange(id, 1, commit);
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch computed = new CountDownLatch(1);
+    when(mergeabilityCache.get(eq(commit), any(), any(), anyString(), any(), any(), any(), any()))
+        .thenAnswer(
+            invocation -> {
+              blocked.await();
+              computed.countDown();
+              return true;
+            });
+    Config cfg = new Config();
+    cfg.setString("change", null, "mergeabilityPrecomputeTimeout", "100ms");
+
+    try {
+      // The future is done although the mergeability is still being computed.
+      newPrecomputer(1, cfg)
+          .precompute(PROJECT, ImmutableList.of(id), System.nanoTime())
+          .get(10, SECONDS);
+      assertThat(computed.getCount()).isEqualTo(1);
+    } finally {
+      blocked.countDown();
+    }
+
+    // The timeout doesn't cancel the precomputation.
+    assertThat(computed.await(10, SECONDS)).isTrue();
+  }
+
+  @Test
+  public void nothingIsPrecomputedIfDisabled() throws Exception {
+    MergeabilityPrecomputer precomputer = newPrecomputer(0);
+    assertThat(precomputer.isEnabled()).isFalse();
+
+    precomputer.precompute(PROJECT, ImmutableList.of(Change.id(1)), System.nanoTime()).get();
+
+    verifyNoInteractions(changeDataFactory, mergeabilityCache);
+  }
+
+  private MergeabilityPrecomputer newPrecomputer(int threads) {
+    return newPrecomputer(threads, new Config());
+  }
+
+  private MergeabilityPrecomputer newPrecomputer(int threads, Config cfg) {
+    cfg.setInt("change", null, "mergeabilityPrecomputeThreads", threads);
+    ProjectCache projectCache = mock(ProjectCache.class);
+    ProjectState projectState = mock(ProjectState.class);
+    when(projectCache.get(PROJECT)).thenReturn(Optional.of(projectState));
+    MergeUtil mergeUtil = mock(MergeUtil.class);
+    when(mergeUtil.mergeStrategyName()).thenReturn("recursive");
+    MergeUtilFactory mergeUtilFactory = mock(MergeUtilFactory.class);
+    when(mergeUtilFactory.create(projectState)).thenReturn(mergeUtil);
+    return new MergeabilityPrecomputer(
+        cfg,
+        workQueue,
+        repoManager,
+        changeDataFactory,
+        projectCache,
+        mergeUtilFactory,
+        mergeabilityCache,
+        mock(OneOffRequestContext.class),
+        new MergeabilityPrecomputer.Metrics(new DisabledMetricMaker()));
+  }
+
+  private void mockChange(Change.Id id, int patchSetNum, RevCommit commit) {
+    Change change =
+        new Change(Change.key("I" + id.get()), id, Account.id(1000), MASTER, Instant.now());
+    PatchSet.Id psId = PatchSet.id(id, patchSetNum);
+    change.setCurrentPatchSet(psId, "subject", null);
+    PatchSet ps =
+        PatchSet.builder()
+            .id(psId)
+            .commitId(commit)
+            .uploader(Account.id(1000))
+            .realUploader(Account.id(1000))
+            .createdOn(Instant.now())
+            .build();
+    ChangeData cd = mock(ChangeData.class);
+    when(cd.change()).thenReturn(change);
+    when(cd.currentPatchSet()).thenReturn(ps);
+    when(cd.submitTypeRecord()).thenReturn(SubmitTypeRecord.OK(SubmitType.MERGE_IF_NECESSARY));
+    when(changeDataFactory.create(PROJECT, id))
+        .thenAnswer(
+            invocation -> {
+              loadingThreads.add(Thread.currentThread().getName());
+              return cd;
+            });
+  }
+
+  private RevCommit head() throws Exception {
+    return testRepo.getRevWalk().parseCommit(testRepo.getRepository().resolve(MASTER.branch()));
+  }
+}
@@ -0,0 +1,139 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.plugincontext.PluginContext;
+import com.google.gerrit.server.plugincontext.PluginMapContext;
+import com.google.gerrit.server.util.IdGenerator;
+import com.google.inject.Guice;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncEventDispatchTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+
+  private Config cfg;
+  private WorkQueue workQueue;
+
+  @Before
+  public void setUp() {
+    cfg = new Config();
+    workQueue =
+        new WorkQueue(
+            Guice.createInjector().getInstance(IdGenerator.class),
+            1,
+            new DisabledMetricMaker(),
+            new PluginMapContext<>(
+                DynamicMap.emptyMap(), PluginContext.PluginMetrics.DISABLED_INSTANCE));
+  }
+
+  @After
+  public void tearDown() {
+    for (int i = 0; i < cfg.getInt("event", "dispatchThreads", 0); i++) {
+      ScheduledThreadPoolExecutor executor = workQueue.getExecutor("EventDispatch-" + i);
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  @Test
+  public void eventsAreDispatchedByPostingThreadIfDisabled() throws Exception {
+    List<Thread> threads = new CopyOnWriteArrayList<>();
+
+    assertThat(newDispatch().dispatch(PROJECT, () -> threads.add(Thread.currentThread())))
+        .isTrue();
+
+    assertThat(threads).containsExactly(Thread.currentThread());
+  }
+
+  @Test
+  public void eventsOfProjectAreDispatchedInOrder() throws Exception {
+    cfg.setInt("event", null, "dispatchThreads", 4);
+    AsyncEventDispatch dispatch = newDispatch();
+    List<Integer> dispatched = new CopyOnWriteArrayList<>();
+    List<Integer> dispatchedOfOtherProject = new CopyOnWriteArrayList<>();
+
+    for (int i = 0; i < 100; i++) {
+      int n = i;
+      dispatch.dispatch(PROJECT, () -> dispatched.add(n));
+      dispatch.dispatch(Project.nameKey("other"), () -> dispatchedOfOtherProject.add(n));
+    }
+    awaitDispatched(dispatch, PROJECT);
+    awaitDispatched(dispatch, Project.nameKey("other"));
+
+    assertThat(dispatched).hasSize(100);
+    assertThat(dispatched).isInOrder();
+    assertThat(dispatchedOfOtherProject).hasSize(100);
+    assertThat(dispatchedOfOtherProject).isInOrder();
+  }
+
+  @Test
+  public void eventIsDroppedIfQueueIsFull() throws Exception {
+    cfg.setInt("event", null, "dispatchThreads", 1);
+    cfg.setInt("event", null, "dispatchQueueSize", 2);
+    AsyncEventDispatch dispatch = newDispatch();
+    List<String> dispatched = new CopyOnWriteArrayList<>();
+    CountDownLatch firstStarted = new CountDownLatch(1);
+    CountDownLatch finishFirst = new CountDownLatch(1);
+
+    assertThat(
+            dispatch.dispatch(
+                PROJECT,
+                () -> {
+                  firstStarted.countDown();
+                  Uninterruptibles.awaitUninterruptibly(finishFirst);
+                  dispatched.add("first");
+                }))
+        .isTrue();
+    assertThat(firstStarted.await(10, SECONDS)).isTrue();
+    assertThat(dispatch.dispatch(PROJECT, () -> dispatched.add("second"))).isTrue();
+
+    // Returns immediately instead of waiting for the blocked listener.
+    assertThat(dispatch.dispatch(PROJECT, () -> dispatched.add("third"))).isFalse();
+
+    finishFirst.countDown();
+    awaitDispatched(dispatch, PROJECT);
+    assertThat(dispatched).containsExactly("first", "second").inOrder();
+  }
+
+  private AsyncEventDispatch newDispatch() {
+    return new AsyncEventDispatch(cfg, workQueue, new DisabledMetricMaker());
+  }
+
+  private static void awaitDispatched(AsyncEventDispatch dispatch, Project.NameKey project)
+      throws Exception {
+    CountDownLatch done = new CountDownLatch(1);
+    // Retry until the queue has room, the events of the partition are dispatched in order.
+    for (int i = 0; i < 100 && !dispatch.dispatch(project, done::countDown); i++) {
+      Thread.sleep(100);
+    }
+    assertThat(done.await(10, SECONDS)).isTrue();
+  }
+}
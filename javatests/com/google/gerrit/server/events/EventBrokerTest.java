@@ -0,0 +1,158 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.permissions.PermissionBackend;
+import com.google.gerrit.server.plugincontext.PluginContext;
+import com.google.gerrit.server.plugincontext.PluginMapContext;
+import com.google.gerrit.server.plugincontext.PluginSetContext;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.util.IdGenerator;
+import com.google.inject.Guice;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+
+public class EventBrokerTest {
+  @Test
+  public void visibilityIsCheckedOncePerUser() throws Exception {
+    Map<Object, Boolean> visibility = new HashMap<>();
+    AtomicInteger checks = new AtomicInteger();
+    EventBroker.VisibilityCheck check =
+        () -> {
+          checks.incrementAndGet();
+          return true;
+        };
+
+    // Two listeners, e.g. two stream-events sessions, of the same user.
+    assertThat(EventBroker.isVisibleTo(visibility, user("alice"), check)).isTrue();
+    assertThat(EventBroker.isVisibleTo(visibility, user("alice"), check)).isTrue();
+    assertThat(checks.get()).isEqualTo(1);
+
+    assertThat(EventBroker.isVisibleTo(visibility, user("bob"), check)).isTrue();
+    assertThat(checks.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void invisibilityIsRememberedPerUser() throws Exception {
+    Map<Object, Boolean> visibility = new HashMap<>();
+    AtomicInteger checks = new AtomicInteger();
+    EventBroker.VisibilityCheck check =
+        () -> {
+          checks.incrementAndGet();
+          return false;
+        };
+
+    assertThat(EventBroker.isVisibleTo(visibility, user("alice"), check)).isFalse();
+    assertThat(EventBroker.isVisibleTo(visibility, user("alice"), check)).isFalse();
+
+    assertThat(checks.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void unrestrictedListenersReceiveEventsDroppedForUserScopedListeners() throws Exception {
+    Config cfg = new Config();
+    cfg.setInt("event", null, "dispatchThreads", 1);
+    cfg.setInt("event", null, "dispatchQueueSize", 1);
+    WorkQueue workQueue =
+        new WorkQueue(
+            Guice.createInjector().getInstance(IdGenerator.class),
+            1,
+            new DisabledMetricMaker(),
+            new PluginMapContext<>(
+                DynamicMap.emptyMap(), PluginContext.PluginMetrics.DISABLED_INSTANCE));
+    CountDownLatch firstStarted = new CountDownLatch(1);
+    CountDownLatch finishFirst = new CountDownLatch(1);
+    List<Event> userScopedEvents = new CopyOnWriteArrayList<>();
+    List<Event> unrestrictedEvents = new CopyOnWriteArrayList<>();
+    CurrentUser user = user("alice");
+    DynamicSet<UserScopedEventListener> userScopedListeners = new DynamicSet<>();
+    userScopedListeners.add(
+        "gerrit",
+        new UserScopedEventListener() {
+          @Override
+          public void onEvent(Event event) {
+            firstStarted.countDown();
+            Uninterruptibles.awaitUninterruptibly(finishFirst);
+            userScopedEvents.add(event);
+          }
+
+          @Override
+          public CurrentUser getUser() {
+            return user;
+          }
+        });
+    DynamicSet<EventListener> unrestrictedListeners = new DynamicSet<>();
+    unrestrictedListeners.add("gerrit", unrestrictedEvents::add);
+    EventBroker broker =
+        new EventBroker(
+            new PluginSetContext<>(
+                userScopedListeners, PluginContext.PluginMetrics.DISABLED_INSTANCE),
+            new PluginSetContext<>(
+                unrestrictedListeners, PluginContext.PluginMetrics.DISABLED_INSTANCE),
+            mock(PermissionBackend.class),
+            mock(ProjectCache.class),
+            mock(ChangeNotes.Factory.class),
+            null);
+    broker.setAsyncDispatch(new AsyncEventDispatch(cfg, workQueue, new DisabledMetricMaker()));
+    ScheduledThreadPoolExecutor executor = workQueue.getExecutor("EventDispatch-0");
+    Event first = new TestEvent();
+    Event second = new TestEvent();
+
+    try {
+      broker.postEvent(first);
+      assertThat(firstStarted.await(10, SECONDS)).isTrue();
+      // The dispatch queue is full, hence the event is dropped for the user-scoped listener.
+      broker.postEvent(second);
+
+      assertThat(unrestrictedEvents).containsExactly(first, second).inOrder();
+    } finally {
+      finishFirst.countDown();
+      executor.shutdown();
+    }
+    assertThat(executor.awaitTermination(10, SECONDS)).isTrue();
+    assertThat(userScopedEvents).containsExactly(first);
+  }
+
+  private static class TestEvent extends Event {
+    TestEvent() {
+      super("test-event");
+    }
+  }
+
+  private static CurrentUser user(Object cacheKey) {
+    CurrentUser user = mock(CurrentUser.class);
+    when(user.getCacheKey()).thenReturn(cacheKey);
+    return user;
+  }
+}
@@ -0,0 +1,254 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EventJournalTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final Gson gson = new EventGsonProvider().get();
+  private Config cfg;
+  private Path dir;
+  private EventJournal journal;
+
+  @Before
+  public void setUp() throws Exception {
+    cfg = new Config();
+    cfg.setBoolean("event", "journal", "enabled", true);
+    dir = temporaryFolder.newFolder().toPath();
+    journal = open();
+  }
+
+  @After
+  public void tearDown() {
+    journal.stop();
+  }
+
+  @Test
+  public void disabledByDefault() {
+    EventJournal disabled = new EventJournal(new Config(), dir, gson, new EventJsonCache(gson));
+    disabled.start();
+
+    assertThat(disabled.isEnabled()).isFalse();
+  }
+
+  @Test
+  public void eventsGetConsecutiveOffsets() throws Exception {
+    post("p1", "p2", "p3");
+
+    EventJournal.Batch batch = journal.read(0, 10);
+
+    assertThat(offsets(batch)).containsExactly(0L, 1L, 2L).inOrder();
+    assertThat(projects(batch)).containsExactly("p1", "p2", "p3").inOrder();
+    assertThat(batch.nextOffset()).isEqualTo(3);
+    assertThat(batch.eventsDropped()).isFalse();
+  }
+
+  @Test
+  public void offsetIsPartOfJson() throws Exception {
+    post("p1", "p2");
+
+    EventJournal.Entry entry = journal.read(1, 1).entries().get(0);
+
+    assertThat(gson.fromJson(entry.json(), JsonObject.class).get("offset").getAsLong())
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void resumeFromOffset() throws Exception {
+    post("p1", "p2", "p3", "p4");
+
+    EventJournal.Batch first = journal.read(1, 2);
+    EventJournal.Batch second = journal.read(first.nextOffset(), 10);
+
+    assertThat(projects(first)).containsExactly("p2", "p3").inOrder();
+    assertThat(projects(second)).containsExactly("p4");
+    assertThat(journal.read(second.nextOffset(), 10).entries()).isEmpty();
+  }
+
+  @Test
+  public void readAcrossSegments() throws Exception {
+    cfg.setLong("event", "journal", "segmentSize", 100);
+    reopen();
+
+    post("p1", "p2", "p3", "p4", "p5");
+
+    assertThat(segmentCount()).isGreaterThan(1L);
+    assertThat(projects(journal.read(0, 10)))
+        .containsExactly("p1", "p2", "p3", "p4", "p5")
+        .inOrder();
+    assertThat(projects(journal.read(3, 10))).containsExactly("p4", "p5").inOrder();
+  }
+
+  @Test
+  public void offsetsContinueAfterRestart() throws Exception {
+    post("p1", "p2");
+    reopen();
+    post("p3");
+
+    assertThat(offsets(journal.read(0, 10))).containsExactly(0L, 1L, 2L).inOrder();
+  }
+
+  @Test
+  public void incompleteRecordIsTruncatedOnRestart() throws Exception {
+    post("p1", "p2");
+    journal.stop();
+    try (Stream<Path> files = Files.list(dir)) {
+      Path segment = files.findFirst().get();
+      Files.write(segment, new byte[] {0, 0, 1}, StandardOpenOption.APPEND);
+    }
+
+    journal = open();
+    post("p3");
+
+    assertThat(projects(journal.read(0, 10))).containsExactly("p1", "p2", "p3").inOrder();
+  }
+
+  @Test
+  public void recordWithNegativeLengthIsTruncatedOnRestart() throws Exception {
+    post("p1", "p2");
+    journal.stop();
+    appendToSegment(ByteBuffer.allocate(12).putInt(-100).putLong(2).array());
+
+    journal = open();
+    post("p3");
+
+    assertThat(projects(journal.read(0, 10))).containsExactly("p1", "p2", "p3").inOrder();
+    assertThat(offsets(journal.read(0, 10))).containsExactly(0L, 1L, 2L).inOrder();
+  }
+
+  @Test
+  public void recordWithLengthPastEndOfSegmentIsTruncatedOnRestart() throws Exception {
+    post("p1", "p2");
+    journal.stop();
+    appendToSegment(ByteBuffer.allocate(16).putInt(Integer.MAX_VALUE).putLong(2).array());
+
+    journal = open();
+    post("p3");
+
+    assertThat(projects(journal.read(0, 10))).containsExactly("p1", "p2", "p3").inOrder();
+  }
+
+  @Test
+  public void recordWithUnexpectedOffsetIsTruncatedOnRestart() throws Exception {
+    post("p1", "p2");
+    journal.stop();
+    byte[] payload = "{}".getBytes(UTF_8);
+    ByteBuffer record = ByteBuffer.allocate(12 + payload.length);
+    appendToSegment(record.putInt(payload.length).putLong(7).put(payload).array());
+
+    journal = open();
+    post("p3");
+
+    assertThat(offsets(journal.read(0, 10))).containsExactly(0L, 1L, 2L).inOrder();
+  }
+
+  @Test
+  public void oldestSegmentsAreRemovedBySize() throws Exception {
+    cfg.setLong("event", "journal", "segmentSize", 100);
+    cfg.setLong("event", "journal", "maxSize", 250);
+    reopen();
+
+    for (int i = 0; i < 20; i++) {
+      post("p" + i);
+    }
+
+    EventJournal.Batch batch = journal.read(0, 100);
+    assertThat(batch.eventsDropped()).isTrue();
+    assertThat(batch.entries().get(0).offset()).isGreaterThan(0L);
+    assertThat(batch.entries().get(batch.entries().size() - 1).offset()).isEqualTo(19);
+  }
+
+  @Test
+  public void appendListenerIsNotified() throws Exception {
+    AtomicInteger count = new AtomicInteger();
+    journal.addAppendListener(count::incrementAndGet);
+
+    post("p1", "p2");
+
+    assertThat(count.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void parse() throws Exception {
+    post("p1");
+
+    Event event = journal.parse(journal.read(0, 1).entries().get(0));
+
+    assertThat(event).isInstanceOf(ProjectCreatedEvent.class);
+    assertThat(((ProjectCreatedEvent) event).projectName).isEqualTo("p1");
+  }
+
+  private EventJournal open() {
+    EventJournal journal = new EventJournal(cfg, dir, gson, new EventJsonCache(gson));
+    journal.start();
+    assertThat(journal.isEnabled()).isTrue();
+    return journal;
+  }
+
+  private void reopen() {
+    journal.stop();
+    journal = open();
+  }
+
+  private void post(String... projects) {
+    for (String project : projects) {
+      ProjectCreatedEvent event = new ProjectCreatedEvent();
+      event.projectName = project;
+      journal.onEvent(event);
+    }
+  }
+
+  private void appendToSegment(byte[] bytes) throws Exception {
+    try (Stream<Path> files = Files.list(dir)) {
+      Files.write(files.findFirst().get(), bytes, StandardOpenOption.APPEND);
+    }
+  }
+
+  private long segmentCount() throws Exception {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.count();
+    }
+  }
+
+  private static ImmutableList<Long> offsets(EventJournal.Batch batch) {
+    return batch.entries().stream().map(EventJournal.Entry::offset).collect(toImmutableList());
+  }
+
+  private ImmutableList<String> projects(EventJournal.Batch batch) {
+    return batch.entries().stream()
+        .map(e -> ((ProjectCreatedEvent) journal.parse(e)).projectName)
+        .collect(toImmutableList());
+  }
+}
@@ -0,0 +1,55 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+public class EventJsonCacheTest {
+  private final Gson gson = new EventGsonProvider().get();
+  private final EventJsonCache cache = new EventJsonCache(gson);
+
+  @Test
+  public void sameJsonAsGson() {
+    ProjectCreatedEvent event = projectCreated("project");
+
+    assertThat(new String(cache.toJson(event), UTF_8)).isEqualTo(gson.toJson(event));
+  }
+
+  @Test
+  public void eventIsSerializedOnce() {
+    ProjectCreatedEvent event = projectCreated("project");
+
+    assertThat(cache.toJson(event)).isSameInstanceAs(cache.toJson(event));
+  }
+
+  @Test
+  public void equalLookingEventsAreSerializedSeparately() {
+    ProjectCreatedEvent a = projectCreated("project");
+    ProjectCreatedEvent b = projectCreated("project");
+    b.eventCreatedOn = a.eventCreatedOn + 1;
+
+    assertThat(cache.toJson(a)).isNotSameInstanceAs(cache.toJson(b));
+  }
+
+  private static ProjectCreatedEvent projectCreated(String project) {
+    ProjectCreatedEvent event = new ProjectCreatedEvent();
+    event.projectName = project;
+    return event;
+  }
+}
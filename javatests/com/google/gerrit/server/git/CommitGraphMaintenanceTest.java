@@ -0,0 +1,164 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.events.GitBatchRefUpdateListener;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.SitePaths;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CommitGraphMaintenanceTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("foo");
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private LocalDiskRepositoryManager repoManager;
+  private CommitGraphMaintenance maintenance;
+  private Repository repo;
+  private TestRepository<Repository> testRepo;
+
+  @Before
+  public void setUp() throws Exception {
+    SitePaths site = new SitePaths(temporaryFolder.newFolder().toPath());
+    site.resolve("git").toFile().mkdir();
+    Config cfg = new Config();
+    cfg.setString("gerrit", null, "basePath", "git");
+    cfg.setBoolean("commitGraph", null, "enabled", true);
+    repoManager = new LocalDiskRepositoryManager(site, cfg);
+    maintenance = new CommitGraphMaintenance(cfg, repoManager, new DisabledMetricMaker());
+
+    repo = repoManager.createRepository(PROJECT);
+    // Normally set by SystemReaderInstaller in the JGit system config.
+    StoredConfig repoCfg = repo.getConfig();
+    repoCfg.setBoolean("core", null, "commitGraph", true);
+    repoCfg.setBoolean("commitGraph", null, "readChangedPaths", true);
+    repoCfg.save();
+    testRepo = new TestRepository<>(repo);
+  }
+
+  @After
+  public void tearDown() {
+    testRepo.close();
+    repo.close();
+  }
+
+  @Test
+  public void commitGraphIsWrittenForRefUpdates() throws Exception {
+    RevCommit first = testRepo.branch("master").commit().add("a.txt", "1").create();
+    maintenance.onGitBatchRefUpdate(refUpdateEvent());
+    maintenance.writeStale();
+    assertThat(isInCommitGraph(first)).isTrue();
+
+    RevCommit second = testRepo.branch("master").commit().add("a.txt", "2").create();
+    assertThat(isInCommitGraph(second)).isFalse();
+    maintenance.onGitBatchRefUpdate(refUpdateEvent());
+    maintenance.writeStale();
+
+    assertThat(isInCommitGraph(first)).isTrue();
+    assertThat(isInCommitGraph(second)).isTrue();
+  }
+
+  @Test
+  public void commitGraphIsNotRewrittenIfUpToDate() throws Exception {
+    testRepo.branch("master").commit().add("a.txt", "1").create();
+    assertThat(maintenance.write(PROJECT, repo)).isTrue();
+
+    // A new ref to a commit that is already contained doesn't require a rewrite.
+    testRepo.branch("stable").update(testRepo.getRevWalk().parseCommit(repo.resolve("master")));
+    assertThat(maintenance.write(PROJECT, repo)).isFalse();
+
+    testRepo.branch("stable").commit().add("b.txt", "1").create();
+    assertThat(maintenance.write(PROJECT, repo)).isTrue();
+  }
+
+  @Test
+  public void refToMissingObjectIsIgnored() throws Exception {
+    RevCommit commit = testRepo.branch("master").commit().add("a.txt", "1").create();
+    Path danglingRef = repo.getDirectory().toPath().resolve("refs/heads/dangling");
+    Files.createDirectories(danglingRef.getParent());
+    Files.write(
+        danglingRef,
+        "deadbeefdeadbeefdeadbeefdeadbeefdeadbeef\n".getBytes(StandardCharsets.UTF_8));
+
+    assertThat(maintenance.write(PROJECT, repo)).isTrue();
+
+    assertThat(isInCommitGraph(commit)).isTrue();
+  }
+
+  @Test
+  public void commitGraphIsNotWrittenIfDisabledInRepository() throws Exception {
+    testRepo.branch("master").commit().add("a.txt", "1").create();
+    StoredConfig repoCfg = repo.getConfig();
+    repoCfg.setBoolean("core", null, "commitGraph", false);
+    repoCfg.save();
+
+    assertThat(maintenance.write(PROJECT, repo)).isFalse();
+
+    assertThat(commitGraphFile().exists()).isFalse();
+  }
+
+  @Test
+  public void commitGraphWrittenByGcIsNotRewritten() throws Exception {
+    RevCommit commit = testRepo.branch("master").commit().add("a.txt", "1").create();
+    StoredConfig repoCfg = repo.getConfig();
+    repoCfg.setBoolean("gc", null, "writeCommitGraph", true);
+    repoCfg.setBoolean("gc", null, "writeChangedPaths", true);
+    repoCfg.save();
+
+    Git.wrap(repo).gc().call();
+    assertThat(isInCommitGraph(commit)).isTrue();
+
+    assertThat(maintenance.write(PROJECT, repo)).isFalse();
+  }
+
+  private File commitGraphFile() {
+    return new File(((FileRepository) repo).getObjectsDirectory(), "info/commit-graph");
+  }
+
+  private boolean isInCommitGraph(AnyObjectId id) throws IOException {
+    try (ObjectReader reader = repo.newObjectReader()) {
+      return reader.getCommitGraph().map(g -> g.findGraphPosition(id) >= 0).orElse(false);
+    }
+  }
+
+  private static GitBatchRefUpdateListener.Event refUpdateEvent() {
+    GitBatchRefUpdateListener.Event event = mock(GitBatchRefUpdateListener.Event.class);
+    when(event.getProjectName()).thenReturn(PROJECT.get());
+    return event;
+  }
+}
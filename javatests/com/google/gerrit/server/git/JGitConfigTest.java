@@ -47,7 +47,7 @@ public class JGitConfigTest {
 
     Files.write(
         site.jgit_config, "[core]\n  trustFolderStat = false\n".getBytes(StandardCharsets.UTF_8));
-    new SystemReaderInstaller(site).start();
+    new SystemReaderInstaller(site, new Config()).start();
   }
 
   @Test
@@ -57,6 +57,20 @@ public class JGitConfigTest {
     }
   }
 
+  @Test
+  public void commitGraphIsWrittenByGcIfEnabled() throws IOException {
+    Config cfg = new Config();
+    cfg.setBoolean("commitGraph", null, "enabled", true);
+    new SystemReaderInstaller(site, cfg).start();
+
+    try (Repository repo = new FileRepository(gitPath.resolve("foo").toFile())) {
+      assertThat(repo.getConfig().getBoolean("core", null, "commitGraph", false)).isTrue();
+      assertThat(repo.getConfig().getBoolean("gc", null, "writeCommitGraph", false)).isTrue();
+      assertThat(repo.getConfig().getBoolean("gc", null, "writeChangedPaths", false)).isTrue();
+      assertThat(repo.getConfig().getString("core", null, "trustFolderStat")).isEqualTo("false");
+    }
+  }
+
   @Test
   public void openSystemConfigRespectsParent() throws Exception {
     Config parent = new Config();
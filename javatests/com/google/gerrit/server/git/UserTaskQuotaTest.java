@@ -0,0 +1,222 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.git.WorkQueue.Task;
+import com.google.gerrit.server.plugincontext.PluginContext;
+import com.google.gerrit.server.plugincontext.PluginMapContext;
+import com.google.gerrit.server.util.IdGenerator;
+import com.google.inject.Guice;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UserTaskQuotaTest {
+  private static final String QUEUE = "SSH-Batch-Worker";
+
+  private Config cfg;
+  private UserTaskQuota quota;
+  private int nextTaskId;
+
+  @Before
+  public void setUp() {
+    cfg = new Config();
+    cfg.setInt("queue", QUEUE, "maxTasksPerUser", 2);
+    quota = new UserTaskQuota(cfg);
+  }
+
+  @Test
+  public void userIsLimitedToMaximum() {
+    assertThat(quota.tryAcquire(task(QUEUE, "alice"))).isTrue();
+    assertThat(quota.tryAcquire(task(QUEUE, "alice"))).isTrue();
+    assertThat(quota.tryAcquire(task(QUEUE, "alice"))).isFalse();
+  }
+
+  @Test
+  public void otherUsersAreNotLimited() {
+    quota.tryAcquire(task(QUEUE, "alice"));
+    quota.tryAcquire(task(QUEUE, "alice"));
+
+    assertThat(quota.tryAcquire(task(QUEUE, "bob"))).isTrue();
+  }
+
+  @Test
+  public void releasedTaskFreesSlot() {
+    Task<?> first = task(QUEUE, "alice");
+    quota.tryAcquire(first);
+    quota.tryAcquire(task(QUEUE, "alice"));
+
+    assertThat(quota.release(first)).isTrue();
+
+    assertThat(quota.tryAcquire(task(QUEUE, "alice"))).isTrue();
+  }
+
+  @Test
+  public void admittedTaskIsAdmittedAgain() {
+    Task<?> first = task(QUEUE, "alice");
+    quota.tryAcquire(first);
+    quota.tryAcquire(task(QUEUE, "alice"));
+
+    assertThat(quota.tryAcquire(first)).isTrue();
+    assertThat(quota.tryAcquire(task(QUEUE, "alice"))).isFalse();
+  }
+
+  @Test
+  public void releasingTaskThatWasNotAdmittedDoesNotFreeSlot() {
+    quota.tryAcquire(task(QUEUE, "alice"));
+    quota.tryAcquire(task(QUEUE, "alice"));
+    Task<?> deferred = task(QUEUE, "alice");
+    assertThat(quota.tryAcquire(deferred)).isFalse();
+
+    assertThat(quota.release(deferred)).isFalse();
+
+    assertThat(quota.tryAcquire(task(QUEUE, "alice"))).isFalse();
+  }
+
+  @Test
+  public void otherQueuesAreNotLimited() {
+    assertThat(quota.isLimited("SSH-Interactive-Worker")).isFalse();
+    for (int i = 0; i < 5; i++) {
+      assertThat(quota.tryAcquire(task("SSH-Interactive-Worker", "alice"))).isTrue();
+    }
+  }
+
+  @Test
+  public void tasksWithoutUserAreNotLimited() {
+    for (int i = 0; i < 5; i++) {
+      assertThat(quota.tryAcquire(task(QUEUE, null))).isTrue();
+    }
+  }
+
+  @Test
+  public void tasksOverQuotaAreDeferredWithoutHoldingThreads() throws Exception {
+    cfg.setInt("queue", QUEUE, "maxTasksPerUser", 1);
+    ScheduledThreadPoolExecutor executor = newQueue(2);
+    try {
+      List<String> started = new CopyOnWriteArrayList<>();
+      CountDownLatch firstStarted = new CountDownLatch(1);
+      CountDownLatch finishFirst = new CountDownLatch(1);
+      Future<?> first =
+          executor.submit(
+              new TestTask(
+                  "alice",
+                  () -> {
+                    started.add("alice-1");
+                    firstStarted.countDown();
+                    Uninterruptibles.awaitUninterruptibly(finishFirst);
+                  }));
+      assertThat(firstStarted.await(10, SECONDS)).isTrue();
+
+      Future<?> second = executor.submit(new TestTask("alice", () -> started.add("alice-2")));
+      Future<?> other = executor.submit(new TestTask("bob", () -> started.add("bob-1")));
+
+      // The deferred task doesn't occupy the second thread, so the task of bob can run on it.
+      other.get(10, SECONDS);
+      assertThat(started).containsExactly("alice-1", "bob-1").inOrder();
+      assertThat(second.isDone()).isFalse();
+      assertThat(executor.getCorePoolSize()).isEqualTo(2);
+      assertThat(executor.getPoolSize()).isAtMost(2);
+
+      finishFirst.countDown();
+      first.get(10, SECONDS);
+      second.get(10, SECONDS);
+      assertThat(started).containsExactly("alice-1", "bob-1", "alice-2").inOrder();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void cancelledDeferredTaskDoesNotHoldSlot() throws Exception {
+    cfg.setInt("queue", QUEUE, "maxTasksPerUser", 1);
+    ScheduledThreadPoolExecutor executor = newQueue(2);
+    try {
+      CountDownLatch firstStarted = new CountDownLatch(1);
+      CountDownLatch finishFirst = new CountDownLatch(1);
+      Future<?> first =
+          executor.submit(
+              new TestTask(
+                  "alice",
+                  () -> {
+                    firstStarted.countDown();
+                    Uninterruptibles.awaitUninterruptibly(finishFirst);
+                  }));
+      assertThat(firstStarted.await(10, SECONDS)).isTrue();
+      Future<?> second = executor.submit(new TestTask("alice", () -> {}));
+      assertThat(second.cancel(false)).isTrue();
+
+      finishFirst.countDown();
+      first.get(10, SECONDS);
+
+      executor.submit(new TestTask("alice", () -> {})).get(10, SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private ScheduledThreadPoolExecutor newQueue(int poolSize) {
+    WorkQueue workQueue =
+        new WorkQueue(
+            Guice.createInjector().getInstance(IdGenerator.class),
+            1,
+            new DisabledMetricMaker(),
+            new PluginMapContext<>(
+                DynamicMap.emptyMap(), PluginContext.PluginMetrics.DISABLED_INSTANCE),
+            quota);
+    return workQueue.createQueue(poolSize, QUEUE, false);
+  }
+
+  private Task<?> task(String queue, @Nullable Object user) {
+    Task<?> task = mock(Task.class);
+    when(task.getQueueName()).thenReturn(queue);
+    when(task.getUserKey()).thenReturn(user);
+    when(task.getTaskId()).thenReturn(nextTaskId++);
+    return task;
+  }
+
+  private static class TestTask implements UserRunnable {
+    private final String user;
+    private final Runnable runnable;
+
+    TestTask(String user, Runnable runnable) {
+      this.user = user;
+      this.runnable = runnable;
+    }
+
+    @Override
+    public Object getUserKey() {
+      return user;
+    }
+
+    @Override
+    public void run() {
+      runnable.run();
+    }
+  }
+}
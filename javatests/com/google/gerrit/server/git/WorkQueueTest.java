@@ -0,0 +1,95 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.TruthJUnit.assume;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.plugincontext.PluginContext;
+import com.google.gerrit.server.plugincontext.PluginMapContext;
+import com.google.gerrit.server.util.IdGenerator;
+import com.google.gerrit.server.util.VirtualThreads;
+import com.google.inject.Guice;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WorkQueueTest {
+  private static final String QUEUE = "Test-Queue";
+
+  private WorkQueue workQueue;
+  private ScheduledThreadPoolExecutor executor;
+
+  @Before
+  public void setUp() {
+    workQueue =
+        new WorkQueue(
+            Guice.createInjector().getInstance(IdGenerator.class),
+            1,
+            new DisabledMetricMaker(),
+            new PluginMapContext<>(
+                DynamicMap.emptyMap(), PluginContext.PluginMetrics.DISABLED_INSTANCE));
+  }
+
+  @After
+  public void tearDown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    workQueue.getDefaultQueue().shutdownNow();
+  }
+
+  @Test
+  public void queueWithVirtualThreadsRunsTasksOnVirtualThreads() throws Exception {
+    assume().that(VirtualThreads.isSupported()).isTrue();
+    executor = workQueue.createQueue(2, QUEUE, Thread.MIN_PRIORITY, false, true);
+
+    Thread t = executor.submit(Thread::currentThread).get(10, SECONDS);
+
+    assertThat((boolean) Thread.class.getMethod("isVirtual").invoke(t)).isTrue();
+    assertThat(t.getName()).isEqualTo(QUEUE + "-1");
+    assertThat(workQueue.getExecutor(QUEUE)).isSameInstanceAs(executor);
+  }
+
+  @Test
+  public void queueWithVirtualThreadsFallsBackToPlatformThreadsIfNotSupported() throws Exception {
+    assume().that(VirtualThreads.isSupported()).isFalse();
+    executor = workQueue.createQueue(2, QUEUE, Thread.MIN_PRIORITY, false, true);
+
+    Thread t = executor.submit(Thread::currentThread).get(10, SECONDS);
+
+    assertThat(t.getName()).isEqualTo(QUEUE + "-1");
+    // Unlike for virtual threads, the priority is applied to platform threads.
+    assertThat(t.getPriority()).isEqualTo(Thread.MIN_PRIORITY);
+    assertThat(workQueue.getExecutor(QUEUE)).isSameInstanceAs(executor);
+  }
+
+  @Test
+  public void queueWithoutVirtualThreadsRunsTasksOnPlatformThreads() throws Exception {
+    executor = workQueue.createQueue(2, QUEUE, Thread.MIN_PRIORITY, false, false);
+
+    Thread t = executor.submit(Thread::currentThread).get(10, SECONDS);
+
+    assertThat(t.getName()).isEqualTo(QUEUE + "-1");
+    assertThat(t.getPriority()).isEqualTo(Thread.MIN_PRIORITY);
+    if (VirtualThreads.isSupported()) {
+      assertThat((boolean) Thread.class.getMethod("isVirtual").invoke(t)).isFalse();
+    }
+  }
+}
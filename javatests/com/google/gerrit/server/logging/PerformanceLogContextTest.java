@@ -361,6 +361,45 @@ public class PerformanceLogContextTest {
     assertThat(LoggingContext.getInstance().getPerformanceLogRecords()).isEmpty();
   }
 
+  @Test
+  public void samplingPerformanceLoggerGetsRecordsOfSampledRequests() {
+    config.setBoolean("tracing", null, "performanceLogging", false);
+    TestSamplingPerformanceLogger sampler = new TestSamplingPerformanceLogger(true);
+    RegistrationHandle registrationHandle = performanceLoggers.add("gerrit", sampler);
+    try {
+      try (PerformanceLogContext traceContext =
+          new PerformanceLogContext(config, performanceLoggers)) {
+        assertThat(LoggingContext.getInstance().isPerformanceLogging()).isTrue();
+
+        TraceContext.newTimer("test1").close();
+      }
+
+      assertThat(sampler.logEntries())
+          .containsExactly(PerformanceLogEntry.create("test1", Metadata.empty()));
+      assertThat(testPerformanceLogger.logEntries()).isEmpty();
+    } finally {
+      registrationHandle.remove();
+    }
+  }
+
+  @Test
+  public void samplingPerformanceLoggerDoesNotGetRecordsOfRequestsThatAreNotSampled() {
+    TestSamplingPerformanceLogger sampler = new TestSamplingPerformanceLogger(false);
+    RegistrationHandle registrationHandle = performanceLoggers.add("gerrit", sampler);
+    try {
+      try (PerformanceLogContext traceContext =
+          new PerformanceLogContext(config, performanceLoggers)) {
+        TraceContext.newTimer("test1").close();
+      }
+
+      assertThat(sampler.logEntries()).isEmpty();
+      assertThat(testPerformanceLogger.logEntries())
+          .containsExactly(PerformanceLogEntry.create("test1", Metadata.empty()));
+    } finally {
+      registrationHandle.remove();
+    }
+  }
+
   private static class TestPerformanceLogger implements PerformanceLogger {
     private ImmutableList.Builder<PerformanceLogEntry> logEntries = ImmutableList.builder();
 
@@ -374,6 +413,20 @@ public class PerformanceLogContextTest {
     }
   }
 
+  private static class TestSamplingPerformanceLogger extends TestPerformanceLogger
+      implements SamplingPerformanceLogger {
+    private final boolean sample;
+
+    TestSamplingPerformanceLogger(boolean sample) {
+      this.sample = sample;
+    }
+
+    @Override
+    public boolean sample() {
+      return sample;
+    }
+  }
+
   private void removeAllPerformanceLoggers() throws Exception {
     java.lang.reflect.Field itemsField = DynamicSet.class.getDeclaredField("items");
     itemsField.setAccessible(true);
@@ -0,0 +1,294 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.mail.send;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.gerrit.entities.Address;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.jgit.lib.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SmtpEmailSenderTest {
+  private static final Address FROM = Address.create("Gerrit", "gerrit@example.com");
+  private static final Address TO = Address.create("User", "user@example.com");
+
+  private FakeSmtpServer server;
+  private AtomicLong nanos;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new FakeSmtpServer();
+    nanos = new AtomicLong();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.close();
+  }
+
+  @Test
+  public void newConnectionPerEmailByDefault() throws Exception {
+    SmtpEmailSender sender = newSender(new Config());
+
+    sender.send(FROM, ImmutableList.of(TO), ImmutableMap.of(), "first");
+    sender.send(FROM, ImmutableList.of(TO), ImmutableMap.of(), "second");
+
+    assertThat(server.messages).hasSize(2);
+    assertThat(server.messages.get(0)).contains("first");
+    assertThat(server.messages.get(1)).contains("second");
+    assertThat(server.connections.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void idleConnectionIsReused() throws Exception {
+    Config cfg = new Config();
+    cfg.setInt("sendemail", null, "maxIdleConnections", 1);
+    SmtpEmailSender sender = newSender(cfg);
+
+    sender.send(FROM, ImmutableList.of(TO), ImmutableMap.of(), "first");
+    sender.send(FROM, ImmutableList.of(TO), ImmutableMap.of(), "second");
+    sender.send(FROM, ImmutableList.of(TO), ImmutableMap.of(), "third");
+
+    assertThat(server.messages).hasSize(3);
+    assertThat(server.messages.get(2)).contains("third");
+    assertThat(server.connections.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void expiredIdleConnectionIsNotReused() throws Exception {
+    Config cfg = new Config();
+    cfg.setInt("sendemail", null, "maxIdleConnections", 1);
+    cfg.setString("sendemail", null, "idleConnectionTimeout", "0");
+    SmtpEmailSender sender = newSender(cfg);
+
+    sender.send(FROM, ImmutableList.of(TO), ImmutableMap.of(), "first");
+    advance(1);
+    sender.send(FROM, ImmutableList.of(TO), ImmutableMap.of(), "second");
+
+    assertThat(server.messages).hasSize(2);
+    assertThat(server.connections.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void expiredIdleConnectionIsClosedWhenAnotherConnectionIsReleased() throws Exception {
+    Config cfg = new Config();
+    cfg.setInt("sendemail", null, "maxIdleConnections", 2);
+    cfg.setString("sendemail", null, "idleConnectionTimeout", "30s");
+    SmtpEmailSender sender = newSender(cfg);
+    sendConcurrently(sender, 2);
+    assertThat(server.connections.get()).isEqualTo(2);
+
+    // Reuses the most recently released connection, the other one stays idle.
+    advance(20);
+    sender.send(FROM, ImmutableList.of(TO), ImmutableMap.of(), "third");
+    assertThat(server.connections.get()).isEqualTo(2);
+    assertThat(server.quits.get()).isEqualTo(0);
+
+    // The other connection is expired by now and is closed when the reused one is released.
+    advance(15);
+    sender.send(FROM, ImmutableList.of(TO), ImmutableMap.of(), "fourth");
+    server.awaitQuits(1);
+
+    sender.send(FROM, ImmutableList.of(TO), ImmutableMap.of(), "fifth");
+    assertThat(server.messages).hasSize(5);
+    assertThat(server.connections.get()).isEqualTo(2);
+    assertThat(server.quits.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void idleConnectionsAreClosedOnStop() throws Exception {
+    Config cfg = new Config();
+    cfg.setInt("sendemail", null, "maxIdleConnections", 2);
+    SmtpEmailSender sender = newSender(cfg);
+    sendConcurrently(sender, 2);
+    assertThat(server.quits.get()).isEqualTo(0);
+
+    sender.stop();
+
+    server.awaitQuits(2);
+  }
+
+  private SmtpEmailSender newSender(Config cfg) {
+    cfg.setString("sendemail", null, "smtpServer", "127.0.0.1");
+    cfg.setInt("sendemail", null, "smtpServerPort", server.getPort());
+    return new SmtpEmailSender(
+        cfg,
+        new DisabledMetricMaker(),
+        new Ticker() {
+          @Override
+          public long read() {
+            return nanos.get();
+          }
+        });
+  }
+
+  private void advance(long seconds) {
+    nanos.addAndGet(SECONDS.toNanos(seconds));
+  }
+
+  /** Sends emails at the same time, so that each of them needs its own connection. */
+  private void sendConcurrently(SmtpEmailSender sender, int count) throws Exception {
+    server.blockData = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(count);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        String body = "concurrent " + i;
+        results.add(
+            executor.submit(
+                () -> {
+                  sender.send(FROM, ImmutableList.of(TO), ImmutableMap.of(), body);
+                  return null;
+                }));
+      }
+      server.awaitConnections(count);
+      server.blockData.countDown();
+      for (Future<?> result : results) {
+        result.get(10, SECONDS);
+      }
+    } finally {
+      server.blockData = null;
+      executor.shutdownNow();
+    }
+  }
+
+  /** Minimal SMTP server that records the messages it receives. */
+  private static class FakeSmtpServer implements AutoCloseable {
+    final List<String> messages = new CopyOnWriteArrayList<>();
+    final AtomicInteger connections = new AtomicInteger();
+    final AtomicInteger quits = new AtomicInteger();
+
+    /** If set, the DATA command isn't answered before the latch is released. */
+    volatile CountDownLatch blockData;
+
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+
+    FakeSmtpServer() throws IOException {
+      serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+      acceptor = new Thread(this::acceptConnections, "FakeSmtpServer");
+      acceptor.setDaemon(true);
+      acceptor.start();
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    void awaitConnections(int count) throws InterruptedException {
+      for (int i = 0; i < 100 && connections.get() < count; i++) {
+        Thread.sleep(100);
+      }
+      assertThat(connections.get()).isEqualTo(count);
+    }
+
+    void awaitQuits(int count) throws InterruptedException {
+      // The client doesn't wait for the server to process the QUIT command.
+      for (int i = 0; i < 100 && quits.get() < count; i++) {
+        Thread.sleep(100);
+      }
+      assertThat(quits.get()).isEqualTo(count);
+    }
+
+    private void acceptConnections() {
+      while (!serverSocket.isClosed()) {
+        try {
+          Socket socket = serverSocket.accept();
+          connections.incrementAndGet();
+          Thread t = new Thread(() -> serve(socket), "FakeSmtpServer-connection");
+          t.setDaemon(true);
+          t.start();
+        } catch (IOException e) {
+          return;
+        }
+      }
+    }
+
+    private void serve(Socket socket) {
+      try (socket;
+          BufferedReader in =
+              new BufferedReader(new InputStreamReader(socket.getInputStream(), US_ASCII));
+          Writer out = new OutputStreamWriter(socket.getOutputStream(), US_ASCII)) {
+        reply(out, "220 localhost ESMTP");
+        String line;
+        while ((line = in.readLine()) != null) {
+          String command =
+              line.length() >= 4 ? line.substring(0, 4).toUpperCase(Locale.ROOT) : line;
+          switch (command) {
+            case "DATA":
+              CountDownLatch latch = blockData;
+              if (latch != null) {
+                Uninterruptibles.awaitUninterruptibly(latch, 10, SECONDS);
+              }
+              reply(out, "354 End data with <CR><LF>.<CR><LF>");
+              StringBuilder message = new StringBuilder();
+              while ((line = in.readLine()) != null && !line.equals(".")) {
+                message.append(line).append('\n');
+              }
+              messages.add(message.toString());
+              reply(out, "250 OK");
+              break;
+            case "QUIT":
+              quits.incrementAndGet();
+              reply(out, "221 Bye");
+              return;
+            default:
+              reply(out, "250 OK");
+              break;
+          }
+        }
+      } catch (IOException e) {
+        // Connection closed by the client.
+      }
+    }
+
+    private static void reply(Writer out, String reply) throws IOException {
+      out.write(reply + "\r\n");
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      serverSocket.close();
+    }
+  }
+}
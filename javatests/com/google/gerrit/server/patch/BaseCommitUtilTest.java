@@ -0,0 +1,206 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.LocalDiskRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.plugincontext.PluginContext;
+import com.google.gerrit.server.plugincontext.PluginMapContext;
+import com.google.gerrit.server.update.RepoView;
+import com.google.gerrit.server.util.IdGenerator;
+import com.google.inject.Guice;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BaseCommitUtilTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private LocalDiskRepositoryManager repoManager;
+  private WorkQueue workQueue;
+  private AutoMerger autoMerger;
+  private BaseCommitUtil baseCommitUtil;
+  private Repository repo;
+  private TestRepository<Repository> testRepo;
+  private RevCommit merge;
+  private String autoMergeRef;
+
+  @Before
+  public void setUp() throws Exception {
+    SitePaths site = new SitePaths(temporaryFolder.newFolder().toPath());
+    site.resolve("git").toFile().mkdir();
+    Config cfg = new Config();
+    cfg.setString("gerrit", null, "basePath", "git");
+    repoManager = new LocalDiskRepositoryManager(site, cfg);
+    PersonIdent serverIdent = new PersonIdent("Gerrit Server", "noreply@gerrit.com");
+    workQueue =
+        new WorkQueue(
+            Guice.createInjector().getInstance(IdGenerator.class),
+            1,
+            new DisabledMetricMaker(),
+            new PluginMapContext<>(
+                DynamicMap.emptyMap(), PluginContext.PluginMetrics.DISABLED_INSTANCE));
+    autoMerger = spy(new AutoMerger(new DisabledMetricMaker(), cfg, () -> serverIdent));
+    baseCommitUtil = new BaseCommitUtil(autoMerger, cfg, repoManager, workQueue);
+
+    repo = repoManager.createRepository(PROJECT);
+    testRepo = new TestRepository<>(repo);
+    RevCommit base = testRepo.commit().add("a.txt", "a").create();
+    RevCommit left = testRepo.commit().parent(base).add("a.txt", "left").create();
+    RevCommit right = testRepo.commit().parent(base).add("b.txt", "right").create();
+    merge = testRepo.branch("master").commit().parent(left).parent(right).create();
+    autoMergeRef = RefNames.refsCacheAutomerge(merge.name());
+  }
+
+  @After
+  public void tearDown() {
+    workQueue.getDefaultQueue().shutdownNow();
+    testRepo.close();
+    repo.close();
+  }
+
+  @Test
+  public void autoMergeRefIsWrittenForMergeCommitWithoutRef() throws Exception {
+    assertThat(repo.exactRef(autoMergeRef)).isNull();
+
+    RevCommit autoMerge = getAutoMerge();
+    awaitRefUpdates();
+
+    assertThat(autoMerge.getFullMessage()).startsWith(AutoMerger.AUTO_MERGE_MSG_PREFIX);
+    assertThat(repo.exactRef(autoMergeRef).getObjectId()).isEqualTo(autoMerge);
+  }
+
+  @Test
+  public void autoMergeRefIsNotWrittenOnReplica() throws Exception {
+    Config cfg = new Config();
+    cfg.setBoolean("container", null, "replica", true);
+    baseCommitUtil = new BaseCommitUtil(autoMerger, cfg, repoManager, workQueue);
+
+    RevCommit autoMerge = getAutoMerge();
+    awaitRefUpdates();
+
+    assertThat(autoMerge.getFullMessage()).startsWith(AutoMerger.AUTO_MERGE_MSG_PREFIX);
+    assertThat(repo.exactRef(autoMergeRef)).isNull();
+  }
+
+  @Test
+  public void autoMergeIsComputedOnce() throws Exception {
+    RevCommit autoMerge = getAutoMerge();
+
+    assertThat(getAutoMerge()).isEqualTo(autoMerge);
+    assertThat(getAutoMerge()).isEqualTo(autoMerge);
+
+    verify(autoMerger, times(1)).createAutoMergeCommit(any(), any(), any());
+  }
+
+  @Test
+  public void concurrentRequestsComputeAutoMergeOnce() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<RevCommit>> results = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        // Every request uses its own repo view and inserter.
+        results.add(executor.submit(this::getAutoMerge));
+      }
+      ObjectId autoMerge = results.get(0).get(10, SECONDS);
+      for (Future<RevCommit> result : results) {
+        assertThat(result.get(10, SECONDS)).isEqualTo(autoMerge);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    verify(autoMerger, times(1)).createAutoMergeCommit(any(), any(), any());
+  }
+
+  @Test
+  public void autoMergeIsNotPrunedByGarbageCollection() throws Exception {
+    RevCommit autoMerge = getAutoMerge();
+    awaitRefUpdates();
+
+    Git.wrap(repo).gc().setExpire(Date.from(Instant.now().plusSeconds(60))).call();
+
+    try (RevWalk rw = new RevWalk(repo)) {
+      assertThat(rw.parseCommit(autoMerge)).isEqualTo(autoMerge);
+    }
+    assertThat(getAutoMerge()).isEqualTo(autoMerge);
+    verify(autoMerger, times(1)).createAutoMergeCommit(any(), any(), any());
+  }
+
+  @Test
+  public void autoMergeRefToMissingObjectIsRepaired() throws Exception {
+    Path ref = repo.getDirectory().toPath().resolve(autoMergeRef);
+    Files.createDirectories(ref.getParent());
+    Files.write(
+        ref, "deadbeefdeadbeefdeadbeefdeadbeefdeadbeef\n".getBytes(StandardCharsets.UTF_8));
+
+    RevCommit autoMerge = getAutoMerge();
+    awaitRefUpdates();
+
+    assertThat(autoMerge.getFullMessage()).startsWith(AutoMerger.AUTO_MERGE_MSG_PREFIX);
+    assertThat(repo.exactRef(autoMergeRef).getObjectId()).isEqualTo(autoMerge);
+  }
+
+  /** Waits until the single thread of the default queue has written the auto-merge refs. */
+  private void awaitRefUpdates() throws Exception {
+    workQueue.getDefaultQueue().submit(() -> {}).get(10, SECONDS);
+  }
+
+  private RevCommit getAutoMerge() throws Exception {
+    try (Repository r = repoManager.openRepository(PROJECT);
+        ObjectInserter ins = r.newObjectInserter();
+        ObjectReader reader = ins.newReader();
+        RevWalk rw = new RevWalk(reader)) {
+      return baseCommitUtil.getBaseCommit(
+          PROJECT, new RepoView(r, rw, ins), ins, merge, /* parentNum= */ null);
+    }
+  }
+}
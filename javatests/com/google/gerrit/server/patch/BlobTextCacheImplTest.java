@@ -0,0 +1,75 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.testing.InMemoryRepositoryManager;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.junit.Test;
+
+public class BlobTextCacheImplTest {
+  private final GitRepositoryManager repositoryManager = new InMemoryRepositoryManager();
+  private final BlobTextCacheImpl cache =
+      new BlobTextCacheImpl(CacheBuilder.newBuilder().maximumSize(10).build());
+
+  @Test
+  public void contentAndLinesAreLoaded() throws Exception {
+    try (Repository repository = repositoryManager.createRepository(Project.nameKey("repo"));
+        TestRepository<Repository> testRepo = new TestRepository<>(repository);
+        ObjectReader reader = repository.newObjectReader()) {
+      RevBlob blob = testRepo.blob("line 1\nline 2\nline 3\n");
+
+      Text text = cache.get(reader, blob);
+
+      assertThat(text.size()).isEqualTo(3);
+      assertThat(text.getString(1)).isEqualTo("line 2");
+    }
+  }
+
+  @Test
+  public void blobIsReadOnlyOnce() throws Exception {
+    try (Repository repository = repositoryManager.createRepository(Project.nameKey("repo"));
+        TestRepository<Repository> testRepo = new TestRepository<>(repository);
+        ObjectReader reader = repository.newObjectReader()) {
+      RevBlob blob = testRepo.blob("content\n");
+
+      Text first = cache.get(reader, blob);
+      Text second = cache.get(reader, blob.copy());
+
+      assertThat(second).isSameInstanceAs(first);
+    }
+  }
+
+  @Test
+  public void missingBlobIsNotCached() throws Exception {
+    try (Repository repository = repositoryManager.createRepository(Project.nameKey("repo"));
+        ObjectReader reader = repository.newObjectReader()) {
+      ObjectId missing = ObjectId.fromString("0123456789012345678901234567890123456789");
+
+      assertThrows(MissingObjectException.class, () -> cache.get(reader, missing));
+      assertThrows(MissingObjectException.class, () -> cache.get(reader, missing));
+    }
+  }
+}
@@ -0,0 +1,245 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.PatchSet;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.RevisionInfo;
+import com.google.gerrit.extensions.events.RevisionCreatedListener;
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.server.PatchSetUtil;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.patch.DiffPrecomputer.Request;
+import com.google.gerrit.server.patch.DiffPrecomputer.Result;
+import com.google.gerrit.server.plugincontext.PluginContext;
+import com.google.gerrit.server.plugincontext.PluginMapContext;
+import com.google.gerrit.server.util.IdGenerator;
+import com.google.gerrit.server.util.OneOffRequestContext;
+import com.google.gerrit.testing.InMemoryRepositoryManager;
+import com.google.inject.Guice;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DiffPrecomputerTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+  private static final Change.Id CHANGE_ID = Change.id(1);
+  private static final String QUEUE = "Diff-Precompute";
+
+  private Config cfg;
+  private WorkQueue workQueue;
+  private InMemoryRepositoryManager repoManager;
+  private TestRepository<Repository> testRepo;
+  private PatchSetUtil psUtil;
+  private DiffOperations diffOperations;
+  private PatchListCache patchListCache;
+  private CountingMetricMaker metricMaker;
+  private RevCommit ps1;
+  private RevCommit ps2;
+
+  @Before
+  public void setUp() throws Exception {
+    cfg = new Config();
+    cfg.setInt("change", null, "diffPrecomputeThreads", 1);
+    workQueue =
+        new WorkQueue(
+            Guice.createInjector().getInstance(IdGenerator.class),
+            1,
+            new DisabledMetricMaker(),
+            new PluginMapContext<>(
+                DynamicMap.emptyMap(), PluginContext.PluginMetrics.DISABLED_INSTANCE));
+    repoManager = new InMemoryRepositoryManager();
+    testRepo = new TestRepository<>(repoManager.createRepository(PROJECT));
+    RevCommit parent = testRepo.commit().add("a.txt", "a").create();
+    ps1 = testRepo.commit().parent(parent).add("a.txt", "b").create();
+    ps2 = testRepo.amend(ps1).add("a.txt", "c").create();
+
+    psUtil = mock(PatchSetUtil.class);
+    when(psUtil.get(any(), any())).thenAnswer(invocation -> patchSet(invocation.getArgument(1)));
+    diffOperations = mock(DiffOperations.class);
+    when(diffOperations.listModifiedFilesAgainstParent(any(), any(), anyInt(), any()))
+        .thenReturn(ImmutableMap.of());
+    when(diffOperations.listModifiedFiles(any(), any(), any(), any(DiffOptions.class)))
+        .thenReturn(ImmutableMap.of());
+    patchListCache = mock(PatchListCache.class);
+    metricMaker = new CountingMetricMaker();
+  }
+
+  @After
+  public void tearDown() {
+    ScheduledThreadPoolExecutor executor = workQueue.getExecutor(QUEUE);
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    testRepo.close();
+  }
+
+  @Test
+  public void diffsOfNewPatchSetArePrecomputed() throws Exception {
+    DiffPrecomputer precomputer = newPrecomputer();
+
+    precomputer.onRevisionCreated(revisionCreated(2));
+    awaitPrecomputations();
+
+    verify(diffOperations).listModifiedFilesAgainstParent(PROJECT, ps2, 0, DiffOptions.DEFAULTS);
+    verify(diffOperations).listModifiedFiles(PROJECT, ps1, ps2, DiffOptions.DEFAULTS);
+    verify(patchListCache).getDiffSummary(any(), any());
+    assertThat(metricMaker.getCount("diff/precompute/results", Result.PRECOMPUTED)).isEqualTo(1);
+  }
+
+  @Test
+  public void diffRequestsAreCountedOncePerPatchSet() throws Exception {
+    DiffPrecomputer precomputer = newPrecomputer();
+    precomputer.onRevisionCreated(revisionCreated(2));
+    awaitPrecomputations();
+
+    // A reviewer requests the diffs of all files of the patch set.
+    precomputer.onDiffRequested(PatchSet.id(CHANGE_ID, 2));
+    precomputer.onDiffRequested(PatchSet.id(CHANGE_ID, 2));
+    precomputer.onDiffRequested(PatchSet.id(CHANGE_ID, 2));
+
+    assertThat(metricMaker.getCount("diff/precompute/requests", Request.WARM)).isEqualTo(1);
+    assertThat(metricMaker.getCount("diff/precompute/requests", Request.COLD)).isEqualTo(0);
+  }
+
+  @Test
+  public void diffRequestOfSkippedPatchSetIsCountedAsCold() throws Exception {
+    cfg.setInt("change", null, "diffPrecomputeMaxTasksPerProject", 0);
+    DiffPrecomputer precomputer = newPrecomputer();
+
+    precomputer.onRevisionCreated(revisionCreated(2));
+    precomputer.onDiffRequested(PatchSet.id(CHANGE_ID, 2));
+    precomputer.onDiffRequested(PatchSet.id(CHANGE_ID, 2));
+
+    verifyNoInteractions(diffOperations);
+    assertThat(metricMaker.getCount("diff/precompute/results", Result.THROTTLED)).isEqualTo(1);
+    assertThat(metricMaker.getCount("diff/precompute/requests", Request.COLD)).isEqualTo(1);
+  }
+
+  @Test
+  public void diffRequestOfUnknownPatchSetIsNotCounted() throws Exception {
+    DiffPrecomputer precomputer = newPrecomputer();
+
+    precomputer.onDiffRequested(PatchSet.id(CHANGE_ID, 2));
+
+    assertThat(metricMaker.getCount("diff/precompute/requests", Request.WARM)).isEqualTo(0);
+    assertThat(metricMaker.getCount("diff/precompute/requests", Request.COLD)).isEqualTo(0);
+  }
+
+  @Test
+  public void nothingIsPrecomputedIfDisabled() throws Exception {
+    cfg.setInt("change", null, "diffPrecomputeThreads", 0);
+    DiffPrecomputer precomputer = newPrecomputer();
+
+    precomputer.onRevisionCreated(revisionCreated(2));
+    precomputer.onDiffRequested(PatchSet.id(CHANGE_ID, 2));
+
+    verifyNoInteractions(diffOperations);
+    assertThat(metricMaker.getCount("diff/precompute/requests", Request.COLD)).isEqualTo(0);
+  }
+
+  private DiffPrecomputer newPrecomputer() {
+    ChangeNotes.Factory notesFactory = mock(ChangeNotes.Factory.class);
+    when(notesFactory.createChecked(PROJECT, CHANGE_ID)).thenReturn(mock(ChangeNotes.class));
+    return new DiffPrecomputer(
+        cfg,
+        workQueue,
+        repoManager,
+        notesFactory,
+        psUtil,
+        diffOperations,
+        patchListCache,
+        mock(BlobTextCache.class),
+        mock(OneOffRequestContext.class),
+        new DiffPrecomputer.Metrics(metricMaker));
+  }
+
+  private void awaitPrecomputations() throws Exception {
+    ScheduledThreadPoolExecutor executor = workQueue.getExecutor(QUEUE);
+    executor.shutdown();
+    assertThat(executor.awaitTermination(10, SECONDS)).isTrue();
+  }
+
+  private PatchSet patchSet(PatchSet.Id psId) {
+    return PatchSet.builder()
+        .id(psId)
+        .commitId(psId.get() == 1 ? ps1 : ps2)
+        .uploader(Account.id(1000))
+        .realUploader(Account.id(1000))
+        .createdOn(Instant.now())
+        .build();
+  }
+
+  private static RevisionCreatedListener.Event revisionCreated(int psNum) {
+    ChangeInfo change = new ChangeInfo();
+    change.project = PROJECT.get();
+    change._number = CHANGE_ID.get();
+    RevisionInfo revision = new RevisionInfo();
+    revision._number = psNum;
+    RevisionCreatedListener.Event event = mock(RevisionCreatedListener.Event.class);
+    when(event.getChange()).thenReturn(change);
+    when(event.getRevision()).thenReturn(revision);
+    return event;
+  }
+
+  private static class CountingMetricMaker extends DisabledMetricMaker {
+    private final Map<String, AtomicLong> counts = new ConcurrentHashMap<>();
+
+    long getCount(String name, Object field) {
+      AtomicLong count = counts.get(name + "/" + field);
+      return count != null ? count.get() : 0;
+    }
+
+    @Override
+    public <F1> Counter1<F1> newCounter(String name, Description desc, Field<F1> field1) {
+      return new Counter1<>() {
+        @Override
+        public void incrementBy(F1 field1, long value) {
+          counts.computeIfAbsent(name + "/" + field1, k -> new AtomicLong()).addAndGet(value);
+        }
+
+        @Override
+        public void remove() {}
+      };
+    }
+  }
+}
@@ -0,0 +1,234 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.Comparator.comparing;
+import static java.util.Comparator.nullsFirst;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.server.patch.GitPositionTransformer.BestPositionOnConflict;
+import com.google.gerrit.server.patch.GitPositionTransformer.FileMapping;
+import com.google.gerrit.server.patch.GitPositionTransformer.Mapping;
+import com.google.gerrit.server.patch.GitPositionTransformer.OmitPositionOnConflict;
+import com.google.gerrit.server.patch.GitPositionTransformer.Position;
+import com.google.gerrit.server.patch.GitPositionTransformer.PositionConflictStrategy;
+import com.google.gerrit.server.patch.GitPositionTransformer.PositionedEntity;
+import com.google.gerrit.server.patch.GitPositionTransformer.Range;
+import com.google.gerrit.server.patch.GitPositionTransformer.RangeMapping;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class GitPositionTransformerTest {
+  private static final String FILE = "file.txt";
+
+  private final GitPositionTransformer transformer =
+      new GitPositionTransformer(BestPositionOnConflict.INSTANCE);
+
+  @Test
+  public void positionBeforeFirstHunkIsNotShifted() {
+    ImmutableList<Position> result =
+        transform(ImmutableList.of(position(2, 4)), mapping(range(10, 12, 10, 15)));
+
+    assertThat(result).containsExactly(position(2, 4));
+  }
+
+  @Test
+  public void positionAfterHunksIsShiftedByLastHunk() {
+    ImmutableList<Position> result =
+        transform(
+            ImmutableList.of(position(30, 31)),
+            mapping(range(10, 12, 10, 15), range(20, 25, 23, 24)));
+
+    assertThat(result).containsExactly(position(29, 30));
+  }
+
+  @Test
+  public void positionBetweenHunksIsShiftedByPrecedingHunk() {
+    ImmutableList<Position> result =
+        transform(
+            ImmutableList.of(position(15, 17)),
+            mapping(range(10, 12, 10, 15), range(20, 25, 23, 24)));
+
+    assertThat(result).containsExactly(position(18, 20));
+  }
+
+  @Test
+  public void positionOverlappingHunkLosesRange() {
+    ImmutableList<Position> result =
+        transform(ImmutableList.of(position(11, 13)), mapping(range(10, 12, 10, 15)));
+
+    assertThat(result).containsExactly(Position.builder().filePath(FILE).build());
+  }
+
+  @Test
+  public void positionWithoutRangeIsKept() {
+    Position fileLevel = Position.builder().filePath(FILE).build();
+
+    ImmutableList<Position> result =
+        transform(ImmutableList.of(fileLevel), mapping(range(10, 12, 10, 15)));
+
+    assertThat(result).containsExactly(fileLevel);
+  }
+
+  @Test
+  public void sameResultsAsLinearScanForRandomEdits() {
+    Random random = new Random(0);
+    for (int i = 0; i < 2000; i++) {
+      boolean overlapping = random.nextInt(4) == 0;
+      ImmutableSet<RangeMapping> ranges =
+          overlapping ? randomOverlappingRanges(random) : randomEditRanges(random);
+      ImmutableList<Position> positions = randomPositions(random);
+      PositionConflictStrategy strategy =
+          random.nextBoolean() ? BestPositionOnConflict.INSTANCE : OmitPositionOnConflict.INSTANCE;
+
+      ImmutableList<Position> actual =
+          transform(
+              new GitPositionTransformer(strategy),
+              positions,
+              Mapping.create(FileMapping.forModifiedFile(FILE), ranges));
+      ImmutableList<Position> expected = shiftByLinearScan(positions, ranges, strategy);
+
+      assertThat(actual).containsExactlyElementsIn(expected).inOrder();
+    }
+  }
+
+  private ImmutableList<Position> transform(List<Position> positions, Mapping mapping) {
+    return transform(transformer, positions, mapping);
+  }
+
+  private static ImmutableList<Position> transform(
+      GitPositionTransformer transformer, List<Position> positions, Mapping mapping) {
+    ImmutableList<PositionedEntity<Position>> entities =
+        positions.stream()
+            .map(p -> PositionedEntity.create(p, pos -> pos, (pos, newPos) -> newPos))
+            .collect(toImmutableList());
+    return transformer.transform(entities, ImmutableSet.of(mapping)).stream()
+        .map(PositionedEntity::getEntityAtUpdatedPosition)
+        .collect(toImmutableList());
+  }
+
+  /** The line shifting as implemented before it was based on binary search. */
+  private static ImmutableList<Position> shiftByLinearScan(
+      List<Position> positions,
+      ImmutableSet<RangeMapping> ranges,
+      PositionConflictStrategy strategy) {
+    ImmutableList<Position> sortedPositions =
+        positions.stream()
+            .sorted(
+                comparing(
+                    (Position p) -> p.lineRange().orElse(null),
+                    nullsFirst(comparing(Range::start).thenComparing(Range::end))))
+            .collect(toImmutableList());
+    ImmutableList<RangeMapping> sortedMappings =
+        ranges.stream()
+            .sorted(
+                comparing(
+                    RangeMapping::oldLineRange,
+                    comparing(Range::start).thenComparing(Range::end)))
+            .collect(toImmutableList());
+
+    int shiftedAmount = 0;
+    int mappingIndex = 0;
+    int positionIndex = 0;
+    List<Position> result = new ArrayList<>();
+    while (positionIndex < sortedPositions.size() && mappingIndex < sortedMappings.size()) {
+      Position position = sortedPositions.get(positionIndex);
+      if (position.lineRange().isPresent()) {
+        Range range = position.lineRange().get();
+        RangeMapping mapping = sortedMappings.get(mappingIndex);
+        if (mapping.oldLineRange().end() <= range.start()) {
+          shiftedAmount = mapping.newLineRange().end() - mapping.oldLineRange().end();
+          mappingIndex++;
+        } else if (range.end() <= mapping.oldLineRange().start()) {
+          result.add(position.shiftBy(shiftedAmount));
+          positionIndex++;
+        } else {
+          strategy.getOnRangeConflict(position).ifPresent(result::add);
+          positionIndex++;
+        }
+      } else {
+        result.add(position);
+        positionIndex++;
+      }
+    }
+    for (int i = positionIndex; i < sortedPositions.size(); i++) {
+      result.add(sortedPositions.get(i).shiftBy(shiftedAmount));
+    }
+    return ImmutableList.copyOf(result);
+  }
+
+  /** Ranges as produced by a diff: sorted, non-overlapping, possibly empty on either side. */
+  private static ImmutableSet<RangeMapping> randomEditRanges(Random random) {
+    ImmutableSet.Builder<RangeMapping> ranges = ImmutableSet.builder();
+    int oldLine = 0;
+    int newLine = 0;
+    int hunks = 1 + random.nextInt(20);
+    for (int i = 0; i < hunks; i++) {
+      int gap = random.nextInt(5);
+      oldLine += gap;
+      newLine += gap;
+      int oldLength = random.nextInt(4);
+      int newLength = random.nextInt(4);
+      ranges.add(range(oldLine, oldLine + oldLength, newLine, newLine + newLength));
+      oldLine += oldLength;
+      newLine += newLength;
+    }
+    return ranges.build();
+  }
+
+  /** Arbitrary ranges, which may overlap and nest. */
+  private static ImmutableSet<RangeMapping> randomOverlappingRanges(Random random) {
+    ImmutableSet.Builder<RangeMapping> ranges = ImmutableSet.builder();
+    int count = 1 + random.nextInt(10);
+    for (int i = 0; i < count; i++) {
+      int oldStart = random.nextInt(50);
+      int newStart = random.nextInt(50);
+      ranges.add(
+          range(oldStart, oldStart + random.nextInt(10), newStart, newStart + random.nextInt(10)));
+    }
+    return ranges.build();
+  }
+
+  private static ImmutableList<Position> randomPositions(Random random) {
+    ImmutableList.Builder<Position> positions = ImmutableList.builder();
+    int count = random.nextInt(15);
+    for (int i = 0; i < count; i++) {
+      if (random.nextInt(8) == 0) {
+        positions.add(Position.builder().filePath(FILE).build());
+      } else {
+        int start = random.nextInt(60);
+        positions.add(position(start, start + random.nextInt(4)));
+      }
+    }
+    return positions.build();
+  }
+
+  private static Mapping mapping(RangeMapping... ranges) {
+    return Mapping.create(FileMapping.forModifiedFile(FILE), ImmutableList.copyOf(ranges));
+  }
+
+  private static RangeMapping range(int oldStart, int oldEnd, int newStart, int newEnd) {
+    return RangeMapping.create(Range.create(oldStart, oldEnd), Range.create(newStart, newEnd));
+  }
+
+  private static Position position(int start, int end) {
+    return Position.builder().filePath(FILE).lineRange(Range.create(start, end)).build();
+  }
+}
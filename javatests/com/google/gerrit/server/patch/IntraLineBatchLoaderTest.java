@@ -0,0 +1,107 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IntraLineBatchLoaderTest {
+  private ExecutorService executor;
+  private IntraLineBatchLoader loader;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newCachedThreadPool();
+    loader = new IntraLineBatchLoader(executor, new Config());
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void batchComputesSameResultsAsSingleFiles() throws Exception {
+    Map<IntraLineDiffKey, IntraLineDiffArgs> batch = new LinkedHashMap<>();
+    batch.put(key(1), args("abc1\n", "def1\n", new Edit(0, 1, 0, 1)));
+    batch.put(key(2), args("start middle end\n", "start middlemiddle end\n", new Edit(0, 1, 0, 1)));
+    batch.put(key(3), args("a\nb\nc\n", "a\nx\nc\n", new Edit(1, 2, 1, 2)));
+
+    ImmutableMap<IntraLineDiffKey, IntraLineDiff> result = loader.load(batch);
+
+    assertThat(result.keySet()).containsExactlyElementsIn(batch.keySet());
+    for (Map.Entry<IntraLineDiffKey, IntraLineDiffArgs> e : batch.entrySet()) {
+      IntraLineDiffArgs args = e.getValue();
+      IntraLineDiff expected =
+          IntraLineLoader.compute(
+              args.aText(), args.bText(), args.edits(), args.editsDueToRebase());
+      IntraLineDiff actual = result.get(e.getKey());
+      assertThat(actual.getStatus()).isEqualTo(IntraLineDiff.Status.EDIT_LIST);
+      assertThat(actual.getEdits()).isEqualTo(expected.getEdits());
+    }
+  }
+
+  @Test
+  public void failedFileIsLeftOutOfResult() throws Exception {
+    Map<IntraLineDiffKey, IntraLineDiffArgs> batch = new LinkedHashMap<>();
+    batch.put(key(1), args("abc1\n", "def1\n", new Edit(0, 1, 0, 1)));
+    // The edit is out of the bounds of the texts.
+    batch.put(key(2), args("abc1\n", "def1\n", new Edit(5, 7, 5, 7)));
+    batch.put(key(3), args("abc1\n", "abc2\n", new Edit(0, 1, 0, 1)));
+
+    ImmutableMap<IntraLineDiffKey, IntraLineDiff> result = loader.load(batch);
+
+    assertThat(result.keySet()).containsExactly(key(1), key(3));
+  }
+
+  @Test
+  public void emptyBatch() throws Exception {
+    assertThat(loader.load(ImmutableMap.of())).isEmpty();
+  }
+
+  private static IntraLineDiffKey key(int i) {
+    return IntraLineDiffKey.create(
+        ObjectId.fromString(String.format("%040x", i)),
+        ObjectId.fromString(String.format("%040x", i + 100)),
+        Whitespace.IGNORE_NONE);
+  }
+
+  private static IntraLineDiffArgs args(String a, String b, Edit lines) {
+    return IntraLineDiffArgs.create(
+        new Text(a.getBytes(UTF_8)),
+        new Text(b.getBytes(UTF_8)),
+        ImmutableList.of(lines),
+        ImmutableSet.of(),
+        Project.nameKey("project"),
+        ObjectId.zeroId(),
+        "file.txt");
+  }
+}
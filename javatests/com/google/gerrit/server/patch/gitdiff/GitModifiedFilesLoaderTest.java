@@ -0,0 +1,194 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.patch.gitdiff;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.Patch.ChangeType;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.testing.InMemoryRepositoryManager;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.junit.Test;
+
+public class GitModifiedFilesLoaderTest {
+  private static final String CONTENT = "line 1\nline 2\nline 3\nline 4\nline 5\nline 6\n";
+
+  private final GitRepositoryManager repositoryManager = new InMemoryRepositoryManager();
+
+  @Test
+  public void renameIsNotDetectedByDefault() throws Exception {
+    try (Repository repository = repositoryManager.createRepository(Project.nameKey("repo"));
+        TestRepository<Repository> testRepo = new TestRepository<>(repository);
+        ObjectReader reader = repository.newObjectReader()) {
+      RevTree a = testRepo.tree(testRepo.file("old.txt", testRepo.blob(CONTENT)));
+      RevTree b = testRepo.tree(testRepo.file("new.txt", testRepo.blob(CONTENT)));
+
+      ImmutableList<ModifiedFile> files =
+          new GitModifiedFilesLoader().load(repository.getConfig(), reader, a, b);
+
+      assertThat(files.stream().map(ModifiedFile::changeType))
+          .containsExactly(ChangeType.ADDED, ChangeType.DELETED);
+    }
+  }
+
+  @Test
+  public void contentRenameIsDetected() throws Exception {
+    try (Repository repository = repositoryManager.createRepository(Project.nameKey("repo"));
+        TestRepository<Repository> testRepo = new TestRepository<>(repository);
+        ObjectReader reader = repository.newObjectReader()) {
+      RevTree a = testRepo.tree(testRepo.file("old.txt", testRepo.blob(CONTENT)));
+      RevTree b = testRepo.tree(testRepo.file("new.txt", testRepo.blob(CONTENT + "line 7\n")));
+
+      ImmutableList<ModifiedFile> files =
+          new GitModifiedFilesLoader()
+              .withRenameDetection(60)
+              .withRenameDetectionTimeout(60_000)
+              .load(repository.getConfig(), reader, a, b);
+
+      assertRenamed(files);
+    }
+  }
+
+  @Test
+  public void exactRenameIsDetectedWithTimeout() throws Exception {
+    try (Repository repository = repositoryManager.createRepository(Project.nameKey("repo"));
+        TestRepository<Repository> testRepo = new TestRepository<>(repository);
+        ObjectReader reader = repository.newObjectReader()) {
+      RevTree a = testRepo.tree(testRepo.file("old.txt", testRepo.blob(CONTENT)));
+      RevTree b = testRepo.tree(testRepo.file("new.txt", testRepo.blob(CONTENT)));
+
+      ImmutableList<ModifiedFile> files =
+          new GitModifiedFilesLoader()
+              .withRenameDetection(60)
+              .withRenameDetectionTimeout(1)
+              .load(repository.getConfig(), reader, a, b);
+
+      assertRenamed(files);
+    }
+  }
+
+  @Test
+  public void exactRenameIsDetectedWhenTimeoutIsExceeded() throws Exception {
+    try (Repository repository = repositoryManager.createRepository(Project.nameKey("repo"));
+        TestRepository<Repository> testRepo = new TestRepository<>(repository);
+        ObjectReader reader = repository.newObjectReader()) {
+      RevTree a = testRepo.tree(testRepo.file("old.txt", testRepo.blob(CONTENT)));
+      RevTree b = testRepo.tree(testRepo.file("new.txt", testRepo.blob(CONTENT)));
+
+      GitModifiedFilesLoader loader =
+          new GitModifiedFilesLoader()
+              .withRenameDetection(60)
+              .withRenameDetectionTimeout(1)
+              .withTicker(advancingTicker());
+      ImmutableList<ModifiedFile> files = loader.load(repository.getConfig(), reader, a, b);
+
+      assertThat(loader.hasRenameDetectionTimedOut()).isTrue();
+      assertRenamed(files);
+    }
+  }
+
+  @Test
+  public void contentRenameIsNotDetectedWhenTimeoutIsExceeded() throws Exception {
+    try (Repository repository = repositoryManager.createRepository(Project.nameKey("repo"));
+        TestRepository<Repository> testRepo = new TestRepository<>(repository);
+        ObjectReader reader = repository.newObjectReader()) {
+      RevTree a = testRepo.tree(testRepo.file("old.txt", testRepo.blob(CONTENT)));
+      RevTree b = testRepo.tree(testRepo.file("new.txt", testRepo.blob(CONTENT + "line 7\n")));
+
+      GitModifiedFilesLoader loader =
+          new GitModifiedFilesLoader()
+              .withRenameDetection(60)
+              .withRenameDetectionTimeout(1)
+              .withTicker(advancingTicker());
+      ImmutableList<ModifiedFile> files = loader.load(repository.getConfig(), reader, a, b);
+
+      assertThat(loader.hasRenameDetectionTimedOut()).isTrue();
+      assertThat(files.stream().map(ModifiedFile::changeType))
+          .containsExactly(ChangeType.ADDED, ChangeType.DELETED);
+    }
+  }
+
+  @Test
+  public void resultIsNotCachedWhenTimeoutIsExceeded() throws Exception {
+    Project.NameKey project = Project.nameKey("repo");
+    try (Repository repository = repositoryManager.createRepository(project);
+        TestRepository<Repository> testRepo = new TestRepository<>(repository)) {
+      RevTree a = testRepo.tree(testRepo.file("old.txt", testRepo.blob(CONTENT)));
+      RevTree b = testRepo.tree(testRepo.file("new.txt", testRepo.blob(CONTENT + "line 7\n")));
+      GitModifiedFilesCacheKey key =
+          GitModifiedFilesCacheKey.builder()
+              .project(project)
+              .aTree(a)
+              .bTree(b)
+              .renameScore(60)
+              .build();
+      Config cfg = new Config();
+      cfg.setString("cache", "git_modified_files", "renameDetectionTimeout", "1 ms");
+
+      LoadingCache<GitModifiedFilesCacheKey, ImmutableList<ModifiedFile>> timingOutCache =
+          CacheBuilder.newBuilder()
+              .build(
+                  new GitModifiedFilesCacheImpl.Loader(
+                      repositoryManager, cfg, advancingTicker()));
+      RenameDetectionTimeoutException thrown =
+          assertThrows(
+              RenameDetectionTimeoutException.class,
+              () -> new GitModifiedFilesCacheImpl(timingOutCache).get(key));
+      assertThat(thrown.getModifiedFiles().stream().map(ModifiedFile::changeType))
+          .containsExactly(ChangeType.ADDED, ChangeType.DELETED);
+      assertThat(timingOutCache.asMap()).isEmpty();
+
+      LoadingCache<GitModifiedFilesCacheKey, ImmutableList<ModifiedFile>> cache =
+          CacheBuilder.newBuilder()
+              .build(
+                  new GitModifiedFilesCacheImpl.Loader(
+                      repositoryManager, new Config(), Ticker.systemTicker()));
+      assertRenamed(new GitModifiedFilesCacheImpl(cache).get(key));
+      assertThat(cache.asMap()).containsKey(key);
+    }
+  }
+
+  /** Returns a ticker that advances by a second on every read, so that any timeout is exceeded. */
+  private static Ticker advancingTicker() {
+    AtomicLong nanos = new AtomicLong();
+    return new Ticker() {
+      @Override
+      public long read() {
+        return nanos.addAndGet(SECONDS.toNanos(1));
+      }
+    };
+  }
+
+  private static void assertRenamed(ImmutableList<ModifiedFile> files) {
+    assertThat(files).hasSize(1);
+    ModifiedFile file = files.get(0);
+    assertThat(file.changeType()).isEqualTo(ChangeType.RENAMED);
+    assertThat(file.oldPath()).isEqualTo(Optional.of("old.txt"));
+    assertThat(file.newPath()).isEqualTo(Optional.of("new.txt"));
+  }
+}
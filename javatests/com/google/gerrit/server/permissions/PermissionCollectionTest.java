@@ -0,0 +1,138 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.AccessSection;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.project.CompiledSectionMatcher;
+import com.google.gerrit.server.project.RefPatternMatcher;
+import com.google.gerrit.server.project.SectionMatcher;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PermissionCollectionTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+
+  private Cache<PermissionCollection.Key, PermissionCollection> cache;
+  private PermissionCollection.Factory factory;
+  private CurrentUser user;
+
+  @Before
+  public void setUp() {
+    cache = CacheBuilder.newBuilder().build();
+    factory =
+        new PermissionCollection.Factory(
+            new SectionSortCache(CacheBuilder.newBuilder().build()),
+            cache,
+            new DisabledMetricMaker());
+    user = mock(CurrentUser.class);
+    when(user.getUserName()).thenReturn(Optional.of("jdoe"));
+  }
+
+  @Test
+  public void collectionIsSharedForSameRevisions() {
+    PermissionCollection first =
+        factory.filter(compile(Optional.of(ImmutableList.of("project@1"))), "refs/heads/a", user);
+    PermissionCollection second =
+        factory.filter(compile(Optional.of(ImmutableList.of("project@1"))), "refs/heads/a", user);
+    assertThat(second).isSameInstanceAs(first);
+    assertThat(cache.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void collectionIsNotSharedForOtherRevisionsOrRefs() {
+    PermissionCollection first =
+        factory.filter(compile(Optional.of(ImmutableList.of("project@1"))), "refs/heads/a", user);
+    assertThat(
+            factory.filter(
+                compile(Optional.of(ImmutableList.of("project@2"))), "refs/heads/a", user))
+        .isNotSameInstanceAs(first);
+    assertThat(
+            factory.filter(
+                compile(Optional.of(ImmutableList.of("project@1"))), "refs/heads/b", user))
+        .isNotSameInstanceAs(first);
+  }
+
+  @Test
+  public void cachedCollectionIsFoundWithoutCompilingSections() {
+    Optional<ImmutableList<String>> revisions = Optional.of(ImmutableList.of("project@1"));
+    PermissionCollection first = factory.filter(compile(revisions), "refs/heads/a", user);
+
+    PermissionCollection second =
+        factory.filter(
+            revisions,
+            () -> {
+              throw new AssertionError("sections must not be compiled");
+            },
+            "refs/heads/a",
+            user);
+
+    assertThat(second).isSameInstanceAs(first);
+  }
+
+  @Test
+  public void collectionIsCachedByRevisionsOfCompiledSections() {
+    // The project was updated between reading the revisions and compiling the sections.
+    PermissionCollection collection =
+        factory.filter(
+            Optional.of(ImmutableList.of("project@1")),
+            () -> compile(Optional.of(ImmutableList.of("project@2"))),
+            "refs/heads/a",
+            user);
+
+    assertThat(cache.asMap().keySet())
+        .containsExactly(
+            PermissionCollection.Key.create(ImmutableList.of("project@2"), "refs/heads/a"));
+    assertThat(cache.asMap().values()).containsExactly(collection);
+  }
+
+  @Test
+  public void collectionWithoutRevisionsIsNotCached() {
+    factory.filter(compile(Optional.empty()), "refs/heads/a", user);
+    assertThat(cache.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void perUserCollectionIsNotCached() {
+    PermissionCollection collection =
+        factory.filter(
+            compile(Optional.of(ImmutableList.of("project@1"))),
+            "refs/heads/sandbox/jdoe/topic",
+            user);
+    assertThat(collection.isUserSpecific()).isTrue();
+    assertThat(cache.size()).isEqualTo(0);
+  }
+
+  private static CompiledSectionMatcher compile(Optional<ImmutableList<String>> revisions) {
+    return CompiledSectionMatcher.compile(
+        ImmutableList.of(section("refs/heads/*"), section("refs/heads/sandbox/${username}/*")),
+        revisions);
+  }
+
+  private static SectionMatcher section(String name) {
+    AccessSection section = AccessSection.create(name);
+    return new SectionMatcher(PROJECT, section, RefPatternMatcher.getMatcher(section));
+  }
+}
@@ -53,6 +53,7 @@ import com.google.gerrit.server.config.AllProjectsName;
 import com.google.gerrit.server.config.AllUsersName;
 import com.google.gerrit.server.git.meta.MetaDataUpdate;
 import com.google.gerrit.server.index.SingleVersionModule.SingleVersionListener;
+import com.google.gerrit.server.project.CompiledSectionMatcher;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.project.ProjectConfig;
 import com.google.gerrit.server.project.ProjectState;
@@ -258,6 +259,34 @@ public class RefControlTest {
     var unused = requestContext.setContext(null);
   }
 
+  @Test
+  public void compiledSectionsAreSharedUntilParentIsUpdated() throws Exception {
+    projectOperations
+        .project(parentKey)
+        .forUpdate()
+        .add(allow(READ).ref("refs/*").group(DEVS))
+        .update();
+    projectOperations
+        .project(localKey)
+        .forUpdate()
+        .add(allow(PUSH).ref("refs/heads/*").group(DEVS))
+        .update();
+
+    ProjectState state = getProjectState(localKey);
+    CompiledSectionMatcher matcher = state.getAllSectionsMatcher();
+    // The project cache creates a new project state on every lookup.
+    ProjectState otherState = getProjectState(localKey);
+    assertThat(otherState).isNotSameInstanceAs(state);
+    assertThat(otherState.getAllSectionsMatcher()).isSameInstanceAs(matcher);
+
+    projectOperations
+        .project(parentKey)
+        .forUpdate()
+        .add(allow(SUBMIT).ref("refs/heads/*").group(DEVS))
+        .update();
+    assertThat(getProjectState(localKey).getAllSectionsMatcher()).isNotSameInstanceAs(matcher);
+  }
+
   @Test
   public void ownerProject() throws Exception {
     projectOperations
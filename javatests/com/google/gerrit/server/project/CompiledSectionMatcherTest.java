@@ -0,0 +1,154 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static com.google.gerrit.server.project.RefPatternMatcher.literalPrefix;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.entities.AccessSection;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.CurrentUser;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompiledSectionMatcherTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+
+  private static final ImmutableList<String> PATTERNS =
+      ImmutableList.of(
+          "refs/*",
+          "refs/heads/*",
+          "refs/heads/master",
+          "refs/heads/stable-3.9",
+          "refs/tags/*",
+          "^refs/heads/stable-[0-9]+\\.[0-9]+",
+          "^refs/heads/(master|main)",
+          "^refs/heads/fo?o/.*",
+          "^refs/heads/.*/bar",
+          "^refs/.*",
+          "refs/heads/sandbox/${username}/*",
+          "^refs/heads/users/${username}-.*",
+          "refs/meta/config",
+          "refs/heads/master");
+
+  private static final ImmutableList<String> REFS =
+      ImmutableList.of(
+          "refs/heads/master",
+          "refs/heads/main",
+          "refs/heads/stable-3.9",
+          "refs/heads/stable-3.10",
+          "refs/heads/foo/baz",
+          "refs/heads/fo/baz",
+          "refs/heads/x/bar",
+          "refs/heads/sandbox/jdoe/topic",
+          "refs/heads/sandbox/other/topic",
+          "refs/heads/users/jdoe-topic",
+          "refs/tags/v1.0",
+          "refs/meta/config",
+          "refs/",
+          "refs",
+          "^refs/heads/stable-[0-9]+\\.[0-9]+",
+          "^refs/heads/sandbox/${username}/.*");
+
+  private CurrentUser user;
+  private List<SectionMatcher> sections;
+  private CompiledSectionMatcher compiled;
+
+  @Before
+  public void setUp() {
+    user = mock(CurrentUser.class);
+    when(user.getUserName()).thenReturn(Optional.of("jdoe"));
+    sections = new ArrayList<>();
+    for (String pattern : PATTERNS) {
+      sections.add(SectionMatcher.wrap(PROJECT, AccessSection.create(pattern)));
+    }
+    compiled = CompiledSectionMatcher.compile(sections);
+  }
+
+  @Test
+  public void matchesSameSectionsAsEvaluatingEachSection() {
+    for (String ref : REFS) {
+      List<SectionMatcher> actual = new ArrayList<>();
+      boolean perUser = compiled.match(ref, user, actual::add);
+
+      List<SectionMatcher> expected = new ArrayList<>();
+      boolean expectedPerUser = false;
+      for (SectionMatcher sm : sections) {
+        if (sm.getMatcher() instanceof RefPatternMatcher.ExpandParameters) {
+          if (((RefPatternMatcher.ExpandParameters) sm.getMatcher()).matchPrefix(ref)) {
+            expectedPerUser = true;
+            if (sm.match(ref, user)) {
+              expected.add(sm);
+            }
+          }
+        } else if (sm.match(ref, null)) {
+          expected.add(sm);
+        }
+      }
+
+      assertWithMessage(ref).that(actual).containsExactlyElementsIn(expected).inOrder();
+      assertWithMessage(ref).that(perUser).isEqualTo(expectedPerUser);
+    }
+  }
+
+  @Test
+  public void perUserSectionsOnlyMatchTheirOwnRefs() {
+    List<SectionMatcher> matched = new ArrayList<>();
+    assertThat(compiled.match("refs/heads/sandbox/jdoe/topic", user, matched::add)).isTrue();
+    assertThat(names(matched)).contains("refs/heads/sandbox/${username}/*");
+
+    matched.clear();
+    assertThat(compiled.match("refs/heads/sandbox/other/topic", user, matched::add)).isTrue();
+    assertThat(names(matched)).doesNotContain("refs/heads/sandbox/${username}/*");
+
+    matched.clear();
+    assertThat(compiled.match("refs/tags/v1.0", user, matched::add)).isFalse();
+    assertThat(names(matched)).containsExactly("refs/*", "refs/tags/*", "^refs/.*").inOrder();
+  }
+
+  @Test
+  public void isCompiledFromSameMatchers() {
+    assertThat(compiled.isCompiledFrom(new ArrayList<>(sections))).isTrue();
+
+    List<SectionMatcher> other = new ArrayList<>(sections);
+    other.set(0, SectionMatcher.wrap(PROJECT, AccessSection.create("refs/*")));
+    assertThat(compiled.isCompiledFrom(other)).isFalse();
+    assertThat(compiled.isCompiledFrom(sections.subList(1, sections.size()))).isFalse();
+  }
+
+  @Test
+  public void literalPrefixOfRegularExpressions() {
+    assertThat(literalPrefix("^refs/heads/stable-[0-9]+")).isEqualTo("refs/heads/stable-");
+    assertThat(literalPrefix("^refs/heads/ab?c")).isEqualTo("refs/heads/a");
+    assertThat(literalPrefix("^refs/heads/ab*c")).isEqualTo("refs/heads/a");
+    assertThat(literalPrefix("^refs/heads/ab{0,2}")).isEqualTo("refs/heads/a");
+    assertThat(literalPrefix("^refs/heads/ab+")).isEqualTo("refs/heads/ab");
+    assertThat(literalPrefix("^refs/heads/\\d+")).isEqualTo("refs/heads/");
+    assertThat(literalPrefix("^refs/heads/a|refs/tags/b")).isEmpty();
+    assertThat(literalPrefix("^(?i)refs/heads/a")).isEmpty();
+  }
+
+  private static ImmutableList<String> names(List<SectionMatcher> matchers) {
+    return matchers.stream().map(sm -> sm.getSection().getName()).collect(toImmutableList());
+  }
+}
@@ -0,0 +1,97 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.quota;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.gerrit.server.quota.AdaptiveConcurrencyLimiter.Permit;
+import com.google.gerrit.server.quota.AdaptiveConcurrencyLimiter.Priority;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimiterTest {
+  private final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 20, 0.5, 2);
+
+  @Test
+  public void lowPriorityRequestsAreShedFirst() {
+    for (int i = 0; i < 10; i++) {
+      assertThat(limiter.tryAcquire(Priority.LOW)).isPresent();
+    }
+    assertThat(limiter.tryAcquire(Priority.LOW)).isEmpty();
+
+    for (int i = 0; i < 10; i++) {
+      assertThat(limiter.tryAcquire(Priority.HIGH)).isPresent();
+    }
+    assertThat(limiter.tryAcquire(Priority.HIGH)).isEmpty();
+    assertThat(limiter.getInFlight()).isEqualTo(20);
+  }
+
+  @Test
+  public void releasingTwiceHasNoEffect() {
+    Permit permit = limiter.tryAcquire(Priority.HIGH).get();
+    limiter.tryAcquire(Priority.HIGH).get();
+
+    permit.release(MILLISECONDS.toNanos(1));
+    permit.release(MILLISECONDS.toNanos(1));
+
+    assertThat(limiter.getInFlight()).isEqualTo(1);
+  }
+
+  @Test
+  public void limitShrinksWhenRequestsGetSlowerAndRecovers() {
+    for (int i = 0; i < 50; i++) {
+      runAtLimit(1);
+    }
+    assertThat(limiter.getLimit()).isEqualTo(20);
+
+    for (int i = 0; i < 5; i++) {
+      runAtLimit(100);
+    }
+    assertThat(limiter.getLimit()).isLessThan(10);
+    assertThat(limiter.getLimit()).isAtLeast(2);
+
+    for (int i = 0; i < 50; i++) {
+      runAtLimit(1);
+    }
+    assertThat(limiter.getLimit()).isEqualTo(20);
+  }
+
+  @Test
+  public void limitIsKeptWhileServerIsNotLoaded() {
+    for (int i = 0; i < 50; i++) {
+      runAtLimit(1);
+    }
+
+    for (int i = 0; i < 100; i++) {
+      limiter.tryAcquire(Priority.HIGH).get().release(MILLISECONDS.toNanos(100));
+    }
+
+    assertThat(limiter.getLimit()).isEqualTo(20);
+  }
+
+  /** Admits as many requests as the limit allows and completes them with the given latency. */
+  private void runAtLimit(long latencyMillis) {
+    List<Permit> permits = new ArrayList<>();
+    for (Optional<Permit> p = limiter.tryAcquire(Priority.HIGH);
+        p.isPresent();
+        p = limiter.tryAcquire(Priority.HIGH)) {
+      permits.add(p.get());
+    }
+    permits.forEach(p -> p.release(MILLISECONDS.toNanos(latencyMillis)));
+  }
+}
@@ -18,11 +18,15 @@ import static com.google.common.truth.Truth.assertThat;
 import static java.util.Comparator.comparing;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyShort;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.truth.Correspondence;
 import com.google.gerrit.entities.Account;
@@ -82,6 +86,7 @@ public class CommentPorterTest {
             any(Project.NameKey.class),
             any(ObjectId.class),
             any(ObjectId.class),
+            any(),
             any(DiffOptions.class)))
         .thenThrow(DiffNotAvailableException.class);
     ImmutableList<HumanComment> portedComments =
@@ -108,6 +113,7 @@ public class CommentPorterTest {
             any(Project.NameKey.class),
             any(ObjectId.class),
             any(ObjectId.class),
+            any(),
             any(DiffOptions.class)))
         .thenThrow(IllegalStateException.class);
     ImmutableList<HumanComment> portedComments =
@@ -154,6 +160,7 @@ public class CommentPorterTest {
             any(Project.NameKey.class),
             any(ObjectId.class),
             any(ObjectId.class),
+            any(),
             any(DiffOptions.class)))
         .thenThrow(IllegalStateException.class);
     ImmutableList<HumanComment> portedComments =
@@ -180,12 +187,13 @@ public class CommentPorterTest {
     HumanComment comment1 = createComment(patchset1.id(), "myFile");
     HumanComment comment2 = createComment(patchset2.id(), "myFile");
     when(commentsUtil.determineCommitId(any(), any(), anyShort()))
-        .thenReturn(Optional.of(dummyObjectId));
+        .thenAnswer(invocation -> Optional.of(invocation.<PatchSet>getArgument(1).commitId()));
     // Throw an exception on the first diff request but return an actual value on the second.
     when(diffOperations.listModifiedFiles(
             any(Project.NameKey.class),
             any(ObjectId.class),
             any(ObjectId.class),
+            any(),
             any(DiffOptions.class)))
         .thenThrow(IllegalStateException.class)
         .thenReturn(ImmutableMap.of());
@@ -198,6 +206,47 @@ public class CommentPorterTest {
     assertThat(portedComments).comparingElementsUsing(hasFilePath()).contains("myFile");
   }
 
+  @Test
+  public void diffIsComputedOnceForPatchsetsWithSameCommits() throws Exception {
+    Project.NameKey project = Project.nameKey("myProject");
+    Change.Id changeId = Change.id(1);
+    Change change = createChange(project, changeId);
+    PatchSet patchset1 = createPatchset(PatchSet.id(changeId, 1));
+    PatchSet patchset2 = createPatchset(PatchSet.id(changeId, 2));
+    PatchSet patchset3 = createPatchset(PatchSet.id(changeId, 3));
+    ChangeNotes changeNotes = mockChangeNotes(project, change, patchset1, patchset2, patchset3);
+
+    CommentPorter commentPorter = new CommentPorter(diffOperations, commentsUtil, metrics);
+    // Comments on the parent side of patchsets which weren't rebased.
+    HumanComment comment1 = createComment(patchset1.id(), "myFile");
+    comment1.side = 0;
+    HumanComment comment2 = createComment(patchset2.id(), "otherFile");
+    comment2.side = 0;
+    when(commentsUtil.determineCommitId(any(), any(), anyShort()))
+        .thenReturn(Optional.of(dummyObjectId));
+    when(diffOperations.listModifiedFiles(
+            any(Project.NameKey.class),
+            any(ObjectId.class),
+            any(ObjectId.class),
+            any(),
+            any(DiffOptions.class)))
+        .thenReturn(ImmutableMap.of());
+    ImmutableList<HumanComment> portedComments =
+        commentPorter.portComments(
+            changeNotes, patchset3, ImmutableList.of(comment1, comment2), ImmutableList.of());
+
+    assertThat(portedComments)
+        .comparingElementsUsing(hasFilePath())
+        .containsExactly("myFile", "otherFile");
+    verify(diffOperations, times(1))
+        .listModifiedFiles(
+            eq(project),
+            eq(dummyObjectId),
+            eq(dummyObjectId),
+            eq(ImmutableSet.of("myFile", "otherFile")),
+            any(DiffOptions.class));
+  }
+
   @Test
   public void commentsWithInvalidPatchsetsAreIgnored() throws Exception {
     Project.NameKey project = Project.nameKey("myProject");
@@ -216,6 +265,7 @@ public class CommentPorterTest {
             any(Project.NameKey.class),
             any(ObjectId.class),
             any(ObjectId.class),
+            any(),
             any(DiffOptions.class)))
         .thenReturn(ImmutableMap.of());
     ImmutableList<HumanComment> portedComments =
@@ -237,7 +287,7 @@ public class CommentPorterTest {
   private PatchSet createPatchset(PatchSet.Id id) {
     return PatchSet.builder()
         .id(id)
-        .commitId(dummyObjectId)
+        .commitId(ObjectId.fromString(String.format("%040x", id.get())))
         .uploader(Account.id(123))
         .realUploader(Account.id(456))
         .createdOn(Instant.ofEpochMilli(12345))
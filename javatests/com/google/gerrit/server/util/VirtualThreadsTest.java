@@ -0,0 +1,50 @@
+// Copyright (C) 2024 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.TruthJUnit.assume;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+
+import org.junit.Test;
+
+public class VirtualThreadsTest {
+  @Test
+  public void virtualThreadsAreSupportedAsOfJava21() {
+    assertThat(VirtualThreads.isSupported()).isEqualTo(Runtime.version().feature() >= 21);
+  }
+
+  @Test
+  public void threadFactoryCreatesVirtualThreads() throws Exception {
+    assume().that(VirtualThreads.isSupported()).isTrue();
+
+    Thread t = VirtualThreads.newThreadFactory().newThread(() -> {});
+
+    assertThat(isVirtual(t)).isTrue();
+    assertThat(t.isDaemon()).isTrue();
+  }
+
+  @Test
+  public void threadFactoryCannotBeCreatedWithoutVirtualThreads() {
+    assume().that(VirtualThreads.isSupported()).isFalse();
+
+    assertThrows(IllegalStateException.class, VirtualThreads::newThreadFactory);
+  }
+
+  /** Returns whether the thread is virtual, must only be called on Java 21 or newer. */
+  private static boolean isVirtual(Thread t) throws Exception {
+    return (boolean) Thread.class.getMethod("isVirtual").invoke(t);
+  }
+}